@@ -0,0 +1,17 @@
+CREATE TABLE rawrepo_outbox(
+   id BIGSERIAL PRIMARY KEY,
+   bibliographicrecordid VARCHAR(64) NOT NULL,
+   agencyid INTEGER NOT NULL,
+   provider VARCHAR(64) NOT NULL,
+   changed_record BOOLEAN NOT NULL,
+   changed BOOLEAN NOT NULL,
+   leaf BOOLEAN NOT NULL,
+   priority INTEGER NOT NULL,
+   created_dtm timestamp DEFAULT current_timestamp NOT NULL,
+   next_attempt_dtm timestamp DEFAULT current_timestamp NOT NULL,
+   attempts INTEGER DEFAULT 0 NOT NULL,
+   last_error TEXT
+);
+
+CREATE INDEX rawrepo_outbox_record_idx ON rawrepo_outbox(bibliographicrecordid, agencyid, id);
+CREATE INDEX rawrepo_outbox_next_attempt_idx ON rawrepo_outbox(next_attempt_dtm);
@@ -0,0 +1,6 @@
+CREATE TABLE number_roll_pool(
+   roll_name VARCHAR(64) NOT NULL,
+   roll_number VARCHAR(20) NOT NULL,
+   created_dtm timestamp DEFAULT current_timestamp NOT NULL,
+   PRIMARY KEY( roll_name, roll_number )
+);
@@ -0,0 +1,118 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marcxmerge.MarcXChangeMimeType;
+import dk.dbc.rawrepo.Record;
+import dk.dbc.rawrepo.RecordId;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
+
+import java.lang.reflect.Field;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fixtures shared by the benchmarks.
+ * <p/>
+ * RawRepo and vipcore are replaced by in-memory stubs instead of Mockito mocks, as a mock remembers every invocation
+ * and would both skew the allocation numbers and slowly fill the heap during a long measurement.
+ */
+final class BenchmarkSupport {
+    static final String NATIONAL_COMMON_RECORD = AssertActionsUtil.NATIONAL_COMMON_RECORD;
+    static final String COMMON_MAIN_RECORD = AssertActionsUtil.COMMON_MAIN_RECORD_RESOURCE;
+    static final String AUTHORITY_LINKED_RECORD = "preprocessing/isbn-previous-version/test-3-rawrepo-54948441-870970.marc";
+
+    private BenchmarkSupport() {
+    }
+
+    static MarcRecord loadRecord(String resource) throws Exception {
+        return AssertActionsUtil.loadRecord(resource);
+    }
+
+    /**
+     * The authority records which are referred to from {@link #AUTHORITY_LINKED_RECORD}.
+     */
+    static Map<String, MarcRecord> loadAuthorityRecords() throws UpdateException {
+        final Map<String, MarcRecord> result = new HashMap<>();
+        result.put("68706564", UpdateRecordContentTransformer.readRecordFromString(
+                "001 00 *a 68706564 *b 870979 *c 20181003123648 *d 20181003 *f a\n" +
+                        "004 00 *r n *a e *x n\n" +
+                        "100 00 *a Söderberg *h Hjalmar\n" +
+                        "400 00 *a Soderberg *h Hjalmar\n" +
+                        "996 00 *a DBCAUT\n"));
+        result.put("68715288", UpdateRecordContentTransformer.readRecordFromString(
+                "001 00 *a 68715288 *b 870979 *c 20181003123648 *d 20181003 *f a\n" +
+                        "004 00 *r n *a e *x n\n" +
+                        "100 00 *a Tejn *h Michael\n" +
+                        "996 00 *a DBCAUT\n"));
+
+        return result;
+    }
+
+    /**
+     * Sets a private (usually injected) field of a bean.
+     */
+    static void inject(Object bean, String fieldName, Object value) throws ReflectiveOperationException {
+        final Field field = bean.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(bean, value);
+    }
+
+    /**
+     * RawRepo answering from records kept in memory.
+     */
+    static class StubRawRepo extends RawRepo {
+        private final Map<RecordId, Record> records = new HashMap<>();
+        private final Map<RecordId, Map<String, MarcRecord>> collections = new HashMap<>();
+
+        void addRecord(MarcRecord marcRecord) throws Exception {
+            final Record record = AssertActionsUtil.createRawRepoRecord(marcRecord, MarcXChangeMimeType.MARCXCHANGE);
+            records.put(AssertActionsUtil.getRecordId(marcRecord), record);
+        }
+
+        void addRecordCollection(MarcRecord marcRecord, Map<String, MarcRecord> collection) {
+            collections.put(AssertActionsUtil.getRecordId(marcRecord), collection);
+        }
+
+        @Override
+        public boolean recordExists(String recordId, int agencyId) {
+            return records.containsKey(new RecordId(recordId, agencyId));
+        }
+
+        @Override
+        public Record fetchRecord(String bibliographicRecordId, int agencyId) {
+            return records.get(new RecordId(bibliographicRecordId, agencyId));
+        }
+
+        /**
+         * Like the real RawRepo every call returns new record instances, so the caller is free to modify them.
+         */
+        @Override
+        public Map<String, MarcRecord> fetchRecordCollection(String bibliographicRecordId, int agencyId) {
+            final Map<String, MarcRecord> result = new HashMap<>();
+            for (Map.Entry<String, MarcRecord> entry : collections.get(new RecordId(bibliographicRecordId, agencyId)).entrySet()) {
+                result.put(entry.getKey(), new MarcRecord(entry.getValue()));
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * VipCoreService where every agency has the same library rules.
+     */
+    static class StubVipCoreService extends VipCoreService {
+        private final Set<VipCoreLibraryRulesConnector.Rule> features;
+
+        StubVipCoreService(VipCoreLibraryRulesConnector.Rule first, VipCoreLibraryRulesConnector.Rule... rest) {
+            this.features = EnumSet.of(first, rest);
+        }
+
+        @Override
+        public boolean hasFeature(String agencyId, VipCoreLibraryRulesConnector.Rule feature) {
+            return features.contains(feature);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.ExpandCommonMarcRecord;
+import dk.dbc.common.records.MarcRecordExpandException;
+import dk.dbc.common.records.MarcRecordReader;
+import dk.dbc.marc.binding.MarcRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expansion of a common record with authority links, i.e. what is done to every record collection read from rawrepo
+ * when the record is compared or validated in its expanded form.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpandCommonMarcRecordBenchmark {
+    private Map<String, MarcRecord> collection;
+    private String recordId;
+
+    @Setup
+    public void setUp() throws Exception {
+        final MarcRecord marcRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.AUTHORITY_LINKED_RECORD);
+        recordId = new MarcRecordReader(marcRecord).getRecordId();
+        collection = BenchmarkSupport.loadAuthorityRecords();
+        collection.put(recordId, marcRecord);
+    }
+
+    @Benchmark
+    public MarcRecord expandMarcRecord() throws MarcRecordExpandException {
+        return ExpandCommonMarcRecord.expandMarcRecord(collection, recordId);
+    }
+}
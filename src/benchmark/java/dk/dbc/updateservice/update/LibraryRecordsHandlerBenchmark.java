@@ -0,0 +1,103 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.MarcRecordWriter;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import dk.dbc.updateservice.utils.ResourceBundles;
+import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The classification check and the splitting of records before they are saved in rawrepo.
+ * <p/>
+ * recordDataForRawRepo modifies the record it is given, so those benchmarks work on a copy of the fixture record
+ * which means the cost of copying the record is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryRecordsHandlerBenchmark {
+    private static final String FBS_GROUP_ID = "730010";
+    private static final String DBC_GROUP_ID = "010100";
+
+    private final ResourceBundle messages = ResourceBundles.getBundle("actions");
+    private LibraryRecordsHandler instance;
+    private MarcRecord currentRecord;
+    private MarcRecord unchangedRecord;
+    private MarcRecord changedRecord;
+    private MarcRecord fbsRecord;
+    private MarcRecord dataIORecord;
+
+    @Setup
+    public void setUp() throws Exception {
+        currentRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        unchangedRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        changedRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        new MarcRecordWriter(changedRecord).addOrReplaceSubField("008", 't', "p");
+
+        // A library adding a note to an existing national common record
+        fbsRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        final DataField noteField = new DataField("530", "00");
+        noteField.getSubFields().add(new SubField('a', "Julemandens Nisseslagteri"));
+        fbsRecord.getFields().add(noteField);
+
+        // A DBC record with DBC fields which go to the 191919 enrichment
+        dataIORecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        final DataField dbcField = new DataField("d08", "00");
+        dbcField.getSubFields().add(new SubField('a', "Materialet er vurderet"));
+        dataIORecord.getFields().add(dbcField);
+
+        final BenchmarkSupport.StubRawRepo rawRepo = new BenchmarkSupport.StubRawRepo();
+        rawRepo.addRecord(currentRecord);
+        final BenchmarkSupport.StubVipCoreService vipCoreService = new BenchmarkSupport.StubVipCoreService(
+                VipCoreLibraryRulesConnector.Rule.AUTH_COMMON_NOTES,
+                VipCoreLibraryRulesConnector.Rule.AUTH_COMMON_SUBJECTS,
+                VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS);
+
+        instance = new LibraryRecordsHandler();
+        BenchmarkSupport.inject(instance, "rawRepo", rawRepo);
+        BenchmarkSupport.inject(instance, "vipCoreService", vipCoreService);
+        instance.setList();
+    }
+
+    @Benchmark
+    public boolean hasClassificationsChangedUnchanged() {
+        return instance.hasClassificationsChanged(currentRecord, unchangedRecord, new ArrayList<>());
+    }
+
+    @Benchmark
+    public boolean hasClassificationsChangedChanged() {
+        return instance.hasClassificationsChanged(currentRecord, changedRecord, new ArrayList<>());
+    }
+
+    /**
+     * FBS update of a national common record, which goes through splitRecordFBS and the note and subject extension.
+     */
+    @Benchmark
+    public List<MarcRecord> recordDataForRawRepoFBS() throws Exception {
+        return instance.recordDataForRawRepo(new MarcRecord(fbsRecord), FBS_GROUP_ID, LibraryGroup.FBS, messages, false);
+    }
+
+    @Benchmark
+    public List<MarcRecord> recordDataForRawRepoDataIO() throws Exception {
+        return instance.recordDataForRawRepo(new MarcRecord(dataIORecord), DBC_GROUP_ID, LibraryGroup.DBC, messages, true);
+    }
+}
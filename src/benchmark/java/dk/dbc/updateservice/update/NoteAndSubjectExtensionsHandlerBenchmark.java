@@ -0,0 +1,116 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.MarcRecordReader;
+import dk.dbc.common.records.MarcRecordWriter;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.Leader;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import dk.dbc.updateservice.utils.ResourceBundles;
+import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static dk.dbc.marc.reader.DanMarc2LineFormatReader.DEFAULT_LEADER;
+
+/**
+ * The parts of the note and subject extension which work on whole records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NoteAndSubjectExtensionsHandlerBenchmark {
+    private static final String GROUP_ID = "730010";
+
+    private NoteAndSubjectExtensionsHandler instance;
+    private MarcRecord currentRecord;
+    private MarcRecordReader currentReader;
+    private MarcRecord marcRecord;
+    private MarcRecord currentDisputats;
+    private MarcRecordReader currentDisputatsReader;
+    private MarcRecord disputats;
+    private MarcRecordReader disputatsReader;
+    private MarcRecord authorityLinkedRecord;
+
+    @Setup
+    public void setUp() throws Exception {
+        currentRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        currentReader = new MarcRecordReader(currentRecord);
+        marcRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        final DataField noteField = new DataField("530", "00");
+        noteField.getSubFields().add(new SubField('a', "Julemandens Nisseslagteri"));
+        marcRecord.getFields().add(noteField);
+
+        // A thesis without classification where the library adds a DK5 code
+        currentDisputats = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        new MarcRecordWriter(currentDisputats).removeField("652");
+        new MarcRecordWriter(currentDisputats).addOrReplaceSubField("008", 'd', "m");
+        currentDisputats.getFields().add(classificationField("uden klassemærke"));
+        currentDisputatsReader = new MarcRecordReader(currentDisputats);
+        disputats = BenchmarkSupport.loadRecord(BenchmarkSupport.NATIONAL_COMMON_RECORD);
+        new MarcRecordWriter(disputats).removeField("652");
+        new MarcRecordWriter(disputats).addOrReplaceSubField("008", 'd', "m");
+        disputats.getFields().add(classificationField("83.8"));
+        disputatsReader = new MarcRecordReader(disputats);
+
+        authorityLinkedRecord = BenchmarkSupport.loadRecord(BenchmarkSupport.AUTHORITY_LINKED_RECORD);
+        final BenchmarkSupport.StubRawRepo rawRepo = new BenchmarkSupport.StubRawRepo();
+        final Map<String, MarcRecord> collection = BenchmarkSupport.loadAuthorityRecords();
+        collection.put(new MarcRecordReader(authorityLinkedRecord).getRecordId(), authorityLinkedRecord);
+        rawRepo.addRecordCollection(authorityLinkedRecord, collection);
+
+        final BenchmarkSupport.StubVipCoreService vipCoreService = new BenchmarkSupport.StubVipCoreService(
+                VipCoreLibraryRulesConnector.Rule.AUTH_COMMON_NOTES,
+                VipCoreLibraryRulesConnector.Rule.AUTH_COMMON_SUBJECTS,
+                VipCoreLibraryRulesConnector.Rule.AUTH_ADD_DK5_TO_PHD_ALLOWED);
+
+        instance = new NoteAndSubjectExtensionsHandler(vipCoreService, rawRepo, ResourceBundles.getBundle("actions"));
+    }
+
+    private static DataField classificationField(String dk5) {
+        final DataField field = new DataField("652", "00");
+        field.getSubFields().add(new SubField('m', dk5));
+
+        return field;
+    }
+
+    @Benchmark
+    public MarcRecord collapse() throws Exception {
+        return instance.collapse(marcRecord, currentRecord, GROUP_ID, true);
+    }
+
+    @Benchmark
+    public MarcRecord addDK5FieldsUnchanged() throws Exception {
+        final MarcRecord result = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
+        instance.addDK5Fields(result, currentRecord, currentReader, currentRecord, currentReader, GROUP_ID);
+
+        return result;
+    }
+
+    @Benchmark
+    public MarcRecord addDK5FieldsToDisputats() throws Exception {
+        final MarcRecord result = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
+        instance.addDK5Fields(result, disputats, disputatsReader, currentDisputats, currentDisputatsReader, GROUP_ID);
+
+        return result;
+    }
+
+    @Benchmark
+    public MarcRecord getExpandedRecord() throws UpdateException {
+        return instance.getExpandedRecord(authorityLinkedRecord);
+    }
+}
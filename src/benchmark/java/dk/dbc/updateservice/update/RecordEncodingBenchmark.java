@@ -0,0 +1,52 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.writer.JsonLineWriter;
+import dk.dbc.marc.writer.MarcWriterException;
+import dk.dbc.marc.writer.MarcXchangeV1Writer;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a record for rawrepo with new writers for each record (how StoreRecordAction used to do it) with
+ * {@link UpdateRecordContentTransformer#encodeRecordForRawRepo(MarcRecord)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordEncodingBenchmark {
+    private MarcRecord marcRecord;
+
+    @Setup
+    public void setUp() throws IOException, UpdateException {
+        marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_MAIN_RECORD_RESOURCE);
+    }
+
+    @Benchmark
+    public void newWritersPerRecord(Blackhole blackhole) throws MarcWriterException {
+        blackhole.consume(new MarcXchangeV1Writer().write(marcRecord, StandardCharsets.UTF_8));
+        blackhole.consume(new JsonLineWriter().write(marcRecord, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public UpdateRecordContentTransformer.EncodedRecord encodeRecordForRawRepo() throws UpdateException {
+        return UpdateRecordContentTransformer.encodeRecordForRawRepo(marcRecord);
+    }
+}
@@ -0,0 +1,54 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.MarcRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding and encoding of the record content stored in rawrepo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateRecordContentTransformerBenchmark {
+    @Param({BenchmarkSupport.NATIONAL_COMMON_RECORD, BenchmarkSupport.COMMON_MAIN_RECORD, BenchmarkSupport.AUTHORITY_LINKED_RECORD})
+    public String resource;
+
+    private MarcRecord marcRecord;
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws Exception {
+        marcRecord = BenchmarkSupport.loadRecord(resource);
+        content = UpdateRecordContentTransformer.encodeRecord(marcRecord);
+    }
+
+    @Benchmark
+    public MarcRecord decodeRecord() throws UpdateException {
+        return UpdateRecordContentTransformer.decodeRecord(content);
+    }
+
+    @Benchmark
+    public byte[] encodeRecord() {
+        return UpdateRecordContentTransformer.encodeRecord(marcRecord);
+    }
+
+    @Benchmark
+    public byte[] encodeRecordToJson() throws UpdateException {
+        return UpdateRecordContentTransformer.encodeRecordToJson(marcRecord);
+    }
+}
@@ -0,0 +1,118 @@
+package dk.dbc.updateservice.utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ring buffer in {@link DeferredLogger} with how it used to defer statements: a new list per context and a
+ * fully built logging event, with a cleaned stacktrace, for every statement.
+ * <p/>
+ * A request logs a number of info statements with a couple of arguments, and either succeeds, so the statements are
+ * thrown away, or fails, so they are written to a discarding appender.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeferredLoggerBenchmark {
+    private static final DeferredLogger LOGGER = new DeferredLogger(DeferredLoggerBenchmark.class);
+    private static final ThreadLocal<LinkedList<LoggingEvent>> LIST_DEFERRED_LOGS = new ThreadLocal<>();
+
+    @Param({"20", "150"})
+    public int statements;
+
+    private final Exception exception = new IllegalStateException("benchmark");
+
+    @Setup
+    public void setUp() {
+        final Logger logger = LOGGER.logger;
+        logger.setAdditive(false);
+        logger.setLevel(Level.INFO);
+        logger.detachAndStopAllAppenders();
+        final AppenderBase<ILoggingEvent> appender = new AppenderBase<>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                event.getFormattedMessage();
+            }
+        };
+        appender.setContext(logger.getLoggerContext());
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @Benchmark
+    public void ringBufferSucceeded() {
+        LOGGER.use(log -> {
+            for (int i = 0; i < statements; i++) {
+                log.info("Statement {} for record {}", i, "12345678");
+            }
+        });
+    }
+
+    @Benchmark
+    public void ringBufferFailed() {
+        LOGGER.use(log -> {
+            for (int i = 0; i < statements; i++) {
+                log.info("Statement {} for record {}", i, "12345678");
+            }
+            log.error("Request failed", exception);
+        });
+    }
+
+    @Benchmark
+    public void listSucceeded(Blackhole blackhole) {
+        listLog(false, blackhole);
+    }
+
+    @Benchmark
+    public void listFailed(Blackhole blackhole) {
+        listLog(true, blackhole);
+    }
+
+    /*
+        The previous implementation of DeferredLogger.Context.log for info statements and a final error
+     */
+    private void listLog(boolean failed, Blackhole blackhole) {
+        final Logger logger = LOGGER.logger;
+        LIST_DEFERRED_LOGS.set(new LinkedList<>());
+        try {
+            final LinkedList<LoggingEvent> events = LIST_DEFERRED_LOGS.get();
+            for (int i = 0; i < statements; i++) {
+                if (!logger.isEnabledFor(Level.INFO)) continue;
+                events.add(new LoggingEvent(DeferredLogger.class.getName(), logger, Level.INFO, "Statement {} for record {}", null, new Object[]{i, "12345678"}));
+                if (events.size() > LOGGER.eventLimit) events.removeFirst();
+            }
+            if (failed) {
+                exception.setStackTrace(Arrays.stream(exception.getStackTrace()).filter(DeferredLogger::traceFilter).toArray(StackTraceElement[]::new));
+                final LoggingEvent error = new LoggingEvent(DeferredLogger.class.getName(), logger, Level.ERROR, "Request failed", exception, null);
+                events.forEach(logger::callAppenders);
+                events.clear();
+                logger.callAppenders(error);
+            }
+            blackhole.consume(events);
+        } finally {
+            LIST_DEFERRED_LOGS.remove();
+        }
+    }
+}
@@ -28,7 +28,7 @@ public abstract class AbstractLinkRelationRecordsAction extends AbstractRawRepoA
                 source.getAgencyId(),
                 target.getBibliographicRecordId(),
                 target.getAgencyId()));
-        state.getRawRepo().linkRecordAppend(source, target);
+        state.getRawRepoRecordCache().linkRecordAppend(source, target);
     }
 
 }
@@ -0,0 +1,88 @@
+package dk.dbc.updateservice.actions;
+
+import dk.dbc.updateservice.utils.CostLedger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The trace of a single action executed by the {@link ServiceEngine} and, through its children, of the actions it
+ * created.
+ * <p/>
+ * The start and end times span the action and all of its children, while <code>actionMs</code> and the calls to
+ * dependencies only cover the action itself. An action which was never executed, e.g. because an earlier sibling
+ * failed, has no start time and the status {@link #NOT_EXECUTED}.
+ */
+public class ActionTrace {
+    public static final String NOT_EXECUTED = "NOT_EXECUTED";
+    public static final String EXCEPTION = "EXCEPTION";
+
+    private final String name;
+    private final List<ActionTrace> children = new CopyOnWriteArrayList<>();
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile long actionMs;
+    private volatile String status = NOT_EXECUTED;
+    private volatile Map<String, Long> calls = Collections.emptyMap();
+    private volatile Map<String, Long> callsMs = Collections.emptyMap();
+
+    public ActionTrace(String name) {
+        this.name = name;
+    }
+
+    ActionTrace addChild(String childName) {
+        final ActionTrace child = new ActionTrace(childName);
+        children.add(child);
+
+        return child;
+    }
+
+    void start() {
+        startTime = System.currentTimeMillis();
+    }
+
+    void actionDone(CostLedger ledger) {
+        this.actionMs = System.currentTimeMillis() - startTime;
+        this.calls = ledger.getCallsByDependency();
+        this.callsMs = ledger.getTimeMsByDependency();
+    }
+
+    void finish(ServiceResult serviceResult) {
+        endTime = System.currentTimeMillis();
+        status = serviceResult != null && serviceResult.getStatus() != null ? serviceResult.getStatus().name() : EXCEPTION;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getActionMs() {
+        return actionMs;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Map<String, Long> getCalls() {
+        return calls;
+    }
+
+    public Map<String, Long> getCallsMs() {
+        return callsMs;
+    }
+
+    public List<ActionTrace> getChildren() {
+        return children;
+    }
+}
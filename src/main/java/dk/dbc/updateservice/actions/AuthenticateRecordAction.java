@@ -10,7 +10,6 @@ import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.NoteAndSubjectExtensionsHandler;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.updateservice.utils.MDCUtil;
 import dk.dbc.updateservice.utils.ResourceBundles;
@@ -126,8 +125,8 @@ public class AuthenticateRecordAction extends AbstractRawRepoAction {
                 List<MessageEntryDTO> validationErrors;
 
                 MarcRecord curRecord = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
-                if (rawRepo.recordExists(reader.getRecordId(), RawRepo.COMMON_AGENCY)) {
-                    curRecord = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().fetchRecord(reader.getRecordId(), RawRepo.COMMON_AGENCY).getContent());
+                if (state.getRawRepoRecordCache().recordExists(reader.getRecordId(), RawRepo.COMMON_AGENCY)) {
+                    curRecord = state.getRawRepoRecordCache().fetchMarcRecord(reader.getRecordId(), RawRepo.COMMON_AGENCY);
                 }
                 MarcRecordReader currentReader = new MarcRecordReader(curRecord);
                 String actRecOwner = reader.getValue("996", 'a');
@@ -189,7 +188,7 @@ public class AuthenticateRecordAction extends AbstractRawRepoAction {
             log.info("Record agency: {}", agencyId);
             log.info("New owner: {}", owner);
 
-            if (!state.getRawRepo().recordExists(recordId, agencyId)) {
+            if (!state.getRawRepoRecordCache().recordExists(recordId, agencyId)) {
                 log.debug("Checking authentication for new common record.");
 
                 if (owner == null || owner.isEmpty()) {
@@ -204,7 +203,7 @@ public class AuthenticateRecordAction extends AbstractRawRepoAction {
             }
 
             log.debug("Checking authentication for updating existing common record.");
-            final MarcRecord curRecord = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().fetchRecord(recordId, RawRepo.COMMON_AGENCY).getContent());
+            final MarcRecord curRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordId, RawRepo.COMMON_AGENCY);
             final MarcRecordReader curReader = new MarcRecordReader(curRecord);
             final String curOwner = curReader.getValue("996", 'a');
 
@@ -275,8 +274,8 @@ public class AuthenticateRecordAction extends AbstractRawRepoAction {
             final MarcRecordReader recordReader = new MarcRecordReader(this.getRecord());
             final List<DataField> newFields665 = recordReader.getFieldAll("665");
 
-            if (state.getRawRepo().recordExists(recordReader.getRecordId(), recordReader.getAgencyIdAsInt())) {
-                final MarcRecord curRecord = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().fetchRecord(recordReader.getRecordId(), RawRepo.COMMON_AGENCY).getContent());
+            if (state.getRawRepoRecordCache().recordExists(recordReader.getRecordId(), recordReader.getAgencyIdAsInt())) {
+                final MarcRecord curRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordReader.getRecordId(), RawRepo.COMMON_AGENCY);
                 final MarcRecordReader curRecordReader = new MarcRecordReader(curRecord);
                 final List<DataField> curFields665 = curRecordReader.getFieldAll("665");
                 final NoteAndSubjectExtensionsHandler noteAndSubjectExtensionsHandler = state.getNoteAndSubjectExtensionsHandler();
@@ -3,12 +3,10 @@ package dk.dbc.updateservice.actions;
 import dk.dbc.common.records.MarcRecordReader;
 import dk.dbc.common.records.MarcRecordWriter;
 import dk.dbc.marc.binding.MarcRecord;
-import dk.dbc.rawrepo.Record;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 
 import java.io.UnsupportedEncodingException;
@@ -57,9 +55,11 @@ public class DeleteCommonRecordAction extends AbstractRawRepoAction {
                     }
                 }
 
-                for (RecordId enrichmentId : rawRepo.enrichments(recordId)) {
-                    final Record rawRepoEnrichmentRecord = rawRepo.fetchRecord(enrichmentId.getBibliographicRecordId(), enrichmentId.getAgencyId());
-                    final MarcRecord enrichmentRecord = UpdateRecordContentTransformer.decodeRecord(rawRepoEnrichmentRecord.getContent());
+                final Set<RecordId> enrichments = rawRepo.enrichments(recordId);
+                // The enrichments are checked again by the child actions so look them all up in one go
+                state.getRawRepoRecordCache().recordsExist(enrichments);
+                for (RecordId enrichmentId : enrichments) {
+                    final MarcRecord enrichmentRecord = state.getRawRepoRecordCache().fetchMarcRecord(enrichmentId.getBibliographicRecordId(), enrichmentId.getAgencyId());
 
                     final MarcRecordWriter writer = new MarcRecordWriter(enrichmentRecord);
                     writer.markForDeletion();
@@ -109,12 +109,12 @@ public class DeleteCommonRecordAction extends AbstractRawRepoAction {
     private void deleteLittolkChildren(Set<RecordId> recordChildren) throws UpdateException, UnsupportedEncodingException {
         LOGGER.<Void, UpdateException, UnsupportedEncodingException>callChecked2(log -> {
             for (RecordId recordId : recordChildren) {
-                final MarcRecord littolkEnrichment = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT).getContent());
+                final MarcRecord littolkEnrichment = state.getRawRepoRecordCache().fetchMarcRecord(recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT);
                 log.info("Creating DeleteRecordAction for {}:{}", recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT);
                 new MarcRecordWriter(littolkEnrichment).markForDeletion();
                 children.add(new UpdateEnrichmentRecordAction(state, settings, littolkEnrichment));
 
-                final MarcRecord littolkRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(recordId.getBibliographicRecordId(), RawRepo.LITTOLK_AGENCY).getContent());
+                final MarcRecord littolkRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordId.getBibliographicRecordId(), RawRepo.LITTOLK_AGENCY);
                 log.info("Creating DeleteRecordAction for {}:{}", recordId.getBibliographicRecordId(), RawRepo.LITTOLK_AGENCY);
                 children.add(new DeleteCommonRecordAction(state, settings, littolkRecord));
             }
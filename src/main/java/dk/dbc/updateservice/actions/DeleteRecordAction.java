@@ -3,9 +3,7 @@ package dk.dbc.updateservice.actions;
 import dk.dbc.common.records.MarcRecordReader;
 import dk.dbc.common.records.MarcRecordWriter;
 import dk.dbc.marc.binding.MarcRecord;
-import dk.dbc.rawrepo.Record;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 
 import java.util.Properties;
 
@@ -70,8 +68,7 @@ public class DeleteRecordAction extends StoreRecordAction {
         final String recordId = reader.getRecordId();
         final int agencyId = reader.getAgencyIdAsInt();
 
-        final Record record = rawRepo.fetchRecord(recordId, agencyId);
-        return UpdateRecordContentTransformer.decodeRecord(record.getContent());
+        return state.getRawRepoRecordCache().fetchMarcRecord(recordId, agencyId);
     }
 
     /**
@@ -4,6 +4,7 @@ import dk.dbc.commons.jsonb.JSONBException;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.updateservice.utils.MDCUtil;
 import org.perf4j.StopWatch;
@@ -49,6 +50,7 @@ public class DoubleRecordCheckingAction extends AbstractAction {
                 return ServiceResult.newOkResult();
             } finally {
                 watch.stop();
+                CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
             }
         });
     }
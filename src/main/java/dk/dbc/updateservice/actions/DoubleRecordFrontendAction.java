@@ -6,6 +6,7 @@ import dk.dbc.updateservice.dto.DoubleRecordFrontendDTO;
 import dk.dbc.updateservice.dto.DoubleRecordFrontendStatusDTO;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.updateservice.utils.MDCUtil;
 import org.perf4j.StopWatch;
@@ -49,6 +50,7 @@ public class DoubleRecordFrontendAction extends AbstractAction {
                 return ServiceResult.newOkResult();
             } finally {
                 watch.stop();
+                CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
             }
         });
     }
@@ -62,7 +64,7 @@ public class DoubleRecordFrontendAction extends AbstractAction {
             for (DoubleRecordFrontendDTO doubleRecordFrontendDTO : doubleRecordFrontendStatusDTO.getDoubleRecordFrontendDTOs()) {
                 result.addServiceResult(ServiceResult.newDoubleRecordErrorResult(UpdateStatusEnumDTO.FAILED, doubleRecordFrontendDTO));
             }
-            result.setDoubleRecordKey(state.getUpdateStore().getNewDoubleRecordKey());
+            result.setDoubleRecordKey(CostLedger.timed(CostLedger.Dependency.UPDATE_STORE, () -> state.getUpdateStore().getNewDoubleRecordKey()));
         } else {
             String msg = "Unknown error";
             if (doubleRecordFrontendStatusDTO.getDoubleRecordFrontendDTOs() != null && !doubleRecordFrontendStatusDTO.getDoubleRecordFrontendDTOs().isEmpty()) {
@@ -21,10 +21,17 @@ public class DoubleRecordFrontendAndValidateAction extends AbstractAction {
     public ServiceResult performAction() throws UpdateException {
         final ServiceResult result = new ServiceResult();
 
+        // Running concurrently with the schema validation, the calls are skipped once that has failed
+        if (ServiceEngine.isCancelled()) {
+            return result;
+        }
         if (state.isDoubleRecordPossible() && state.getLibraryGroup().isFBS() && state.getUpdateServiceRequestDTO().getDoubleRecordKey() == null) {
             result.addServiceResult(doubleRecordFrontendAction.performAction());
         }
 
+        if (ServiceEngine.isCancelled()) {
+            return result;
+        }
         result.addServiceResult(validateRecordAction.performAction());
 
         return result;
@@ -34,4 +41,13 @@ public class DoubleRecordFrontendAndValidateAction extends AbstractAction {
     public void setupMDCContext() {
         MDCUtil.setupContextForRecord(state.readRecord());
     }
+
+    /**
+     * The double record check and the validation only reads the request record, so they can run at the same time as
+     * the schema validation.
+     */
+    @Override
+    public boolean canRunConcurrently() {
+        return true;
+    }
 }
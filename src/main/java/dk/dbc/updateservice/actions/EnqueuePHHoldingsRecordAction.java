@@ -28,7 +28,7 @@ public class EnqueuePHHoldingsRecordAction extends AbstractRawRepoAction {
             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, state.getMessages().getString("provider.id.not.set"));
         }
         return LOGGER.callChecked(log -> {
-            rawRepo.changedRecord(settings.getProperty(providerId), recordId);
+            state.getRawRepoRecordCache().changedRecord(settings.getProperty(providerId), recordId);
             log.info("The record {}:{} with provider '{}' was successfully enqueued", recordId.getBibliographicRecordId(), recordId.getAgencyId(), settings.getProperty(providerId));
             return ServiceResult.newOkResult();
         });
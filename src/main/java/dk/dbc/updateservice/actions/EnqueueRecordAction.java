@@ -78,12 +78,12 @@ public class EnqueueRecordAction extends AbstractRawRepoAction {
             // It looks like 191919 enqueues everything the parent record does in addition to itself. This is a waste of
             // time. So if the record is 191919 we only enqueue that specific record.
             if (recordId.getAgencyId() == RawRepo.DBC_ENRICHMENT) {
-                rawRepo.enqueue(recordId, providerId, true, true, priority);
+                state.getRawRepoRecordCache().enqueue(recordId, providerId, true, true, priority);
                 return ServiceResult.newOkResult();
             }
 
             log.info("Enqueuing record: {}:{} using provider '{}' with priority {}", recordId.getBibliographicRecordId(), recordId.getAgencyId(), providerId, priority);
-            rawRepo.changedRecord(providerId, recordId, priority);
+            state.getRawRepoRecordCache().changedRecord(providerId, recordId, priority);
 
             // Hack for handling missing enqueue of article (870971) records with child articles.
             // The way changedRecord enqueues records with children in general is that if there are any children then
@@ -96,7 +96,7 @@ public class EnqueueRecordAction extends AbstractRawRepoAction {
             if (recordId.getAgencyId() == RawRepo.ARTICLE_AGENCY && !state.getRawRepo().children(recordId).isEmpty()) {
                 log.info("Found children for article record, so enqueuing that record explict");
                 log.info("Enqueuing record: {}:{} using provider '{}' with priority {}", recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT, providerId, priority);
-                rawRepo.enqueue(new RecordId(recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT), providerId, true, true, priority);
+                state.getRawRepoRecordCache().enqueue(new RecordId(recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT), providerId, true, true, priority);
             }
 
             return ServiceResult.newOkResult();
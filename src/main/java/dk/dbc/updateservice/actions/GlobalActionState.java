@@ -10,12 +10,19 @@ import dk.dbc.updateservice.client.BibliographicRecordExtraDataDecoder;
 import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
 import dk.dbc.updateservice.solr.SolrBasis;
 import dk.dbc.updateservice.solr.SolrFBS;
+import dk.dbc.updateservice.update.CompareStringNormalizer;
 import dk.dbc.updateservice.update.JNDIResources;
 import dk.dbc.updateservice.update.LibraryGroup;
 import dk.dbc.updateservice.update.LibraryRecordsHandler;
+import dk.dbc.updateservice.update.HoldingsItemsCache;
+import dk.dbc.updateservice.update.MarcRecordIndexCache;
 import dk.dbc.updateservice.update.NoteAndSubjectExtensionsHandler;
 import dk.dbc.updateservice.update.RawRepo;
+import dk.dbc.updateservice.update.RawRepoRecordCache;
+import dk.dbc.updateservice.update.RecordDiff;
 import dk.dbc.updateservice.update.RecordSorter;
+import dk.dbc.updateservice.update.NumberRollPool;
+import dk.dbc.updateservice.update.RecordSorterTemplates;
 import dk.dbc.updateservice.update.UpdateException;
 import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.update.UpdateStore;
@@ -33,12 +40,19 @@ import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
+import java.util.concurrent.Executor;
+
+/**
+ * The state of a single request, shared by all of its actions.
+ * <p/>
+ * Actions which can run concurrently (see {@link ServiceAction#canRunConcurrently()}) share the state, so the values
+ * which are looked up or created lazily are guarded by the lock of the state.
+ */
 public class GlobalActionState {
     private static final DeferredLogger LOGGER = new DeferredLogger(GlobalActionState.class);
     private static final String RECORD_SCHEMA_MARCXCHANGE_1_1 = "info:lc/xmlns/marcxchange-v1";
@@ -47,8 +61,13 @@ public class GlobalActionState {
     private UpdateServiceRequestDTO updateServiceRequestDTO = null;
     private Authenticator authenticator = null;
     private RawRepo rawRepo = null;
+    private RawRepoRecordCache rawRepoRecordCache = null;
+    private MarcRecordIndexCache marcRecordIndexCache = null;
+    private CompareStringNormalizer compareStringNormalizer = null;
     private OpencatBusinessConnector opencatBusiness = null;
     private HoldingsItemsConnector holdingsItems = null;
+    private HoldingsItemsCache holdingsItemsCache = null;
+    private Executor lookupExecutor = null;
     private VipCoreService vipCoreService = null;
     private SolrFBS solrService = null;
     private SolrBasis solrBasis = null;
@@ -69,6 +88,8 @@ public class GlobalActionState {
     private Set<String> ffuLibraries = null;
     private Set<String> lokbibLibraries = null;
     private RecordSorter recordSorter = null;
+    private RecordSorterTemplates recordSorterTemplates = null;
+    private NumberRollPool numberRollPool = null;
     private NoteAndSubjectExtensionsHandler noteAndSubjectExtensionsHandler = null;
     private HttpServletRequest request;
     private Boolean isTemplateOverwrite;
@@ -161,6 +182,7 @@ public class GlobalActionState {
 
     public void setRawRepo(RawRepo rawRepo) {
         this.rawRepo = rawRepo;
+        this.rawRepoRecordCache = null;
     }
 
     public OpencatBusinessConnector getOpencatBusiness() {
@@ -175,19 +197,55 @@ public class GlobalActionState {
         return holdingsItems;
     }
 
+    /**
+     * Returns the request scoped memo of holdings. Holdings lookups should go through the memo instead of directly to
+     * holdings-items, as the same ids are looked up several times during a request.
+     *
+     * @return The holdings memo for this request.
+     */
+    public synchronized HoldingsItemsCache getHoldingsItemsCache() {
+        if (this.holdingsItemsCache == null) {
+            this.holdingsItemsCache = new HoldingsItemsCache(getHoldingsItems(), lookupExecutor);
+        }
+
+        return this.holdingsItemsCache;
+    }
+
     public Set<Integer> getAgenciesWithHoldings(MarcRecord marcRecord) {
-        MarcRecordReader reader = new MarcRecordReader(marcRecord);
-        return Stream.concat(
-                        Stream.of(reader.getRecordId()),
-                        reader.getCentralAliasIds().stream())
-                .map(id -> getHoldingsItems().getAgenciesWithHoldings(id))
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
+        return getAgenciesWithHoldings(Collections.singletonList(marcRecord));
     }
 
+    /**
+     * Finds the agencies with holdings on any of the records or their 002 aliases, e.g. all volumes in a hierarchy.
+     * All the ids are looked up at once.
+     *
+     * @param marcRecords The records.
+     * @return The agencies with holdings.
+     */
+    public Set<Integer> getAgenciesWithHoldings(Collection<MarcRecord> marcRecords) {
+        final Set<String> ids = new LinkedHashSet<>();
+        for (MarcRecord marcRecord : marcRecords) {
+            final MarcRecordReader reader = new MarcRecordReader(marcRecord);
+            ids.add(reader.getRecordId());
+            ids.addAll(reader.getCentralAliasIds());
+        }
+
+        return getHoldingsItemsCache().getAgenciesWithHoldingsOnAny(ids);
+    }
+
+    /**
+     * Sets the executor used for parallel lookups in other services, e.g. of holdings. Without an executor the lookups
+     * are done one at a time on the calling thread.
+     *
+     * @param lookupExecutor The executor, usually the managed executor of the application server.
+     */
+    public void setLookupExecutor(Executor lookupExecutor) {
+        this.lookupExecutor = lookupExecutor;
+    }
 
     public void setHoldingsItems(HoldingsItemsConnector holdingsItems) {
         this.holdingsItems = holdingsItems;
+        this.holdingsItemsCache = null;
     }
 
     public VipCoreService getVipCoreService() {
@@ -250,11 +308,11 @@ public class GlobalActionState {
         return marcRecord;
     }
 
-    public void setMarcRecord(MarcRecord marcRecord) {
+    public synchronized void setMarcRecord(MarcRecord marcRecord) {
         this.marcRecord = marcRecord;
     }
 
-    public void setLibraryGroup(LibraryGroup libraryGroup) {
+    public synchronized void setLibraryGroup(LibraryGroup libraryGroup) {
         this.libraryGroup = libraryGroup;
     }
 
@@ -268,7 +326,7 @@ public class GlobalActionState {
 
         Only libraries with auth_root permission can use this template and the record being updated must already exist.
      */
-    public boolean getIsTemplateOverwrite() throws UpdateException {
+    public synchronized boolean getIsTemplateOverwrite() throws UpdateException {
         if (this.isTemplateOverwrite == null) {
             try {
                 this.isTemplateOverwrite = "superallowall".equals(this.getSchemaName()) &&
@@ -289,7 +347,7 @@ public class GlobalActionState {
         return this.isTemplateOverwrite;
     }
 
-    public void setTemplateGroup(String templateGroup) {
+    public synchronized void setTemplateGroup(String templateGroup) {
         this.templateGroup = templateGroup;
     }
 
@@ -301,22 +359,38 @@ public class GlobalActionState {
         this.createOverwriteDate = createOverwriteDate;
     }
 
-    public void setRecordSorter(RecordSorter recordSorter) {
+    public synchronized void setRecordSorter(RecordSorter recordSorter) {
         this.recordSorter = recordSorter;
     }
 
-    public void setNoteAndSubjectExtensionsHandler(NoteAndSubjectExtensionsHandler noteAndSubjectExtensionsHandler) {
+    public RecordSorterTemplates getRecordSorterTemplates() {
+        return recordSorterTemplates;
+    }
+
+    public void setRecordSorterTemplates(RecordSorterTemplates recordSorterTemplates) {
+        this.recordSorterTemplates = recordSorterTemplates;
+    }
+
+    public NumberRollPool getNumberRollPool() {
+        return numberRollPool;
+    }
+
+    public void setNumberRollPool(NumberRollPool numberRollPool) {
+        this.numberRollPool = numberRollPool;
+    }
+
+    public synchronized void setNoteAndSubjectExtensionsHandler(NoteAndSubjectExtensionsHandler noteAndSubjectExtensionsHandler) {
         this.noteAndSubjectExtensionsHandler = noteAndSubjectExtensionsHandler;
     }
 
-    public MarcRecordReader getMarcRecordReader() {
+    public synchronized MarcRecordReader getMarcRecordReader() {
         if (marcRecordReader == null) {
             marcRecordReader = new MarcRecordReader(readRecord());
         }
         return marcRecordReader;
     }
 
-    public boolean isDoubleRecordPossible() throws UpdateException {
+    public synchronized boolean isDoubleRecordPossible() throws UpdateException {
         marcRecordReader = getMarcRecordReader();
         if (doubleRecordPossible == null) {
             /*
@@ -365,7 +439,7 @@ public class GlobalActionState {
      * <p>
      * if the can not be converted or if no records exists.
      */
-    public MarcRecord readRecord() {
+    public synchronized MarcRecord readRecord() {
         if (marcRecord == null) {
             List<Object> list = null;
 
@@ -441,7 +515,7 @@ public class GlobalActionState {
      * @return The found records extra data as a {@link BibliographicRecordExtraData} or <code>null</code>
      * if the can not be converted or if no records exists.
      */
-    public BibliographicRecordExtraData getRecordExtraData() {
+    public synchronized BibliographicRecordExtraData getRecordExtraData() {
         List<Object> list = null;
         if (bibliographicRecordExtraData == null) {
             if (updateServiceRequestDTO != null && updateServiceRequestDTO.getBibliographicRecordDTO() != null && updateServiceRequestDTO.getBibliographicRecordDTO().getExtraRecordDataDTO() != null) {
@@ -466,17 +540,71 @@ public class GlobalActionState {
         return bibliographicRecordExtraData;
     }
 
-    public RecordSorter getRecordSorter() {
+    public synchronized RecordSorter getRecordSorter() {
         if (this.recordSorter == null) {
-            this.recordSorter = new RecordSorter(getOpencatBusiness(), getSchemaName());
+            this.recordSorter = new RecordSorter(getOpencatBusiness(), getSchemaName(), recordSorterTemplates);
         }
 
         return this.recordSorter;
     }
 
-    public NoteAndSubjectExtensionsHandler getNoteAndSubjectExtensionsHandler() {
+    /**
+     * Returns the request scoped cache in front of RawRepo. Reads of records, which are done many times during a
+     * single request, should go through this cache instead of directly to RawRepo.
+     *
+     * @return The cache for this request.
+     */
+    public synchronized RawRepoRecordCache getRawRepoRecordCache() {
+        if (this.rawRepoRecordCache == null) {
+            this.rawRepoRecordCache = new RawRepoRecordCache(getRawRepo());
+        }
+
+        return this.rawRepoRecordCache;
+    }
+
+    /**
+     * Returns the request scoped cache of field indexes. Code which looks up fields by tag in the same records many
+     * times during a request should use the index from this cache instead of scanning the fields of the record.
+     *
+     * @return The index cache for this request.
+     */
+    public synchronized MarcRecordIndexCache getMarcRecordIndexCache() {
+        if (this.marcRecordIndexCache == null) {
+            this.marcRecordIndexCache = new MarcRecordIndexCache();
+        }
+
+        return this.marcRecordIndexCache;
+    }
+
+    /**
+     * Returns the differences between two versions of a record. The diff is kept for the request, so the actions
+     * comparing the current record with the incoming record share the diff instead of each walking both records.
+     *
+     * @param oldRecord The old record, typically the current record in rawrepo.
+     * @param newRecord The new record, typically the incoming record.
+     * @return The diff of the records.
+     */
+    public RecordDiff getRecordDiff(MarcRecord oldRecord, MarcRecord newRecord) {
+        return getMarcRecordIndexCache().diffOf(oldRecord, newRecord);
+    }
+
+    /**
+     * Returns the request scoped normalizer used when comparing classifications. The same common record is compared
+     * to its new version and to each of its enrichments, so the normalized subfield values are kept for the request.
+     *
+     * @return The normalizer for this request.
+     */
+    public synchronized CompareStringNormalizer getCompareStringNormalizer() {
+        if (this.compareStringNormalizer == null) {
+            this.compareStringNormalizer = new CompareStringNormalizer();
+        }
+
+        return this.compareStringNormalizer;
+    }
+
+    public synchronized NoteAndSubjectExtensionsHandler getNoteAndSubjectExtensionsHandler() {
         if (this.noteAndSubjectExtensionsHandler == null) {
-            this.noteAndSubjectExtensionsHandler = new NoteAndSubjectExtensionsHandler(getVipCoreService(), getRawRepo(), messages);
+            this.noteAndSubjectExtensionsHandler = new NoteAndSubjectExtensionsHandler(getVipCoreService(), getRawRepoRecordCache(), getMarcRecordIndexCache(), messages);
         }
 
         return this.noteAndSubjectExtensionsHandler;
@@ -555,9 +683,9 @@ public class GlobalActionState {
                 '}';
     }
 
-    public boolean recordExists() throws UpdateException {
+    public synchronized boolean recordExists() throws UpdateException {
         if (this.recordExists == null) {
-            this.recordExists = rawRepo.recordExists(marcRecordReader.getRecordId(), marcRecordReader.getAgencyIdAsInt());
+            this.recordExists = getRawRepoRecordCache().recordExists(marcRecordReader.getRecordId(), marcRecordReader.getAgencyIdAsInt());
         }
 
         return this.recordExists;
@@ -569,7 +697,7 @@ public class GlobalActionState {
         return "admin".equalsIgnoreCase(userId);
     }
 
-    public LibraryGroup getLibraryGroup() throws UpdateException {
+    public synchronized LibraryGroup getLibraryGroup() throws UpdateException {
         if (libraryGroup == null) {
             final String groupId = updateServiceRequestDTO.getAuthenticationDTO().getGroupId();
 
@@ -591,7 +719,7 @@ public class GlobalActionState {
         return libraryGroup;
     }
 
-    public String getTemplateGroup() throws UpdateException {
+    public synchronized String getTemplateGroup() throws UpdateException {
         if (templateGroup == null) {
             final String groupId = updateServiceRequestDTO.getAuthenticationDTO().getGroupId();
 
@@ -613,7 +741,7 @@ public class GlobalActionState {
         return templateGroup;
     }
 
-    public Set<String> getPHLibraries() throws UpdateException {
+    public synchronized Set<String> getPHLibraries() throws UpdateException {
         if (phLibraries == null) {
             try {
                 phLibraries = vipCoreService.getPHLibraries();
@@ -626,7 +754,7 @@ public class GlobalActionState {
         return phLibraries;
     }
 
-    public Set<String> getFFULibraries() throws UpdateException {
+    public synchronized Set<String> getFFULibraries() throws UpdateException {
         if (ffuLibraries == null) {
             try {
                 ffuLibraries = vipCoreService.getFFULibraries();
@@ -639,7 +767,7 @@ public class GlobalActionState {
         return ffuLibraries;
     }
 
-    public Set<String> getLokbibLibraries() throws UpdateException {
+    public synchronized Set<String> getLokbibLibraries() throws UpdateException {
         if (lokbibLibraries == null) {
             try {
                 lokbibLibraries = vipCoreService.getLokbibLibraries();
@@ -15,7 +15,7 @@ import static dk.dbc.marc.binding.DataField.hasSubFieldCode;
 
 public class LinkAuthorityRecordsAction extends AbstractLinkRelationRecordsAction {
     private static final Stream<String> AUTHORITY_RELATION_FIELDS = Stream.of("200", "210", "230", "232", "233", "234");
-    private static final Set<String> AUTHORITY_ALL_FIELDS = Stream.concat(RawRepo.AUTHORITY_FIELDS.stream(), AUTHORITY_RELATION_FIELDS)
+    static final Set<String> AUTHORITY_ALL_FIELDS = Stream.concat(RawRepo.AUTHORITY_FIELDS.stream(), AUTHORITY_RELATION_FIELDS)
             .collect(Collectors.toUnmodifiableSet());
 
     public LinkAuthorityRecordsAction(GlobalActionState globalActionState, MarcRecord marcRecord) {
@@ -47,12 +47,12 @@ public class LinkRecordAction extends AbstractRawRepoAction {
             final String recordId = reader.getRecordId();
             final int agencyId = reader.getAgencyIdAsInt();
             final RecordId recordIdObj = new RecordId(recordId, agencyId);
-            if (!rawRepo.recordExists(linkToRecordId.getBibliographicRecordId(), linkToRecordId.getAgencyId())) {
+            if (!state.getRawRepoRecordCache().recordExists(linkToRecordId.getBibliographicRecordId(), linkToRecordId.getAgencyId())) {
                 final String message = String.format(state.getMessages().getString("reference.record.not.exist"), recordId, agencyId, linkToRecordId.getBibliographicRecordId(), linkToRecordId.getAgencyId());
                 return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
             }
             log.info("Set relation from [{}:{}] -> [{}:{}]", recordId, agencyId, linkToRecordId.getBibliographicRecordId(), linkToRecordId.getAgencyId());
-            rawRepo.linkRecord(recordIdObj, linkToRecordId);
+            state.getRawRepoRecordCache().linkRecord(recordIdObj, linkToRecordId);
 
             return ServiceResult.newOkResult();
         });
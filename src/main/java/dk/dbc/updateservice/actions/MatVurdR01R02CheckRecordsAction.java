@@ -8,7 +8,6 @@ import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -87,7 +86,7 @@ public class MatVurdR01R02CheckRecordsAction extends AbstractRawRepoAction {
             final RecordId recordId = new RecordId(id, RawRepo.COMMON_AGENCY);
             final Set<RecordId> childrenIds = state.getRawRepo().children(recordId);
             for (RecordId recordId1 : childrenIds) {
-                final MarcRecord curRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(recordId1.getBibliographicRecordId(), recordId1.getAgencyId()).getContent());
+                final MarcRecord curRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordId1.getBibliographicRecordId(), recordId1.getAgencyId());
                 final MarcRecordReader reader = new MarcRecordReader(curRecord);
                 if (RawRepo.MATVURD_AGENCY == reader.getAgencyIdAsInt() && !thisId.equals(reader.getRecordId())) {
                     for (String content : reader.getValues("032", 'x')) {
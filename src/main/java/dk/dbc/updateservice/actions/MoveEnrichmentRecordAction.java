@@ -5,7 +5,6 @@ import dk.dbc.common.records.MarcRecordWriter;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 
 import java.util.Properties;
@@ -93,7 +92,7 @@ public class MoveEnrichmentRecordAction extends AbstractRawRepoAction {
                 log.info("Enrichment record has classifications. Creating sub action to update it.");
                 return createUpdateRecordAction(newEnrichmentRecord);
             }
-            final MarcRecord currentCommonRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(recordId, RawRepo.COMMON_AGENCY).getContent());
+            final MarcRecord currentCommonRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordId, RawRepo.COMMON_AGENCY);
 
             log.debug("ClassificationChangedInCommonRecs {} ", isClassificationChangedInCommonRecs);
             log.debug("isLinkRecInProduction {} ", isLinkRecInProduction);
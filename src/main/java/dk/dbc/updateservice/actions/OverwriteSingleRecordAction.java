@@ -7,13 +7,13 @@ import dk.dbc.common.records.MarcRecordWriter;
 import dk.dbc.marc.binding.DataField;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.marc.binding.SubField;
-import dk.dbc.rawrepo.Record;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
+import dk.dbc.updateservice.update.CanonicalRecordHash;
 import dk.dbc.updateservice.update.DefaultEnrichmentRecordHandler;
+import dk.dbc.updateservice.update.JNDIResources;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
@@ -27,12 +27,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static dk.dbc.marc.binding.DataField.hasSubFieldCode;
 import static dk.dbc.updateservice.update.DefaultEnrichmentRecordHandler.hasMinusEnrichment;
 
 class OverwriteSingleRecordAction extends AbstractRawRepoAction {
     private static final DeferredLogger LOGGER = new DeferredLogger(OverwriteSingleRecordAction.class);
+    private static final String[] PROOF_PRINT_FIELDS = {"100", "110", "133", "134", "400", "410", "433", "434", "500", "510"};
     private MarcRecord currentMarcRecord = null;
     protected Properties settings;
 
@@ -50,6 +52,9 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
     @Override
     public ServiceResult performAction() throws UpdateException {
         try {
+            if (skipUnchangedRecord()) {
+                return ServiceResult.newOkResult();
+            }
             final MarcRecordReader reader = new MarcRecordReader(marcRecord);
             if (RawRepo.DBC_PRIVATE_AGENCY_LIST.contains(reader.getAgencyId())) {
                 performActionDBCRecord();
@@ -62,6 +67,77 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
         }
     }
 
+    /**
+     * Finds out whether the record can be left out, because it is identical to the record in rawrepo.
+     * <p>
+     * Clients regularly resend records which haven't changed, and then storing, linking and enqueuing the record
+     * only causes writes and downstream reindexing. The record is unchanged if the stored record and its relations
+     * have the same canonical hash as the new record, after sorting, and the relations the new record would be linked
+     * to. As nothing is changed in the record nothing is changed for the enrichments, children or universe either.
+     * <p>
+     * The check is only made when <code>UPDATE_SKIP_UNCHANGED_RECORDS</code> is true. It is never made for 870976
+     * records, as their links are found in the request record, nor when the created date is overwritten.
+     *
+     * @return <code>true</code> if nothing should be done for the record.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    boolean skipUnchangedRecord() throws UpdateException {
+        if (!Boolean.parseBoolean(settings.getProperty(JNDIResources.UPDATE_SKIP_UNCHANGED_RECORDS))) {
+            return false;
+        }
+        final MarcRecordReader reader = new MarcRecordReader(marcRecord);
+        final String bibliographicRecordId = reader.getRecordId();
+        final int agencyId = reader.getAgencyIdAsInt();
+        if (RawRepo.MATVURD_AGENCY == agencyId || state.getCreateOverwriteDate() != null ||
+                !state.getRawRepoRecordCache().recordExists(bibliographicRecordId, agencyId)) {
+            return false;
+        }
+        final Set<RecordId> relations = getRelations(marcRecord);
+        if (relations == null) {
+            return false;
+        }
+
+        final CanonicalRecordHash currentHash = CanonicalRecordHash.of(
+                state.getRawRepoRecordCache().fetchMarcRecord(bibliographicRecordId, agencyId), rawRepo.parents(recordId));
+        final CanonicalRecordHash newHash = CanonicalRecordHash.of(marcRecord, relations);
+        boolean unchanged = newHash.equals(currentHash);
+        if (!unchanged && newHash.hasSameContentInAnyOrder(currentHash)) {
+            // The stored record is sorted, so only sort the new record when sorting can make a difference
+            unchanged = CanonicalRecordHash.of(state.getRecordSorter().sortRecord(new MarcRecord(marcRecord)), relations).equals(currentHash);
+        }
+        if (unchanged) {
+            LOGGER.use(log -> log.info("Record {}:{} is identical to the record in rawrepo, so it is not stored, linked or enqueued", bibliographicRecordId, agencyId));
+            rawRepo.incrementUnchangedRecordsCounter();
+        }
+
+        return unchanged;
+    }
+
+    /**
+     * @return The records the record will be linked to by the parent and authority link actions, or null if a link
+     * can't be determined.
+     */
+    private static Set<RecordId> getRelations(MarcRecord marcRecord) {
+        final MarcRecordReader reader = new MarcRecordReader(marcRecord);
+        final Set<RecordId> result = new HashSet<>();
+        try {
+            if (reader.getParentRecordId() != null) {
+                result.add(new RecordId(reader.getParentRecordId(), reader.getParentAgencyIdAsInt()));
+            }
+            for (DataField field : marcRecord.getFields(DataField.class)) {
+                if (LinkAuthorityRecordsAction.AUTHORITY_ALL_FIELDS.contains(field.getTag()) &&
+                        field.hasSubField(hasSubFieldCode('5')) && field.hasSubField(hasSubFieldCode('6'))) {
+                    result.add(new RecordId(field.getSubField(hasSubFieldCode('6')).orElseThrow().getData(),
+                            Integer.parseInt(field.getSubField(hasSubFieldCode('5')).orElseThrow().getData())));
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return result;
+    }
+
     void performActionDBCRecord() throws UpdateException, MarcRecordExpandException {
         LOGGER.use(log -> log.info("Performing action for DBC record"));
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
@@ -83,6 +159,21 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
                 final Map<String, MarcRecord> otherAuthorityRecords = new HashMap<>();
                 final Set<RecordId> ids = state.getRawRepo().children(recordId);
 
+                if (authorityHasClassificationChange) {
+                    // Popular authority records can have thousands of children, so everything needed for expanding the
+                    // children is loaded up front with a few bulk calls instead of several calls per child.
+                    // For authority records with many children there is probably an overlap in other authority records
+                    // which the children are using, so each of those are only fetched once.
+                    state.getRawRepoRecordCache().fetchMergedMarcRecords(ids);
+                    final Set<RecordId> otherAuthorityIds = rawRepo.parents(ids).values().stream()
+                            .flatMap(Set::stream)
+                            .filter(parent -> RawRepo.AUTHORITY_AGENCY == parent.getAgencyId())
+                            .collect(Collectors.toSet());
+                    for (Map.Entry<RecordId, MarcRecord> entry : state.getRawRepoRecordCache().fetchMergedMarcRecords(otherAuthorityIds).entrySet()) {
+                        otherAuthorityRecords.put(entry.getKey().getBibliographicRecordId(), entry.getValue());
+                    }
+                }
+
                 for (RecordId id : ids) {
                     LOGGER.use(log -> log.info("Found child record for {}:{} - {}:{}", reader.getRecordId(), reader.getAgencyId(), id.getBibliographicRecordId(), id.getAgencyId()));
 
@@ -103,19 +194,8 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
                     }
 
                     if (authorityHasClassificationChange) {
-                        final MarcRecord currentChildRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchMergedRecord(id.getBibliographicRecordId(), id.getAgencyId()).getContent());
                         // If there is classification change in the authority record we need to update all the child records
-                        final Set<RecordId> parents = rawRepo.parents(id);
-
-                        // For authority records with many children there is probably an overlap in other authority records
-                        // which the children are using. In an effort to optimize performance the other authority records
-                        // are added to a list which is used to expand all children thus an authority record is only fetched once.
-                        for (RecordId parent : parents) {
-                            if (870979 == parent.getAgencyId() && !otherAuthorityRecords.containsKey(parent.getBibliographicRecordId())) {
-                                final Record childRecord = rawRepo.fetchMergedRecord(parent.getBibliographicRecordId(), parent.getAgencyId());
-                                otherAuthorityRecords.put(parent.getBibliographicRecordId(), UpdateRecordContentTransformer.decodeRecord(childRecord.getContent()));
-                            }
-                        }
+                        final MarcRecord currentChildRecord = state.getRawRepoRecordCache().fetchMergedMarcRecord(id.getBibliographicRecordId(), id.getAgencyId());
 
                         final Map<String, MarcRecord> updatedRecordCollection = new HashMap<>(otherAuthorityRecords);
                         updatedRecordCollection.put(id.getBibliographicRecordId(), currentChildRecord);
@@ -176,23 +256,13 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
         }
 
 
-        if (state.getRawRepo().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
+        if (state.getRawRepoRecordCache().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
             final MarcRecord currentRecord = loadCurrentRecord();
-            final MarcRecordReader currentReader = new MarcRecordReader(currentRecord);
 
             // Field exists in the updated record but not in the current record -> korrekturprint
-            // It's a fact that both 100 and 110 may only exist as one field, but getField returns null if the field doesn't exist
-            // therefore we get "all" fields of the two types. Number of fields are validated at another place.
-            return !(currentReader.getFieldAll("100").equals(reader.getFieldAll("100")) &&
-                    currentReader.getFieldAll("110").equals(reader.getFieldAll("110")) &&
-                    currentReader.getFieldAll("133").equals(reader.getFieldAll("133")) &&
-                    currentReader.getFieldAll("134").equals(reader.getFieldAll("134")) &&
-                    currentReader.getFieldAll("400").equals(reader.getFieldAll("400")) &&
-                    currentReader.getFieldAll("410").equals(reader.getFieldAll("410")) &&
-                    currentReader.getFieldAll("433").equals(reader.getFieldAll("433")) &&
-                    currentReader.getFieldAll("434").equals(reader.getFieldAll("434")) &&
-                    currentReader.getFieldAll("500").equals(reader.getFieldAll("500")) &&
-                    currentReader.getFieldAll("510").equals(reader.getFieldAll("510")));
+            // It's a fact that both 100 and 110 may only exist as one field, but the diff compares all fields of the
+            // two types. Number of fields are validated at another place.
+            return state.getRecordDiff(currentRecord, marcRecord).isFieldChanged(PROOF_PRINT_FIELDS);
         }
 
         return false;
@@ -210,12 +280,18 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
     void handleUniverseLinks(MarcRecord marcRecord) throws UpdateException, MarcRecordExpandException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
 
-        if (state.getRawRepo().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
+        if (state.getRawRepoRecordCache().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
             final MarcRecord currentRecord = loadCurrentRecord();
             final MarcRecordReader currentReader = new MarcRecordReader(currentRecord);
             final DataField currentReaderField = currentReader.getField("234");
             final DataField newField = reader.getField("234");
+            if (currentReaderField == null && newField == null) {
+                // No universe before or after, so no children needs to be changed
+                return;
+            }
             final Set<RecordId> ids = state.getRawRepo().children(recordId);
+            // Fetch all the children at once - they are usually already cached by the classification handling
+            state.getRawRepoRecordCache().fetchMergedMarcRecords(ids);
             String link = "";
             if (newField != null) {
                 for (SubField subField : newField.getSubFields()) {
@@ -226,7 +302,7 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
             }
 
             for (RecordId id : ids) {
-                final MarcRecord currentChildRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchMergedRecord(id.getBibliographicRecordId(), id.getAgencyId()).getContent());
+                final MarcRecord currentChildRecord = state.getRawRepoRecordCache().fetchMergedMarcRecord(id.getBibliographicRecordId(), id.getAgencyId());
                 final MarcRecordWriter currentChildWriter = new MarcRecordWriter(currentChildRecord);
                 final MarcRecordReader currentChildReader = new MarcRecordReader(currentChildRecord);
                 boolean createAction = false;
@@ -273,12 +349,10 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
     boolean authorityRecordHasClassificationChange(MarcRecord marcRecord) throws UpdateException, MarcRecordExpandException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
 
-        if (state.getRawRepo().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
+        if (state.getRawRepoRecordCache().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
             final MarcRecord currentRecord = loadCurrentRecord();
-            final MarcRecordReader currentReader = new MarcRecordReader(currentRecord);
 
-            return !(currentReader.getFieldAll("100").equals(reader.getFieldAll("100")) &&
-                    currentReader.getFieldAll("110").equals(reader.getFieldAll("110")));
+            return state.getRecordDiff(currentRecord, marcRecord).isFieldChanged("100", "110");
         }
 
         return false;
@@ -286,9 +360,24 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
 
     /*
         This record find all agencies with enrichments or holdings for the volume records in under the input record.
-        The function calls itself recursively until the hierarchy has been traversed
+        The volumes are found first, so the holdings of all the volumes can be looked up at once
      */
     private void findChildrenAndHoldingsOnChildren(MarcRecord marcRecord, Set<Integer> librariesWithPosts) throws UpdateException {
+        final List<MarcRecord> volumes = new ArrayList<>();
+        findVolumes(marcRecord, volumes);
+
+        LOGGER.use(log -> log.info("Getting holdings and agencies for {} volumes", volumes.size()));
+        librariesWithPosts.addAll(state.getAgenciesWithHoldings(volumes));
+        for (MarcRecord volume : volumes) {
+            librariesWithPosts.addAll(state.getRawRepo().agenciesForRecordNotDeleted(new MarcRecordReader(volume).getRecordId()));
+        }
+    }
+
+    /*
+        Collects the volume records under the input record. The function calls itself recursively until the hierarchy
+        has been traversed
+     */
+    private void findVolumes(MarcRecord marcRecord, List<MarcRecord> volumes) throws UpdateException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
         final RecordId recordId = new RecordId(reader.getRecordId(), reader.getAgencyIdAsInt());
 
@@ -297,13 +386,11 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
         if (recordIsHeadOrSection(marcRecord)) {
             for (RecordId child : state.getRawRepo().children(recordId)) {
                 LOGGER.use(log -> log.info("Found child record {}", child));
-                MarcRecord childRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(child.getBibliographicRecordId(), child.getAgencyId()).getContent());
-                findChildrenAndHoldingsOnChildren(childRecord, librariesWithPosts);
+                MarcRecord childRecord = state.getRawRepoRecordCache().fetchMarcRecord(child.getBibliographicRecordId(), child.getAgencyId());
+                findVolumes(childRecord, volumes);
             }
         } else {
-            LOGGER.use(log -> log.info("Getting holdings and agencies for volume {}", recordId));
-            librariesWithPosts.addAll(state.getAgenciesWithHoldings(marcRecord));
-            librariesWithPosts.addAll(state.getRawRepo().agenciesForRecordNotDeleted(reader.getRecordId()));
+            volumes.add(marcRecord);
         }
     }
 
@@ -357,9 +444,7 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
             final String recordId = reader.getRecordId();
             final int agencyId = reader.getAgencyIdAsInt();
             if (RawRepo.AUTHORITY_AGENCY == agencyId) {
-                final Record currentRecord = rawRepo.fetchRecord(recordId, agencyId);
-
-                this.currentMarcRecord = UpdateRecordContentTransformer.decodeRecord(currentRecord.getContent());
+                this.currentMarcRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordId, agencyId);
             } else {
                 final Map<String, MarcRecord> currentRecordCollection = rawRepo.fetchRecordCollection(recordId, agencyId);
 
@@ -371,8 +456,7 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
     }
 
     protected MarcRecord loadRecord(String recordId, int agencyId) throws UpdateException, UnsupportedEncodingException {
-        final Record record = rawRepo.fetchRecord(recordId, agencyId);
-        return UpdateRecordContentTransformer.decodeRecord(record.getContent());
+        return state.getRawRepoRecordCache().fetchMarcRecord(recordId, agencyId);
     }
 
     MarcRecord expandRecord() throws UpdateException, MarcRecordExpandException {
@@ -386,8 +470,7 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
             if (field.hasSubField(hasSubFieldCode('5')) && field.hasSubField(hasSubFieldCode('6'))) {
                 final String autRecordId = field.getSubField(hasSubFieldCode('6')).orElseThrow().getData();
 
-                final Record extRecord = rawRepo.fetchRecord(autRecordId, RawRepo.AUTHORITY_AGENCY);
-                final MarcRecord autRecord = UpdateRecordContentTransformer.decodeRecord(extRecord.getContent());
+                final MarcRecord autRecord = state.getRawRepoRecordCache().fetchMarcRecord(autRecordId, RawRepo.AUTHORITY_AGENCY);
                 newRecordCollection.put(autRecordId, autRecord);
             }
         }
@@ -408,7 +491,7 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
                 // But because the "minus enrichment" part is in the enrichment we have to look in the input record
                 if (!hasMinusEnrichment(state.getMarcRecord()) && state.getLibraryRecordsHandler().hasClassificationData(currentRecord) &&
                         state.getLibraryRecordsHandler().hasClassificationData(marcRecord) &&
-                        state.getLibraryRecordsHandler().hasClassificationsChanged(currentRecord, marcRecord, classificationMessages)) {
+                        state.getLibraryRecordsHandler().hasClassificationsChanged(state.getRecordDiff(currentRecord, marcRecord), classificationMessages, state.getCompareStringNormalizer())) {
                     log.info("Classifications was changed for common record [{}:{}]", recordId, agencyId);
 
                     final Set<Integer> librariesWithPosts = new HashSet<>();
@@ -416,15 +499,21 @@ class OverwriteSingleRecordAction extends AbstractRawRepoAction {
 
                     log.info("Found holdings or enrichments record for: {}", librariesWithPosts.toString());
 
+                    final Set<RecordId> existingEnrichments = state.getRawRepoRecordCache().recordsExist(librariesWithPosts.stream()
+                            .map(id -> new RecordId(recordId, id))
+                            .collect(Collectors.toSet()));
+                    final Set<String> librariesUsingEnrichments = state.getVipCoreService().getAgenciesWithFeature(librariesWithPosts.stream()
+                            .map(id -> Integer.toString(id))
+                            .collect(Collectors.toSet()), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS);
+
                     for (int id : librariesWithPosts) {
-                        if (!state.getVipCoreService().hasFeature(Integer.toString(id), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)) {
+                        if (!librariesUsingEnrichments.contains(Integer.toString(id))) {
                             continue;
                         }
                         if (state.getUpdateServiceRequestDTO().getAuthenticationDTO().getGroupId().equals(Integer.toString(id))) {
                             log.info("Enrichment record is not created or updated for record [{}:{}], because groupId equals agencyid", recordId, id);
-                        } else if (rawRepo.recordExists(recordId, id)) {
-                            Record extRecord = rawRepo.fetchRecord(recordId, id);
-                            MarcRecord extRecordData = UpdateRecordContentTransformer.decodeRecord(extRecord.getContent());
+                        } else if (existingEnrichments.contains(new RecordId(recordId, id))) {
+                            MarcRecord extRecordData = state.getRawRepoRecordCache().fetchMarcRecord(recordId, id);
                             log.info("Update classifications for extended library record: [{}:{}]", recordId, id);
                             result.add(getUpdateClassificationsInEnrichmentRecordActionData(extRecordData, marcRecord, currentRecord, Integer.toString(id)));
                         } else {
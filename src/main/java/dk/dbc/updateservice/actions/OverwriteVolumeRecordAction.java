@@ -33,7 +33,9 @@ public class OverwriteVolumeRecordAction extends OverwriteSingleRecordAction {
         try {
             final MarcRecordReader reader = new MarcRecordReader(marcRecord);
             if (RawRepo.DBC_PRIVATE_AGENCY_LIST.contains(reader.getAgencyId())) {
-                performActionDBCRecord();
+                if (!skipUnchangedRecord()) {
+                    performActionDBCRecord();
+                }
                 return ServiceResult.newOkResult();
             } else {
                 return performActionDefault();
@@ -66,6 +68,10 @@ public class OverwriteVolumeRecordAction extends OverwriteSingleRecordAction {
             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
         }
 
+        if (skipUnchangedRecord()) {
+            return ServiceResult.newOkResult();
+        }
+
         final MarcRecord currentExpandedRecord = loadCurrentRecord();
         final MarcRecord newExpandedRecord = expandRecord();
 
@@ -6,6 +6,7 @@ import dk.dbc.marc.reader.MarcReaderException;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
@@ -44,6 +45,7 @@ public class PreProcessingAction extends AbstractRawRepoAction {
             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, ex.getMessage());
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 
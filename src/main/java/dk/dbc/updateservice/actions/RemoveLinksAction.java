@@ -36,7 +36,7 @@ public class RemoveLinksAction extends AbstractRawRepoAction {
             final String recId = reader.getRecordId();
             final int agencyId = reader.getAgencyIdAsInt();
 
-            rawRepo.removeLinks(new RecordId(recId, agencyId));
+            state.getRawRepoRecordCache().removeLinks(new RecordId(recId, agencyId));
             log.info("Removed all links for record {{}:{}} successfully", recId, agencyId);
 
             return ServiceResult.newOkResult();
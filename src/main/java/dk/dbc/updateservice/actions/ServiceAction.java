@@ -72,4 +72,19 @@ public interface ServiceAction {
     void setupMDCContext();
     long getTimeElapsed();
     void setTimeElapsed( long timeElapsed );
+
+    /**
+     * Tells the engine whether this action may run at the same time as its neighbouring siblings which also returns
+     * <code>true</code>.
+     * <p/>
+     * Only return <code>true</code> if the action (and its children) does not depend on anything done by the
+     * preceding siblings, does not change anything read by the other siblings and does not write to RawRepo. The
+     * RawRepo unit of work belongs to the engine thread, so writes from another thread would end up outside the
+     * transaction.
+     *
+     * @return <code>true</code> if the action can run concurrently with its siblings.
+     */
+    default boolean canRunConcurrently() {
+        return false;
+    }
 }
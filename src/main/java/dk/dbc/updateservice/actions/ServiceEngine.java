@@ -9,8 +9,12 @@ import dk.dbc.commons.metricshandler.CounterMetric;
 import dk.dbc.commons.metricshandler.MetricsHandlerBean;
 import dk.dbc.commons.metricshandler.SimpleTimerMetric;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
+import dk.dbc.updateservice.update.RawRepo;
+import dk.dbc.updateservice.update.RawRepoUnitOfWork;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
+import dk.dbc.updateservice.utils.MetricTags;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.microprofile.metrics.Metadata;
 import org.eclipse.microprofile.metrics.MetricType;
@@ -21,9 +25,17 @@ import org.perf4j.log4j.Log4JStopWatch;
 import org.slf4j.MDC;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BooleanSupplier;
 
 import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
 
@@ -33,12 +45,33 @@ import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD
  */
 public class ServiceEngine {
     private static final DeferredLogger LOGGER = new DeferredLogger(ServiceEngine.class);
+    // Set while a thread runs one of the concurrent actions. Children of those are executed sequentially so pool
+    // threads never wait for other tasks in the same pool. The value tells if an earlier sibling has stopped the
+    // execution, so the result of the action won't be used.
+    private static final ThreadLocal<BooleanSupplier> RUNNING_CONCURRENTLY = new ThreadLocal<>();
+    // Action names are set in code, the bound only guards against names built from data
+    private static final MetricTags.Bounded ACTION_NAMES = new MetricTags.Bounded("[A-Za-z0-9_.]{1,100}", 200);
 
     private Map<String, String> loggerKeys = new HashMap<>();
     MetricsHandlerBean metricsHandlerBean;
+    private final RawRepo rawRepo;
+    private ExecutorService executorService;
+    private ActionTrace actionTrace;
 
     public ServiceEngine(MetricsHandlerBean metricsHandlerBean) {
+        this(metricsHandlerBean, null);
+    }
+
+    /**
+     * Constructs an engine which runs each action tree in a single RawRepo unit of work, i.e. on one connection and
+     * in one transaction which is committed when the whole tree has completed successfully.
+     *
+     * @param metricsHandlerBean Handler for metrics.
+     * @param rawRepo            The RawRepo to start units of work on.
+     */
+    public ServiceEngine(MetricsHandlerBean metricsHandlerBean, RawRepo rawRepo) {
         this.metricsHandlerBean = metricsHandlerBean;
+        this.rawRepo = rawRepo;
     }
 
 
@@ -90,6 +123,23 @@ public class ServiceEngine {
         this.loggerKeys = loggerKeys;
     }
 
+    /**
+     * Sets the executor used for running sibling actions which can run concurrently. Without an executor all actions
+     * are executed one at a time on the calling thread.
+     *
+     * @param executorService The executor, or <code>null</code> to disable concurrent execution.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * @return The trace of the action tree executed last, or <code>null</code> if no action has been executed.
+     */
+    public ActionTrace getActionTrace() {
+        return actionTrace;
+    }
+
     /**
      * Executes an action including any child actions that the <code>action</code>
      * may create.
@@ -99,6 +149,14 @@ public class ServiceEngine {
      * <p/>
      * If multiple ServiceAction's has been called then the results are concatenated
      * together to a single result.
+     * <p/>
+     * Consecutive children which can run concurrently are executed in parallel if the
+     * engine has an executor. Their results are still added in the order of the children.
+     * <p/>
+     * If the engine has been given a RawRepo then the whole tree is executed in one
+     * RawRepo unit of work which is only committed if the tree completes with status OK.
+     * <p/>
+     * The timing, status and calls to dependencies of each action are traced, see {@link #getActionTrace()}.
      *
      * @param action ServiceAction to execute.
      * @return A concatenated list of ValidationError that is returned by all called
@@ -106,14 +164,34 @@ public class ServiceEngine {
      * @throws UpdateException thrown in case of an error.
      */
     public ServiceResult executeAction(ServiceAction action) throws UpdateException {
+        actionTrace = new ActionTrace(action != null ? action.name() : null);
+        if (rawRepo == null || rawRepo.isUnitOfWorkActive()) {
+            return executeActionTree(action, actionTrace);
+        }
+
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            final ServiceResult serviceResult = executeActionTree(action, actionTrace);
+            if (serviceResult.getStatus() == UpdateStatusEnumDTO.OK && !unitOfWork.isRollbackOnly()) {
+                unitOfWork.commit();
+            } else {
+                LOGGER.use(log -> log.info("Action tree did not complete successfully - RawRepo changes are rolled back"));
+            }
+
+            return serviceResult;
+        }
+    }
+
+    private ServiceResult executeActionTree(ServiceAction action, ActionTrace trace) throws UpdateException {
         StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final Tag methodTag;
         if (action != null && action.name() != null) {
-            methodTag = new Tag(METHOD_NAME_KEY, action.name());
+            methodTag = new Tag(METHOD_NAME_KEY, ACTION_NAMES.of(action.name()));
         } else {
-            methodTag = new Tag(METHOD_NAME_KEY, "unknown");
+            methodTag = new Tag(METHOD_NAME_KEY, MetricTags.UNKNOWN);
         }
 
+        ServiceResult tracedResult = null;
+        trace.start();
         try {
             if (action == null) {
                 String message = String.format("%s.executeAction can not be called with (null)", getClass().getName());
@@ -124,7 +202,16 @@ public class ServiceEngine {
 
             printActionHeader(action);
 
-            ServiceResult serviceResult = action.performAction();
+            final ServiceResult serviceResult;
+            final CostLedger requestLedger = CostLedger.current();
+            final CostLedger actionLedger = CostLedger.startChild();
+            try {
+                serviceResult = action.performAction();
+            } finally {
+                CostLedger.attach(requestLedger);
+                trace.actionDone(actionLedger);
+            }
+            tracedResult = serviceResult;
             watch.stop("action." + action.name());
             action.setTimeElapsed(watch.getElapsedTime());
             action.setServiceResult(serviceResult);
@@ -137,23 +224,40 @@ public class ServiceEngine {
             }
             List<ServiceAction> children = action.children();
             if (children != null) {
-                for (ServiceAction child : children) {
-                    ServiceResult childResult = executeAction(child);
-                    serviceResult.addServiceResult(childResult);
-                    if (stopExecution(childResult)) {
-                        serviceResult.setStatus(childResult.getStatus());
+                int index = 0;
+                while (index < children.size()) {
+                    if (isCancelled()) {
+                        LOGGER.use(log -> log.info("Skipping the remaining sub actions as an earlier action has stopped the execution"));
                         return serviceResult;
                     }
+                    final int groupEnd = findConcurrentGroupEnd(children, index);
+                    final List<ServiceResult> childResults;
+                    if (groupEnd - index > 1) {
+                        childResults = executeConcurrently(children.subList(index, groupEnd), trace);
+                        index = groupEnd;
+                    } else {
+                        final ServiceAction child = children.get(index);
+                        childResults = Collections.singletonList(executeActionTree(child, trace.addChild(child.name())));
+                        index++;
+                    }
+                    for (ServiceResult childResult : childResults) {
+                        serviceResult.addServiceResult(childResult);
+                        if (stopExecution(childResult)) {
+                            serviceResult.setStatus(childResult.getStatus());
+                            return serviceResult;
+                        }
+                    }
                 }
             }
             return serviceResult;
         } catch (IllegalStateException ex) {
             metricsHandlerBean.increment(serviceEngineErrorCounterMetrics,
                     methodTag,
-                    new Tag(ERROR_TYPE, ex.getMessage().toLowerCase()));
+                    new Tag(ERROR_TYPE, MetricTags.errorType(ex)));
 
             throw new UpdateException(ex.getMessage(), ex);
         } finally {
+            trace.finish(tracedResult);
             MDC.setContextMap(loggerKeys);
             metricsHandlerBean.update(serviceEngineTimingMetrics,
                     Duration.ofMillis(watch.getElapsedTime()),
@@ -161,6 +265,168 @@ public class ServiceEngine {
         }
     }
 
+    /**
+     * Finds the end (exclusive) of the run of siblings starting at <code>start</code> which can be executed
+     * concurrently.
+     */
+    private int findConcurrentGroupEnd(List<ServiceAction> children, int start) {
+        if (executorService == null || RUNNING_CONCURRENTLY.get() != null) {
+            return start + 1;
+        }
+        int end = start;
+        while (end < children.size() && children.get(end).canRunConcurrently()) {
+            end++;
+        }
+
+        return Math.max(end, start + 1);
+    }
+
+    /**
+     * Executes the actions on the executor and returns their results in the same order as the actions.
+     * <p/>
+     * The results are collected in order and collecting stops at the first result which would stop the execution.
+     * Actions after that one which haven't started yet are skipped, so the caller sees the same results as if the
+     * actions had been executed one at a time, and running actions can check {@link #isCancelled()} before calling
+     * other services.
+     * <p/>
+     * Actions running on another thread run outside the RawRepo unit of work of the request, so RawRepo refuses writes
+     * from them, and the statements they defer are handed to the calling thread, so they are logged if the request
+     * fails.
+     */
+    private List<ServiceResult> executeConcurrently(List<ServiceAction> actions, ActionTrace parentTrace) throws UpdateException {
+        LOGGER.use(log -> log.info("Executing {} actions concurrently", actions.size()));
+        final List<Future<ServiceResult>> futures = new ArrayList<>(actions.size());
+        final CostLedger ledger = CostLedger.current();
+        final Thread callingThread = Thread.currentThread();
+        final AtomicReferenceArray<DeferredLogger.Deferred> deferredLogs = new AtomicReferenceArray<>(actions.size());
+        // Index of the first action whose result stops the execution, the actions after it are not needed
+        final AtomicInteger firstStopped = new AtomicInteger(actions.size());
+        for (int i = 0; i < actions.size(); i++) {
+            final int index = i;
+            final ServiceAction action = actions.get(i);
+            final ActionTrace trace = parentTrace.addChild(action.name());
+            final BooleanSupplier cancelled = () -> firstStopped.get() < index;
+            futures.add(executorService.submit(() -> {
+                if (cancelled.getAsBoolean()) {
+                    LOGGER.use(log -> log.info("Skipping {} as an earlier action has stopped the execution", action.name()));
+                    return null;
+                }
+                final ServiceResult result;
+                try {
+                    result = executeSibling(action, trace, ledger, deferredLogs, index, callingThread, cancelled);
+                } catch (UpdateException | RuntimeException ex) {
+                    firstStopped.accumulateAndGet(index, Math::min);
+                    throw ex;
+                }
+                if (stopExecution(result)) {
+                    firstStopped.accumulateAndGet(index, Math::min);
+                }
+                return result;
+            }));
+        }
+
+        final List<ServiceResult> results = new ArrayList<>(actions.size());
+        try {
+            for (Future<ServiceResult> future : futures) {
+                final ServiceResult result = future.get();
+                results.add(result);
+                if (stopExecution(result)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UpdateException("Interrupted while waiting for concurrent actions", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof UpdateException) {
+                throw (UpdateException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new UpdateException(cause.getMessage(), cause);
+        } finally {
+            for (Future<ServiceResult> future : futures) {
+                future.cancel(false);
+            }
+            for (int i = 0; i < deferredLogs.length(); i++) {
+                final DeferredLogger.Deferred deferred = deferredLogs.get(i);
+                if (deferred != null) {
+                    DeferredLogger.addDeferred(deferred);
+                }
+            }
+            MDC.setContextMap(loggerKeys);
+        }
+
+        return results;
+    }
+
+    private ServiceResult executeSibling(ServiceAction action, ActionTrace trace, CostLedger ledger,
+                                         AtomicReferenceArray<DeferredLogger.Deferred> deferredLogs, int index,
+                                         Thread callingThread, BooleanSupplier cancelled) throws UpdateException {
+        if (Thread.currentThread() != callingThread) {
+            return executeOnOtherThread(action, trace, ledger, deferredLogs, index, cancelled);
+        }
+        // The task runs on the calling thread when the pool is busy, so the state of the thread is restored rather
+        // than cleared afterwards
+        final BooleanSupplier previousRunningConcurrently = RUNNING_CONCURRENTLY.get();
+        final CostLedger previousLedger = CostLedger.current();
+        final Map<String, String> previousMDC = MDC.getCopyOfContextMap();
+        RUNNING_CONCURRENTLY.set(cancelled);
+        CostLedger.attach(ledger);
+        try {
+            return executeActionTree(action, trace);
+        } finally {
+            if (previousRunningConcurrently == null) {
+                RUNNING_CONCURRENTLY.remove();
+            } else {
+                RUNNING_CONCURRENTLY.set(previousRunningConcurrently);
+            }
+            CostLedger.attach(previousLedger);
+            if (previousMDC == null) {
+                MDC.clear();
+            } else {
+                MDC.setContextMap(previousMDC);
+            }
+        }
+    }
+
+    private ServiceResult executeOnOtherThread(ServiceAction action, ActionTrace trace, CostLedger ledger,
+                                               AtomicReferenceArray<DeferredLogger.Deferred> deferredLogs, int index,
+                                               BooleanSupplier cancelled) throws UpdateException {
+        RUNNING_CONCURRENTLY.set(cancelled);
+        RawRepo.setReadOnly(true);
+        CostLedger.attach(ledger);
+        try {
+            // One logging context for the whole tree, so its statements are kept until they are handed over
+            return LOGGER.callChecked(log -> {
+                try {
+                    return executeActionTree(action, trace);
+                } finally {
+                    deferredLogs.set(index, DeferredLogger.takeDeferred());
+                }
+            });
+        } finally {
+            RUNNING_CONCURRENTLY.remove();
+            RawRepo.setReadOnly(false);
+            CostLedger.attach(null);
+            MDC.clear();
+        }
+    }
+
+    /**
+     * Tells an action running concurrently with its siblings that an earlier sibling has stopped the execution, so
+     * its result won't be used and it should avoid calling other services.
+     *
+     * @return <code>true</code> if the result of the current action won't be used.
+     */
+    static boolean isCancelled() {
+        final BooleanSupplier cancelled = RUNNING_CONCURRENTLY.get();
+        return cancelled != null && cancelled.getAsBoolean();
+    }
+
     /**
      * Checks if <code>list</code> contains a ValidationError with type
      * <code>ERROR</code>
@@ -64,12 +64,8 @@ public class StoreRecordAction extends AbstractRawRepoAction {
      * Class used for mocking during unit test
      */
     static class Encoder {
-        byte[] encodeRecordToMarcXchange(MarcRecord marcRecord) {
-            return UpdateRecordContentTransformer.encodeRecord(marcRecord);
-        }
-
-        byte[] encodeRecordToJson(MarcRecord marcRecord) throws UpdateException{
-            return UpdateRecordContentTransformer.encodeRecordToJson(marcRecord);
+        UpdateRecordContentTransformer.EncodedRecord encodeRecord(MarcRecord marcRecord) throws UpdateException {
+            return UpdateRecordContentTransformer.encodeRecordForRawRepo(marcRecord);
         }
     }
 
@@ -95,8 +91,9 @@ public class StoreRecordAction extends AbstractRawRepoAction {
             }
             recordToStore = state.getRecordSorter().sortRecord(recordToStore);
             updateModifiedDate(recordToStore);
-            rawRepoRecord.setContent(encoder.encodeRecordToMarcXchange(recordToStore));
-            rawRepoRecord.setContentJson(encoder.encodeRecordToJson(recordToStore));
+            final UpdateRecordContentTransformer.EncodedRecord encodedRecord = encoder.encodeRecord(recordToStore);
+            rawRepoRecord.setContent(encodedRecord.getContent());
+            rawRepoRecord.setContentJson(encodedRecord.getContentJson());
             if (mimetype != null && !mimetype.isEmpty()) {
                 rawRepoRecord.setMimeType(mimetype);
             }
@@ -105,7 +102,7 @@ public class StoreRecordAction extends AbstractRawRepoAction {
                 rawRepoRecord.setCreated(state.getCreateOverwriteDate());
             }
             rawRepoRecord.setTrackingId(MDC.get(MDCUtil.MDC_TRACKING_ID_LOG_CONTEXT));
-            rawRepo.saveRecord(rawRepoRecord);
+            state.getRawRepoRecordCache().saveRecord(rawRepoRecord);
             log.info("Save record [{}:{}]", rawRepoRecord.getId().getBibliographicRecordId(), rawRepoRecord.getId().getAgencyId());
             log.debug("Details about record: mimeType: '{}', deleted: {}, trackingId: '{}'", rawRepoRecord.getMimeType(), rawRepoRecord.isDeleted(), rawRepoRecord.getTrackingId());
             return ServiceResult.newOkResult();
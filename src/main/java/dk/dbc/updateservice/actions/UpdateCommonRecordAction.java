@@ -8,7 +8,6 @@ import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.SolrServiceIndexer;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector.Rule;
@@ -73,8 +72,8 @@ public class UpdateCommonRecordAction extends AbstractRawRepoAction {
                 // Therefore we need to collapse the incoming expanded record and pass that record to the later actions
                 final String groupId = state.getUpdateServiceRequestDTO().getAuthenticationDTO().getGroupId();
 
-                if ("DBC".equals(reader.getValue("996", 'a')) && state.getLibraryGroup().isFBS() && state.getRawRepo().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
-                    final MarcRecord currentRecord = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().fetchRecord(reader.getRecordId(), reader.getAgencyIdAsInt()).getContent());
+                if ("DBC".equals(reader.getValue("996", 'a')) && state.getLibraryGroup().isFBS() && state.getRawRepoRecordCache().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
+                    final MarcRecord currentRecord = state.getRawRepoRecordCache().fetchMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
                     final MarcRecord collapsedRecord = state.getNoteAndSubjectExtensionsHandler().collapse(marcRecord, currentRecord,
                             groupId, state.getNoteAndSubjectExtensionsHandler().isPublishedDBCRecord(currentRecord));
                     recordToStore = state.getRecordSorter().sortRecord(collapsedRecord);
@@ -87,7 +86,7 @@ public class UpdateCommonRecordAction extends AbstractRawRepoAction {
                     if (RawRepo.AUTHORITY_FIELDS.contains(field.getTag()) && field.hasSubField(hasSubFieldCode('5')) && field.hasSubField(hasSubFieldCode('6'))) {
                         final String authRecordId = field.getSubField(hasSubFieldCode('6')).orElseThrow().getData();
                         final int authAgencyId = Integer.parseInt(field.getSubField(hasSubFieldCode('5')).orElseThrow().getData());
-                        if (!state.getRawRepo().recordExists(authRecordId, authAgencyId)) {
+                        if (!state.getRawRepoRecordCache().recordExists(authRecordId, authAgencyId)) {
                             String message = String.format(state.getMessages().getString("ref.record.doesnt.exist"), authRecordId, authAgencyId);
                             log.error(message);
                             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
@@ -128,9 +127,9 @@ public class UpdateCommonRecordAction extends AbstractRawRepoAction {
             return;
         }
 
-        final boolean recordExists = state.getRawRepo().recordExistsMaybeDeleted(recordId, agencyIdAsInt);
+        final boolean recordExists = state.getRawRepoRecordCache().recordExistsMaybeDeleted(recordId, agencyIdAsInt);
         if (recordExists) {
-            final MarcRecord curRecord = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().fetchRecord(recordId, COMMON_AGENCY).getContent());
+            final MarcRecord curRecord = state.getRawRepoRecordCache().fetchMarcRecord(recordId, COMMON_AGENCY);
 
             checkExisingOveCodes(curRecord);
         } else {
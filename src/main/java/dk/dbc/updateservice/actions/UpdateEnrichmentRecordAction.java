@@ -4,15 +4,12 @@ import dk.dbc.common.records.MarcRecordReader;
 import dk.dbc.common.records.MarcRecordWriter;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.marcxmerge.MarcXChangeMimeType;
-import dk.dbc.rawrepo.Record;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Properties;
 
 /**
@@ -26,7 +23,6 @@ import java.util.Properties;
 public class UpdateEnrichmentRecordAction extends AbstractRawRepoAction {
     private static final DeferredLogger LOGGER = new DeferredLogger(UpdateEnrichmentRecordAction.class);
 
-    Decoder decoder = new Decoder();
     Properties settings;
     private final int parentAgencyId;
 
@@ -40,19 +36,6 @@ public class UpdateEnrichmentRecordAction extends AbstractRawRepoAction {
         this.parentAgencyId = parentAgencyId;
     }
 
-    /**
-     * Class used for mocking during unit test
-     */
-    static class Decoder {
-        MarcRecord decodeRecord(byte[] bytes) throws UnsupportedEncodingException {
-            try {
-                return UpdateRecordContentTransformer.decodeRecord(bytes);
-            } catch (UpdateException e) {
-                throw new UnsupportedEncodingException(e.getMessage());
-            }
-        }
-    }
-
     /**
      * Constructs child actions to update or delete the enrichment record.
      * <p>
@@ -81,44 +64,38 @@ public class UpdateEnrichmentRecordAction extends AbstractRawRepoAction {
     @Override
     public ServiceResult performAction() throws UpdateException {
         return LOGGER.callChecked(log -> {
-            try {
-                log.info("Handling record: {}", marcRecord);
-                final MarcRecordReader reader = new MarcRecordReader(marcRecord);
-                if (reader.markedForDeletion()) {
-                    return performDeletionAction();
-                }
-
-                final String wrkRecordId = reader.getRecordId();
-                final String wrkParentId = reader.getParentRecordId();
-                if (wrkParentId != null && !wrkParentId.isEmpty()) {
-                    final String agencyId = reader.getAgencyId();
-                    final String message = String.format(state.getMessages().getString("enrichment.has.parent"), wrkRecordId, agencyId);
-                    log.warn("Unable to update enrichment record due to an error: {}", message);
-                    return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
-                }
-                if (!rawRepo.recordExists(wrkRecordId, getParentAgencyId())) {
-                    final String message = String.format(state.getMessages().getString("record.does.not.exist"), wrkRecordId);
-                    log.warn("Unable to update enrichment record due to an error: {}", message);
-                    return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
-                }
-                final Record commonRecord = rawRepo.fetchRecord(wrkRecordId, getParentAgencyId());
-                final MarcRecord decodedRecord = decoder.decodeRecord(commonRecord.getContent());
-                final MarcRecord enrichmentRecord = state.getLibraryRecordsHandler().correctLibraryExtendedRecord(decodedRecord, marcRecord);
-
-                log.info("Correct content of enrichment record.");
-                log.info("Old content:\n{}", marcRecord);
-                log.info("New content:\n{}", enrichmentRecord);
-                if (enrichmentRecord.getFields().isEmpty()) {
-                    return performDeletionAction();
-                }
-
-                removeMinusEnrichment(enrichmentRecord);
-
-                return performSaveRecord(enrichmentRecord);
-            } catch (UnsupportedEncodingException ex) {
-                log.error("Update error: " + ex.getMessage(), ex);
-                throw new UpdateException(ex.getMessage(), ex);
+            log.info("Handling record: {}", marcRecord);
+            final MarcRecordReader reader = new MarcRecordReader(marcRecord);
+            if (reader.markedForDeletion()) {
+                return performDeletionAction();
             }
+
+            final String wrkRecordId = reader.getRecordId();
+            final String wrkParentId = reader.getParentRecordId();
+            if (wrkParentId != null && !wrkParentId.isEmpty()) {
+                final String agencyId = reader.getAgencyId();
+                final String message = String.format(state.getMessages().getString("enrichment.has.parent"), wrkRecordId, agencyId);
+                log.warn("Unable to update enrichment record due to an error: {}", message);
+                return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
+            }
+            if (!state.getRawRepoRecordCache().recordExists(wrkRecordId, getParentAgencyId())) {
+                final String message = String.format(state.getMessages().getString("record.does.not.exist"), wrkRecordId);
+                log.warn("Unable to update enrichment record due to an error: {}", message);
+                return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
+            }
+            final MarcRecord decodedRecord = state.getRawRepoRecordCache().fetchMarcRecord(wrkRecordId, getParentAgencyId());
+            final MarcRecord enrichmentRecord = state.getLibraryRecordsHandler().correctLibraryExtendedRecord(decodedRecord, marcRecord, state.getCompareStringNormalizer());
+
+            log.info("Correct content of enrichment record.");
+            log.info("Old content:\n{}", marcRecord);
+            log.info("New content:\n{}", enrichmentRecord);
+            if (enrichmentRecord.getFields().isEmpty()) {
+                return performDeletionAction();
+            }
+
+            removeMinusEnrichment(enrichmentRecord);
+
+            return performSaveRecord(enrichmentRecord);
         });
     }
 
@@ -168,7 +145,7 @@ public class UpdateEnrichmentRecordAction extends AbstractRawRepoAction {
             final String recordId = reader.getRecordId();
             final int agencyId = reader.getAgencyIdAsInt();
 
-            if (!rawRepo.recordExists(recordId, agencyId)) {
+            if (!state.getRawRepoRecordCache().recordExists(recordId, agencyId)) {
                 log.info("The enrichment record {{}:{}} does not exist, so no actions is added for deletion.", recordId, agencyId);
                 return ServiceResult.newOkResult();
             }
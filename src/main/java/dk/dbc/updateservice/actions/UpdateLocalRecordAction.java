@@ -8,7 +8,6 @@ import dk.dbc.marcxmerge.MarcXChangeMimeType;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.UpdateException;
-import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
@@ -109,7 +108,7 @@ public class UpdateLocalRecordAction extends AbstractRawRepoAction {
             final String message = String.format(state.getMessages().getString("parent.point.to.itself"), recordId, agencyId);
             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
         }
-        if (!rawRepo.recordExists(parentId, agencyId)) {
+        if (!state.getRawRepoRecordCache().recordExists(parentId, agencyId)) {
             final String message = String.format(state.getMessages().getString("reference.record.not.exist"), recordId, agencyId, parentId, agencyId);
             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
         }
@@ -182,7 +181,7 @@ public class UpdateLocalRecordAction extends AbstractRawRepoAction {
         if (recordIdChildrenList.size() != 1) {
             return ServiceResult.newOkResult();
         }
-        final MarcRecord mainRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(parentRecordId, parentAgencyId).getContent());
+        final MarcRecord mainRecord = state.getRawRepoRecordCache().fetchMarcRecord(parentRecordId, parentAgencyId);
         final MarcRecordWriter writer = new MarcRecordWriter(mainRecord);
         writer.markForDeletion();
         final UpdateLocalRecordAction action = new UpdateLocalRecordAction(state, settings, mainRecord);
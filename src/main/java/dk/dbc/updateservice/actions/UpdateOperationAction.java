@@ -6,7 +6,6 @@ import dk.dbc.commons.jsonb.JSONBException;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.marc.reader.MarcReaderException;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
-import dk.dbc.rawrepo.Record;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.client.BibliographicRecordExtraData;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
@@ -18,6 +17,7 @@ import dk.dbc.updateservice.update.SolrException;
 import dk.dbc.updateservice.update.SolrServiceIndexer;
 import dk.dbc.updateservice.update.UpdateException;
 import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
@@ -33,6 +33,7 @@ import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -157,12 +158,15 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                     final StopWatch watch = new Log4JStopWatch("opencatBusiness.metacompass").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
                     try {
                         final String trackingId = MDC.get(MDC_TRACKING_ID_LOG_CONTEXT);
-                        marcRecord = state.getOpencatBusiness().metacompass(marcRecord, trackingId);
+                        try {
+                            marcRecord = state.getOpencatBusiness().metacompass(marcRecord, trackingId);
+                        } finally {
+                            watch.stop();
+                            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
+                        }
                         MetakompasHandler.createMetakompasSubjectRecords(children, state, rawRepo, marcRecord, settings);
                     } catch (UpdateException | OpencatBusinessConnectorException ex) {
                         return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, ex.getMessage());
-                    } finally {
-                        watch.stop();
                     }
                 }
 
@@ -188,7 +192,8 @@ class UpdateOperationAction extends AbstractRawRepoAction {
             That give some headache when the vip settings for 010100 differ from the agency to which the record belongs - for example
             an FFU library shall not handle enrichments which the setting for 010100 says it shall.
              */
-                List<MarcRecord> records = state.getLibraryRecordsHandler().recordDataForRawRepo(marcRecord, groupId, libraryGroup, state.getMessages(), state.isAdmin());
+                List<MarcRecord> records = state.getLibraryRecordsHandler().recordDataForRawRepo(marcRecord, groupId, libraryGroup, state.getMessages(), state.isAdmin(),
+                        state.getRawRepoRecordCache());
                 log.info("Got {} records from LibraryRecordsHandler.recordDataForRawRepo", records.size());
                 for (MarcRecord rec : records) {
                     log.info("Create sub actions for record:\n{}", rec);
@@ -196,7 +201,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                     final String recordId = reader.getRecordId();
                     final int agencyId = reader.getAgencyIdAsInt();
 
-                    if (reader.markedForDeletion() && !rawRepo.recordExists(recordId, agencyId)) {
+                    if (reader.markedForDeletion() && !state.getRawRepoRecordCache().recordExists(recordId, agencyId)) {
                         final String message = String.format(state.getMessages().getString("operation.delete.non.existing.record"), recordId, agencyId);
                         return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
                     }
@@ -204,7 +209,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                     if (RawRepo.DBC_AGENCY_LIST.contains(Integer.toString(agencyId))) {
                         if (!updReader.markedForDeletion() &&
                                 !state.getVipCoreService().hasFeature(groupId, VipCoreLibraryRulesConnector.Rule.AUTH_CREATE_COMMON_RECORD) &&
-                                !rawRepo.recordExists(updRecordId, updAgencyId)) {
+                                !state.getRawRepoRecordCache().recordExists(updRecordId, updAgencyId)) {
                             final String message = String.format(state.getMessages().getString("common.record.creation.not.allowed"), groupId);
                             return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
                         }
@@ -244,7 +249,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                 logRecordInfo(updReader);
                 if (state.isDoubleRecordPossible()) {
                     if (libraryGroup.isFBS() && StringUtils.isNotEmpty(state.getUpdateServiceRequestDTO().getDoubleRecordKey())) {
-                        boolean test = state.getUpdateStore().doesDoubleRecordKeyExist(state.getUpdateServiceRequestDTO().getDoubleRecordKey());
+                        boolean test = CostLedger.timed(CostLedger.Dependency.UPDATE_STORE, () -> state.getUpdateStore().doesDoubleRecordKeyExist(state.getUpdateServiceRequestDTO().getDoubleRecordKey()));
                         if (test) {
                             children.add(new DoubleRecordCheckingAction(state, settings, marcRecord));
                         } else {
@@ -299,7 +304,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
             final String groupId = state.getUpdateServiceRequestDTO().getAuthenticationDTO().getGroupId();
             if (RawRepo.DBC_AGENCY_LIST.contains(reader.getAgencyId())) {
                 if (!state.isAdmin()) {
-                    if (rawRepo.recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
+                    if (state.getRawRepoRecordCache().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
                         setCreationDateToExistingCreationDate(marcRecord);
                     } else {
                         // For specifically 870974 (literature analysis) must have a creation date equal to the parent
@@ -314,7 +319,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
             } else if (state.getVipCoreService().hasFeature(groupId, VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)) {
                 // If input record doesn't have 001 *d, agency id FBS and the record is new, so set 001 *d
                 if (!reader.hasSubfield("001", 'd') &&
-                        rawRepo.recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
+                        state.getRawRepoRecordCache().recordExists(reader.getRecordId(), reader.getAgencyIdAsInt())) {
                     setCreationDateToExistingCreationDate(marcRecord);
                 } else {
                     setCreationDateToToday(marcRecord);
@@ -329,7 +334,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
     // Set 001 *d equal to that field in the existing record if the existing record as a 001 *d value
     private void setCreationDateToExistingCreationDate(MarcRecord marcRecord) throws UpdateException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
-        final MarcRecord existingRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(reader.getRecordId(), reader.getAgencyIdAsInt()).getContent());
+        final MarcRecord existingRecord = state.getRawRepoRecordCache().fetchMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
 
         final MarcRecordReader existingReader = new MarcRecordReader(existingRecord);
         final String existingCreatedDate = existingReader.getValue("001", 'd');
@@ -349,7 +354,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
 
     private void setCreationDateToParentCreationDate(MarcRecord marcRecord) throws UpdateException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
-        final MarcRecord existingRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(reader.getParentRecordId(), reader.getParentAgencyIdAsInt()).getContent());
+        final MarcRecord existingRecord = state.getRawRepoRecordCache().fetchMarcRecord(reader.getParentRecordId(), reader.getParentAgencyIdAsInt());
 
         final MarcRecordReader existingReader = new MarcRecordReader(existingRecord);
         final String existingCreatedDate = existingReader.getValue("001", 'd');
@@ -376,7 +381,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                 log.info("Delete?..................: " + updReader.markedForDeletion());
                 log.info("Library group?...........: " + state.getLibraryGroup());
                 log.info("Schema name?.............: " + state.getSchemaName());
-                log.info("RR record exists?........: " + rawRepo.recordExists(updReader.getRecordId(), updReader.getAgencyIdAsInt()));
+                log.info("RR record exists?........: " + state.getRawRepoRecordCache().recordExists(updReader.getRecordId(), updReader.getAgencyIdAsInt()));
                 log.info("agency id?...............: " + updReader.getAgencyIdAsInt());
                 log.info("RR common library?.......: " + (updReader.getAgencyIdAsInt() == RawRepo.COMMON_AGENCY));
                 log.info("DBC agency?..............: " + RawRepo.DBC_AGENCY_LIST.contains(updReader.getAgencyId()));
@@ -394,7 +399,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
     private boolean commonRecordExists(List<MarcRecord> records, MarcRecord rec, int parentAgencyId) throws UpdateException {
         final MarcRecordReader reader = new MarcRecordReader(rec);
         final String recordId = reader.getRecordId();
-        if (rawRepo.recordExists(recordId, parentAgencyId)) {
+        if (state.getRawRepoRecordCache().recordExists(recordId, parentAgencyId)) {
             return true;
         }
         for (MarcRecord marcRecord : records) {
@@ -455,13 +460,18 @@ class UpdateOperationAction extends AbstractRawRepoAction {
         final int readerAgencyId = reader.getAgencyIdAsInt();
         if (reader.markedForDeletion()) {
             // Handle deletion of existing record
-            if (rawRepo.recordExists(readerRecordId, readerAgencyId)) {
-                final Record existingRecord = rawRepo.fetchRecord(readerRecordId, readerAgencyId);
-                final MarcRecord existingMarc = UpdateRecordContentTransformer.decodeRecord(existingRecord.getContent());
+            if (state.getRawRepoRecordCache().recordExists(readerRecordId, readerAgencyId)) {
+                final MarcRecord existingMarc = state.getRawRepoRecordCache().fetchMarcRecord(readerRecordId, readerAgencyId);
                 final MarcRecordReader existingRecordReader = new MarcRecordReader(existingMarc);
 
+                // The holdings on 001a and all 002a are needed below, so they are looked up at once
+                final List<String> ids = new ArrayList<>();
+                ids.add(readerRecordId);
+                ids.addAll(existingRecordReader.getCentralAliasIds());
+                final Map<String, Set<Integer>> holdingAgencies = state.getHoldingsItemsCache().getAgenciesWithHoldings(ids);
+
                 // Deletion of 002a - check for holding on 001a
-                final Set<Integer> holdingAgencies001 = state.getHoldingsItems().getAgenciesWithHoldings(readerRecordId);
+                final Set<Integer> holdingAgencies001 = holdingAgencies.get(readerRecordId);
                 if (!holdingAgencies001.isEmpty()) {
                     for (String previousFaust : existingRecordReader.getCentralAliasIds()) {
                         if (!state.getSolrFBS().hasDocuments(SolrServiceIndexer.createSubfieldQueryDBCOnly("001a", previousFaust))) {
@@ -472,8 +482,8 @@ class UpdateOperationAction extends AbstractRawRepoAction {
 
                 // Deletion of 002a - check for holding on 002a - if there is, then check whether the 002a record exist - if not, fail
                 for (String previousFaust : existingRecordReader.getCentralAliasIds()) {
-                    final Set<Integer> holdingAgencies002 = state.getHoldingsItems().getAgenciesWithHoldings(previousFaust);
-                    if (!holdingAgencies002.isEmpty() && !rawRepo.recordExists(previousFaust, readerAgencyId)) {
+                    final Set<Integer> holdingAgencies002 = holdingAgencies.get(previousFaust);
+                    if (!holdingAgencies002.isEmpty() && !state.getRawRepoRecordCache().recordExists(previousFaust, readerAgencyId)) {
                         return state.getMessages().getString("delete.record.holdings.on.002a");
                     }
                 }
@@ -486,7 +496,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                 }
             }
             // Handle either new record or update of existing record
-            final boolean recordExists = rawRepo.recordExists(readerRecordId, readerAgencyId);
+            final boolean recordExists = state.getRawRepoRecordCache().recordExists(readerRecordId, readerAgencyId);
 
             for (String aValue : reader.getValues("002", 'a')) {
                 final String solrQuery = createSolrQuery(recordExists, readerRecordId, "002a", aValue);
@@ -507,8 +517,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
             // Removal of 002a reference is allowed if either the referenced post still exists (no matter if there is holding or not)
             // or if the referenced record is deleted/non-existent and does NOT have holdings
             if (recordExists) {
-                final Record currentRecord = rawRepo.fetchRecord(readerRecordId, readerAgencyId);
-                final MarcRecord currentMarc = UpdateRecordContentTransformer.decodeRecord(currentRecord.getContent());
+                final MarcRecord currentMarc = state.getRawRepoRecordCache().fetchMarcRecord(readerRecordId, readerAgencyId);
                 final MarcRecordReader currentReader = new MarcRecordReader(currentMarc);
                 final List<String> currentPreviousFaustList = currentReader.getCentralAliasIds();
                 final List<String> previousFaustList = reader.getCentralAliasIds();
@@ -524,7 +533,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
 
                 for (String m : removedPreviousFaust) {
                     if (state.getRawRepo().recordDoesNotExistOrIsDeleted(m, RawRepo.COMMON_AGENCY) &&
-                            !state.getHoldingsItems().getAgenciesWithHoldings(m).isEmpty()) {
+                            !state.getHoldingsItemsCache().getAgenciesWithHoldings(m).isEmpty()) {
                         return state.getMessages().getString("update.record.holdings.on.002a");
                     }
                 }
@@ -593,7 +602,7 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                     return null;
                 }
 
-                if (!rawRepo.recordExists(reader.getRecordId(), RawRepo.DBC_ENRICHMENT)) {
+                if (!state.getRawRepoRecordCache().recordExists(reader.getRecordId(), RawRepo.DBC_ENRICHMENT)) {
                     log.debug("No existing record");
                     return null;
                 }
@@ -612,13 +621,13 @@ class UpdateOperationAction extends AbstractRawRepoAction {
                     final Set<RecordId> childrenRecords = state.getRawRepo().children(new RecordId(existingReader.getRecordId(), existingReader.getAgencyIdAsInt()));
                     for (RecordId recordId : childrenRecords) {
                         if (recordId.getAgencyId() == RawRepo.LITTOLK_AGENCY) {
-                            final MarcRecord littolkEnrichment = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().
-                                    fetchRecord(recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT).getContent());
+                            final MarcRecord littolkEnrichment = state.getRawRepoRecordCache().
+                                    fetchMarcRecord(recordId.getBibliographicRecordId(), RawRepo.DBC_ENRICHMENT);
                             new MarcRecordWriter(littolkEnrichment).markForDeletion();
                             children.add(new UpdateEnrichmentRecordAction(state, settings, littolkEnrichment));
 
-                            final MarcRecord littolkRecord = UpdateRecordContentTransformer.decodeRecord(state.getRawRepo().
-                                    fetchRecord(recordId.getBibliographicRecordId(), RawRepo.LITTOLK_AGENCY).getContent());
+                            final MarcRecord littolkRecord = state.getRawRepoRecordCache().
+                                    fetchMarcRecord(recordId.getBibliographicRecordId(), RawRepo.LITTOLK_AGENCY);
                             new MarcRecordWriter(littolkRecord).markForDeletion();
                             children.add(new DeleteCommonRecordAction(state, settings, littolkRecord));
                         }
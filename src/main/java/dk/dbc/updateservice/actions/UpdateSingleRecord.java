@@ -13,9 +13,11 @@ import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Action to create, overwrite or delete a single record.
@@ -53,7 +55,7 @@ public class UpdateSingleRecord extends AbstractRawRepoAction {
                 // Changing type from head/section to single is only allowed if the record doesn't have any common record children
                 // 004 *a e = single record
                 if (RawRepo.COMMON_AGENCY == reader.getAgencyIdAsInt() && reader.hasValue("004", 'a', "e")) {
-                    final MarcRecord existingRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(reader.getRecordId(), reader.getAgencyIdAsInt()).getContent());
+                    final MarcRecord existingRecord = state.getRawRepoRecordCache().fetchMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
                     final MarcRecordReader existingReader = new MarcRecordReader(existingRecord);
 
                     // 004 *a h = head record
@@ -77,9 +79,12 @@ public class UpdateSingleRecord extends AbstractRawRepoAction {
                     // Which means we are only interested in the other libraries with holdings
                     final Set<Integer> agenciesWithHoldings = state.getAgenciesWithHoldings(marcRecord);
                     if (RawRepo.COMMON_AGENCY == reader.getAgencyIdAsInt() && !agenciesWithHoldings.isEmpty()) {
+                        final Set<String> agenciesExportingHoldings = state.getVipCoreService().getAgenciesWithFeature(agenciesWithHoldings.stream()
+                                .map(Object::toString)
+                                .collect(Collectors.toSet()), VipCoreLibraryRulesConnector.Rule.AUTH_EXPORT_HOLDINGS);
                         for (Integer agencyWithHoldings : agenciesWithHoldings) {
                             log.info("Found holdings for agency '{}'", agencyWithHoldings);
-                            final boolean hasAuthExportHoldings = state.getVipCoreService().hasFeature(agencyWithHoldings.toString(), VipCoreLibraryRulesConnector.Rule.AUTH_EXPORT_HOLDINGS);
+                            final boolean hasAuthExportHoldings = agenciesExportingHoldings.contains(agencyWithHoldings.toString());
                             if (hasAuthExportHoldings) {
                                 log.info("Agency '{}' has feature '{}'", agencyWithHoldings, VipCoreLibraryRulesConnector.Rule.AUTH_EXPORT_HOLDINGS);
                                 final String solrQuery = SolrServiceIndexer.createSubfieldQueryDBCOnly("002a", bibliographicRecordId);
@@ -218,10 +223,10 @@ public class UpdateSingleRecord extends AbstractRawRepoAction {
                 }
                 final MarcRecord rrVersionOfRecordToDelete = loadRecord(recordIdForRecordToDelete, agencyIdForRecordToDelete);
                 log.info("Holdings for " + recordIdForRecordToDelete);
-                final Set<Integer> holdingAgencies = state.getHoldingsItems().getAgenciesWithHoldings(recordIdForRecordToDelete);
+                final Set<Integer> holdingAgencies = state.getHoldingsItemsCache().getAgenciesWithHoldings(recordIdForRecordToDelete);
                 log.info("is " + holdingAgencies.toString());
                 // check classification - if changed it will require modification of enrichment record - due to story #1802 messages must be merged into eventual existing enrichment
-                final boolean classificationsChanged = state.getLibraryRecordsHandler().hasClassificationsChanged(motherRecord, rrVersionOfRecordToDelete);
+                final boolean classificationsChanged = state.getLibraryRecordsHandler().hasClassificationsChanged(motherRecord, rrVersionOfRecordToDelete, new ArrayList<>(), state.getCompareStringNormalizer());
                 log.info("classificationsChanged : {}", classificationsChanged);
                 log.info("Enrichments for {}", recordIdForRecordToDelete);
 
@@ -7,6 +7,7 @@ import dk.dbc.updateservice.dto.MessageEntryDTO;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.updateservice.utils.MDCUtil;
 import dk.dbc.vipcore.exception.VipCoreException;
@@ -116,6 +117,7 @@ public class ValidateRecordAction extends AbstractAction {
                 return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, message);
             } finally {
                 watch.stop();
+                CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
             }
         });
     }
@@ -4,6 +4,7 @@ import dk.dbc.commons.jsonb.JSONBException;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
@@ -75,6 +76,7 @@ public class ValidateSchemaAction extends AbstractAction {
                 return ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, ex.getMessage());
             } finally {
                 watch.stop();
+                CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
             }
         });
     }
@@ -88,4 +90,12 @@ public class ValidateSchemaAction extends AbstractAction {
     @Override
     public void setupMDCContext() {
     }
+
+    /**
+     * Only asks opencat-business about the schema, so it can run at the same time as the record validation.
+     */
+    @Override
+    public boolean canRunConcurrently() {
+        return true;
+    }
 }
@@ -0,0 +1,35 @@
+package dk.dbc.updateservice.dto;
+
+import dk.dbc.rawrepo.dto.RecordEntryDTO;
+
+/**
+ * One line in the body of the bulk kafka endpoint - the kafka key and the record.
+ */
+public class KafkaRecordDTO {
+    private String key;
+    private RecordEntryDTO value;
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public RecordEntryDTO getValue() {
+        return value;
+    }
+
+    public void setValue(RecordEntryDTO value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "KafkaRecordDTO{" +
+                "key='" + key + '\'' +
+                ", value=" + value +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+package dk.dbc.updateservice.dto;
+
+/**
+ * The outcome of one line in the body of the bulk kafka endpoint.
+ */
+public class KafkaRecordResultDTO {
+    private int line;
+    private String key;
+    private UpdateStatusEnumDTO status;
+    private String message;
+
+    public KafkaRecordResultDTO() {
+    }
+
+    public KafkaRecordResultDTO(int line, String key, UpdateStatusEnumDTO status, String message) {
+        this.line = line;
+        this.key = key;
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public void setLine(int line) {
+        this.line = line;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public UpdateStatusEnumDTO getStatus() {
+        return status;
+    }
+
+    public void setStatus(UpdateStatusEnumDTO status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "KafkaRecordResultDTO{" +
+                "line=" + line +
+                ", key='" + key + '\'' +
+                ", status=" + status +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -16,8 +16,9 @@ public class RecordDTOMapper {
 
     public static void toRecord(RecordEntryDTO dto, Record rawRecord) throws JsonProcessingException, UpdateException {
         final MarcRecord marcRecord = getMarcRecord(dto);
-        rawRecord.setContent(UpdateRecordContentTransformer.encodeRecord(marcRecord));
-        rawRecord.setContentJson(UpdateRecordContentTransformer.encodeRecordToJson(marcRecord));
+        final UpdateRecordContentTransformer.EncodedRecord encodedRecord = UpdateRecordContentTransformer.encodeRecordForRawRepo(marcRecord);
+        rawRecord.setContent(encodedRecord.getContent());
+        rawRecord.setContentJson(encodedRecord.getContentJson());
         if (rawRecord.isOriginal()) {
             rawRecord.setCreated(Instant.parse(dto.getCreated()));
         }
@@ -0,0 +1,88 @@
+package dk.dbc.updateservice.entities;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+
+@Entity
+@Table(name = "number_roll_pool")
+@IdClass(NumberRollPoolEntry.Key.class)
+@NamedQueries({
+        @NamedQuery(name = NumberRollPoolEntry.COUNT_BY_ROLL_NAME,
+                query = "SELECT COUNT(e) FROM NumberRollPoolEntry e WHERE e.rollName = :rollName")
+})
+public class NumberRollPoolEntry implements Serializable {
+    public static final String COUNT_BY_ROLL_NAME = "NumberRollPoolEntry.countByRollName";
+
+    @Id
+    @Column(name = "roll_name", nullable = false, length = 64)
+    private String rollName;
+
+    @Id
+    @Column(name = "roll_number", nullable = false, length = 20)
+    private String rollNumber;
+
+    @Column(name = "created_dtm", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdDtm;
+
+    public String getRollName() {
+        return rollName;
+    }
+
+    public void setRollName(String rollName) {
+        this.rollName = rollName;
+    }
+
+    public String getRollNumber() {
+        return rollNumber;
+    }
+
+    public void setRollNumber(String rollNumber) {
+        this.rollNumber = rollNumber;
+    }
+
+    public Date getCreatedDtm() {
+        return createdDtm;
+    }
+
+    public void setCreatedDtm(Date createdDtm) {
+        this.createdDtm = createdDtm;
+    }
+
+    @Override
+    public String toString() {
+        return "NumberRollPoolEntry{" +
+                "rollName='" + rollName + '\'' +
+                ", rollNumber='" + rollNumber + '\'' +
+                ", createdDtm=" + createdDtm +
+                '}';
+    }
+
+    public static class Key implements Serializable {
+        private String rollName;
+        private String rollNumber;
+
+        public Key() {
+        }
+
+        public Key(String rollName, String rollNumber) {
+            this.rollName = rollName;
+            this.rollNumber = rollNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return Objects.equals(rollName, key.rollName) && Objects.equals(rollNumber, key.rollNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rollName, rollNumber);
+        }
+    }
+}
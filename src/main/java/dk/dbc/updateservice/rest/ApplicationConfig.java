@@ -17,7 +17,8 @@ public class ApplicationConfig extends Application {
             DoubleRecordCheckServiceRest.class,
             ClassificationCheckServiceRest.class,
             UpdateServiceRest.class,
-            OpenBuildRest.class
+            OpenBuildRest.class,
+            FlightRecorderRest.class
     );
 
     @Override
@@ -0,0 +1,42 @@
+package dk.dbc.updateservice.rest;
+
+import dk.dbc.updateservice.update.FlightRecorder;
+import dk.dbc.updateservice.update.FlightRecording;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Stateless;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.List;
+
+/**
+ * Shows the slow requests captured by the {@link FlightRecorder}.
+ */
+@Stateless
+@Path("/api")
+public class FlightRecorderRest {
+    @EJB
+    FlightRecorder flightRecorder;
+
+    @GET
+    @Path("v1/admin/flightrecorder")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<FlightRecording> getRecordings() {
+        return flightRecorder.list();
+    }
+
+    @GET
+    @Path("v1/admin/flightrecorder/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRecording(@PathParam("id") long id) {
+        final FlightRecording recording = flightRecorder.get(id);
+        if (recording == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(recording).build();
+    }
+}
@@ -0,0 +1,34 @@
+package dk.dbc.updateservice.rest;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+/**
+ * Reports the number of live series in the application metric registry, so a tag with too many distinct values shows
+ * up as a growing series count long before it makes the metrics endpoint slow.
+ */
+@Startup
+@Singleton
+public class MetricSeriesGauge {
+    static final Metadata metricSeriesMetadata = Metadata.builder()
+            .withName("update_metric_series")
+            .withDescription("Number of series in the application metric registry")
+            .withType(MetricType.GAUGE)
+            .withUnit("series").build();
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
+
+    @PostConstruct
+    public void init() {
+        metricRegistry.register(metricSeriesMetadata, (Gauge<Integer>) () -> metricRegistry.getMetrics().size());
+    }
+}
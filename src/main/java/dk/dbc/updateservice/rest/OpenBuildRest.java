@@ -12,8 +12,8 @@ import org.eclipse.microprofile.metrics.Metadata;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.metrics.MetricType;
 import org.eclipse.microprofile.metrics.MetricUnits;
-import org.eclipse.microprofile.metrics.SimpleTimer;
 import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
 import org.eclipse.microprofile.metrics.annotation.RegistryType;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
@@ -48,7 +48,7 @@ public class OpenBuildRest {
     static final Metadata buildTimerMetadata = Metadata.builder()
             .withName("update_build_timer")
             .withDescription("Duration of build")
-            .withType(MetricType.SIMPLE_TIMER)
+            .withType(MetricType.TIMER)
             .withUnit(MetricUnits.MILLISECONDS).build();
 
     static final Metadata builErrorCounterMetadata = Metadata.builder()
@@ -64,7 +64,7 @@ public class OpenBuildRest {
     @Timed
     public String build(BuildRequestDTO buildRequestDTO) throws JSONBException {
         final StopWatch watch = new Log4JStopWatch("OpenBuildRest.build").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
-        final SimpleTimer buildTimer = metricRegistry.simpleTimer(buildTimerMetadata);
+        final Timer buildTimer = metricRegistry.timer(buildTimerMetadata);
         final DBCTrackedLogContext dbcTrackedLogContext = new DBCTrackedLogContext(OpenBuildCore.createTrackingId());
 
         BuildResponseDTO buildResponseDTO = null;
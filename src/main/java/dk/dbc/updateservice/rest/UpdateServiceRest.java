@@ -7,6 +7,8 @@ import dk.dbc.rawrepo.dto.RecordEntryDTO;
 import dk.dbc.updateservice.actions.GlobalActionState;
 import dk.dbc.updateservice.actions.ServiceResult;
 import dk.dbc.updateservice.dto.AuthenticationDTO;
+import dk.dbc.updateservice.dto.KafkaRecordDTO;
+import dk.dbc.updateservice.dto.KafkaRecordResultDTO;
 import dk.dbc.updateservice.dto.OptionEnumDTO;
 import dk.dbc.updateservice.dto.SchemasRequestDTO;
 import dk.dbc.updateservice.dto.SchemasResponseDTO;
@@ -17,7 +19,9 @@ import dk.dbc.updateservice.dto.writers.UpdateRecordResponseDTOWriter;
 import dk.dbc.updateservice.update.RawRepo;
 import dk.dbc.updateservice.update.UpdateException;
 import dk.dbc.updateservice.update.UpdateServiceCore;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
+import dk.dbc.updateservice.utils.MetricTags;
 import dk.dbc.updateservice.validate.Validator;
 import dk.dbc.util.Timed;
 import jakarta.annotation.PostConstruct;
@@ -26,6 +30,7 @@ import jakarta.ejb.EJBException;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.POST;
@@ -41,14 +46,21 @@ import org.eclipse.microprofile.metrics.Metadata;
 import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.metrics.MetricType;
 import org.eclipse.microprofile.metrics.MetricUnits;
-import org.eclipse.microprofile.metrics.SimpleTimer;
 import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
 import org.eclipse.microprofile.metrics.annotation.RegistryType;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
 import org.slf4j.MDC;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -64,6 +76,14 @@ public class UpdateServiceRest {
     private final JSONBContext jsonbContext = new JSONBContext();
     private GlobalActionState globalActionState;
 
+    private static final Pattern KEY_PATTERN = Pattern.compile("(\\d{6}):(.*)");
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+    // Number of lines read from the bulk request before they are handed to UpdateServiceCore
+    private static final int BULK_READ_SIZE = 1000;
+    // Schema names and group ids come from the clients, so the number of series they can create is bounded
+    private static final MetricTags.Bounded SCHEMA_NAMES = new MetricTags.Bounded("[A-Za-z0-9_.-]{1,64}", 100);
+    private static final MetricTags.Bounded GROUP_IDS = new MetricTags.Bounded("\\d{6}", 1000);
+
     @EJB
     UpdateServiceCore updateServiceCore;
 
@@ -74,7 +94,7 @@ public class UpdateServiceRest {
     static final Metadata getSchemasTimerMetadata = Metadata.builder()
             .withName("update_getschemas_timer")
             .withDescription("Duration of getschemas")
-            .withType(MetricType.SIMPLE_TIMER)
+            .withType(MetricType.TIMER)
             .withUnit(MetricUnits.MILLISECONDS).build();
 
     static final Metadata getSchemasErrorCounterMetadata = Metadata.builder()
@@ -92,7 +112,7 @@ public class UpdateServiceRest {
     static final Metadata updateRecordDurationMetaData = Metadata.builder()
             .withName("update_updaterecord_requests_timer")
             .withDescription("Duration of updaterecord in milliseconds")
-            .withType(MetricType.SIMPLE_TIMER)
+            .withType(MetricType.TIMER)
             .withUnit(MetricUnits.MILLISECONDS).build();
 
     static final Metadata groupIdCounterMetaData = Metadata.builder()
@@ -110,9 +130,45 @@ public class UpdateServiceRest {
     static final Metadata putRecordDurationMetaData = Metadata.builder()
             .withName("update_put_record_requests_timer")
             .withDescription("Duration of updaterecord in milliseconds")
-            .withType(MetricType.SIMPLE_TIMER)
+            .withType(MetricType.TIMER)
+            .withUnit(MetricUnits.MILLISECONDS).build();
+
+    static final Metadata putRecordsBulkDurationMetaData = Metadata.builder()
+            .withName("update_put_records_bulk_timer")
+            .withDescription("Duration of bulk kafka requests in milliseconds")
+            .withType(MetricType.TIMER)
+            .withUnit(MetricUnits.MILLISECONDS).build();
+
+    static final Metadata putRecordsBulkCounterMetaData = Metadata.builder()
+            .withName("update_put_records_bulk_records_counter")
+            .withDescription("Number of records received by the bulk kafka endpoint by status")
+            .withType(MetricType.COUNTER)
+            .withUnit("records").build();
+
+    static final Metadata dependencyCallsMetaData = Metadata.builder()
+            .withName("update_request_dependency_calls")
+            .withDescription("Number of calls to a dependency per request")
+            .withType(MetricType.HISTOGRAM)
+            .withUnit("calls").build();
+
+    static final Metadata dependencyTimeMetaData = Metadata.builder()
+            .withName("update_request_dependency_time")
+            .withDescription("Time spent calling a dependency per request in milliseconds")
+            .withType(MetricType.HISTOGRAM)
             .withUnit(MetricUnits.MILLISECONDS).build();
 
+    static final Metadata dependencyRecordsMetaData = Metadata.builder()
+            .withName("update_request_dependency_records")
+            .withDescription("Number of records read from or written to a dependency per request")
+            .withType(MetricType.HISTOGRAM)
+            .withUnit("records").build();
+
+    static final Metadata dependencyBytesMetaData = Metadata.builder()
+            .withName("update_request_dependency_bytes")
+            .withDescription("Number of record bytes read from or written to a dependency per request")
+            .withType(MetricType.HISTOGRAM)
+            .withUnit(MetricUnits.BYTES).build();
+
     @PostConstruct
     protected void init() {
         globalActionState = new GlobalActionState();
@@ -138,11 +194,13 @@ public class UpdateServiceRest {
     @Produces({MediaType.APPLICATION_JSON})
     @Timed
     public UpdateRecordResponseDTO updateRecord(@Context HttpServletRequest request,
+                                                @Context HttpServletResponse response,
                                                 UpdateServiceRequestDTO updateRecordRequest) {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         return LOGGER.call(log -> {
             MDC.put(MDC_TRACKING_ID_LOG_CONTEXT, updateRecordRequest.getTrackingId());
             UpdateRecordResponseDTO updateRecordResponseDTO = null;
+            final CostLedger ledger = CostLedger.start();
             try {
                 log.infoImmediately("updateRecord REST received: {}", updateRecordRequest);
 
@@ -164,18 +222,22 @@ public class UpdateServiceRest {
                 watch.stop(UpdateServiceCore.UPDATERECORD_STOPWATCH);
                 log.infoImmediately("updateRecord REST returns: {}", updateRecordResponseDTO);
 
+                final String schemaName = SCHEMA_NAMES.of(updateRecordRequest.getSchemaName());
                 metricRegistry.counter(updateRecordCounterMetaData,
-                                new Tag("schemaName", updateRecordRequest.getSchemaName()),
+                                new Tag("schemaName", schemaName),
                                 new Tag("validateOnly", validateOnly))
                         .inc();
 
-                metricRegistry.simpleTimer(updateRecordDurationMetaData,
-                                new Tag("schemaName", updateRecordRequest.getSchemaName()),
+                metricRegistry.timer(updateRecordDurationMetaData,
+                                new Tag("schemaName", schemaName),
                                 new Tag("validateOnly", validateOnly))
                         .update(Duration.ofMillis(watch.getElapsedTime()));
 
                 incrementGroupIdCounter(updateRecordRequest);
 
+                reportCost(ledger, "updaterecord", schemaName, response);
+                CostLedger.stop();
+
                 MDC.clear();
             }
         });
@@ -197,14 +259,16 @@ public class UpdateServiceRest {
     @Consumes({MediaType.APPLICATION_JSON})
     @Produces({MediaType.APPLICATION_JSON})
     @Timed
-    public SchemasResponseDTO getSchemas(SchemasRequestDTO schemasRequestDTO) {
+    public SchemasResponseDTO getSchemas(@Context HttpServletResponse response,
+                                         SchemasRequestDTO schemasRequestDTO) {
         StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         MDC.put(MDC_TRACKING_ID_LOG_CONTEXT, schemasRequestDTO.getTrackingId());
         return LOGGER.call(log -> {
             SchemasResponseDTO schemasResponseDTO = null;
-            final SimpleTimer getSchemasTimer = metricRegistry.simpleTimer(getSchemasTimerMetadata);
+            final Timer getSchemasTimer = metricRegistry.timer(getSchemasTimerMetadata);
             final Counter getSchemasErrorCounter = metricRegistry.counter(getSchemasErrorCounterMetadata);
 
+            final CostLedger ledger = CostLedger.start();
             try {
                 log.infoImmediately("getSchemas REST received: {}", schemasRequestDTO);
 
@@ -233,6 +297,9 @@ public class UpdateServiceRest {
                 incrementGroupIdCounter(schemasRequestDTO);
 
                 getSchemasTimer.update(Duration.ofMillis(watch.getElapsedTime()));
+
+                reportCost(ledger, "getschemas", MetricTags.UNKNOWN, response);
+                CostLedger.stop();
             }
         });
     }
@@ -256,11 +323,90 @@ public class UpdateServiceRest {
             metricRegistry.counter(updateRecordCounterMetaData)
                     .inc();
 
-            metricRegistry.simpleTimer(updateRecordDurationMetaData)
+            metricRegistry.timer(updateRecordDurationMetaData)
                     .update(Duration.ofMillis(watch.getElapsedTime()));
         }
     }
 
+    /**
+     * Bulk variant of {@link #putRecord(String, String)}.
+     * <p/>
+     * The body is a stream of newline delimited json objects with the kafka key and the record, e.g.
+     * <pre>{"key":"870970:12345678","value":{...RecordEntryDTO...}}</pre>
+     * The records are saved in the order they are received. The response contains one json line per input line (empty
+     * lines excepted) with the line number, the key and the status of the record.
+     *
+     * @param body The records.
+     * @return The outcome for each record.
+     */
+    @PUT
+    @Path("v1/kafka")
+    @Produces(APPLICATION_NDJSON)
+    @Consumes(APPLICATION_NDJSON)
+    public Response putRecords(InputStream body) {
+        final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final List<KafkaRecordResultDTO> results = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            final List<KafkaRecordResultDTO> pendingResults = new ArrayList<>();
+            final List<RecordEntryDTO> pendingRecords = new ArrayList<>();
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                final KafkaRecordResultDTO result = new KafkaRecordResultDTO(lineNumber, null, UpdateStatusEnumDTO.OK, null);
+                results.add(result);
+                try {
+                    final KafkaRecordDTO kafkaRecordDTO = jsonbContext.unmarshall(line, KafkaRecordDTO.class);
+                    result.setKey(kafkaRecordDTO.getKey());
+                    if (kafkaRecordDTO.getKey() == null || kafkaRecordDTO.getValue() == null) {
+                        throw new UpdateException("Both key and value must be present");
+                    }
+                    splitKey(kafkaRecordDTO.getKey()); // Just check if the key has the correct format
+                    pendingResults.add(result);
+                    pendingRecords.add(kafkaRecordDTO.getValue());
+                } catch (UpdateException | JSONBException ex) {
+                    result.setStatus(UpdateStatusEnumDTO.FAILED);
+                    result.setMessage(ex.getMessage());
+                }
+                if (pendingRecords.size() >= BULK_READ_SIZE) {
+                    updateRecords(pendingRecords, pendingResults);
+                }
+            }
+            updateRecords(pendingRecords, pendingResults);
+
+            final StringBuilder response = new StringBuilder();
+            for (KafkaRecordResultDTO result : results) {
+                response.append(jsonbContext.marshall(result)).append('\n');
+                metricRegistry.counter(putRecordsBulkCounterMetaData, new Tag("status", result.getStatus().name().toLowerCase())).inc();
+            }
+            return Response.ok(response.toString()).build();
+        } catch (IOException | JSONBException ex) {
+            LOGGER.use(log -> log.error("Bulk kafka request failed after {} lines", results.size(), ex));
+            return Response.status(Response.Status.BAD_REQUEST).entity(ex.getMessage()).build();
+        } finally {
+            metricRegistry.timer(putRecordsBulkDurationMetaData)
+                    .update(Duration.ofMillis(watch.getElapsedTime()));
+        }
+    }
+
+    private void updateRecords(List<RecordEntryDTO> records, List<KafkaRecordResultDTO> results) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final List<String> errors = updateServiceCore.updateRecords(records);
+        for (int i = 0; i < results.size(); i++) {
+            if (errors.get(i) != null) {
+                results.get(i).setStatus(UpdateStatusEnumDTO.FAILED);
+                results.get(i).setMessage(errors.get(i));
+            }
+        }
+        records.clear();
+        results.clear();
+    }
+
     @DELETE
     @Path("v1/kafka/{key}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -270,12 +416,10 @@ public class UpdateServiceRest {
     }
 
     private RecordId splitKey(String key) throws UpdateException {
-        final String patternString = "(\\d{6}):(.*)";
-        final Pattern r = Pattern.compile(patternString);
-        final Matcher matcher = r.matcher(key);
+        final Matcher matcher = KEY_PATTERN.matcher(key);
 
         if (!matcher.matches()) {
-            throw new UpdateException(String.format("Unknown format of key: '%s'. Doesn't match %s", key, patternString));
+            throw new UpdateException(String.format("Unknown format of key: '%s'. Doesn't match %s", key, KEY_PATTERN.pattern()));
         }
 
         final int agencyId = Integer.parseInt(matcher.group(1));
@@ -284,12 +428,38 @@ public class UpdateServiceRest {
         return new RecordId(bibliographicRecordId, agencyId);
     }
 
+    /**
+     * Reports what the request cost in calls to the dependencies, both as histograms per dependency and as a
+     * Server-Timing header on the response.
+     */
+    private void reportCost(CostLedger ledger, String operation, String schemaName, HttpServletResponse response) {
+        for (CostLedger.Dependency dependency : CostLedger.Dependency.values()) {
+            final long calls = ledger.getCalls(dependency);
+            if (calls == 0) {
+                continue;
+            }
+            final Tag[] tags = {
+                    new Tag("dependency", dependency.getKey()),
+                    new Tag("operation", operation),
+                    new Tag("schemaName", schemaName)};
+            metricRegistry.histogram(dependencyCallsMetaData, tags).update(calls);
+            metricRegistry.histogram(dependencyTimeMetaData, tags).update(ledger.getTimeMs(dependency));
+            metricRegistry.histogram(dependencyRecordsMetaData, tags).update(ledger.getRecords(dependency));
+            metricRegistry.histogram(dependencyBytesMetaData, tags)
+                    .update(ledger.getBytesDecoded(dependency) + ledger.getBytesEncoded(dependency));
+        }
+        final String serverTiming = ledger.toServerTiming();
+        if (response != null && !serverTiming.isEmpty()) {
+            response.setHeader("Server-Timing", serverTiming);
+        }
+    }
+
     private void incrementGroupIdCounter(UpdateServiceRequestDTO updateServiceRequestDTO) {
         Optional.ofNullable(updateServiceRequestDTO)
                 .map(UpdateServiceRequestDTO::getAuthenticationDTO)
                 .map(AuthenticationDTO::getGroupId)
                 .filter(groupId -> !"010100".equals(groupId) || RawRepo.DBC_AGENCY_ALL.contains(groupId))
-                .ifPresent(groupId -> metricRegistry.counter(groupIdCounterMetaData, new Tag("groupId", groupId)).inc());
+                .ifPresent(groupId -> metricRegistry.counter(groupIdCounterMetaData, new Tag("groupId", GROUP_IDS.of(groupId))).inc());
     }
 
     private void incrementGroupIdCounter(SchemasRequestDTO schemasRequestDTO) {
@@ -297,6 +467,6 @@ public class UpdateServiceRest {
                 .map(SchemasRequestDTO::getAuthenticationDTO)
                 .map(AuthenticationDTO::getGroupId)
                 .filter(groupId -> !"010100".equals(groupId) || RawRepo.DBC_AGENCY_ALL.contains(groupId))
-                .ifPresent(groupId -> metricRegistry.counter(groupIdCounterMetaData, new Tag("groupId", groupId)).inc());
+                .ifPresent(groupId -> metricRegistry.counter(groupIdCounterMetaData, new Tag("groupId", GROUP_IDS.of(groupId))).inc());
     }
 }
@@ -5,95 +5,212 @@
 
 package dk.dbc.updateservice.solr;
 
+import dk.dbc.updateservice.update.JNDIResources;
 import dk.dbc.updateservice.update.SolrException;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonString;
-import javax.json.JsonValue;
+import javax.json.JsonException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
 
+/**
+ * Base class for the Solr lookups.
+ * <p/>
+ * All instances share one http client, so the connections to Solr are kept alive and reused between requests.
+ * Successful responses can be cached for <code>SOLR_CACHE_TTL_SECONDS</code> keyed by the query url. The cache is
+ * disabled by default, as the lookups answer validation questions such as whether a record already exists or has
+ * doubles, and a cached answer could let a record through which was created by a request a moment ago.
+ */
 public abstract class SolrBase {
     private static final XLogger LOGGER = XLoggerFactory.getXLogger(SolrBase.class);
-    private static final String ERROR_CODE = "error";
-    private static final String NUM_FOUND = "numFound";
+    private static final String DEFAULT_CACHE_TTL_SECONDS = "0";
+    private static final int MAX_CACHE_ENTRIES = 10000;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    protected static final String HITS_QUERY_PARAM = "&rows=0";
+    protected static final String MARC_001A_QUERY_PARAM = "&fl=marc.001a&rows=1";
+
+    static final String METHOD_NAME_KEY = "method";
+    static final String RESULT_KEY = "result";
+
+    static final Metadata solrTimerMetadata = Metadata.builder()
+            .withName("update_solr_timer")
+            .withDescription("Duration of calls to solr")
+            .withType(MetricType.SIMPLE_TIMER)
+            .withUnit(MetricUnits.MILLISECONDS).build();
+
+    static final Metadata solrCacheCounterMetadata = Metadata.builder()
+            .withName("update_solr_cache_counter")
+            .withDescription("Number of solr lookups by cache result (hit, miss)")
+            .withType(MetricType.COUNTER)
+            .withUnit("lookups").build();
+
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+
+    private static final Map<String, CacheEntry> CACHE = new ConcurrentHashMap<>();
+
+    private static class CacheEntry {
+        private final SolrResponse response;
+        private final long expires;
+
+        private CacheEntry(SolrResponse response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
 
     protected ResourceBundle messages;
 
-    protected abstract URL setUrl(String query, String queryParam) throws UpdateException;
+    private final long cacheTtlNanos;
 
-    protected JsonObject callSolr(URL url) throws SolrException, UpdateException {
-        int responseCode;
-        try {
-            final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Accept", "application/json");
+    protected SolrBase(Properties settings) {
+        final String ttl = settings.getProperty(JNDIResources.SOLR_CACHE_TTL_SECONDS, DEFAULT_CACHE_TTL_SECONDS);
+        this.cacheTtlNanos = Duration.ofSeconds(Long.parseLong(ttl)).toNanos();
+    }
 
-            InputStream is;
-            responseCode = conn.getResponseCode();
+    /**
+     * Removes all cached Solr responses.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
 
-            if (responseCode == 200) {
-                is = conn.getInputStream();
-            } else {
-                is = conn.getErrorStream();
+    protected abstract URL setUrl(String query, String queryParam) throws UpdateException;
+
+    SolrResponse callSolr(URL url, String methodName) throws UpdateException {
+        final String key = url.toString();
+        if (cacheTtlNanos > 0) {
+            final CacheEntry entry = CACHE.get(key);
+            if (entry != null && entry.expires - System.nanoTime() > 0) {
+                incrementCacheCounter("hit");
+                LOGGER.debug("Solr response {} ==> {} (cached)", url, entry.response);
+                return entry.response;
             }
+            incrementCacheCounter("miss");
+        }
 
-            try (JsonReader jReader = Json.createReader(is)) {
-                final JsonObject jObj = jReader.readObject();
-
-                conn.disconnect();
-
-                if (responseCode == 200) {
-                    LOGGER.info("Solr response {} ==> {}", url.toString(), jObj.toString());
-                } else {
-                    String s = String.format("Solr response {%s} ==> {%s}", url, jObj.toString());
-                    LOGGER.warn(s);
-                    if (jObj.containsKey(ERROR_CODE)) {
-                        s = String.format("Solr returned error code %s: %s", jObj.getJsonObject(ERROR_CODE).getInt("code"), jObj.getJsonObject(ERROR_CODE).getString("msg"));
-                        LOGGER.warn(s);
-                    }
-                    throw new SolrException(messages.getString("solr.error.responsecode"));
-                }
-                if (jObj.containsKey("response")) {
-                    return jObj.getJsonObject("response");
-                } else {
-                    String s = String.format("Solr response {%s} ==> {%s}", url, jObj);
-                    LOGGER.warn(s);
-                    if (jObj.containsKey(ERROR_CODE)) {
-                        s = String.format("Solr returned error code %s: %s", jObj.getJsonObject(ERROR_CODE).getInt("code"), jObj.getJsonObject(ERROR_CODE).getString("msg"));
-                        LOGGER.warn(s);
-                    } else {
-                        s = String.format("Very strange - could not locate neither response nor error section in Solr response %s", jObj);
-                    }
-                    throw new UpdateException(s);
+        final StopWatch watch = new Log4JStopWatch("service.solr.call").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final SolrResponse response;
+        try {
+            response = callSolr(url);
+        } finally {
+            watch.stop();
+            updateTimer(methodName, watch);
+            CostLedger.call(CostLedger.Dependency.SOLR, watch.getElapsedTime());
+        }
+
+        if (cacheTtlNanos > 0) {
+            if (CACHE.size() >= MAX_CACHE_ENTRIES) {
+                final long now = System.nanoTime();
+                CACHE.values().removeIf(e -> e.expires - now <= 0);
+                if (CACHE.size() >= MAX_CACHE_ENTRIES) {
+                    CACHE.clear();
                 }
             }
-        } catch (IOException ex) {
+            CACHE.put(key, new CacheEntry(response, System.nanoTime() + cacheTtlNanos));
+        }
+
+        return response;
+    }
+
+    private SolrResponse callSolr(URL url) throws UpdateException {
+        final HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(url.toURI())
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+        } catch (URISyntaxException ex) {
+            throw new UpdateException("Bad encoding or malformed URL : " + ex.getMessage(), ex);
+        }
+
+        final SolrResponse response;
+        final int responseCode;
+        try {
+            final HttpResponse<InputStream> httpResponse = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            responseCode = httpResponse.statusCode();
+            // The parser reads the body to the end and closes it, which releases the connection back to the pool
+            response = SolrResponse.parse(httpResponse.body());
+        } catch (IOException | JsonException ex) {
             String s = "Unable to connect to url " + url;
             throw new SolrException(s, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            String s = "Interrupted while calling url " + url;
+            throw new SolrException(s, ex);
+        }
+
+        if (responseCode != 200) {
+            LOGGER.warn("Solr response {} ==> {} {}", url, responseCode, response);
+            if (response.hasError()) {
+                LOGGER.warn("Solr returned error code {}: {}", response.getErrorCode(), response.getErrorMsg());
+            }
+            throw new SolrException(messages.getString("solr.error.responsecode"));
         }
+        LOGGER.info("Solr response {} ==> numFound {}", url, response.getNumFound());
+        if (!response.hasResponse()) {
+            String s;
+            if (response.hasError()) {
+                s = String.format("Solr returned error code %s: %s", response.getErrorCode(), response.getErrorMsg());
+            } else {
+                s = String.format("Very strange - could not locate neither response nor error section in Solr response %s", response);
+            }
+            LOGGER.warn(s);
+            throw new UpdateException(s);
+        }
+
+        return response;
+    }
+
+    /**
+     * Returns the marc.001a value of the first document in the response.
+     */
+    static String getFirstMarc001a(SolrResponse response) throws SolrException {
+        if (response.getFirstMarc001a() == null) {
+            throw new SolrException("Expected type of marc.001a to be ARRAY or STRING but it was " + response.getFirstMarc001aType());
+        }
+
+        return response.getFirstMarc001a();
     }
 
     public long hits(String query) throws UpdateException {
         final StopWatch watch = new Log4JStopWatch("service.solr.hits").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         try {
-            final URL solrUrl = setUrl(query, "");
-            final JsonObject response = callSolr(solrUrl);
-            if (response.containsKey(NUM_FOUND)) {
-                return response.getInt(NUM_FOUND);
+            final URL solrUrl = setUrl(query, HITS_QUERY_PARAM);
+            final SolrResponse response = callSolr(solrUrl, "hits");
+            if (response.getNumFound() != null) {
+                return response.getNumFound();
             }
             final String s = String.format("Unable to locate 'numFound' in Solr response %s", response);
             throw new UpdateException(s);
@@ -105,28 +222,13 @@ public abstract class SolrBase {
     public String getSubjectIdNumber(String query) throws UpdateException {
         final StopWatch watch = new Log4JStopWatch("service.solr.hits").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         try {
-            final URL solrUrl = setUrl(query, "&fl=marc.001a");
-            final JsonObject response = callSolr(solrUrl);
-            if (response.containsKey(NUM_FOUND)) {
-                if (response.getInt(NUM_FOUND) == 0) return "";
-                else {
-                    // Message from LJL - if more than one records, then treat the first
-                    if (response.containsKey("docs")) {
-                        final JsonArray docsArray = response.getJsonArray("docs");
-                        for (JsonObject jObj : docsArray.getValuesAs(JsonObject.class)) {
-                            // Sometimes the value is an array and sometimes a string, so we need to check the type first
-                            final JsonValue jsonValue = jObj.get("marc.001a");
-                            if (jsonValue.getValueType() == JsonValue.ValueType.ARRAY) {
-                                final JsonArray marc001aArray = (JsonArray) jsonValue;
-                                return marc001aArray.getString(0);
-                            } else if (jsonValue.getValueType() == JsonValue.ValueType.STRING) {
-                                final JsonString marc001aString = (JsonString) jsonValue;
-                                return marc001aString.getString();
-                            } else {
-                                throw new SolrException("Expected type of marc.001a to be ARRAY or STRING but it was " + jsonValue.getValueType());
-                            }
-                        }
-                    }
+            final URL solrUrl = setUrl(query, MARC_001A_QUERY_PARAM);
+            final SolrResponse response = callSolr(solrUrl, "getSubjectIdNumber");
+            if (response.getNumFound() != null) {
+                if (response.getNumFound() == 0) return "";
+                // Message from LJL - if more than one records, then treat the first
+                if (response.hasFirstDoc()) {
+                    return getFirstMarc001a(response);
                 }
             }
             String s = String.format("Unable to locate 'numFound' in Solr response %s", response);
@@ -145,4 +247,17 @@ public abstract class SolrBase {
             watch.stop();
         }
     }
+
+    private void incrementCacheCounter(String result) {
+        if (metricRegistry != null) {
+            metricRegistry.counter(solrCacheCounterMetadata, new Tag(RESULT_KEY, result)).inc();
+        }
+    }
+
+    private void updateTimer(String methodName, StopWatch watch) {
+        if (metricRegistry != null) {
+            metricRegistry.simpleTimer(solrTimerMetadata, new Tag(METHOD_NAME_KEY, methodName))
+                    .update(Duration.ofMillis(watch.getElapsedTime()));
+        }
+    }
 }
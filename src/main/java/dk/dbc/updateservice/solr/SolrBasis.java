@@ -24,6 +24,7 @@ public class SolrBasis extends SolrBase {
     }
 
     public SolrBasis(Properties settings) {
+        super(settings);
         this.settings = settings;
         messages = ResourceBundles.getBundle("messages");
     }
@@ -10,10 +10,6 @@ import org.perf4j.log4j.Log4JStopWatch;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 
-import javax.json.JsonArray;
-import javax.json.JsonObject;
-import javax.json.JsonString;
-import javax.json.JsonValue;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLEncoder;
@@ -33,6 +29,7 @@ public class SolrFBS extends SolrBase {
     }
 
     public SolrFBS(Properties settings) {
+        super(settings);
         this.settings = settings;
         messages = ResourceBundles.getBundle("messages");
     }
@@ -58,33 +55,15 @@ public class SolrFBS extends SolrBase {
     public String getOwnerOf002(String query) throws UpdateException, SolrException {
         final StopWatch watch = new Log4JStopWatch("service.solr.getownerof002").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
 
-        String result = "";
         try {
-            final URL solrUrl = setUrl(query, "&fl=marc.001a");
-            final JsonObject response = callSolr(solrUrl);
-            if (response.containsKey("docs")) {
-                final JsonArray docsArray = response.getJsonArray("docs");
-                for (JsonObject jObj : docsArray.getValuesAs(JsonObject.class)) {
-                    // Sometimes the value is an array and sometimes a string, so we need to check the type first
-                    final JsonValue jsonValue = jObj.get("marc.001a");
-                    if (jsonValue.getValueType() == JsonValue.ValueType.ARRAY) {
-                        final JsonArray marc001aArray = (JsonArray) jsonValue;
-                        result = marc001aArray.getString(0);
-                        break;
-                    } else if (jsonValue.getValueType() == JsonValue.ValueType.STRING) {
-                        final JsonString marc001aString = (JsonString) jsonValue;
-                        result = marc001aString.getString();
-                        break;
-                    } else {
-                        throw new SolrException("Expected type of marc.001a to be ARRAY or STRING but it was " + jsonValue.getValueType());
-                    }
-                }
+            final URL solrUrl = setUrl(query, MARC_001A_QUERY_PARAM);
+            final SolrResponse response = callSolr(solrUrl, "getOwnerOf002");
+            if (response.hasFirstDoc()) {
+                return getFirstMarc001a(response);
             }
-            return result;
+            return "";
         } finally {
             watch.stop();
         }
     }
-
-
 }
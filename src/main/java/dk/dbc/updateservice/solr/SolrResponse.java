@@ -0,0 +1,208 @@
+package dk.dbc.updateservice.solr;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import java.io.InputStream;
+
+/**
+ * The parts of a Solr select response used by update.
+ * <p/>
+ * The response is read with a streaming parser which only keeps <code>response.numFound</code>, the
+ * <code>marc.001a</code> value of the first document and the error section. Everything else, e.g. the
+ * response header and any following documents, is skipped without building a json tree.
+ */
+class SolrResponse {
+    static final String MARC_001A = "marc.001a";
+
+    private boolean hasResponse;
+    private Long numFound;
+    private boolean hasDocs;
+    private boolean hasFirstDoc;
+    // Value type of marc.001a in the first document. The value is either an array or a string
+    private String firstMarc001aType = "NULL";
+    private String firstMarc001a;
+    private Integer errorCode;
+    private String errorMsg;
+
+    private SolrResponse() {
+    }
+
+    static SolrResponse parse(InputStream is) {
+        final SolrResponse result = new SolrResponse();
+        try (JsonParser parser = Json.createParser(is)) {
+            if (parser.hasNext() && parser.next() == JsonParser.Event.START_OBJECT) {
+                while (nextKey(parser)) {
+                    final String key = parser.getString();
+                    final JsonParser.Event event = parser.next();
+                    if ("response".equals(key) && event == JsonParser.Event.START_OBJECT) {
+                        result.hasResponse = true;
+                        result.readResponse(parser);
+                    } else if ("error".equals(key) && event == JsonParser.Event.START_OBJECT) {
+                        result.readError(parser);
+                    } else {
+                        skip(parser, event);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void readResponse(JsonParser parser) {
+        while (nextKey(parser)) {
+            final String key = parser.getString();
+            final JsonParser.Event event = parser.next();
+            if ("numFound".equals(key) && event == JsonParser.Event.VALUE_NUMBER) {
+                numFound = parser.getLong();
+            } else if ("docs".equals(key) && event == JsonParser.Event.START_ARRAY) {
+                hasDocs = true;
+                readDocs(parser);
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    private void readDocs(JsonParser parser) {
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (!hasFirstDoc && event == JsonParser.Event.START_OBJECT) {
+                hasFirstDoc = true;
+                readFirstDoc(parser);
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    private void readFirstDoc(JsonParser parser) {
+        while (nextKey(parser)) {
+            final String key = parser.getString();
+            final JsonParser.Event event = parser.next();
+            if (MARC_001A.equals(key) && event == JsonParser.Event.VALUE_STRING) {
+                firstMarc001aType = "STRING";
+                firstMarc001a = parser.getString();
+            } else if (MARC_001A.equals(key) && event == JsonParser.Event.START_ARRAY) {
+                firstMarc001aType = "ARRAY";
+                readFirstString(parser);
+            } else {
+                if (MARC_001A.equals(key)) {
+                    firstMarc001aType = typeOf(event);
+                }
+                skip(parser, event);
+            }
+        }
+    }
+
+    private void readFirstString(JsonParser parser) {
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (firstMarc001a == null && event == JsonParser.Event.VALUE_STRING) {
+                firstMarc001a = parser.getString();
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    private void readError(JsonParser parser) {
+        while (nextKey(parser)) {
+            final String key = parser.getString();
+            final JsonParser.Event event = parser.next();
+            if ("code".equals(key) && event == JsonParser.Event.VALUE_NUMBER) {
+                errorCode = parser.getInt();
+            } else if ("msg".equals(key) && event == JsonParser.Event.VALUE_STRING) {
+                errorMsg = parser.getString();
+            } else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    private static boolean nextKey(JsonParser parser) {
+        return parser.next() == JsonParser.Event.KEY_NAME;
+    }
+
+    private static void skip(JsonParser parser, JsonParser.Event event) {
+        if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            final JsonParser.Event next = parser.next();
+            if (next == JsonParser.Event.START_OBJECT || next == JsonParser.Event.START_ARRAY) {
+                depth++;
+            } else if (next == JsonParser.Event.END_OBJECT || next == JsonParser.Event.END_ARRAY) {
+                depth--;
+            }
+        }
+    }
+
+    private static String typeOf(JsonParser.Event event) {
+        switch (event) {
+            case START_OBJECT:
+                return "OBJECT";
+            case VALUE_NUMBER:
+                return "NUMBER";
+            case VALUE_TRUE:
+                return "TRUE";
+            case VALUE_FALSE:
+                return "FALSE";
+            default:
+                return "NULL";
+        }
+    }
+
+    boolean hasResponse() {
+        return hasResponse;
+    }
+
+    Long getNumFound() {
+        return numFound;
+    }
+
+    boolean hasDocs() {
+        return hasDocs;
+    }
+
+    boolean hasFirstDoc() {
+        return hasFirstDoc;
+    }
+
+    String getFirstMarc001aType() {
+        return firstMarc001aType;
+    }
+
+    /**
+     * @return The first marc.001a value of the first document, or <code>null</code> if the value is neither an array
+     * nor a string.
+     */
+    String getFirstMarc001a() {
+        return firstMarc001a;
+    }
+
+    boolean hasError() {
+        return errorCode != null || errorMsg != null;
+    }
+
+    Integer getErrorCode() {
+        return errorCode;
+    }
+
+    String getErrorMsg() {
+        return errorMsg;
+    }
+
+    @Override
+    public String toString() {
+        return "SolrResponse{" +
+                "hasResponse=" + hasResponse +
+                ", numFound=" + numFound +
+                ", hasDocs=" + hasDocs +
+                ", firstMarc001a='" + firstMarc001a + '\'' +
+                ", errorCode=" + errorCode +
+                ", errorMsg='" + errorMsg + '\'' +
+                '}';
+    }
+}
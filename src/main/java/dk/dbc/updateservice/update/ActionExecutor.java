@@ -0,0 +1,50 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.utils.BoundedExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Bounded executor shared by all requests for running sibling actions concurrently.
+ * <p/>
+ * The actions run on the managed executor of the application server, so they have the naming and class loading
+ * context of the application. At most <code>UPDATE_ACTION_THREADS</code> actions are handed to the managed executor
+ * at a time. Further actions are executed by the calling thread, so a busy executor slows the request down to
+ * sequential execution instead of failing it.
+ * <p/>
+ * Setting <code>UPDATE_ACTION_THREADS</code> to 0 disables concurrent execution of actions.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ActionExecutor {
+    @Inject
+    @ConfigProperty(name = "UPDATE_ACTION_THREADS", defaultValue = "8")
+    int threads;
+
+    @Resource
+    ManagedExecutorService managedExecutorService;
+
+    private ExecutorService executorService;
+
+    @PostConstruct
+    public void init() {
+        if (threads > 0) {
+            executorService = new BoundedExecutor(managedExecutorService, threads);
+        }
+    }
+
+    /**
+     * @return The executor or <code>null</code> if concurrent execution of actions is disabled.
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+}
@@ -0,0 +1,139 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import dk.dbc.rawrepo.RecordId;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A hash of the meaningful content of a record and its relations, used for finding out whether an update would
+ * change anything in rawrepo.
+ * <p/>
+ * The hash covers all data fields with indicators and subfields in record order, except 001 *c which is the
+ * modified date set when the record is stored, and the ids of the records the record is linked to. Two records with
+ * the same fields in another order have different hashes, but {@link #hasSameContentInAnyOrder(CanonicalRecordHash)}
+ * tells whether sorting one of the records could make the hashes equal.
+ */
+public final class CanonicalRecordHash {
+    private static final char FIELD_SEPARATOR = '\u001E';
+    private static final char SUBFIELD_SEPARATOR = '\u001F';
+    private static final Comparator<RecordId> RELATION_ORDER = Comparator.comparingInt(RecordId::getAgencyId)
+            .thenComparing(RecordId::getBibliographicRecordId);
+
+    private final byte[] digest;
+    private final byte[] unorderedDigest;
+
+    private CanonicalRecordHash(byte[] digest, byte[] unorderedDigest) {
+        this.digest = digest;
+        this.unorderedDigest = unorderedDigest;
+    }
+
+    /**
+     * @param marcRecord The record.
+     * @param relations  The records the record is linked to.
+     * @return The hash of the record and its relations.
+     */
+    public static CanonicalRecordHash of(MarcRecord marcRecord, Collection<RecordId> relations) {
+        final List<String> fields = new ArrayList<>();
+        for (DataField field : marcRecord.getFields(DataField.class)) {
+            fields.add(toCanonicalString(field));
+        }
+        final List<RecordId> sortedRelations = new ArrayList<>(relations);
+        sortedRelations.sort(RELATION_ORDER);
+        final StringBuilder relationString = new StringBuilder();
+        for (RecordId relation : sortedRelations) {
+            relationString.append(relation.getAgencyId()).append(SUBFIELD_SEPARATOR)
+                    .append(relation.getBibliographicRecordId()).append(FIELD_SEPARATOR);
+        }
+
+        final byte[] digest = digest(fields, relationString);
+        final List<String> sortedFields = new ArrayList<>(fields);
+        Collections.sort(sortedFields);
+        final byte[] unorderedDigest = digest(sortedFields, relationString);
+
+        return new CanonicalRecordHash(digest, unorderedDigest);
+    }
+
+    /**
+     * @param other Another hash.
+     * @return <code>true</code> if the two records have the same fields and relations, disregarding the order of the
+     * fields.
+     */
+    public boolean hasSameContentInAnyOrder(CanonicalRecordHash other) {
+        return Arrays.equals(unorderedDigest, other.unorderedDigest);
+    }
+
+    private static String toCanonicalString(DataField field) {
+        final StringBuilder result = new StringBuilder();
+        result.append(field.getTag()).append(SUBFIELD_SEPARATOR)
+                .append(toIndicator(field.getInd1()))
+                .append(toIndicator(field.getInd2()))
+                .append(toIndicator(field.getInd3()));
+        final boolean isIdField = "001".equals(field.getTag());
+        for (SubField subField : field.getSubFields()) {
+            if (isIdField && subField.getCode() == 'c') {
+                continue;
+            }
+            result.append(SUBFIELD_SEPARATOR).append(subField.getCode()).append(subField.getData());
+        }
+
+        return result.toString();
+    }
+
+    private static char toIndicator(Character indicator) {
+        return indicator == null ? ' ' : indicator;
+    }
+
+    private static byte[] digest(List<String> fields, CharSequence relations) {
+        final MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required in every Java platform implementation
+            throw new IllegalStateException(e);
+        }
+        for (String field : fields) {
+            messageDigest.update(field.getBytes(StandardCharsets.UTF_8));
+            messageDigest.update((byte) FIELD_SEPARATOR);
+        }
+        messageDigest.update((byte) SUBFIELD_SEPARATOR);
+        messageDigest.update(relations.toString().getBytes(StandardCharsets.UTF_8));
+
+        return messageDigest.digest();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final CanonicalRecordHash that = (CanonicalRecordHash) o;
+
+        return Arrays.equals(digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(digest);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder("CanonicalRecordHash{");
+        for (byte b : digest) {
+            result.append(String.format("%02x", b));
+        }
+
+        return result.append('}').toString();
+    }
+}
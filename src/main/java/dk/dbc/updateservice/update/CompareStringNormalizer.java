@@ -0,0 +1,99 @@
+package dk.dbc.updateservice.update;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request scoped normalization of subfield values before they are compared by the classification check.
+ * <p/>
+ * A value is compared by its lower case letters and digits (including æ, ø and å) and, when normalized, with the
+ * accents removed. The classification check looks at the same values of the old and new record many times, and does
+ * it again for every enrichment of a common record, so values needing the full unicode treatment are only normalized
+ * once per request. Pure ascii values, which are by far the most common, are filtered directly into the result
+ * without creating any intermediate strings.
+ */
+public class CompareStringNormalizer {
+    private static final char COMBINING_MARKS_FIRST = '\u0300';
+    private static final char COMBINING_MARKS_LAST = '\u036F';
+
+    private final Map<String, String> normalizedValues = new ConcurrentHashMap<>();
+    private final Map<String, String> plainValues = new ConcurrentHashMap<>();
+
+    /**
+     * Appends the compare string of a subfield value.
+     *
+     * @param collector The compare string being built.
+     * @param value     The subfield value.
+     * @param normalize Should accents be removed?
+     * @param cut       Max number of characters to append, 0 means all of them.
+     */
+    public void append(StringBuilder collector, String value, boolean normalize, int cut) {
+        if (isAscii(value) && hasAsciiLowerCase()) {
+            final int limit = cut > 0 ? collector.length() + cut : Integer.MAX_VALUE;
+            for (int i = 0; i < value.length() && collector.length() < limit; i++) {
+                char c = value.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (isCompareChar(c)) {
+                    collector.append(c);
+                }
+            }
+        } else {
+            final String compareString = normalize
+                    ? normalizedValues.computeIfAbsent(value, key -> toCompareString(key, true))
+                    : plainValues.computeIfAbsent(value, key -> toCompareString(key, false));
+            collector.append(compareString, 0, cut > 0 ? Math.min(cut, compareString.length()) : compareString.length());
+        }
+    }
+
+    private static String toCompareString(String value, boolean normalize) {
+        String result = value;
+        if (normalize) {
+            final String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+            final StringBuilder stripped = new StringBuilder(decomposed.length());
+            for (int i = 0; i < decomposed.length(); i++) {
+                final char c = decomposed.charAt(i);
+                if (c < COMBINING_MARKS_FIRST || c > COMBINING_MARKS_LAST) {
+                    stripped.append(c);
+                }
+            }
+            result = stripped.toString();
+        }
+        // Lower casing is done on the full string as it depends on the locale and sometimes on the neighbouring chars
+        result = result.toLowerCase();
+        final StringBuilder compareString = new StringBuilder(result.length());
+        for (int i = 0; i < result.length(); i++) {
+            final char c = result.charAt(i);
+            if (isCompareChar(c)) {
+                compareString.append(c);
+            }
+        }
+
+        return compareString.toString();
+    }
+
+    private static boolean isCompareChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '\u00E6' || c == '\u00F8' || c == '\u00E5';
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * String.toLowerCase() uses the default locale, and in a few locales ascii I isn't lower cased to i
+     */
+    private static boolean hasAsciiLowerCase() {
+        final String language = Locale.getDefault().getLanguage();
+        return !"tr".equals(language) && !"az".equals(language) && !"lt".equals(language);
+    }
+}
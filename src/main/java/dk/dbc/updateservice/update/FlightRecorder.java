@@ -0,0 +1,94 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.actions.ActionTrace;
+import dk.dbc.updateservice.utils.CostLedger;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the action trees of the latest slow requests in memory, so the time of a slow request can be broken down after
+ * it has finished without debug logging.
+ * <p/>
+ * Requests taking at least <code>UPDATE_FLIGHT_RECORDER_SLOW_MS</code> milliseconds are recorded, 0 disables the
+ * recorder. At most <code>UPDATE_FLIGHT_RECORDER_SIZE</code> recordings are kept - the oldest is dropped when a new one
+ * is added to a full recorder.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class FlightRecorder {
+    @Inject
+    @ConfigProperty(name = "UPDATE_FLIGHT_RECORDER_SLOW_MS", defaultValue = "5000")
+    long slowMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_FLIGHT_RECORDER_SIZE", defaultValue = "50")
+    int size;
+
+    private final Deque<FlightRecording> recordings = new ArrayDeque<>();
+    private long nextId = 1;
+
+    /**
+     * Records a request if it was slow.
+     *
+     * @param trackingId  The tracking id of the request.
+     * @param schemaName  The schema name of the request.
+     * @param startTime   When the request started.
+     * @param durationMs  How long the request took.
+     * @param status      The status of the response.
+     * @param ledger      The calls to dependencies made by the request, or null if they weren't counted.
+     * @param actionTrace The trace of the executed actions, or null if no actions were executed.
+     */
+    public void record(String trackingId, String schemaName, long startTime, long durationMs, String status,
+                       CostLedger ledger, ActionTrace actionTrace) {
+        if (slowMs <= 0 || durationMs < slowMs || size <= 0) {
+            return;
+        }
+        final Map<String, Long> calls = ledger != null ? ledger.getCallsByDependency() : Collections.emptyMap();
+        final Map<String, Long> callsMs = ledger != null ? ledger.getTimeMsByDependency() : Collections.emptyMap();
+        synchronized (recordings) {
+            recordings.addFirst(new FlightRecording(nextId++, trackingId, schemaName, startTime, durationMs, status,
+                    calls, callsMs, actionTrace));
+            while (recordings.size() > size) {
+                recordings.removeLast();
+            }
+        }
+    }
+
+    /**
+     * @return The recordings without their action trees, newest first.
+     */
+    public List<FlightRecording> list() {
+        synchronized (recordings) {
+            final List<FlightRecording> result = new ArrayList<>(recordings.size());
+            for (FlightRecording recording : recordings) {
+                result.add(recording.withoutActions());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param id Id of the recording.
+     * @return The recording with its action tree, or null if there is no recording with the id (anymore).
+     */
+    public FlightRecording get(long id) {
+        synchronized (recordings) {
+            for (FlightRecording recording : recordings) {
+                if (recording.getId() == id) {
+                    return recording;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.actions.ActionTrace;
+
+import java.util.Map;
+
+/**
+ * A slow request captured by the {@link FlightRecorder}. The action tree is left out when recordings are listed, see
+ * {@link #withoutActions()}.
+ */
+public class FlightRecording {
+    private final long id;
+    private final String trackingId;
+    private final String schemaName;
+    private final long startTime;
+    private final long durationMs;
+    private final String status;
+    private final Map<String, Long> calls;
+    private final Map<String, Long> callsMs;
+    private final ActionTrace actions;
+
+    FlightRecording(long id, String trackingId, String schemaName, long startTime, long durationMs, String status,
+                    Map<String, Long> calls, Map<String, Long> callsMs, ActionTrace actions) {
+        this.id = id;
+        this.trackingId = trackingId;
+        this.schemaName = schemaName;
+        this.startTime = startTime;
+        this.durationMs = durationMs;
+        this.status = status;
+        this.calls = calls;
+        this.callsMs = callsMs;
+        this.actions = actions;
+    }
+
+    FlightRecording withoutActions() {
+        return new FlightRecording(id, trackingId, schemaName, startTime, durationMs, status, calls, callsMs, null);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTrackingId() {
+        return trackingId;
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Map<String, Long> getCalls() {
+        return calls;
+    }
+
+    public Map<String, Long> getCallsMs() {
+        return callsMs;
+    }
+
+    public ActionTrace getActions() {
+        return actions;
+    }
+}
@@ -0,0 +1,170 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.holdingitems.content.HoldingsItemsConnector;
+import dk.dbc.updateservice.utils.BoundedExecutor;
+import dk.dbc.updateservice.utils.CostLedger;
+import org.perf4j.StopWatch;
+import org.perf4j.log4j.Log4JStopWatch;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
+
+/**
+ * Request scoped memo of the agencies with holdings on a bibliographic record id.
+ * <p/>
+ * A common record update asks holdings-items about the same ids several times, e.g. for the record itself, its 002
+ * aliases and every volume in a hierarchy. This class asks holdings-items once per id per request, and ids not known
+ * by the memo are looked up in parallel when many ids are needed at once, at most eight at a time per request.
+ * <p/>
+ * Instances must not be shared between requests.
+ */
+public class HoldingsItemsCache {
+    private static final int LOOKUP_THREADS = 8;
+
+    private final HoldingsItemsConnector holdingsItems;
+    private final Executor executor;
+
+    private final Map<String, Set<Integer>> agenciesWithHoldings = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a memo which looks up the ids one at a time on the calling thread.
+     */
+    public HoldingsItemsCache(HoldingsItemsConnector holdingsItems) {
+        this(holdingsItems, null);
+    }
+
+    /**
+     * @param holdingsItems The holdings-items connector.
+     * @param executor      Executor for the parallel lookups, usually the managed executor of the application server,
+     *                      or null to look up the ids one at a time on the calling thread.
+     */
+    public HoldingsItemsCache(HoldingsItemsConnector holdingsItems, Executor executor) {
+        this.holdingsItems = holdingsItems;
+        this.executor = executor == null ? Runnable::run : new BoundedExecutor(executor, LOOKUP_THREADS);
+    }
+
+    /**
+     * Finds the agencies with holdings on a record.
+     *
+     * @param bibliographicRecordId The record id.
+     * @return The agencies with holdings.
+     */
+    public Set<Integer> getAgenciesWithHoldings(String bibliographicRecordId) {
+        final Set<Integer> cached = agenciesWithHoldings.get(bibliographicRecordId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        final Set<Integer> result = lookup(bibliographicRecordId);
+        agenciesWithHoldings.put(bibliographicRecordId, result);
+
+        return result;
+    }
+
+    /**
+     * Finds the agencies with holdings on each of a number of records. Ids not already known are looked up in parallel.
+     *
+     * @param bibliographicRecordIds The record ids.
+     * @return Map from record id to the agencies with holdings on it.
+     */
+    public Map<String, Set<Integer>> getAgenciesWithHoldings(Collection<String> bibliographicRecordIds) {
+        final Set<String> unknown = new LinkedHashSet<>();
+        for (String bibliographicRecordId : bibliographicRecordIds) {
+            if (agenciesWithHoldings.containsKey(bibliographicRecordId)) {
+                hits.incrementAndGet();
+            } else {
+                unknown.add(bibliographicRecordId);
+            }
+        }
+        if (unknown.size() == 1) {
+            getAgenciesWithHoldings(unknown.iterator().next());
+        } else if (!unknown.isEmpty()) {
+            misses.addAndGet(unknown.size());
+            final StopWatch watch = new Log4JStopWatch("holdingsItems.getAgenciesWithHoldings.bulk").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+            try {
+                final Map<String, CompletableFuture<Set<Integer>>> futures = new HashMap<>();
+                final CostLedger ledger = CostLedger.current();
+                for (String bibliographicRecordId : unknown) {
+                    futures.put(bibliographicRecordId, CompletableFuture.supplyAsync(() -> {
+                        CostLedger.attach(ledger);
+                        try {
+                            return lookup(bibliographicRecordId);
+                        } finally {
+                            CostLedger.attach(null);
+                        }
+                    }, executor));
+                }
+                for (Map.Entry<String, CompletableFuture<Set<Integer>>> future : futures.entrySet()) {
+                    agenciesWithHoldings.put(future.getKey(), future.getValue().join());
+                }
+            } catch (CompletionException ex) {
+                // Let the callers see the same exception as when the ids are looked up one at a time
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            } finally {
+                watch.stop();
+            }
+        }
+
+        final Map<String, Set<Integer>> result = new HashMap<>();
+        for (String bibliographicRecordId : bibliographicRecordIds) {
+            result.put(bibliographicRecordId, agenciesWithHoldings.get(bibliographicRecordId));
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the agencies with holdings on any of a number of records.
+     *
+     * @param bibliographicRecordIds The record ids.
+     * @return The agencies with holdings on at least one of the records.
+     */
+    public Set<Integer> getAgenciesWithHoldingsOnAny(Collection<String> bibliographicRecordIds) {
+        final Set<Integer> result = new HashSet<>();
+        for (Set<Integer> agencies : getAgenciesWithHoldings(bibliographicRecordIds).values()) {
+            result.addAll(agencies);
+        }
+
+        return result;
+    }
+
+    private Set<Integer> lookup(String bibliographicRecordId) {
+        final long start = System.currentTimeMillis();
+        final Set<Integer> result;
+        try {
+            result = holdingsItems.getAgenciesWithHoldings(bibliographicRecordId);
+        } finally {
+            CostLedger.call(CostLedger.Dependency.HOLDINGS_ITEMS, System.currentTimeMillis() - start);
+        }
+        CostLedger.records(CostLedger.Dependency.HOLDINGS_ITEMS, 1);
+
+        return result == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(result));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -13,6 +13,7 @@ import java.util.Properties;
 public class JNDIResources {
     public static final String SOLR_URL = "SOLR_URL";
     public static final String SOLR_BASIS_URL = "SOLR_BASIS_URL";
+    public static final String SOLR_CACHE_TTL_SECONDS = "SOLR_CACHE_TTL_SECONDS";
 
     public static final String RAWREPO_PROVIDER_ID_DBC = "RAWREPO_PROVIDER_ID_DBC";
     public static final String RAWREPO_PROVIDER_ID_FBS = "RAWREPO_PROVIDER_ID_FBS";
@@ -22,6 +23,7 @@ public class JNDIResources {
     public static final String RAWREPO_PRIORITY_OVERRIDE = "RAWREPO_PRIORITY_OVERRIDE";
 
     public static final String UPDATE_PROD_STATE = "UPDATE_PROD_STATE";
+    public static final String UPDATE_SKIP_UNCHANGED_RECORDS = "UPDATE_SKIP_UNCHANGED_RECORDS";
 
     /**
      * Defines SRU constant for RecordSchema tag to accept marcXChange 1.1.
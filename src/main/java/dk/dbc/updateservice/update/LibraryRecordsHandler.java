@@ -12,6 +12,7 @@ import dk.dbc.marc.binding.SubField;
 import dk.dbc.marc.reader.MarcReaderException;
 import dk.dbc.opencat.connector.OpencatBusinessConnector;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
@@ -24,7 +25,6 @@ import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import java.io.UnsupportedEncodingException;
-import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -32,6 +32,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.regex.Pattern;
 
 import static dk.dbc.marc.reader.DanMarc2LineFormatReader.DEFAULT_LEADER;
 import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
@@ -52,8 +53,10 @@ public class LibraryRecordsHandler {
     private static final List<String> RECORD_CONTROL_FIELDS = Arrays.asList("001", "004", "996");
     private static final List<String> CONTROL_AND_CLASSIFICATION_FIELDS = new ArrayList<>();
     private static final List<Character> IGNORABLE_CONTROL_SUBFIELDS = Arrays.asList('&', '0', '1', '4');
-    private static final String DIACRITICAL_MARKS = "[\\p{InCombiningDiacriticalMarks}]";
-    private static final String ALPHA_NUMERIC_DANISH_CHARS = "[^a-z0-9\u00E6\u00F8\u00E5]";
+    private static final Pattern MOVE_HOLDINGS_NOTIFICATION = Pattern.compile("\\[.*FLYT BEHOLDNING.*\\]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // DBC fields, i.e. fields which are stored in the 191919 enrichment, have tags starting with a letter
+    private static final MarcRecordIndex.TagSet DBC_FIELD_TAGS = MarcRecordIndex.TagSet.of("[a-z].*");
 
     @EJB
     private VipCoreService vipCoreService;
@@ -171,8 +174,8 @@ public class LibraryRecordsHandler {
      * @return the cleaned string
      */
     public String remove002Notifications(String input) {
-        String result = input.replaceAll("\\[.*FLYT BEHOLDNING.*\\]", " ");
-        result = result.replaceAll("\\s+", " ");
+        String result = MOVE_HOLDINGS_NOTIFICATION.matcher(input).replaceAll(" ");
+        result = WHITESPACE.matcher(result).replaceAll(" ");
         result = result.trim();
         return result;
     }
@@ -180,39 +183,30 @@ public class LibraryRecordsHandler {
     /**
      * Returns a string containing subfield content maybe stripped, maybe normalized
      *
+     * @param normalizer   Normalizer of subfield values for the current request
      * @param subfieldList List of subfields in the field
      * @param subfields    subfields to pick data from
      * @param normalize    should it be normalized ? NB : all other than alphanumeric are always stripped
      * @param cut          Should we look at less than the full content of a subfield ?
      * @return The collected data
      */
-    private String getCompareString(List<SubField> subfieldList, String subfields, boolean normalize, int cut) {
-        return getCompareString(subfieldList, subfields, normalize, cut, false);
+    private String getCompareString(CompareStringNormalizer normalizer, List<SubField> subfieldList, String subfields, boolean normalize, int cut) {
+        return getCompareString(normalizer, subfieldList, subfields, normalize, cut, false);
     }
 
-    private String getCompareString(List<SubField> subfieldList, String subfields, boolean normalize, int cut, boolean clean245a) {
+    private String getCompareString(CompareStringNormalizer normalizer, List<SubField> subfieldList, String subfields, boolean normalize, int cut, boolean clean245a) {
         if (subfieldList == null) {
             return "";
         }
         final StringBuilder collector = new StringBuilder();
-        String subCollector;
         for (SubField aSubfieldList : subfieldList) {
-            String subFieldData = aSubfieldList.getData();
-            if (clean245a && 'a' == aSubfieldList.getCode()) {
-                // This is to handle the 002 case where we want to destroy data
-                subFieldData = remove002Notifications(subFieldData);
-            }
             if (subfields.indexOf(aSubfieldList.getCode()) > -1) {
-                if (normalize) {
-                    subCollector = Normalizer.normalize(subFieldData, Normalizer.Form.NFD).replaceAll(DIACRITICAL_MARKS, "");
-                } else {
-                    subCollector = subFieldData;
-                }
-                subCollector = subCollector.toLowerCase().replaceAll(ALPHA_NUMERIC_DANISH_CHARS, "");
-                if (cut > 0 && subCollector.length() > cut) {
-                    subCollector = subCollector.substring(0, cut);
+                String subFieldData = aSubfieldList.getData();
+                if (clean245a && 'a' == aSubfieldList.getCode()) {
+                    // This is to handle the 002 case where we want to destroy data
+                    subFieldData = remove002Notifications(subFieldData);
                 }
-                collector.append(subCollector);
+                normalizer.append(collector, subFieldData, normalize, cut);
             }
         }
         return collector.toString();
@@ -230,18 +224,18 @@ public class LibraryRecordsHandler {
      * @param cut       reduced range of subfield content
      * @return returns true if equal otherwise false
      */
-    private boolean compareSubfieldContent(List<SubField> oldList, List<SubField> newList, String subfields, boolean normalize, int cut) {
-        return compareSubfieldContent(oldList, newList, subfields, normalize, cut, false);
+    private boolean compareSubfieldContent(CompareStringNormalizer normalizer, List<SubField> oldList, List<SubField> newList, String subfields, boolean normalize, int cut) {
+        return compareSubfieldContent(normalizer, oldList, newList, subfields, normalize, cut, false);
     }
 
-    private boolean compareSubfieldContent(List<SubField> oldList, List<SubField> newList, String subfields, boolean normalize, int cut, boolean clean245a) {
+    private boolean compareSubfieldContent(CompareStringNormalizer normalizer, List<SubField> oldList, List<SubField> newList, String subfields, boolean normalize, int cut, boolean clean245a) {
         return LOGGER.call(log -> {
             if (oldList == null && newList == null) {
                 log.info("compareSubfieldContent - both NULL");
                 return true;
             }
-            final String oldMatch = getCompareString(oldList, subfields, normalize, cut, clean245a);
-            final String newMatch = getCompareString(newList, subfields, normalize, cut, clean245a);
+            final String oldMatch = getCompareString(normalizer, oldList, subfields, normalize, cut, clean245a);
+            final String newMatch = getCompareString(normalizer, newList, subfields, normalize, cut, clean245a);
             log.info("Old str <{}>, new str <{}>", oldMatch, newMatch);
             return oldMatch.equals(newMatch);
         });
@@ -289,6 +283,45 @@ public class LibraryRecordsHandler {
      * <code>false</code> otherwise.
      */
     public boolean hasClassificationsChanged(MarcRecord oldRecord, MarcRecord newRecord, List<String> classificationsChangedMessage) {
+        return hasClassificationsChanged(oldRecord, newRecord, classificationsChangedMessage, new CompareStringNormalizer());
+    }
+
+    /**
+     * Tests if the classifications has changed between 2 records.
+     * <p>
+     * Same as {@link #hasClassificationsChanged(MarcRecord, MarcRecord, List)}, but with the subfield values
+     * normalized by the normalizer of the request, so values which have already been compared are reused.
+     *
+     * @param oldRecord                     The old record.
+     * @param newRecord                     The new record.
+     * @param classificationsChangedMessage List of reasons for the eventual classification change
+     * @param normalizer                    Normalizer of subfield values for the current request
+     * @return <code>true</code> if there is changes in the classifications,
+     * <code>false</code> otherwise.
+     */
+    public boolean hasClassificationsChanged(MarcRecord oldRecord, MarcRecord newRecord, List<String> classificationsChangedMessage,
+                                             CompareStringNormalizer normalizer) {
+        return hasClassificationsChanged(oldRecord, newRecord, null, classificationsChangedMessage, normalizer);
+    }
+
+    /**
+     * Tests if the classifications has changed between the 2 records of the diff.
+     * <p>
+     * The checks of fields which are the same in both records are skipped, as they can't find any changes. The
+     * result and the reasons are the same as from {@link #hasClassificationsChanged(MarcRecord, MarcRecord, List)}.
+     *
+     * @param recordDiff                    The diff between the old and the new record.
+     * @param classificationsChangedMessage List of reasons for the eventual classification change
+     * @param normalizer                    Normalizer of subfield values for the current request
+     * @return <code>true</code> if there is changes in the classifications,
+     * <code>false</code> otherwise.
+     */
+    public boolean hasClassificationsChanged(RecordDiff recordDiff, List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
+        return hasClassificationsChanged(recordDiff.getOldRecord(), recordDiff.getNewRecord(), recordDiff, classificationsChangedMessage, normalizer);
+    }
+
+    private boolean hasClassificationsChanged(MarcRecord oldRecord, MarcRecord newRecord, RecordDiff recordDiff,
+                                              List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
         final MarcRecordReader oldReader = new MarcRecordReader(oldRecord);
         final MarcRecordReader newReader = new MarcRecordReader(newRecord);
 
@@ -306,15 +339,16 @@ public class LibraryRecordsHandler {
         });
 
         // We call each of the classification check functions in order to get every change message
-        final boolean resultCheck008 = check008(oldReader, newReader, classificationsChangedMessage);
-        final boolean resultCheck009 = check009(oldReader, newReader, classificationsChangedMessage);
-        final boolean resultCheck038 = check038(oldReader, newReader, classificationsChangedMessage);
-        final boolean resultCheck039 = check039(oldReader, newReader, classificationsChangedMessage);
-        final boolean resultCheck100 = check100(oldReader, newReader, classificationsChangedMessage);
-        final boolean resultCheck110 = check110(oldReader, newReader, classificationsChangedMessage);
-        final boolean resultCheck239And245 = check239And245(oldReader, newReader, compareLength, classificationsChangedMessage);
-        final boolean resultCheck245 = check245(oldReader, newReader, compareLength, classificationsChangedMessage);
-        final boolean resultCheck652 = check652(oldReader, newReader, 10, classificationsChangedMessage);
+        // The checks only find changes in fields which differ, except check652 which may compare 654 with 652
+        final boolean resultCheck008 = isFieldChanged(recordDiff, "008") && check008(oldReader, newReader, classificationsChangedMessage);
+        final boolean resultCheck009 = isFieldChanged(recordDiff, "009") && check009(oldReader, newReader, classificationsChangedMessage);
+        final boolean resultCheck038 = isFieldChanged(recordDiff, "038") && check038(oldReader, newReader, classificationsChangedMessage);
+        final boolean resultCheck039 = isFieldChanged(recordDiff, "039") && check039(oldReader, newReader, classificationsChangedMessage);
+        final boolean resultCheck100 = isFieldChanged(recordDiff, "100") && check100(oldReader, newReader, classificationsChangedMessage, normalizer);
+        final boolean resultCheck110 = isFieldChanged(recordDiff, "110") && check110(oldReader, newReader, classificationsChangedMessage, normalizer);
+        final boolean resultCheck239And245 = isFieldChanged(recordDiff, "239", "245") && check239And245(oldReader, newReader, compareLength, classificationsChangedMessage, normalizer);
+        final boolean resultCheck245 = isFieldChanged(recordDiff, "245") && check245(oldReader, newReader, compareLength, classificationsChangedMessage, normalizer);
+        final boolean resultCheck652 = check652(oldReader, newReader, 10, classificationsChangedMessage, normalizer);
 
         return resultCheck008 ||
                 resultCheck009 ||
@@ -327,6 +361,10 @@ public class LibraryRecordsHandler {
                 resultCheck652;
     }
 
+    private static boolean isFieldChanged(RecordDiff recordDiff, String... tags) {
+        return recordDiff == null || recordDiff.isFieldChanged(tags);
+    }
+
     private boolean check008(MarcRecordReader oldReader, MarcRecordReader newReader, List<String> classificationsChangedMessage) {
         final String oldValue = getSubFieldsContent(oldReader, "008", 't');
         final String newValue = getSubFieldsContent(newReader, "008", 't');
@@ -400,7 +438,7 @@ public class LibraryRecordsHandler {
         }
     }
 
-    private boolean check100(MarcRecordReader oldReader, MarcRecordReader newReader, List<String> classificationsChangedMessage) {
+    private boolean check100(MarcRecordReader oldReader, MarcRecordReader newReader, List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
         final DataField oldField = oldReader.getField("100");
         final DataField newField = newReader.getField("100");
 
@@ -408,7 +446,7 @@ public class LibraryRecordsHandler {
         final List<SubField> oldSubfieldList = oldField == null ? null : oldField.getSubFields();
         final List<SubField> newSubfieldList = newField == null ? null : newField.getSubFields();
 
-        if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "ahkef", true, 0)) {
+        if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "ahkef", true, 0)) {
             classificationsChangedMessage.add("classificationchanged.reason.100.difference");
             LOGGER.use(log -> log.info("Classification has changed - reason 100ahkef difference"));
             return true;
@@ -417,7 +455,7 @@ public class LibraryRecordsHandler {
         }
     }
 
-    private boolean check110(MarcRecordReader oldReader, MarcRecordReader newReader, List<String> classificationsChangedMessage) {
+    private boolean check110(MarcRecordReader oldReader, MarcRecordReader newReader, List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
         final DataField oldField = oldReader.getField("110");
         final DataField newField = newReader.getField("110");
 
@@ -425,7 +463,7 @@ public class LibraryRecordsHandler {
         final List<SubField> oldSubfieldList = oldField == null ? null : oldField.getSubFields();
         final List<SubField> newSubfieldList = newField == null ? null : newField.getSubFields();
 
-        if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "saceikj", true, 0)) {
+        if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "saceikj", true, 0)) {
             classificationsChangedMessage.add("classificationchanged.reason.110.difference");
             LOGGER.use(log -> log.info("Classification has changed - reason 110saceikj difference"));
             return true;
@@ -435,7 +473,7 @@ public class LibraryRecordsHandler {
     }
 
 
-    private boolean check239And245(MarcRecordReader oldReader, MarcRecordReader newReader, int cut, List<String> classificationsChangedMessage) {
+    private boolean check239And245(MarcRecordReader oldReader, MarcRecordReader newReader, int cut, List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
         return LOGGER.call(log -> {
             List<SubField> oldSubfieldList;
             List<SubField> newSubfieldList;
@@ -462,9 +500,9 @@ public class LibraryRecordsHandler {
                 if (newField != null) {
                     final DataField field245 = oldReader.getField("245");
                     if (field245 != null) {
-                        f245a = getCompareString(field245.getSubFields(), "a", true, cut, true);
+                        f245a = getCompareString(normalizer, field245.getSubFields(), "a", true, cut, true);
                     }
-                    final String f239t = getCompareString(newReader.getField("239").getSubFields(), "t", true, cut);
+                    final String f239t = getCompareString(normalizer, newReader.getField("239").getSubFields(), "t", true, cut);
                     checkField239 = !f245a.equals(f239t);
                     if (checkField239 && !f239t.equals("")) {
                         classificationsChangedMessage.add("classificationchanged.reason.239t.difference");
@@ -477,9 +515,9 @@ public class LibraryRecordsHandler {
                 if (newField == null) {
                     final DataField field245 = newReader.getField("245");
                     if (field245 != null) {
-                        f245a = getCompareString(field245.getSubFields(), "a", true, cut, true);
+                        f245a = getCompareString(normalizer, field245.getSubFields(), "a", true, cut, true);
                     }
-                    final String f239t = getCompareString(oldReader.getField("239").getSubFields(), "t", true, cut);
+                    final String f239t = getCompareString(normalizer, oldReader.getField("239").getSubFields(), "t", true, cut);
                     checkField239 = !f245a.equals(f239t);
                     if (checkField239 && !f239t.equals("")) {
                         classificationsChangedMessage.add("classificationchanged.reason.239t.difference");
@@ -499,7 +537,7 @@ public class LibraryRecordsHandler {
             if (checkField239) {
                 oldSubfieldList = oldField == null ? null : oldField.getSubFields();
                 newSubfieldList = newField == null ? null : newField.getSubFields();
-                if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "ahkeft\u00F8", true, cut)) {
+                if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "ahkeft\u00F8", true, cut)) {
                     classificationsChangedMessage.add("classificationchanged.reason.239.difference");
                     log.info("Classification has changed - reason 239ahkeft\u00F8 difference");
                     return true;
@@ -520,15 +558,15 @@ public class LibraryRecordsHandler {
             newField = newReader.getField("245");
             oldSubfieldList = oldField == null ? null : oldField.getSubFields();
             newSubfieldList = newField == null ? null : newField.getSubFields();
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "a", true, cut, true)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "a", true, cut, true)) {
                 newValue = newReader.getValue("004", 'a');
                 newValue = newValue == null ? "" : newValue;
                 if (newValue.equals("s")) {
-                    if (compareSubfieldContent(oldSubfieldList, newSubfieldList, "n", true, 0)) {
+                    if (compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "n", true, 0)) {
                         checkField245 = false;
                     }
                 } else {
-                    if (newValue.equals("b") && compareSubfieldContent(oldSubfieldList, newSubfieldList, "g", true, 0)) {
+                    if (newValue.equals("b") && compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "g", true, 0)) {
                         checkField245 = false;
                     }
                 }
@@ -543,50 +581,50 @@ public class LibraryRecordsHandler {
         });
     }
 
-    private boolean check245(MarcRecordReader oldReader, MarcRecordReader newReader, int cut, List<String> classificationsChangedMessage) {
+    private boolean check245(MarcRecordReader oldReader, MarcRecordReader newReader, int cut, List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
         final DataField oldField = oldReader.getField("245");
         final DataField newField = newReader.getField("245");
         final List<SubField> oldSubfieldList = oldField == null ? null : oldField.getSubFields();
         final List<SubField> newSubfieldList = newField == null ? null : newField.getSubFields();
 
         return LOGGER.call(log -> {
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "g", true, cut)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "g", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245g.difference");
                 log.info("Classification has changed - reason 245g difference");
                 return true;
             }
 
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "m", false, 0)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "m", false, 0)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245m.difference");
                 log.info("Classification has changed - reason 245m difference");
                 return true;
             }
 
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "n", true, 0)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "n", true, 0)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245n.difference");
                 log.info("Classification has changed - reason 245n difference");
                 return true;
             }
 
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "o", true, cut)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "o", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245o.difference");
                 log.info("Classification has changed - reason 245o difference");
                 return true;
             }
 
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "y", true, cut)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "y", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245y.difference");
                 log.info("Classification has changed - reason 245y difference");
                 return true;
             }
 
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "\u00E6", true, cut)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "\u00E6", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245æ.difference");
                 log.info("Classification has changed - reason 245æ difference");
                 return true;
             }
 
-            if (!compareSubfieldContent(oldSubfieldList, newSubfieldList, "\u00F8", true, cut)) {
+            if (!compareSubfieldContent(normalizer, oldSubfieldList, newSubfieldList, "\u00F8", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.245ø.difference");
                 log.info("Classification has changed - reason 245ø difference");
                 return true;
@@ -640,7 +678,7 @@ public class LibraryRecordsHandler {
      *                                      even if there are multiple changes.
      * @return Return true if there is relevant changes, otherwise false
      */
-    private boolean check652(MarcRecordReader oldReader, MarcRecordReader newReader, int cut, List<String> classificationsChangedMessage) {
+    private boolean check652(MarcRecordReader oldReader, MarcRecordReader newReader, int cut, List<String> classificationsChangedMessage, CompareStringNormalizer normalizer) {
         return LOGGER.call(log -> {
 
             // First we collect the fields with *o or *m from new and old. Rules says that there may only be one in a record.
@@ -648,7 +686,7 @@ public class LibraryRecordsHandler {
             DataField current = get652654MorO(oldReader, "652");
             DataField new652 = get652654MorO(newReader, "652");
             if (current.getSubFields().size() > 0) {
-                if (compareSubfieldContent(current.getSubFields(), new652.getSubFields(), "moabefh",
+                if (compareSubfieldContent(normalizer, current.getSubFields(), new652.getSubFields(), "moabefh",
                         true, cut)) {
                     return false;
                 }
@@ -656,50 +694,50 @@ public class LibraryRecordsHandler {
                 // Sadly, they weren't equal, so we look for 654 in the old record - some panic may ensue
                 current = get652654MorO(oldReader, "654");
                 if (current.getSubFields().size() > 0 &&
-                        compareSubfieldContent(current.getSubFields(), new652.getSubFields(), "moabefh",
+                        compareSubfieldContent(normalizer, current.getSubFields(), new652.getSubFields(), "moabefh",
                                 true, cut)) {
                     return false;
                 }
             }
 
             // Now we will say something nice to the librarian
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('m')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('m')),
                     new652.getSubFields(hasSubFieldCode('m')), "m", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652m.difference");
                 log.info("Classification has changed - reason 652m difference");
                 return true;
             }
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('o')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('o')),
                     new652.getSubFields(hasSubFieldCode('o')), "o", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652o.difference");
                 log.info("Classification has changed - reason 652o difference");
                 return true;
             }
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('a')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('a')),
                     new652.getSubFields(hasSubFieldCode('a')), "a", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652a.difference");
                 log.info("Classification has changed - reason 652a difference");
                 return true;
             }
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('b')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('b')),
                     new652.getSubFields(hasSubFieldCode('b')), "b", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652b.difference");
                 log.info("Classification has changed - reason 652b difference");
                 return true;
             }
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('e')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('e')),
                     new652.getSubFields(hasSubFieldCode('e')), "e", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652mo.e.difference");
                 log.info("Classification has changed - reason 652e difference");
                 return true;
             }
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('f')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('f')),
                     new652.getSubFields(hasSubFieldCode('f')), "f", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652mo.f.difference");
                 log.info("Classification has changed - reason 652f difference");
                 return true;
             }
-            if (!compareSubfieldContent(current.getSubFields(hasSubFieldCode('h')),
+            if (!compareSubfieldContent(normalizer, current.getSubFields(hasSubFieldCode('h')),
                     new652.getSubFields(hasSubFieldCode('h')), "h", true, cut)) {
                 classificationsChangedMessage.add("classificationchanged.reason.652mo.h.difference");
                 log.info("Classification has changed - reason 652h difference");
@@ -877,11 +915,15 @@ public class LibraryRecordsHandler {
     }
 
     public MarcRecord correctLibraryExtendedRecord(MarcRecord commonRecord, MarcRecord enrichmentRecord) {
+        return correctLibraryExtendedRecord(commonRecord, enrichmentRecord, new CompareStringNormalizer());
+    }
+
+    public MarcRecord correctLibraryExtendedRecord(MarcRecord commonRecord, MarcRecord enrichmentRecord, CompareStringNormalizer normalizer) {
         return LOGGER.call(log -> {
             MarcRecord result = null;
             if (hasClassificationData(commonRecord)) {
                 log.info("Enrichment has classificationData");
-                if (!hasClassificationsChanged(commonRecord, enrichmentRecord, new ArrayList<>())) {
+                if (!hasClassificationsChanged(commonRecord, enrichmentRecord, new ArrayList<>(), normalizer)) {
                     log.info("!hasClassificationsChanged");
                     final MarcRecordWriter writer = new MarcRecordWriter(enrichmentRecord);
                     writer.removeFields(CLASSIFICATION_FIELDS);
@@ -913,22 +955,31 @@ public class LibraryRecordsHandler {
      * @throws UpdateException              in case of an error
      */
     public List<MarcRecord> recordDataForRawRepo(MarcRecord marcRecord, String groupId, LibraryGroup libraryGroup, ResourceBundle messages, boolean isAdmin) throws VipCoreException, UpdateException {
+        return recordDataForRawRepo(marcRecord, groupId, libraryGroup, messages, isAdmin, new RawRepoRecordCache(rawRepo));
+    }
+
+    /**
+     * As {@link #recordDataForRawRepo(MarcRecord, String, LibraryGroup, ResourceBundle, boolean)}, but reading the
+     * existing records through the record cache of the request.
+     */
+    public List<MarcRecord> recordDataForRawRepo(MarcRecord marcRecord, String groupId, LibraryGroup libraryGroup, ResourceBundle messages, boolean isAdmin,
+                                                 RawRepoRecordCache recordCache) throws VipCoreException, UpdateException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
         if (!isAdmin && reader.getAgencyIdAsInt() == RawRepo.COMMON_AGENCY &&
-                rawRepo.recordExists(reader.getRecordId(), RawRepo.COMMON_AGENCY)) {
-            final MarcRecord existingRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(reader.getRecordId(), RawRepo.COMMON_AGENCY).getContent());
+                recordCache.recordExists(reader.getRecordId(), RawRepo.COMMON_AGENCY)) {
+            final MarcRecord existingRecord = recordCache.fetchMarcRecord(reader.getRecordId(), RawRepo.COMMON_AGENCY);
             UpdateOwnership.mergeRecord(marcRecord, existingRecord);
         }
 
         if (libraryGroup.isFBS()) {
-            return recordDataForRawRepoFBS(marcRecord, groupId, messages);
+            return recordDataForRawRepoFBS(marcRecord, groupId, messages, recordCache);
         } else { // Assuming DataIO mode
             return recordDataForRawRepoDataIO(marcRecord, groupId);
         }
     }
 
-    private List<MarcRecord> recordDataForRawRepoFBS(MarcRecord marcRecord, String groupId, ResourceBundle messages) throws VipCoreException, UpdateException {
-        final List<MarcRecord> result = splitRecordFBS(marcRecord, groupId, messages);
+    private List<MarcRecord> recordDataForRawRepoFBS(MarcRecord marcRecord, String groupId, ResourceBundle messages, RawRepoRecordCache recordCache) throws VipCoreException, UpdateException {
+        final List<MarcRecord> result = splitRecordFBS(marcRecord, groupId, messages, recordCache);
 
         for (MarcRecord r : result) {
             final MarcRecordWriter writer = new MarcRecordWriter(r);
@@ -965,7 +1016,7 @@ public class LibraryRecordsHandler {
      * @throws VipCoreException in case of an error
      * @throws UpdateException  in case of an error
      */
-    private List<MarcRecord> splitRecordFBS(MarcRecord marcRecord, String groupId, ResourceBundle messages) throws VipCoreException, UpdateException {
+    private List<MarcRecord> splitRecordFBS(MarcRecord marcRecord, String groupId, ResourceBundle messages, RawRepoRecordCache recordCache) throws VipCoreException, UpdateException {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
 
         return LOGGER.<List<MarcRecord>, VipCoreException, UpdateException>callChecked2(log -> {
@@ -973,7 +1024,7 @@ public class LibraryRecordsHandler {
                 log.info("Agency id of record is not 870970 - returning same record");
                 return Collections.singletonList(marcRecord);
             }
-            final NoteAndSubjectExtensionsHandler noteAndSubjectExtensionsHandler = new NoteAndSubjectExtensionsHandler(this.vipCoreService, rawRepo, messages);
+            final NoteAndSubjectExtensionsHandler noteAndSubjectExtensionsHandler = new NoteAndSubjectExtensionsHandler(this.vipCoreService, recordCache, messages);
 
             final MarcRecord correctedRecord = noteAndSubjectExtensionsHandler.extensionRecordDataForRawRepo(marcRecord, groupId);
             final MarcRecordReader correctedRecordReader = new MarcRecordReader(correctedRecord);
@@ -990,7 +1041,7 @@ public class LibraryRecordsHandler {
                 log.info("Owner of record is {}", owner);
             }
 
-            if (!rawRepo.recordExists(recId, RawRepo.DBC_ENRICHMENT)) {
+            if (!recordCache.recordExists(recId, RawRepo.DBC_ENRICHMENT)) {
                 log.debug("DBC enrichment record [{}:{}] does not exist.", recId, RawRepo.DBC_ENRICHMENT);
                 dbcEnrichmentRecord = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
                 final DataField corrected001Field = new DataField(correctedRecordReader.getField("001"));
@@ -999,7 +1050,7 @@ public class LibraryRecordsHandler {
                 new MarcRecordWriter(dbcEnrichmentRecord).addOrReplaceSubField("001", 'b', Integer.toString(RawRepo.DBC_ENRICHMENT));
             } else {
                 log.debug("DBC enrichment record [{}:{}] found.", recId, RawRepo.DBC_ENRICHMENT);
-                dbcEnrichmentRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(recId, RawRepo.DBC_ENRICHMENT).getContent());
+                dbcEnrichmentRecord = recordCache.fetchMarcRecord(recId, RawRepo.DBC_ENRICHMENT);
             }
 
             final String recordStatus = correctedRecordReader.getValue("004", 'r');
@@ -1054,7 +1105,7 @@ public class LibraryRecordsHandler {
             } else if (field.getTag().equals("004")) {
                 dbcRecord.getFields().add(field);
                 commonRecord.getFields().add(field);
-            } else if (field.getTag().matches("[a-z].*")) {
+            } else if (DBC_FIELD_TAGS.matches(field.getTag())) {
                 dbcRecord.getFields().add(field);
             } else {
                 commonRecord.getFields().add(field);
@@ -1087,6 +1138,7 @@ public class LibraryRecordsHandler {
             throw new UpdateException("Error when executing OpencatBusinessConnector function: doRecategorizationThings", ex);
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 
@@ -1110,6 +1162,7 @@ public class LibraryRecordsHandler {
             throw new UpdateException("Error when executing OpencatBusinessConnector function: changeUpdateRecordForUpdate", ex);
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 }
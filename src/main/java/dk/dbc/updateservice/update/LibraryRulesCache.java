@@ -0,0 +1,264 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.utils.BoundedExecutor;
+import dk.dbc.updateservice.utils.CostLedger;
+import dk.dbc.updateservice.utils.DeferredLogger;
+import dk.dbc.vipcore.exception.VipCoreException;
+import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
+import dk.dbc.vipcore.marshallers.LibraryRules;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+import org.perf4j.StopWatch;
+import org.perf4j.log4j.Log4JStopWatch;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
+
+/**
+ * JVM wide cache of the library rules from vipcore.
+ * <p/>
+ * Library rules only change a few times a day, but they are looked up many times during a single update. Each agency
+ * is cached for <code>VIPCORE_RULES_CACHE_TTL_MINUTES</code>. When an entry is used within the last
+ * <code>VIPCORE_RULES_CACHE_REFRESH_AHEAD_MINUTES</code> of its lifetime it is reloaded in the background so the hot
+ * agencies never expire. If vipcore can't be reached an expired entry is used instead of failing the request.
+ * <p/>
+ * When the rules for many agencies are needed at once, e.g. for all libraries with holdings on a record, the agencies
+ * which aren't cached are loaded in parallel, at most <code>VIPCORE_RULES_CACHE_LOADER_THREADS</code> at a time.
+ * <p/>
+ * The background refreshes and parallel loads run on the managed executor of the application server.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class LibraryRulesCache {
+    private static final DeferredLogger LOGGER = new DeferredLogger(LibraryRulesCache.class);
+
+    static final String RESULT_KEY = "result";
+
+    static final Metadata libraryRulesCacheCounterMetadata = Metadata.builder()
+            .withName("update_vipcore_library_rules_cache_counter")
+            .withDescription("Number of library rules lookups by result (hit, miss, stale, refresh, refresh_error)")
+            .withType(MetricType.COUNTER)
+            .withUnit("lookups").build();
+
+    static final Metadata libraryRulesCacheSizeMetadata = Metadata.builder()
+            .withName("update_vipcore_library_rules_cache_size")
+            .withDescription("Number of agencies in the library rules cache")
+            .withType(MetricType.GAUGE)
+            .withUnit("agencies").build();
+
+    @Inject
+    VipCoreLibraryRulesConnector vipCoreLibraryRulesConnector;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "VIPCORE_RULES_CACHE_TTL_MINUTES", defaultValue = "30")
+    long ttlMinutes;
+
+    @Inject
+    @ConfigProperty(name = "VIPCORE_RULES_CACHE_REFRESH_AHEAD_MINUTES", defaultValue = "5")
+    long refreshAheadMinutes;
+
+    @Inject
+    @ConfigProperty(name = "VIPCORE_RULES_CACHE_LOADER_THREADS", defaultValue = "8")
+    int loaderThreads;
+
+    @Resource
+    ManagedExecutorService managedExecutorService;
+
+    Clock clock = Clock.systemUTC();
+    Executor refresher;
+    Executor loader;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private static class Entry {
+        private final LibraryRules libraryRules;
+        private final Instant refreshAfter;
+        private final Instant expires;
+
+        private Entry(LibraryRules libraryRules, Instant refreshAfter, Instant expires) {
+            this.libraryRules = libraryRules;
+            this.refreshAfter = refreshAfter;
+            this.expires = expires;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        // Only one refresh of an agency is scheduled at a time, see scheduleRefresh
+        refresher = managedExecutorService;
+        loader = new BoundedExecutor(managedExecutorService, loaderThreads);
+        metricRegistry.register(libraryRulesCacheSizeMetadata, (Gauge<Integer>) entries::size);
+    }
+
+    /**
+     * Returns the library rules for an agency, from the cache if possible.
+     *
+     * @param agencyId The agency to find the rules for.
+     * @return The library rules.
+     * @throws VipCoreException If the rules aren't cached and vipcore fails.
+     */
+    public LibraryRules getLibraryRules(String agencyId) throws VipCoreException {
+        final Entry entry = entries.get(agencyId);
+        final Instant now = clock.instant();
+        if (entry != null && now.isBefore(entry.expires)) {
+            incrementCounter("hit");
+            if (!now.isBefore(entry.refreshAfter)) {
+                scheduleRefresh(agencyId);
+            }
+            return entry.libraryRules;
+        }
+
+        incrementCounter("miss");
+        try {
+            return load(agencyId);
+        } catch (VipCoreException | RuntimeException ex) {
+            if (entry == null) {
+                throw ex;
+            }
+            incrementCounter("stale");
+            LOGGER.use(log -> log.warn("Unable to reload library rules for {} - using rules which expired at {}", agencyId, entry.expires, ex));
+            return entry.libraryRules;
+        }
+    }
+
+    /**
+     * Returns the library rules for a number of agencies. Agencies which aren't cached are loaded from vipcore in
+     * parallel, so the time spent is roughly that of the slowest agency instead of the sum of them all.
+     *
+     * @param agencyIds The agencies to find the rules for.
+     * @return The library rules for each of the agencies.
+     * @throws VipCoreException If the rules for an agency aren't cached and vipcore fails.
+     */
+    public Map<String, LibraryRules> getLibraryRules(Collection<String> agencyIds) throws VipCoreException {
+        final Map<String, LibraryRules> result = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+        final Instant now = clock.instant();
+        for (String agencyId : new LinkedHashSet<>(agencyIds)) {
+            final Entry entry = entries.get(agencyId);
+            if (entry != null && now.isBefore(entry.expires)) {
+                result.put(agencyId, getLibraryRules(agencyId));
+            } else {
+                missing.add(agencyId);
+            }
+        }
+        if (missing.size() == 1) {
+            result.put(missing.get(0), getLibraryRules(missing.get(0)));
+        } else if (!missing.isEmpty()) {
+            final StopWatch watch = new Log4JStopWatch("service.vipcore.getLibraryRulesByAgencyIds").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+            try {
+                final Map<String, CompletableFuture<LibraryRules>> futures = new HashMap<>();
+                final CostLedger ledger = CostLedger.current();
+                for (String agencyId : missing) {
+                    futures.put(agencyId, CompletableFuture.supplyAsync(() -> {
+                        CostLedger.attach(ledger);
+                        try {
+                            return getLibraryRules(agencyId);
+                        } catch (VipCoreException ex) {
+                            throw new CompletionException(ex);
+                        } finally {
+                            CostLedger.attach(null);
+                        }
+                    }, loader));
+                }
+                for (Map.Entry<String, CompletableFuture<LibraryRules>> future : futures.entrySet()) {
+                    result.put(future.getKey(), future.getValue().join());
+                }
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof VipCoreException) {
+                    throw (VipCoreException) ex.getCause();
+                }
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            } finally {
+                watch.stop();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes all cached rules. Mostly useful when the rules are known to have been changed.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private LibraryRules load(String agencyId) throws VipCoreException {
+        final StopWatch watch = new Log4JStopWatch("service.vipcore.getLibraryRulesByAgencyId").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        try {
+            final LibraryRules libraryRules = vipCoreLibraryRulesConnector.getLibraryRulesByAgencyId(agencyId);
+            final Instant now = clock.instant();
+            final Duration ttl = Duration.ofMinutes(ttlMinutes);
+            entries.put(agencyId, new Entry(libraryRules, now.plus(ttl).minus(Duration.ofMinutes(refreshAheadMinutes)), now.plus(ttl)));
+
+            return libraryRules;
+        } finally {
+            watch.stop();
+            CostLedger.call(CostLedger.Dependency.VIPCORE, watch.getElapsedTime());
+        }
+    }
+
+    private void scheduleRefresh(String agencyId) {
+        if (!refreshing.add(agencyId)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    load(agencyId);
+                    incrementCounter("refresh");
+                } catch (VipCoreException | RuntimeException ex) {
+                    incrementCounter("refresh_error");
+                    LOGGER.use(log -> log.warn("Background refresh of library rules for {} failed", agencyId, ex));
+                } finally {
+                    refreshing.remove(agencyId);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refreshing.remove(agencyId);
+        }
+    }
+
+    private void incrementCounter(String result) {
+        metricRegistry.counter(libraryRulesCacheCounterMetadata, new Tag(RESULT_KEY, result)).inc();
+    }
+}
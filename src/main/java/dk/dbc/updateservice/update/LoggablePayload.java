@@ -0,0 +1,36 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.json.JsonMapper;
+
+import java.io.IOException;
+
+/**
+ * A request or response DTO passed to a log statement. The DTO is pretty printed as json, with the password scrambled,
+ * the first time {@link #toString()} is called, i.e. when the statement is actually logged. Deferred statements of
+ * successful requests are never logged, so the often very large json is never built for them.
+ */
+final class LoggablePayload {
+    private final Object value;
+    private String json;
+
+    private LoggablePayload(Object value) {
+        this.value = value;
+    }
+
+    static LoggablePayload of(Object value) {
+        return new LoggablePayload(value);
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (json == null) {
+            try {
+                json = UpdateServiceCore.scramblePassword(JsonMapper.encodePretty(value));
+            } catch (IOException | RuntimeException e) {
+                json = String.valueOf(value);
+            }
+        }
+
+        return json;
+    }
+}
@@ -0,0 +1,204 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.Field;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Index from tag to the positions of the fields with that tag in a record.
+ * <p/>
+ * The index is a snapshot of the field list of the record when the index was built, so looking up fields by tag
+ * doesn't have to scan (and regex match) every field of the record. The fields themselves are not copied, so changes
+ * to the content of a field are visible through the index, but adding, removing or reordering fields in the record,
+ * or changing the tag of a field, is not. Use {@link #isCurrent()} to check whether the index still matches the record.
+ */
+public class MarcRecordIndex {
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final MarcRecord marcRecord;
+    private final Field[] fields;
+    private final String[] tags;
+    private final Map<String, int[]> positions;
+
+    private MarcRecordIndex(MarcRecord marcRecord) {
+        this.marcRecord = marcRecord;
+        this.fields = marcRecord.getFields().toArray(new Field[0]);
+        this.tags = new String[fields.length];
+        final Map<String, List<Integer>> byTag = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            tags[i] = fields[i].getTag();
+            byTag.computeIfAbsent(tags[i], tag -> new ArrayList<>()).add(i);
+        }
+        this.positions = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : byTag.entrySet()) {
+            positions.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    public static MarcRecordIndex of(MarcRecord marcRecord) {
+        return new MarcRecordIndex(marcRecord);
+    }
+
+    public MarcRecord getMarcRecord() {
+        return marcRecord;
+    }
+
+    /**
+     * @return <code>true</code> if the record still has exactly the fields, with the same tags, it had when the index
+     * was built.
+     */
+    public boolean isCurrent() {
+        final List<Field> current = marcRecord.getFields();
+        if (current.size() != fields.length) {
+            return false;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (current.get(i) != fields[i] || !tags[i].equals(fields[i].getTag())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The tags of the fields in the record.
+     */
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(positions.keySet());
+    }
+
+    public boolean hasField(String tag) {
+        return positions.containsKey(tag);
+    }
+
+    /**
+     * @param tag The tag to look for.
+     * @return The data fields with the tag in record order.
+     */
+    public List<DataField> getFields(String tag) {
+        return toDataFields(positions.getOrDefault(tag, NO_POSITIONS));
+    }
+
+    /**
+     * @param tags The tags to look for.
+     * @return The data fields with one of the tags in record order.
+     */
+    public List<DataField> getFields(TagSet tags) {
+        return toDataFields(positionsOf(tags, false));
+    }
+
+    /**
+     * @param tags The tags to leave out.
+     * @return The data fields with none of the tags in record order.
+     */
+    public List<DataField> getFieldsExcept(TagSet tags) {
+        return toDataFields(positionsOf(tags, true));
+    }
+
+    /**
+     * @return The value of the first subfield with the code in the first field with the tag, or <code>null</code>.
+     */
+    public String getValue(String tag, char code) {
+        for (int position : positions.getOrDefault(tag, NO_POSITIONS)) {
+            if (fields[position] instanceof DataField) {
+                for (SubField subField : ((DataField) fields[position]).getSubFields()) {
+                    if (subField.getCode() == code) {
+                        return subField.getData();
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private int[] positionsOf(TagSet tags, boolean negate) {
+        int count = 0;
+        final List<int[]> matching = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : positions.entrySet()) {
+            if (tags.matches(entry.getKey()) != negate) {
+                matching.add(entry.getValue());
+                count += entry.getValue().length;
+            }
+        }
+        if (matching.size() == 1) {
+            return matching.get(0);
+        }
+        final int[] result = new int[count];
+        int offset = 0;
+        for (int[] tagPositions : matching) {
+            System.arraycopy(tagPositions, 0, result, offset, tagPositions.length);
+            offset += tagPositions.length;
+        }
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    private List<DataField> toDataFields(int[] fieldPositions) {
+        final List<DataField> result = new ArrayList<>(fieldPositions.length);
+        for (int position : fieldPositions) {
+            if (fields[position] instanceof DataField) {
+                result.add((DataField) fields[position]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * A precompiled class of tags.
+     * <p/>
+     * The tags are given in the regular expression form used throughout update, e.g. "504|530". If the expression is
+     * just a list of tags the lookup is done in a set, otherwise the expression is compiled once and matched against
+     * the tag.
+     */
+    public static class TagSet {
+        private static final Pattern PLAIN_TAG = Pattern.compile("[0-9a-zA-Z]{3}");
+
+        private final String expression;
+        private final Set<String> tags;
+        private final Pattern pattern;
+
+        private TagSet(String expression) {
+            this.expression = expression;
+            final List<String> alternatives = Arrays.asList(expression.split("\\|"));
+            if (!expression.isEmpty() && alternatives.stream().allMatch(tag -> PLAIN_TAG.matcher(tag).matches())) {
+                this.tags = Collections.unmodifiableSet(new HashSet<>(alternatives));
+                this.pattern = null;
+            } else {
+                this.tags = null;
+                this.pattern = Pattern.compile(expression);
+            }
+        }
+
+        public static TagSet of(String expression) {
+            return new TagSet(expression);
+        }
+
+        public boolean matches(String tag) {
+            if (tags != null) {
+                return tags.contains(tag);
+            }
+
+            return pattern.matcher(tag).matches();
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.MarcRecord;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request scoped cache of {@link MarcRecordIndex} by record instance, and of the {@link RecordDiff} between records.
+ * <p/>
+ * The same records, e.g. the incoming record and the current record from rawrepo, are searched for fields many times
+ * while handling a single request, so the index is only built once per record. The cache is keyed by identity, as
+ * two records with the same content are still different instances which can be modified independently. If a record
+ * has been given new fields since its index was built, the index is rebuilt.
+ * <p/>
+ * A diff is remembered together with a copy of the records it was found from, and it is only reused while the records
+ * still have that content. Both caches keep the most recently used {@link #MAX_ENTRIES} entries.
+ */
+public class MarcRecordIndexCache {
+    static final int MAX_ENTRIES = 64;
+
+    private final Map<IdentityKey, MarcRecordIndex> indexes = new LeastRecentlyUsedMap<>();
+    private final Map<IdentityKey, CachedDiff> diffs = new LeastRecentlyUsedMap<>();
+
+    public synchronized MarcRecordIndex of(MarcRecord marcRecord) {
+        final IdentityKey key = new IdentityKey(marcRecord, null);
+        MarcRecordIndex index = indexes.get(key);
+        if (index == null || !index.isCurrent()) {
+            index = MarcRecordIndex.of(marcRecord);
+            indexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the diff between two records. The diff is found again if the content of one of the records has changed
+     * since last time.
+     *
+     * @param oldRecord The old record, typically the current record in rawrepo.
+     * @param newRecord The new record, typically the incoming record.
+     * @return The diff of the records.
+     */
+    public synchronized RecordDiff diffOf(MarcRecord oldRecord, MarcRecord newRecord) {
+        final IdentityKey key = new IdentityKey(oldRecord, newRecord);
+        final CachedDiff cached = diffs.get(key);
+        if (cached != null && cached.isCurrent(oldRecord, newRecord)) {
+            return cached.diff;
+        }
+        final RecordDiff diff = RecordDiff.of(of(oldRecord), of(newRecord));
+        diffs.put(key, new CachedDiff(oldRecord, newRecord, diff));
+
+        return diff;
+    }
+
+    private static final class IdentityKey {
+        private final MarcRecord first;
+        private final MarcRecord second;
+
+        private IdentityKey(MarcRecord first, MarcRecord second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final IdentityKey that = (IdentityKey) o;
+
+            return first == that.first && second == that.second;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(first) + System.identityHashCode(second);
+        }
+    }
+
+    private static final class CachedDiff {
+        private final MarcRecord oldContent;
+        private final MarcRecord newContent;
+        private final RecordDiff diff;
+
+        private CachedDiff(MarcRecord oldRecord, MarcRecord newRecord, RecordDiff diff) {
+            this.oldContent = new MarcRecord(oldRecord);
+            this.newContent = new MarcRecord(newRecord);
+            this.diff = diff;
+        }
+
+        private boolean isCurrent(MarcRecord oldRecord, MarcRecord newRecord) {
+            return oldContent.equals(oldRecord) && newContent.equals(newRecord);
+        }
+    }
+
+    private static final class LeastRecentlyUsedMap<K, V> extends LinkedHashMap<K, V> {
+        private LeastRecentlyUsedMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+}
@@ -10,7 +10,10 @@ import dk.dbc.updateservice.actions.GlobalActionState;
 import dk.dbc.updateservice.actions.ServiceAction;
 import dk.dbc.updateservice.actions.UpdateCommonRecordAction;
 import dk.dbc.updateservice.actions.UpdateEnrichmentRecordAction;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
+import org.perf4j.StopWatch;
+import org.perf4j.log4j.Log4JStopWatch;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -25,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
 import static java.util.Map.entry;
 
 public class MetakompasHandler {
@@ -63,6 +67,16 @@ public class MetakompasHandler {
     }
 
     private static String callUrl(String url) throws UpdateException {
+        final StopWatch watch = new Log4JStopWatch("metakompas.numberRoll").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        try {
+            return callNumberRoll(url);
+        } finally {
+            watch.stop();
+            CostLedger.call(CostLedger.Dependency.METAKOMPAS, watch.getElapsedTime());
+        }
+    }
+
+    private static String callNumberRoll(String url) throws UpdateException {
         return LOGGER.callChecked(log -> {
             try {
                 log.info("Numberroll url : {}", url);
@@ -105,14 +119,38 @@ public class MetakompasHandler {
         });
     }
 
-    private static String getNewIdNumber(Properties properties, String rollName) throws UpdateException {
+    /**
+     * Draws a new number directly from the number roll.
+     *
+     * @param properties The settings containing the number roll url.
+     * @param rollName   Name of the number roll (not the settings key).
+     * @return The new number.
+     * @throws UpdateException If the number roll isn't configured or fails.
+     */
+    static String drawNewIdNumber(Properties properties, String rollName) throws UpdateException {
+        if (properties.containsKey(JNDIResources.OPENNUMBERROLL_URL)) {
+            final String url = properties.getProperty(JNDIResources.OPENNUMBERROLL_URL);
+            return callUrl(url + "?action=numberRoll&numberRollName=" + rollName + "&outputType=json");
+        } else {
+            throw new UpdateException("No configuration for opennumberroll service");
+        }
+    }
+
+    private static String getNewIdNumber(GlobalActionState state, Properties properties, String rollName) throws UpdateException {
         return LOGGER.callChecked(log -> {
             if (properties.containsKey(JNDIResources.OPENNUMBERROLL_URL)) {
-                final String url = properties.getProperty(JNDIResources.OPENNUMBERROLL_URL);
                 log.info("Numberroll url {}", properties.getProperty(JNDIResources.OPENNUMBERROLL_URL));
                 if (properties.containsKey(rollName)) {
                     log.info("Numberroll name {}", properties.getProperty(rollName));
-                    final String res = callUrl(url + "?action=numberRoll&numberRollName=" + properties.getProperty(rollName) + "&outputType=json");
+                    final NumberRollPool numberRollPool = state.getNumberRollPool();
+                    if (numberRollPool != null) {
+                        final String pooled = numberRollPool.takeNumber(properties.getProperty(rollName));
+                        if (pooled != null) {
+                            log.info("Got new id number {} from the pool", pooled);
+                            return pooled;
+                        }
+                    }
+                    final String res = drawNewIdNumber(properties, properties.getProperty(rollName));
                     log.info("Got new id number {} ", res);
                     return res;
                 } else {
@@ -181,7 +219,7 @@ public class MetakompasHandler {
             final DataField x09Field = new DataField("x09", "00");
             final List<SubField> x09subFields = x09Field.getSubFields();
             x09subFields.add(new SubField('p', shortValue));
-            final String metaCompassId = getNewIdNumber(properties, JNDIResources.OPENNUMBERROLL_NAME_FAUST);
+            final String metaCompassId = getNewIdNumber(state, properties, JNDIResources.OPENNUMBERROLL_NAME_FAUST);
             x09subFields.add(new SubField('q', metaCompassId));
             fields.add(x09Field);
             enrichmentRecord.getFields().clear();
@@ -197,7 +235,7 @@ public class MetakompasHandler {
         try {
             final MarcRecord commonSubjectRecord = UpdateRecordContentTransformer.readRecordFromString(COMMON_RECORD_TEMPLATE);
             final MarcRecordWriter writer = new MarcRecordWriter(commonSubjectRecord);
-            final String newId = getNewIdNumber(properties, JNDIResources.OPENNUMBERROLL_NAME_FAUST_8);
+            final String newId = getNewIdNumber(state, properties, JNDIResources.OPENNUMBERROLL_NAME_FAUST_8);
             writer.addOrReplaceSubField("001", 'a', newId);
             writer.setChangedTimestamp();
             writer.setCreationTimestamp();
@@ -218,7 +256,7 @@ public class MetakompasHandler {
             } else {
                 enrichmentWriter.addOrReplaceSubField("x09", 'p', String.valueOf(subFieldName));
             }
-            final String metaCompassId = getNewIdNumber(properties, JNDIResources.OPENNUMBERROLL_NAME_FAUST);
+            final String metaCompassId = getNewIdNumber(state, properties, JNDIResources.OPENNUMBERROLL_NAME_FAUST);
             enrichmentWriter.addOrReplaceSubField("x09", 'q', metaCompassId);
             children.add(new UpdateEnrichmentRecordAction(state, properties, enrichmentRecord, 190004));
         } catch (UpdateException e) {
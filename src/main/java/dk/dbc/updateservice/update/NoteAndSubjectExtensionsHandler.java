@@ -10,10 +10,10 @@ import dk.dbc.marc.binding.Field;
 import dk.dbc.marc.binding.Leader;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.marc.binding.SubField;
-import dk.dbc.rawrepo.Record;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.dto.MessageEntryDTO;
 import dk.dbc.updateservice.dto.TypeEnumDTO;
+import dk.dbc.updateservice.update.MarcRecordIndex.TagSet;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.updateservice.utils.ResourceBundles;
 import dk.dbc.vipcore.exception.VipCoreException;
@@ -35,6 +35,8 @@ public class NoteAndSubjectExtensionsHandler {
     private static final DeferredLogger LOGGER = new DeferredLogger(NoteAndSubjectExtensionsHandler.class);
     private final VipCoreService vipCoreService;
     private final RawRepo rawRepo;
+    private final RawRepoRecordCache recordCache;
+    private final MarcRecordIndexCache indexCache;
     private final ResourceBundle messages;
 
     static final String CATALOGUE_CODE_FIELD = "032";
@@ -44,9 +46,23 @@ public class NoteAndSubjectExtensionsHandler {
     private static final String CLASSIFICATION_FIELDS = "652";
     private static final String NO_CLASSIFICATION = "uden klassemærke";
 
+    private static final TagSet NOTE_TAGS = TagSet.of(EXTENDABLE_NOTE_FIELDS);
+    private static final TagSet CONTROLLED_SUBJECT_TAGS = TagSet.of(EXTENDABLE_CONTROLLED_SUBJECT_FIELDS);
+    private static final TagSet SUBJECT_TAGS = TagSet.of(EXTENDABLE_SUBJECT_FIELDS);
+
     public NoteAndSubjectExtensionsHandler(VipCoreService vipCoreService, RawRepo rawRepo, ResourceBundle messages) {
+        this(vipCoreService, new RawRepoRecordCache(rawRepo), messages);
+    }
+
+    public NoteAndSubjectExtensionsHandler(VipCoreService vipCoreService, RawRepoRecordCache recordCache, ResourceBundle messages) {
+        this(vipCoreService, recordCache, new MarcRecordIndexCache(), messages);
+    }
+
+    public NoteAndSubjectExtensionsHandler(VipCoreService vipCoreService, RawRepoRecordCache recordCache, MarcRecordIndexCache indexCache, ResourceBundle messages) {
         this.vipCoreService = vipCoreService;
-        this.rawRepo = rawRepo;
+        this.rawRepo = recordCache.getRawRepo();
+        this.recordCache = recordCache;
+        this.indexCache = indexCache;
         this.messages = messages;
     }
 
@@ -60,10 +76,8 @@ public class NoteAndSubjectExtensionsHandler {
      */
     void addDK5Fields(MarcRecord result, MarcRecord marcRecord, MarcRecordReader reader, MarcRecord curRecord, MarcRecordReader curReader, String groupId) throws UpdateException, VipCoreException {
         LOGGER.<Void, UpdateException, VipCoreException>callChecked2(log -> {
-            final List<DataField> new652Fields = marcRecord.getFields(DataField.class).stream()
-                    .filter(field -> field.getTag().matches(CLASSIFICATION_FIELDS)).collect(Collectors.toList());
-            final List<DataField> current652Fields = curRecord.getFields(DataField.class).stream()
-                    .filter(field -> field.getTag().matches(CLASSIFICATION_FIELDS)).collect(Collectors.toList());
+            final List<DataField> new652Fields = indexCache.of(marcRecord).getFields(CLASSIFICATION_FIELDS);
+            final List<DataField> current652Fields = indexCache.of(curRecord).getFields(CLASSIFICATION_FIELDS);
             if (dataFieldsEqualsIgnoreAmpersand(new652Fields, current652Fields)) {
                 result.getFields().addAll(current652Fields);
             } else {
@@ -142,18 +156,16 @@ public class NoteAndSubjectExtensionsHandler {
     void addSubjectFields(MarcRecord result, MarcRecord marcRecord, MarcRecord curRecord, String groupId) throws UpdateException {
         final MarcRecord expandedCurrentRecord;
         expandedCurrentRecord = getExpandedRecord(curRecord);
-        final List<DataField> newControlledSubjectFields = marcRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(EXTENDABLE_CONTROLLED_SUBJECT_FIELDS)).collect(Collectors.toList());
-        final List<DataField> currentControlledSubjectFields = curRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(EXTENDABLE_CONTROLLED_SUBJECT_FIELDS)).collect(Collectors.toList());
-        final List<DataField> currentExpandedControlledSubjectFields = expandedCurrentRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(EXTENDABLE_CONTROLLED_SUBJECT_FIELDS)).collect(Collectors.toList());
+        final MarcRecordIndex expandedCurrentIndex = MarcRecordIndex.of(expandedCurrentRecord);
+        final List<DataField> newControlledSubjectFields = indexCache.of(marcRecord).getFields(CONTROLLED_SUBJECT_TAGS);
+        final List<DataField> currentControlledSubjectFields = indexCache.of(curRecord).getFields(CONTROLLED_SUBJECT_TAGS);
+        final List<DataField> currentExpandedControlledSubjectFields = expandedCurrentIndex.getFields(CONTROLLED_SUBJECT_TAGS);
 
         if (dataFieldsEqualsIgnoreAmpersand(newControlledSubjectFields, currentExpandedControlledSubjectFields)) {
             // Controlled subject field are identical, so just copy the existing ones over
             result.getFields().addAll(currentControlledSubjectFields);
         } else {
-            if (checkStructureForDbc(curRecord, EXTENDABLE_CONTROLLED_SUBJECT_FIELDS, currentControlledSubjectFields)) {
+            if (checkStructureForDbc(curRecord, CONTROLLED_SUBJECT_TAGS, currentControlledSubjectFields)) {
                 final String msg = messages.getString("update.dbc.record.dbc.subjects");
                 LOGGER.use(log -> log.error("Unable to create sub actions due to an error: {}", msg));
                 throw new UpdateException(msg);
@@ -165,10 +177,8 @@ public class NoteAndSubjectExtensionsHandler {
         }
 
         // Handle (non-controlled) subject fields. These fields are handled individually
-        final List<DataField> newSubjectFields = marcRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(EXTENDABLE_SUBJECT_FIELDS)).collect(Collectors.toList());
-        final List<DataField> currentSubjectFields = expandedCurrentRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(EXTENDABLE_SUBJECT_FIELDS)).collect(Collectors.toList());
+        final List<DataField> newSubjectFields = indexCache.of(marcRecord).getFields(SUBJECT_TAGS);
+        final List<DataField> currentSubjectFields = expandedCurrentIndex.getFields(SUBJECT_TAGS);
 
         if (dataFieldsEqualsIgnoreAmpersand(newSubjectFields, currentSubjectFields)) {
             // Subject field are identical, so just copy the existing ones over
@@ -206,11 +216,10 @@ public class NoteAndSubjectExtensionsHandler {
      * @return           The found list of fields
      * @throws UpdateException Somehow the expansion of the record failed
      */
-    private List<DataField> collectFields(MarcRecord record, String fieldList) throws UpdateException {
+    private List<DataField> collectFields(MarcRecord record, TagSet fieldList) throws UpdateException {
         final MarcRecord expandedCurrentRecord;
         expandedCurrentRecord = getExpandedRecord(record);
-        return expandedCurrentRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(fieldList)).collect(Collectors.toList());
+        return MarcRecordIndex.of(expandedCurrentRecord).getFields(fieldList);
     }
 
     /**
@@ -222,7 +231,7 @@ public class NoteAndSubjectExtensionsHandler {
      * @return           Returns whether there is dbc owned fields or not
      * @throws UpdateException Something went wrong while fetching a record
      */
-    private boolean checkStructureForDbc(MarcRecord record, String fieldList, List<DataField> fields) throws UpdateException {
+    private boolean checkStructureForDbc(MarcRecord record, TagSet fieldList, List<DataField> fields) throws UpdateException {
         boolean result;
         MarcRecord worker = new MarcRecord(record);
         List<DataField> fullList = new ArrayList<>(fields);
@@ -236,8 +245,7 @@ public class NoteAndSubjectExtensionsHandler {
                 final Set<RecordId> parents = rawRepo.parents(id);
                 final Set<RecordId> commonParents = parents.stream().filter(r -> r.getAgencyId() == RawRepo.COMMON_AGENCY).collect(Collectors.toSet());
                 for (RecordId parent : commonParents) {
-                    final Record childRecord = rawRepo.fetchRecord(parent.getBibliographicRecordId(), parent.getAgencyId());
-                    final MarcRecord childMarcRecord = UpdateRecordContentTransformer.decodeRecord(childRecord.getContent());
+                    final MarcRecord childMarcRecord = recordCache.fetchMarcRecord(parent.getBibliographicRecordId(), parent.getAgencyId());
                     MarcRecordReader r = new MarcRecordReader(childMarcRecord);
                     if ("h".equals(r.getValue("004", 'a'))) {
                         recSet.add(new RecordId(r.getRecordId(), r.getAgencyIdAsInt()));
@@ -256,8 +264,7 @@ public class NoteAndSubjectExtensionsHandler {
             final Set<RecordId> children = rawRepo.children(recSet.get(0));
             // And then all the children fields - there may be none
             for (RecordId child : children) {
-                final Record childRecord = rawRepo.fetchRecord(child.getBibliographicRecordId(), child.getAgencyId());
-                final MarcRecord childMarcRecord = UpdateRecordContentTransformer.decodeRecord(childRecord.getContent());
+                final MarcRecord childMarcRecord = recordCache.fetchMarcRecord(child.getBibliographicRecordId(), child.getAgencyId());
                 fullList.addAll(collectFields(childMarcRecord, fieldList));
             }
         }
@@ -312,16 +319,14 @@ public class NoteAndSubjectExtensionsHandler {
 
     private void doAddNoteFields(MarcRecord result, MarcRecord marcRecord, MarcRecord curRecord, String groupId, String noteField) throws UpdateException {
 
-        final List<DataField> newNoteFields = marcRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(noteField)).collect(Collectors.toList());
-        final List<DataField> currentNoteFields = curRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(noteField)).collect(Collectors.toList());
+        final List<DataField> newNoteFields = indexCache.of(marcRecord).getFields(noteField);
+        final List<DataField> currentNoteFields = indexCache.of(curRecord).getFields(noteField);
 
         LOGGER.callChecked(log -> {
             if (dataFieldsEqualsIgnoreAmpersand(newNoteFields, currentNoteFields)) {
                 result.getFields().addAll(currentNoteFields);
             } else {
-                if (checkStructureForDbc(curRecord, noteField, currentNoteFields)) {
+                if (checkStructureForDbc(curRecord, TagSet.of(noteField), currentNoteFields)) {
                     final String msg = String.format(messages.getString("update.dbc.record.dbc.notes"), noteField);
                     // Business exception which means we don't want the error in the errorlog, so only log as info
                     log.info("Unable to create sub actions due to an error: {}", msg);
@@ -337,39 +342,37 @@ public class NoteAndSubjectExtensionsHandler {
 
     void addCatalogField(MarcRecord result, MarcRecord marcRecord, MarcRecord curRecord, String groupId) throws UpdateException {
         // Technically "there can be only one" of this field - maybe we can murder the List ? Nah, we keep the list of one
-        final List<DataField> newCatalogCodeFields = marcRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(CATALOGUE_CODE_FIELD)).collect(Collectors.toList());
-        final List<DataField> currentCatalogCodeFields = curRecord.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(CATALOGUE_CODE_FIELD)).collect(Collectors.toList());
+        final List<DataField> newCatalogCodeFields = indexCache.of(marcRecord).getFields(CATALOGUE_CODE_FIELD);
+        final List<DataField> currentCatalogCodeFields = indexCache.of(curRecord).getFields(CATALOGUE_CODE_FIELD);
         final List<DataField> newFields = createCatalogField(newCatalogCodeFields, currentCatalogCodeFields, groupId);
         new MarcRecordWriter(result).removeField("032");
         result.getFields().addAll(newFields);
     }
 
-    private void cleanUpUntouchables(String extendableFieldsRx, MarcRecord cleaned, MarcRecord record) {
-        for (DataField curField : record.getFields(DataField.class)) {
-            if (!curField.getTag().matches(extendableFieldsRx)) {
-                String indics = "";
-                if (curField.getInd1() != null) { indics = indics.concat(curField.getInd1().toString());}
-                if (curField.getInd2() != null) { indics = indics.concat(curField.getInd2().toString());}
-                if (curField.getInd3() != null) { indics = indics.concat(curField.getInd3().toString());}
-                DataField fieldAdd = new DataField(curField.getTag(), indics);
-                for (SubField subfield :  curField.getSubFields()) {
-                    // subfield & isn't sent to the cicero client, so we have to ignore such
-                    if (subfield.getCode() != '&') {
-                        fieldAdd.addSubField(subfield);
-                    }
+    private void cleanUpUntouchables(TagSet extendableFields, MarcRecord cleaned, MarcRecord record) {
+        for (DataField curField : indexCache.of(record).getFieldsExcept(extendableFields)) {
+            String indics = "";
+            if (curField.getInd1() != null) { indics = indics.concat(curField.getInd1().toString());}
+            if (curField.getInd2() != null) { indics = indics.concat(curField.getInd2().toString());}
+            if (curField.getInd3() != null) { indics = indics.concat(curField.getInd3().toString());}
+            DataField fieldAdd = new DataField(curField.getTag(), indics);
+            for (SubField subfield :  curField.getSubFields()) {
+                // subfield & isn't sent to the cicero client, so we have to ignore such
+                if (subfield.getCode() != '&') {
+                    fieldAdd.addSubField(subfield);
                 }
-                cleaned.getFields().add(fieldAdd);
             }
+            cleaned.getFields().add(fieldAdd);
         }
     }
 
-    private void populateBadRecord(MarcRecord bad, MarcRecord part1, MarcRecord part2) {
+    private void populateBadRecord(MarcRecord bad, MarcRecord part1, MarcRecord part2, RecordDiff recordDiff) {
         for (DataField curField : part1.getFields(DataField.class)) {
+            // Fields with a tag which is unchanged between the records always have an identical field in part2
             if (!("032".equals(curField.getTag()) ||
                     "990".equals(curField.getTag()) ||
                     curField.hasSubField(hasSubFieldCode('6'))) &&
+                    recordDiff.isFieldChanged(curField.getTag()) &&
                     isFieldChangedInOtherRecord(curField, part2)) {
                 final DataField fieldClone = new DataField(curField);
                 bad.getFields().add(fieldClone);
@@ -382,19 +385,19 @@ public class NoteAndSubjectExtensionsHandler {
      * will be returned if they don't match.
      * Though, no rules without exceptions - field 032 is checked at another place, field 990 isn't sent to the client
      * and fields containing A-links (subfield 6) is ignored.
-     * @param extendableFieldsRx regular expression that matches modifiable fields
+     * @param extendableFields   the modifiable fields
      * @param curRecord          current record in rawrepo
      * @param updateRecord       the updating record
      * @throws UpdateException   There was an error somewhere
      */
-    private void compareUntouchableFields(String extendableFieldsRx, MarcRecord curRecord, MarcRecord updateRecord) throws UpdateException {
+    private void compareUntouchableFields(TagSet extendableFields, MarcRecord curRecord, MarcRecord updateRecord) throws UpdateException {
         LOGGER.callChecked(log -> {
             MarcRecord current = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
-            cleanUpUntouchables(extendableFieldsRx, current, curRecord);
+            cleanUpUntouchables(extendableFields, current, curRecord);
             MarcRecord newRecord = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
-            cleanUpUntouchables(extendableFieldsRx, newRecord, updateRecord);
+            cleanUpUntouchables(extendableFields, newRecord, updateRecord);
             MarcRecord badRecord = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
-            populateBadRecord(badRecord, current, newRecord);
+            populateBadRecord(badRecord, current, newRecord, indexCache.diffOf(curRecord, updateRecord));
             if (!badRecord.getFields().isEmpty()) {
                 String badFields = "";
                 boolean first = true;
@@ -429,7 +432,7 @@ public class NoteAndSubjectExtensionsHandler {
         final MarcRecordReader reader = new MarcRecordReader(marcRecord);
         final String recId = reader.getRecordId();
         return LOGGER.<MarcRecord, UpdateException, VipCoreException>callChecked2(log -> {
-            if (!rawRepo.recordExists(recId, RawRepo.COMMON_AGENCY)) {
+            if (!recordCache.recordExists(recId, RawRepo.COMMON_AGENCY)) {
                 log.info("No existing record - returning same record");
                 if (!"DBC".equals(reader.getValue("996", 'a')) && reader.hasField("032")) {
                     if (!vipCoreService.isAuthRootOrCB(groupId)) {
@@ -442,7 +445,7 @@ public class NoteAndSubjectExtensionsHandler {
                 }
                 return marcRecord;
             }
-            final MarcRecord curRecord = UpdateRecordContentTransformer.decodeRecord(rawRepo.fetchRecord(recId, RawRepo.COMMON_AGENCY).getContent());
+            final MarcRecord curRecord = recordCache.fetchMarcRecord(recId, RawRepo.COMMON_AGENCY);
             final MarcRecordReader curReader = new MarcRecordReader(curRecord);
             if (!"DBC".equals(curReader.getValue("996", 'a'))) {
                 log.info("Record is decentral - returning same record");
@@ -465,15 +468,14 @@ public class NoteAndSubjectExtensionsHandler {
             }
             extendableFieldsRx += "|" + CLASSIFICATION_FIELDS;
             log.info("Extendable fields: {} ", extendableFieldsRx);
+            final TagSet extendableFields = TagSet.of(extendableFieldsRx);
 
-            compareUntouchableFields(extendableFieldsRx, curRecord, marcRecord);
+            compareUntouchableFields(extendableFields, curRecord, marcRecord);
 
             // Start by handling all the not-note/subject/OVE fields in the existing record
-            for (DataField curField : curRecord.getFields(DataField.class)) {
-                if (!curField.getTag().matches(extendableFieldsRx)) {
-                    final DataField fieldClone = new DataField(curField);
-                    result.getFields().add(fieldClone);
-                }
+            for (DataField curField : indexCache.of(curRecord).getFieldsExcept(extendableFields)) {
+                final DataField fieldClone = new DataField(curField);
+                result.getFields().add(fieldClone);
             }
 
             // Handling field 032
@@ -504,8 +506,7 @@ public class NoteAndSubjectExtensionsHandler {
     }
 
     private void validateCatalogCodes(MarcRecord record) throws UpdateException {
-        final List<DataField> newCatalogCodeFields = record.getFields(DataField.class).stream()
-                .filter(field -> field.getTag().matches(CATALOGUE_CODE_FIELD)).collect(Collectors.toList());
+        final List<DataField> newCatalogCodeFields = indexCache.of(record).getFields(CATALOGUE_CODE_FIELD);
         LOGGER.callChecked(log -> {
             for (DataField field : newCatalogCodeFields) {
                 for (SubField subField : field.getSubFields()) {
@@ -780,8 +781,7 @@ public class NoteAndSubjectExtensionsHandler {
             final Set<RecordId> commonChildren = children.stream().filter(r -> r.getAgencyId() == RawRepo.COMMON_AGENCY).collect(Collectors.toSet());
 
             for (RecordId child : commonChildren) {
-                final Record childRecord = rawRepo.fetchRecord(child.getBibliographicRecordId(), child.getAgencyId());
-                final MarcRecord childMarcRecord = UpdateRecordContentTransformer.decodeRecord(childRecord.getContent());
+                final MarcRecord childMarcRecord = recordCache.fetchMarcRecord(child.getBibliographicRecordId(), child.getAgencyId());
 
                 if (isPublishedDBCRecord(childMarcRecord)) {
                     return true;
@@ -811,7 +811,7 @@ public class NoteAndSubjectExtensionsHandler {
             final ResourceBundle resourceBundle = ResourceBundles.getBundle("messages");
 
             final String recId = reader.getRecordId();
-            if (!rawRepo.recordExists(recId, RawRepo.COMMON_AGENCY)) {
+            if (!recordCache.recordExists(recId, RawRepo.COMMON_AGENCY)) {
                 return result;
             }
             MarcRecord curRecord;
@@ -830,15 +830,15 @@ public class NoteAndSubjectExtensionsHandler {
             if (!vipCoreService.hasFeature(groupId, VipCoreLibraryRulesConnector.Rule.AUTH_COMMON_NOTES)) {
                 log.info("AgencyId {} does not have feature AUTH_COMMON_NOTES in vipcore - checking for changed note fields", groupId);
                 // Check if all fields in the incoming record are in the existing record
-                for (DataField field : marcRecord.getFields(DataField.class)) {
-                    if (field.getTag().matches(EXTENDABLE_NOTE_FIELDS) && isFieldChangedInOtherRecord(field, curRecord)) {
+                for (DataField field : indexCache.of(marcRecord).getFields(NOTE_TAGS)) {
+                    if (isFieldChangedInOtherRecord(field, curRecord)) {
                         final String message = String.format(resourceBundle.getString("notes.subjects.edit.field.error"), groupId, field.getTag(), recId);
                         result.add(createMessageDTO(message));
                     }
                 }
                 // Check if all fields in the existing record are in the incoming record
-                for (DataField field : curRecord.getFields(DataField.class)) {
-                    if (field.getTag().matches(EXTENDABLE_NOTE_FIELDS) && isFieldChangedInOtherRecord(field, marcRecord)) {
+                for (DataField field : indexCache.of(curRecord).getFields(NOTE_TAGS)) {
+                    if (isFieldChangedInOtherRecord(field, marcRecord)) {
                         final String fieldName = field.getTag();
                         if (curReader.getFieldAll(fieldName).size() != reader.getFieldAll(fieldName).size()) {
                             final String message = String.format(resourceBundle.getString("notes.subjects.delete.field.error"), groupId, fieldName, recId);
@@ -854,17 +854,15 @@ public class NoteAndSubjectExtensionsHandler {
 
                 log.info("AgencyId {} does not have feature AUTH_COMMON_SUBJECTS in vipcore - checking for changed subject fields", groupId);
                 // Check if all fields in the incoming record are in the existing record
-                for (DataField field : marcRecord.getFields(DataField.class)) {
-                    if (field.getTag().matches(EXTENDABLE_CONTROLLED_SUBJECT_FIELDS) &&
-                            isFieldChangedInOtherRecord(field, expandedCurrentRecord)) {
+                for (DataField field : indexCache.of(marcRecord).getFields(CONTROLLED_SUBJECT_TAGS)) {
+                    if (isFieldChangedInOtherRecord(field, expandedCurrentRecord)) {
                         final String message = String.format(resourceBundle.getString("notes.subjects.edit.field.error"), groupId, field.getTag(), recId);
                         result.add(createMessageDTO(message));
                     }
                 }
                 // Check if all fields in the existing record are in the incoming record
-                for (DataField field : expandedCurrentRecord.getFields(DataField.class)) {
-                    if (field.getTag().matches(EXTENDABLE_CONTROLLED_SUBJECT_FIELDS) &&
-                            isFieldChangedInOtherRecord(field, marcRecord)) {
+                for (DataField field : MarcRecordIndex.of(expandedCurrentRecord).getFields(CONTROLLED_SUBJECT_TAGS)) {
+                    if (isFieldChangedInOtherRecord(field, marcRecord)) {
                         final String fieldName = field.getTag();
                         if (curReader.getFieldAll(fieldName).size() != reader.getFieldAll(fieldName).size()) {
                             final String message = String.format(resourceBundle.getString("notes.subjects.delete.field.error"), groupId, fieldName, recId);
@@ -0,0 +1,186 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.utils.CostLedger;
+import dk.dbc.updateservice.utils.DeferredLogger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of numbers drawn in advance from the number roll, so creating Metakompas subject records doesn't have to wait
+ * for opennumberroll.
+ * <p/>
+ * The unused numbers are stored in the update database, which makes the pool survive a restart and lets all
+ * instances share it. A number is removed from the database when it is taken, so it is never handed out twice.
+ * When the pool drops below <code>NUMBER_ROLL_POOL_LOW_WATER_MARK</code> it is refilled in the background up to
+ * <code>NUMBER_ROLL_POOL_SIZE</code>. If the pool is empty the caller must draw the number from the number roll itself.
+ * <p/>
+ * The pool is disabled unless <code>NUMBER_ROLL_POOL_SIZE</code> is set, as it needs the number_roll_pool table.
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class NumberRollPool {
+    private static final DeferredLogger LOGGER = new DeferredLogger(NumberRollPool.class);
+    private static final List<String> ROLL_NAME_KEYS = List.of(JNDIResources.OPENNUMBERROLL_NAME_FAUST, JNDIResources.OPENNUMBERROLL_NAME_FAUST_8);
+
+    static final String RESULT_KEY = "result";
+    static final String ROLL_KEY = "roll";
+
+    static final Metadata numberRollPoolCounterMetadata = Metadata.builder()
+            .withName("update_number_roll_pool_counter")
+            .withDescription("Number of number roll pool lookups by result (hit, starved, refill_error)")
+            .withType(MetricType.COUNTER)
+            .withUnit("lookups").build();
+
+    static final Metadata numberRollPoolDepthMetadata = Metadata.builder()
+            .withName("update_number_roll_pool_depth")
+            .withDescription("Number of unused numbers in the number roll pool as last seen by this instance")
+            .withType(MetricType.GAUGE)
+            .withUnit("numbers").build();
+
+    interface NumberSource {
+        String draw(String rollName) throws UpdateException;
+    }
+
+    @EJB
+    UpdateStore updateStore;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "NUMBER_ROLL_POOL_SIZE", defaultValue = "0")
+    int poolSize;
+
+    @Inject
+    @ConfigProperty(name = "NUMBER_ROLL_POOL_LOW_WATER_MARK", defaultValue = "10")
+    int lowWaterMark;
+
+    Properties settings = JNDIResources.getProperties();
+    NumberSource numberSource = rollName -> MetakompasHandler.drawNewIdNumber(settings, rollName);
+    @Resource
+    ManagedExecutorService managedExecutorService;
+
+    Executor refresher;
+
+    private final Map<String, AtomicLong> depths = new ConcurrentHashMap<>();
+    private final Set<String> refilling = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        refresher = managedExecutorService;
+        if (poolSize > 0 && settings.containsKey(JNDIResources.OPENNUMBERROLL_URL)) {
+            for (String key : ROLL_NAME_KEYS) {
+                if (settings.containsKey(key)) {
+                    refill(settings.getProperty(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes an unused number from the pool.
+     *
+     * @param rollName Name of the number roll.
+     * @return The number or <code>null</code> if the pool is disabled or empty.
+     */
+    public String takeNumber(String rollName) {
+        if (poolSize <= 0) {
+            return null;
+        }
+
+        String number;
+        try {
+            number = CostLedger.timed(CostLedger.Dependency.UPDATE_STORE, () -> updateStore.takeRollNumber(rollName));
+        } catch (RuntimeException e) {
+            LOGGER.use(log -> log.warn("Unable to take a number from the {} pool", rollName, e));
+            number = null;
+        }
+
+        final AtomicLong depth = getDepth(rollName);
+        if (number == null) {
+            depth.set(0);
+            incrementCounter("starved");
+            refill(rollName);
+            return null;
+        }
+
+        incrementCounter("hit");
+        // The depth is only an estimate as other instances take from the same pool, the refill counts the real depth
+        if (depth.decrementAndGet() < lowWaterMark) {
+            refill(rollName);
+        }
+
+        return number;
+    }
+
+    void refill(String rollName) {
+        if (!refilling.add(rollName)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    fill(rollName);
+                } finally {
+                    refilling.remove(rollName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refilling.remove(rollName);
+        }
+    }
+
+    private void fill(String rollName) {
+        final AtomicLong depth = getDepth(rollName);
+        try {
+            long count = updateStore.countRollNumbers(rollName);
+            depth.set(count);
+            while (count < poolSize) {
+                final String number = numberSource.draw(rollName);
+                updateStore.addRollNumber(rollName, number);
+                depth.set(++count);
+            }
+            LOGGER.use(log -> log.info("Number roll pool {} refilled to {} numbers", rollName, poolSize));
+        } catch (UpdateException | RuntimeException e) {
+            incrementCounter("refill_error");
+            LOGGER.use(log -> log.warn("Unable to refill the {} number roll pool", rollName, e));
+        }
+    }
+
+    private AtomicLong getDepth(String rollName) {
+        return depths.computeIfAbsent(rollName, name -> {
+            final AtomicLong depth = new AtomicLong();
+            metricRegistry.register(numberRollPoolDepthMetadata, (Gauge<Long>) depth::get, new Tag(ROLL_KEY, name));
+            return depth;
+        });
+    }
+
+    private void incrementCounter(String result) {
+        metricRegistry.counter(numberRollPoolCounterMetadata, new Tag(RESULT_KEY, result)).inc();
+    }
+}
@@ -10,6 +10,7 @@ import dk.dbc.updateservice.dto.BuildRequestDTO;
 import dk.dbc.updateservice.dto.BuildResponseDTO;
 import dk.dbc.updateservice.dto.BuildStatusEnumDTO;
 import dk.dbc.updateservice.dto.RecordDataDTO;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
@@ -114,6 +115,7 @@ public class OpenBuildCore {
             return opencatBusinessConnector.checkTemplateBuild(name, trackingId);
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 
@@ -149,6 +151,7 @@ public class OpenBuildCore {
             throw new EJBException("Error calling OpencatBusinessConnector", ex);
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 
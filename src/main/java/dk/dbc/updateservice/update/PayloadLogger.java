@@ -0,0 +1,138 @@
+package dk.dbc.updateservice.update;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+import org.slf4j.MDC;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs the request and response payloads of selected requests.
+ * <p/>
+ * The payloads are always part of the deferred log of a request, so they are logged when the request fails. On top of
+ * that a fraction of the requests, <code>UPDATE_PAYLOAD_LOG_SAMPLE_RATE</code>, and all requests slower than
+ * <code>UPDATE_PAYLOAD_LOG_SLOW_MS</code> milliseconds have their payloads logged at info by this class. Both are off by
+ * default.
+ * <p/>
+ * The payloads are serialized and logged on the managed executor of the application server, so the request doesn't
+ * wait for the json of a large record to be built. At most <code>UPDATE_PAYLOAD_LOG_QUEUE_SIZE</code> payloads are
+ * handed to the executor at a time - when that many are waiting or being logged new payloads are dropped and counted
+ * instead.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PayloadLogger {
+    private static final XLogger LOGGER = XLoggerFactory.getXLogger(PayloadLogger.class);
+
+    static final String RESULT_KEY = "result";
+
+    static final Metadata payloadLogCounterMetadata = Metadata.builder()
+            .withName("update_payload_log_counter")
+            .withDescription("Number of request payloads selected for logging by result (logged, dropped)")
+            .withType(MetricType.COUNTER)
+            .withUnit("requests").build();
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_PAYLOAD_LOG_SAMPLE_RATE", defaultValue = "0")
+    double sampleRate;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_PAYLOAD_LOG_SLOW_MS", defaultValue = "0")
+    long slowMs;
+
+    @Inject
+    @ConfigProperty(name = "UPDATE_PAYLOAD_LOG_QUEUE_SIZE", defaultValue = "100")
+    int queueSize;
+
+    @Resource
+    ManagedExecutorService managedExecutorService;
+
+    Executor writer;
+
+    @PostConstruct
+    public void init() {
+        final Semaphore pending = new Semaphore(queueSize);
+        writer = runnable -> {
+            if (!pending.tryAcquire()) {
+                throw new RejectedExecutionException("Too many payloads waiting to be logged");
+            }
+            try {
+                managedExecutorService.execute(() -> {
+                    try {
+                        runnable.run();
+                    } finally {
+                        pending.release();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                pending.release();
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Logs the payloads of a request if the request is sampled or slow.
+     *
+     * @param operation  The name of the operation, e.g. updateRecord.
+     * @param request    The request DTO.
+     * @param response   The response DTO, or null if there is none.
+     * @param durationMs How long the request took.
+     */
+    public void log(String operation, Object request, Object response, long durationMs) {
+        if (!LOGGER.isInfoEnabled() || !isSelected(durationMs)) {
+            return;
+        }
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        final LoggablePayload requestPayload = LoggablePayload.of(request);
+        final LoggablePayload responsePayload = LoggablePayload.of(response);
+        try {
+            writer.execute(() -> {
+                if (mdc != null) {
+                    MDC.setContextMap(mdc);
+                }
+                try {
+                    LOGGER.info("{} took {} ms. Request: {}", operation, durationMs, requestPayload);
+                    LOGGER.info("{} took {} ms. Response: {}", operation, durationMs, responsePayload);
+                } finally {
+                    MDC.clear();
+                }
+            });
+            incrementCounter("logged");
+        } catch (RejectedExecutionException e) {
+            incrementCounter("dropped");
+        }
+    }
+
+    boolean isSelected(long durationMs) {
+        if (slowMs > 0 && durationMs >= slowMs) {
+            return true;
+        }
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private void incrementCounter(String result) {
+        metricRegistry.counter(payloadLogCounterMetadata, new Tag(RESULT_KEY, result)).inc();
+    }
+}
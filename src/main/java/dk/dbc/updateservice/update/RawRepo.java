@@ -14,10 +14,14 @@ import dk.dbc.rawrepo.RawRepoException;
 import dk.dbc.rawrepo.Record;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.rawrepo.RelationHintsVipCore;
+import dk.dbc.updateservice.utils.CostLedger;
+import dk.dbc.updateservice.utils.MetricTags;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
 import jakarta.annotation.Resource;
+import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
+import jakarta.transaction.TransactionSynchronizationRegistry;
 import jakarta.xml.bind.JAXBException;
 import org.eclipse.microprofile.metrics.Metadata;
 import org.eclipse.microprofile.metrics.MetricType;
@@ -32,9 +36,12 @@ import javax.sql.DataSource;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -58,10 +65,13 @@ public class RawRepo {
     @Inject
     private VipCoreLibraryRulesConnector vipCoreLibraryRulesConnector;
 
-    private static class RawrepoErrorCounterMetrics implements CounterMetric {
+    @EJB
+    RawRepoOutbox outbox;
+
+    private static class RawrepoCounterMetrics implements CounterMetric {
         private final Metadata metadata;
 
-        RawrepoErrorCounterMetrics(Metadata metadata) {
+        RawrepoCounterMetrics(Metadata metadata) {
             this.metadata = validateMetadata(metadata);
         }
 
@@ -94,12 +104,17 @@ public class RawRepo {
                     .withType(MetricType.SIMPLE_TIMER)
                     .withUnit(MetricUnits.MILLISECONDS).build());
 
-    static final RawrepoErrorCounterMetrics rawrepoErrorCounterMetrics = new RawrepoErrorCounterMetrics(Metadata.builder()
+    static final RawrepoCounterMetrics rawrepoErrorCounterMetrics = new RawrepoCounterMetrics(Metadata.builder()
             .withName("update_rawrepodao_error_counter")
             .withDescription("Number of errors caught in rawrepodao calls")
             .withType(MetricType.COUNTER)
             .withUnit("requests").build());
 
+    static final RawrepoCounterMetrics unchangedRecordsCounterMetrics = new RawrepoCounterMetrics(Metadata.builder()
+            .withName("update_unchanged_records_counter")
+            .withDescription("Number of updated records which were left untouched because they were identical to the stored record")
+            .withType(MetricType.COUNTER)
+            .withUnit("records").build());
 
     private static final XLogger LOGGER = XLoggerFactory.getXLogger(RawRepo.class);
     public static final int COMMON_AGENCY = 870970;
@@ -123,9 +138,23 @@ public class RawRepo {
     public static final int ENQUEUE_PRIORITY_DEFAULT_USER = 500;
     public static final int ENQUEUE_PRIORITY_DEFAULT_BATCH = 1000;
 
+    static final String SELECT_RECORDS_DELETED_STATE = "SELECT records.bibliographicrecordid, records.agencyid, records.deleted" +
+            " FROM records JOIN UNNEST(?::VARCHAR[], ?::INTEGER[]) AS ids(bibliographicrecordid, agencyid)" +
+            " ON records.bibliographicrecordid = ids.bibliographicrecordid AND records.agencyid = ids.agencyid";
+
+    static final String SELECT_PARENTS = "SELECT relations.bibliographicrecordid, relations.agencyid, relations.refer_bibliographicrecordid, relations.refer_agencyid" +
+            " FROM relations JOIN UNNEST(?::VARCHAR[], ?::INTEGER[]) AS ids(bibliographicrecordid, agencyid)" +
+            " ON relations.bibliographicrecordid = ids.bibliographicrecordid AND relations.agencyid = ids.agencyid";
+
+    private static final ThreadLocal<RawRepoUnitOfWork> UNIT_OF_WORK = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
     @Resource(lookup = "jdbc/rawrepo")
     private DataSource dataSource;
 
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
     public RawRepo() {
         this.dataSource = null;
     }
@@ -152,11 +181,12 @@ public class RawRepo {
             }
             final Set<Integer> allAgencies = agenciesForRecord(bibliographicRecordId);
 
-            if (allAgencies != null) {
-                for (Integer agencyId : allAgencies) {
-                    if (recordExists(bibliographicRecordId, agencyId)) {
-                        activeAgencies.add(agencyId);
-                    }
+            if (allAgencies != null && !allAgencies.isEmpty()) {
+                final Set<RecordId> recordIds = allAgencies.stream()
+                        .map(agencyId -> new RecordId(bibliographicRecordId, agencyId))
+                        .collect(Collectors.toSet());
+                for (RecordId recordId : recordsExist(recordIds)) {
+                    activeAgencies.add(recordId.getAgencyId());
                 }
             }
 
@@ -201,9 +231,9 @@ public class RawRepo {
             if (recordId.isEmpty()) {
                 throw new IllegalArgumentException("recordId can not be empty");
             }
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    RawRepoDAO dao = createDAO(conn);
+                    RawRepoDAO dao = getDAO(conn);
                     result = dao.allAgenciesForBibliographicRecordId(recordId);
                     result.remove(DBC_ENRICHMENT);
                     return result;
@@ -234,9 +264,9 @@ public class RawRepo {
                 throw new IllegalArgumentException("recordId can not be null");
             }
 
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    final RawRepoDAO dao = createDAO(conn);
+                    final RawRepoDAO dao = getDAO(conn);
                     return dao.getRelationsChildren(recordId);
                 } catch (RawRepoException ex) {
                     conn.rollback();
@@ -265,9 +295,9 @@ public class RawRepo {
                 throw new IllegalArgumentException("recordId can not be null");
             }
 
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    final RawRepoDAO dao = createDAO(conn);
+                    final RawRepoDAO dao = getDAO(conn);
                     return dao.getRelationsParents(recordId);
                 } catch (RawRepoException ex) {
                     conn.rollback();
@@ -287,6 +317,48 @@ public class RawRepo {
         }
     }
 
+    /**
+     * Finds the parents of many records in one query.
+     * <p/>
+     * This is the bulk version of {@link #parents(RecordId)}.
+     *
+     * @param recordIds The records to find parents for.
+     * @return Map from record id to its parents. Records without parents are mapped to an empty set.
+     * @throws UpdateException In case of an SQL exception.
+     */
+    public Map<RecordId, Set<RecordId>> parents(Collection<RecordId> recordIds) throws UpdateException {
+        final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final String methodName = "parentsBulk";
+        final Map<RecordId, Set<RecordId>> result = new HashMap<>();
+        for (RecordId recordId : recordIds) {
+            result.put(recordId, new HashSet<>());
+        }
+
+        if (recordIds.isEmpty()) {
+            return result;
+        }
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_PARENTS)) {
+            setRecordIdArrays(conn, stmt, recordIds);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    final RecordId child = new RecordId(resultSet.getString(1), resultSet.getInt(2));
+                    result.computeIfAbsent(child, k -> new HashSet<>()).add(new RecordId(resultSet.getString(3), resultSet.getInt(4)));
+                }
+            }
+
+            return result;
+        } catch (SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            incrementErrorCounterMetric(methodName, ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        } finally {
+            watch.stop("rawrepo.parents.Collection");
+            updateSimpleTimerMetric(methodName, watch);
+        }
+    }
+
     public Set<RecordId> enrichments(RecordId recordId) throws UpdateException {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "getRelationsSiblingsToMe";
@@ -296,9 +368,9 @@ public class RawRepo {
                 throw new IllegalArgumentException("recordId can not be null");
             }
 
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    final RawRepoDAO dao = createDAO(conn);
+                    final RawRepoDAO dao = getDAO(conn);
 
                     return dao.getRelationsSiblingsToMe(recordId);
                 } catch (RawRepoException ex) {
@@ -338,11 +410,12 @@ public class RawRepo {
             if (bibliographicRecordId == null) {
                 throw new IllegalArgumentException("bibliographicRecordId can not be null");
             }
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    final RawRepoDAO dao = createDAO(conn);
+                    final RawRepoDAO dao = getDAO(conn);
 
                     result = dao.fetchRecord(bibliographicRecordId, agencyId);
+                    countRecordRead(result);
                     return result;
                 } catch (RawRepoException ex) {
                     conn.rollback();
@@ -370,11 +443,13 @@ public class RawRepo {
             if (bibliographicRecordId == null) {
                 throw new IllegalArgumentException("bibliographicRecordId can not be null");
             }
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    final RawRepoDAO dao = createDAO(conn);
+                    final RawRepoDAO dao = getDAO(conn);
                     final MarcXMerger merger = new MarcXMerger();
-                    return dao.fetchMergedRecord(bibliographicRecordId, agencyId, merger, false);
+                    final Record result = dao.fetchMergedRecord(bibliographicRecordId, agencyId, merger, false);
+                    countRecordRead(result);
+                    return result;
                 } catch (RawRepoException | MarcXMergerException ex) {
                     conn.rollback();
                     LOGGER.error(ex.getMessage(), ex);
@@ -393,23 +468,73 @@ public class RawRepo {
         }
     }
 
+    /**
+     * Fetches the merged version of many records.
+     * <p/>
+     * The merging is done by the RawRepo DAO, which only knows how to merge one record at a time, so the records are
+     * fetched one by one - but on the same connection and with the same merger instead of a new connection for each
+     * record.
+     *
+     * @param recordIds The records to fetch.
+     * @return Map from record id to merged record.
+     * @throws UpdateException In case of an error from RawRepo or an SQL exception.
+     */
+    public Map<RecordId, Record> fetchMergedRecords(Collection<RecordId> recordIds) throws UpdateException {
+        final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final String methodName = "fetchMergedRecords";
+        final Map<RecordId, Record> result = new HashMap<>();
+
+        if (recordIds.isEmpty()) {
+            return result;
+        }
+
+        try (Connection conn = getConnection()) {
+            try {
+                final RawRepoDAO dao = getDAO(conn);
+                final MarcXMerger merger = new MarcXMerger();
+                for (RecordId recordId : recordIds) {
+                    final Record record = dao.fetchMergedRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId(), merger, false);
+                    countRecordRead(record);
+                    result.put(recordId, record);
+                }
+
+                return result;
+            } catch (RawRepoException | MarcXMergerException ex) {
+                conn.rollback();
+                LOGGER.error(ex.getMessage(), ex);
+                throw new UpdateException(ex.getMessage(), ex);
+            }
+        } catch (SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            incrementErrorCounterMetric(methodName, ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        } catch (UpdateException ex) {
+            incrementErrorCounterMetric(methodName, ex);
+            throw ex;
+        } finally {
+            watch.stop("rawrepo.fetchMergedRecords");
+            updateSimpleTimerMetric(methodName, watch);
+        }
+    }
+
     public Map<String, MarcRecord> fetchRecordCollection(String bibliographicRecordId, int agencyId) throws UpdateException {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "fetchRecordCollection";
         Map<String, MarcRecord> result = null;
         Map<String, Record> recordMap;
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             if (bibliographicRecordId == null) {
                 throw new IllegalArgumentException("bibliographicRecordId can not be null");
             }
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
                 final MarcXMerger merger = new MarcXMerger();
                 recordMap = dao.fetchRecordCollection(bibliographicRecordId, agencyId, merger);
                 if (!recordMap.isEmpty()) {
                     result = new HashMap<>();
                     for (Map.Entry<String, Record> entry : recordMap.entrySet()) {
                         final Record record = entry.getValue();
+                        countRecordRead(record);
                         result.put(entry.getKey(), UpdateRecordContentTransformer.decodeRecord(record.getContent()));
                     }
                 }
@@ -448,9 +573,9 @@ public class RawRepo {
             if (bibliographicRecordId == null) {
                 throw new IllegalArgumentException("bibliographicRecordId can not be null");
             }
-            try (Connection conn = dataSource.getConnection()) {
+            try (Connection conn = getConnection()) {
                 try {
-                    final RawRepoDAO dao = createDAO(conn);
+                    final RawRepoDAO dao = getDAO(conn);
 
                     final String immutable = "001;010;020;990;991;996";
                     final String overwrite = "004;005;013;014;017;035;036;240;243;247;300;008 009 038 039 100 110 239 245 652 654";
@@ -459,6 +584,7 @@ public class RawRepo {
                     final MarcXMerger merger = new MarcXMerger(customFieldRules, "USE_PARENT_AGENCY");
 
                     result = dao.fetchMergedRecord(bibliographicRecordId, agencyId, merger, true);
+                    countRecordRead(result);
                     return result;
                 } catch (RawRepoException | MarcXMergerException ex) {
                     conn.rollback();
@@ -491,9 +617,9 @@ public class RawRepo {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "recordExists";
 
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
 
                 return dao.recordExists(recordId, agencyId);
             } catch (RawRepoException e) {
@@ -515,6 +641,83 @@ public class RawRepo {
         }
     }
 
+    /**
+     * Checks which of the given records exists in RawRepo.
+     * <p/>
+     * This is the bulk version of {@link #recordExists(String, int)} and only uses a single query no matter how many
+     * records are asked for.
+     *
+     * @param recordIds The records to check for.
+     * @return The subset of <code>recordIds</code> which exists and are not deleted.
+     * @throws UpdateException In case of an error from RawRepo or an SQL exception.
+     */
+    public Set<RecordId> recordsExist(Collection<RecordId> recordIds) throws UpdateException {
+        final Set<RecordId> result = new HashSet<>();
+        for (Map.Entry<RecordId, Boolean> entry : recordsDeletedState(recordIds).entrySet()) {
+            if (!entry.getValue()) {
+                result.add(entry.getKey());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Looks up existence and deleted state for many records in one query.
+     * <p/>
+     * Records which doesn't exist at all are not part of the result. For the rest the value is <code>true</code> if
+     * the record is marked as deleted.
+     *
+     * @param recordIds The records to look up.
+     * @return Map from record id to deleted state for all the records that exist, deleted or not.
+     * @throws UpdateException In case of an SQL exception.
+     */
+    public Map<RecordId, Boolean> recordsDeletedState(Collection<RecordId> recordIds) throws UpdateException {
+        final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final String methodName = "recordsDeletedState";
+        final Map<RecordId, Boolean> result = new HashMap<>();
+
+        if (recordIds.isEmpty()) {
+            return result;
+        }
+
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_RECORDS_DELETED_STATE)) {
+            setRecordIdArrays(conn, stmt, recordIds);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    result.put(new RecordId(resultSet.getString(1), resultSet.getInt(2)), resultSet.getBoolean(3));
+                }
+            }
+
+            return result;
+        } catch (SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            incrementErrorCounterMetric(methodName, ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        } finally {
+            watch.stop("rawrepo.recordsDeletedState");
+            updateSimpleTimerMetric(methodName, watch);
+        }
+    }
+
+    /**
+     * Binds the record ids as the two array parameters (bibliographic record ids and agency ids) used by the UNNEST
+     * queries.
+     */
+    private static void setRecordIdArrays(Connection conn, PreparedStatement stmt, Collection<RecordId> recordIds) throws SQLException {
+        final String[] bibliographicRecordIds = new String[recordIds.size()];
+        final Integer[] agencyIds = new Integer[recordIds.size()];
+        int index = 0;
+        for (RecordId recordId : recordIds) {
+            bibliographicRecordIds[index] = recordId.getBibliographicRecordId();
+            agencyIds[index] = recordId.getAgencyId();
+            index++;
+        }
+        stmt.setArray(1, conn.createArrayOf("varchar", bibliographicRecordIds));
+        stmt.setArray(2, conn.createArrayOf("integer", agencyIds));
+    }
+
     /**
      * Checks if a maybe deleted record exists in RawRepo.
      *
@@ -527,9 +730,9 @@ public class RawRepo {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "recordExistsMaybeDeleted";
 
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
 
                 return dao.recordExistsMaybeDeleted(recordId, agencyId);
             } catch (RawRepoException ex) {
@@ -561,9 +764,9 @@ public class RawRepo {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "recordExistsMaybeDeleted";
 
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                RawRepoDAO dao = createDAO(conn);
+                RawRepoDAO dao = getDAO(conn);
 
                 if (dao.recordExistsMaybeDeleted(recordId, agencyId)) {
                     Record record = dao.fetchRecord(recordId, agencyId);
@@ -590,15 +793,17 @@ public class RawRepo {
     }
 
     public void saveRecord(Record record) throws UpdateException {
+        checkWritable();
         StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "saveRecord";
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                RawRepoDAO dao = createDAO(conn);
+                RawRepoDAO dao = getDAO(conn);
                 if (record.isDeleted()) {
                     dao.setRelationsFrom(record.getId(), new HashSet<>());
                 }
                 dao.saveRecord(record);
+                countRecordWritten(record);
             } catch (RawRepoException e) {
                 conn.rollback();
                 LOGGER.error(e.getMessage(), e);
@@ -617,11 +822,12 @@ public class RawRepo {
     }
 
     public void removeLinks(RecordId bibliographicRecordId) throws UpdateException {
+        checkWritable();
         StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "setRelationsFrom";
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                RawRepoDAO dao = createDAO(conn);
+                RawRepoDAO dao = getDAO(conn);
                 final HashSet<RecordId> references = new HashSet<>();
                 dao.setRelationsFrom(bibliographicRecordId, references);
             } catch (RawRepoException e) {
@@ -650,11 +856,12 @@ public class RawRepo {
      *                         encapsulated in an UpdateException.
      */
     public void linkRecord(RecordId id, RecordId referId) throws UpdateException {
+        checkWritable();
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "setRelationsFrom";
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
                 final Set<RecordId> references = new HashSet<>();
                 references.add(referId);
                 dao.setRelationsFrom(id, references);
@@ -684,11 +891,12 @@ public class RawRepo {
      *                         encapsulated in an UpdateException.
      */
     public void linkRecordAppend(RecordId id, RecordId referId) throws UpdateException {
+        checkWritable();
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "linkRecordAppend";
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
                 final Set<RecordId> references = dao.getRelationsFrom(id);
                 references.add(referId);
                 dao.setRelationsFrom(id, references);
@@ -713,13 +921,25 @@ public class RawRepo {
         changedRecord(provider, recordId, 1000);
     }
 
+    /**
+     * Enqueues the record and the records depending on it as changed.
+     * <p/>
+     * Inside a unit of work the record is enqueued when the unit of work is committed, together with the other
+     * records enqueued by the unit of work.
+     */
     public void changedRecord(String provider, RecordId recordId, int priority) throws UpdateException {
+        checkWritable();
+        final RawRepoUnitOfWork unitOfWork = UNIT_OF_WORK.get();
+        if (unitOfWork != null) {
+            unitOfWork.changedRecord(provider, recordId, priority);
+            return;
+        }
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "changedRecord";
 
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
                 dao.changedRecord(provider, recordId, priority);
             } catch (RawRepoException ex) {
                 conn.rollback();
@@ -738,13 +958,25 @@ public class RawRepo {
         }
     }
 
+    /**
+     * Enqueues the record.
+     * <p/>
+     * Inside a unit of work the record is enqueued when the unit of work is committed, together with the other
+     * records enqueued by the unit of work.
+     */
     public void enqueue(RecordId recordId, String provider, boolean changed, boolean leaf, int priority) throws UpdateException {
+        checkWritable();
+        final RawRepoUnitOfWork unitOfWork = UNIT_OF_WORK.get();
+        if (unitOfWork != null) {
+            unitOfWork.enqueue(recordId, provider, changed, leaf, priority);
+            return;
+        }
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "enqueue";
 
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
                 dao.enqueue(recordId, provider, changed, leaf, priority);
             } catch (RawRepoException ex) {
                 conn.rollback();
@@ -767,9 +999,9 @@ public class RawRepo {
     public boolean checkProvider(String provider) throws UpdateException {
         final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final String methodName = "checkProvider";
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = getConnection()) {
             try {
-                final RawRepoDAO dao = createDAO(conn);
+                final RawRepoDAO dao = getDAO(conn);
 
                 return dao.checkProvider(provider);
             } catch (RawRepoException ex) {
@@ -807,6 +1039,113 @@ public class RawRepo {
         return writer.write(marcRecord, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Starts a unit of work for the current thread.
+     * <p/>
+     * Until the returned unit of work is closed all calls to this class from the current thread share one connection
+     * and one RawRepoDAO, and nothing is committed before {@link RawRepoUnitOfWork#commit()} is called.
+     *
+     * @return The new unit of work.
+     * @throws UpdateException       If it isn't possible to get a connection.
+     * @throws IllegalStateException If a unit of work is already active for the current thread.
+     */
+    public RawRepoUnitOfWork beginUnitOfWork() throws UpdateException {
+        if (UNIT_OF_WORK.get() != null) {
+            throw new IllegalStateException("A RawRepo unit of work is already active");
+        }
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            final boolean ownsTransaction = conn.getAutoCommit();
+            if (ownsTransaction) {
+                conn.setAutoCommit(false);
+            }
+            final RawRepoUnitOfWork unitOfWork = new RawRepoUnitOfWork(UNIT_OF_WORK, conn, createDAO(conn), ownsTransaction, transactionRegistry);
+            if (outbox != null && outbox.isEnabled()) {
+                unitOfWork.setOutbox(outbox);
+            }
+            UNIT_OF_WORK.set(unitOfWork);
+
+            return unitOfWork;
+        } catch (SQLException | RawRepoException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+            }
+            throw new UpdateException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Writes queue entries to the queue in one transaction, regardless of the outbox. Used for moving the entries from
+     * the outbox to the queue.
+     *
+     * @param entries The entries with their priority.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void writeQueueEntries(Map<RawRepoQueueEntry, Integer> entries) throws UpdateException {
+        final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final String methodName = "writeQueueEntries";
+
+        try (RawRepoUnitOfWork unitOfWork = beginUnitOfWork()) {
+            unitOfWork.write(entries);
+            unitOfWork.commit();
+        } catch (RawRepoException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            incrementErrorCounterMetric(methodName, ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        } finally {
+            watch.stop("rawrepo.writeQueueEntries");
+            updateSimpleTimerMetric(methodName, watch);
+        }
+    }
+
+    /**
+     * Marks the current thread as read only, e.g. because it runs part of a request outside the unit of work of the
+     * request. Writes from a read only thread fail, as they would not be part of the transaction of the request.
+     *
+     * @param readOnly <code>true</code> to refuse writes from the current thread, <code>false</code> to allow them.
+     */
+    public static void setReadOnly(boolean readOnly) {
+        if (readOnly) {
+            READ_ONLY.set(Boolean.TRUE);
+        } else {
+            READ_ONLY.remove();
+        }
+    }
+
+    private static void checkWritable() throws UpdateException {
+        if (READ_ONLY.get() != null) {
+            throw new UpdateException("Writing to RawRepo is not allowed from a thread outside the unit of work of the request");
+        }
+    }
+
+    public boolean isUnitOfWorkActive() {
+        return UNIT_OF_WORK.get() != null;
+    }
+
+    private Connection getConnection() throws SQLException {
+        final RawRepoUnitOfWork unitOfWork = UNIT_OF_WORK.get();
+        if (unitOfWork != null) {
+            return unitOfWork.getSharedConnection();
+        }
+
+        return dataSource.getConnection();
+    }
+
+    private RawRepoDAO getDAO(Connection conn) throws RawRepoException {
+        final RawRepoUnitOfWork unitOfWork = UNIT_OF_WORK.get();
+        if (unitOfWork != null) {
+            return unitOfWork.getDAO();
+        }
+
+        return createDAO(conn);
+    }
+
     /**
      * Constructs a RawRepoDAO to access the rawrepo database.
      *
@@ -831,14 +1170,38 @@ public class RawRepo {
         return MIN_SCHOOL_AGENCY <= agencyId && agencyId <= RawRepo.MAX_SCHOOL_AGENCY;
     }
 
+    /**
+     * Counts a record which wasn't stored, linked or enqueued because it was identical to the record in rawrepo.
+     */
+    public void incrementUnchangedRecordsCounter() {
+        metricsHandler.increment(unchangedRecordsCounterMetrics);
+    }
+
     private void incrementErrorCounterMetric(String methodName, Exception e) {
         metricsHandler.increment(rawrepoErrorCounterMetrics,
                 new Tag(METHOD_NAME_KEY, methodName),
-                new Tag(ERROR_TYPE, e.getMessage().toLowerCase()));
+                new Tag(ERROR_TYPE, MetricTags.errorType(e)));
     }
 
     private void updateSimpleTimerMetric(String methodName, StopWatch watch) {
         metricsHandler.update(rawrepoDaoTimingMetrics,
                 Duration.ofMillis(watch.getElapsedTime()), new Tag(METHOD_NAME_KEY, methodName));
+        CostLedger.call(CostLedger.Dependency.RAWREPO, watch.getElapsedTime());
+    }
+
+    private static void countRecordRead(Record record) {
+        if (record != null) {
+            CostLedger.records(CostLedger.Dependency.RAWREPO, 1);
+            if (record.getContent() != null) {
+                CostLedger.bytesDecoded(CostLedger.Dependency.RAWREPO, record.getContent().length);
+            }
+        }
+    }
+
+    private static void countRecordWritten(Record record) {
+        CostLedger.records(CostLedger.Dependency.RAWREPO, 1);
+        if (record.getContent() != null) {
+            CostLedger.bytesEncoded(CostLedger.Dependency.RAWREPO, record.getContent().length);
+        }
     }
 }
@@ -0,0 +1,376 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.rawrepo.RecordId;
+import dk.dbc.updateservice.utils.DeferredLogger;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.SessionContext;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.concurrent.ManagedScheduledExecutorService;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbox for the rawrepo queue.
+ * <p/>
+ * Large updates, e.g. of authority records with many children, enqueue thousands of records. When the outbox is enabled
+ * by <code>RAWREPO_OUTBOX_ENABLED</code> the queue entries of a RawRepo unit of work are added to the
+ * <code>rawrepo_outbox</code> table when the unit of work is committed, instead of being written to the rawrepo queue
+ * while the request waits. The table is in the rawrepo database (see <code>docker/rawrepo_outbox.sql</code>), so the
+ * entries are added in the same transaction as the records they enqueue and are never lost or seen before the records.
+ * A background dispatcher moves the entries to the queue in batches of <code>RAWREPO_OUTBOX_BATCH_SIZE</code> entries
+ * every <code>RAWREPO_OUTBOX_INTERVAL_MS</code> milliseconds.
+ * <p/>
+ * The entries for a record are moved in the order they were added, and an entry which can't be written is retried
+ * with an increasing delay. All instances share the outbox. A batch is claimed, written to the queue and removed from
+ * the outbox in one transaction, and entries locked by another instance are skipped.
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RawRepoOutbox {
+    private static final DeferredLogger LOGGER = new DeferredLogger(RawRepoOutbox.class);
+    static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(10);
+
+    static final String INSERT_ENTRY = "INSERT INTO rawrepo_outbox" +
+            " (bibliographicrecordid, agencyid, provider, changed_record, changed, leaf, priority)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // An entry is only ready when there are no older entries for the same record, so the entries for a record are
+    // written to the queue in the order they were added
+    static final String CLAIM_READY_ENTRIES = "SELECT id, bibliographicrecordid, agencyid, provider, changed_record, changed, leaf, priority, attempts" +
+            " FROM rawrepo_outbox e WHERE next_attempt_dtm <= now() AND NOT EXISTS (" +
+            "SELECT 1 FROM rawrepo_outbox o WHERE o.bibliographicrecordid = e.bibliographicrecordid" +
+            " AND o.agencyid = e.agencyid AND o.id < e.id)" +
+            " ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    static final String CLAIM_ENTRY = "SELECT id, bibliographicrecordid, agencyid, provider, changed_record, changed, leaf, priority, attempts" +
+            " FROM rawrepo_outbox WHERE id = ? FOR UPDATE SKIP LOCKED";
+
+    static final String DELETE_ENTRIES = "DELETE FROM rawrepo_outbox WHERE id = ANY(?)";
+
+    static final String UPDATE_RETRY = "UPDATE rawrepo_outbox SET attempts = ?, next_attempt_dtm = ?, last_error = ? WHERE id = ?";
+
+    static final String SELECT_DEPTH_AND_OLDEST = "SELECT COUNT(*), MIN(created_dtm) FROM rawrepo_outbox";
+
+    static final String RESULT_KEY = "result";
+
+    static final Metadata rawRepoOutboxCounterMetadata = Metadata.builder()
+            .withName("update_rawrepo_outbox_counter")
+            .withDescription("Number of rawrepo outbox entries by result (added, dispatched, retried)")
+            .withType(MetricType.COUNTER)
+            .withUnit("entries").build();
+
+    static final Metadata rawRepoOutboxLagMetadata = Metadata.builder()
+            .withName("update_rawrepo_outbox_lag")
+            .withDescription("Age of the oldest entry in the rawrepo outbox as last seen by this instance")
+            .withType(MetricType.GAUGE)
+            .withUnit(MetricUnits.SECONDS).build();
+
+    static final Metadata rawRepoOutboxDepthMetadata = Metadata.builder()
+            .withName("update_rawrepo_outbox_depth")
+            .withDescription("Number of entries in the rawrepo outbox as last seen by this instance")
+            .withType(MetricType.GAUGE)
+            .withUnit("entries").build();
+
+    /**
+     * The entries claimed by a batch, and the reason the batch failed if it did.
+     */
+    public static final class Batch {
+        final List<RawRepoOutboxEntry> entries;
+        final String error;
+
+        Batch(List<RawRepoOutboxEntry> entries, String error) {
+            this.entries = entries;
+            this.error = error;
+        }
+    }
+
+    @Resource(lookup = "jdbc/rawrepo")
+    DataSource dataSource;
+
+    @EJB
+    RawRepo rawRepo;
+
+    @Resource
+    SessionContext sessionContext;
+
+    @Resource
+    ManagedScheduledExecutorService managedScheduledExecutorService;
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "RAWREPO_OUTBOX_ENABLED", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    @ConfigProperty(name = "RAWREPO_OUTBOX_BATCH_SIZE", defaultValue = "1000")
+    int batchSize;
+
+    @Inject
+    @ConfigProperty(name = "RAWREPO_OUTBOX_INTERVAL_MS", defaultValue = "1000")
+    long intervalMs;
+
+    private final AtomicLong lag = new AtomicLong();
+    private final AtomicLong depth = new AtomicLong();
+    private ScheduledFuture<?> dispatcher;
+
+    @PostConstruct
+    public void init() {
+        metricRegistry.register(rawRepoOutboxLagMetadata, (Gauge<Long>) lag::get);
+        metricRegistry.register(rawRepoOutboxDepthMetadata, (Gauge<Long>) depth::get);
+        if (enabled) {
+            dispatcher = managedScheduledExecutorService.scheduleWithFixedDelay(this::dispatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (dispatcher != null) {
+            dispatcher.cancel(false);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds queue entries to the outbox on the connection of a RawRepo unit of work, so they are committed or rolled
+     * back together with the rest of the unit of work.
+     *
+     * @param connection The connection of the unit of work.
+     * @param entries    The entries with their priority, in the order they should be written to the queue.
+     * @throws SQLException If the entries can't be added.
+     */
+    void add(Connection connection, Map<RawRepoQueueEntry, Integer> entries) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_ENTRY)) {
+            for (Map.Entry<RawRepoQueueEntry, Integer> entry : entries.entrySet()) {
+                final RawRepoQueueEntry queueEntry = entry.getKey();
+                stmt.setString(1, queueEntry.getRecordId().getBibliographicRecordId());
+                stmt.setInt(2, queueEntry.getRecordId().getAgencyId());
+                stmt.setString(3, queueEntry.getProvider());
+                stmt.setBoolean(4, queueEntry.isChangedRecord());
+                stmt.setBoolean(5, queueEntry.isChanged());
+                stmt.setBoolean(6, queueEntry.isLeaf());
+                stmt.setInt(7, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        incrementCounter("added", entries.size());
+    }
+
+    /**
+     * Moves all ready entries from the outbox to the queue. Each batch runs in its own transaction through the
+     * business object, and if a batch fails its entries are moved one at a time so only the failing entries are
+     * retried.
+     */
+    void dispatch() {
+        try {
+            final RawRepoOutbox self = sessionContext.getBusinessObject(RawRepoOutbox.class);
+            Batch batch;
+            do {
+                batch = self.dispatchBatch();
+                if (batch.error != null) {
+                    final Batch failed = batch;
+                    LOGGER.use(log -> log.warn("Unable to write {} outbox entries to the queue, writing them one at a time: {}", failed.entries.size(), failed.error));
+                    for (RawRepoOutboxEntry entry : batch.entries) {
+                        final String error = self.dispatchEntry(entry.getId());
+                        if (error != null) {
+                            self.retryEntry(entry, error);
+                        }
+                    }
+                }
+            } while (!batch.entries.isEmpty());
+            updateGauges();
+        } catch (RuntimeException e) {
+            LOGGER.use(log -> log.warn("Unable to dispatch the rawrepo outbox", e));
+        }
+    }
+
+    /**
+     * Claims the oldest ready entries, writes them to the queue and removes them from the outbox. Only public so
+     * {@link #dispatch()} can start the transaction through the business object.
+     *
+     * @return The claimed entries and the reason they couldn't be written, in which case the transaction is rolled back.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Batch dispatchBatch() {
+        final List<RawRepoOutboxEntry> entries = claim(CLAIM_READY_ENTRIES, batchSize);
+        if (entries.isEmpty()) {
+            return new Batch(entries, null);
+        }
+        final String error = writeAndRemove(entries);
+        if (error != null) {
+            sessionContext.setRollbackOnly();
+        }
+
+        return new Batch(entries, error);
+    }
+
+    /**
+     * Writes a single entry to the queue and removes it from the outbox. Only public so {@link #dispatch()} can start
+     * the transaction through the business object.
+     *
+     * @param id Id of the entry.
+     * @return The reason the entry couldn't be written, in which case the transaction is rolled back, or
+     * <code>null</code> if it was written or has been claimed by another instance.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public String dispatchEntry(long id) {
+        final List<RawRepoOutboxEntry> entries = claim(CLAIM_ENTRY, id);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        final String error = writeAndRemove(entries);
+        if (error != null) {
+            sessionContext.setRollbackOnly();
+        }
+
+        return error;
+    }
+
+    /**
+     * Delays the next attempt to write an entry which couldn't be written to the queue. Only public so
+     * {@link #dispatch()} can start the transaction through the business object.
+     *
+     * @param entry The entry.
+     * @param error Reason for the latest failure.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void retryEntry(RawRepoOutboxEntry entry, String error) {
+        final int attempts = entry.getAttempts() + 1;
+        final Instant nextAttempt = Instant.now().plus(getRetryDelay(attempts));
+        LOGGER.use(log -> log.warn("Unable to write outbox entry {} to the queue, retrying at {}: {}", entry, nextAttempt, error));
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(UPDATE_RETRY)) {
+            stmt.setInt(1, attempts);
+            stmt.setTimestamp(2, Timestamp.from(nextAttempt));
+            stmt.setString(3, error);
+            stmt.setLong(4, entry.getId());
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to delay outbox entry " + entry.getId() + ": " + e.getMessage(), e);
+        }
+        incrementCounter("retried", 1);
+    }
+
+    private List<RawRepoOutboxEntry> claim(String query, long parameter) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setLong(1, parameter);
+            final List<RawRepoOutboxEntry> entries = new ArrayList<>();
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    entries.add(toOutboxEntry(resultSet));
+                }
+            }
+
+            return entries;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to claim outbox entries: " + e.getMessage(), e);
+        }
+    }
+
+    private String writeAndRemove(List<RawRepoOutboxEntry> entries) {
+        try {
+            rawRepo.writeQueueEntries(toQueueEntries(entries));
+        } catch (UpdateException | RuntimeException e) {
+            return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        final Long[] ids = new Long[entries.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = entries.get(i).getId();
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(DELETE_ENTRIES)) {
+            stmt.setArray(1, conn.createArrayOf("bigint", ids));
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to remove outbox entries: " + e.getMessage(), e);
+        }
+        incrementCounter("dispatched", entries.size());
+
+        return null;
+    }
+
+    static Duration getRetryDelay(int attempts) {
+        if (attempts >= 20) {
+            return MAX_RETRY_DELAY;
+        }
+        final Duration delay = Duration.ofSeconds(1L << attempts);
+
+        return delay.compareTo(MAX_RETRY_DELAY) < 0 ? delay : MAX_RETRY_DELAY;
+    }
+
+    private void updateGauges() {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_DEPTH_AND_OLDEST);
+             ResultSet resultSet = stmt.executeQuery()) {
+            if (resultSet.next()) {
+                depth.set(resultSet.getLong(1));
+                final Timestamp oldest = resultSet.getTimestamp(2);
+                lag.set(oldest == null ? 0 : Math.max(0, Duration.between(oldest.toInstant(), Instant.now()).getSeconds()));
+            }
+        } catch (SQLException e) {
+            LOGGER.use(log -> log.warn("Unable to read the size of the rawrepo outbox", e));
+        }
+    }
+
+    private static RawRepoOutboxEntry toOutboxEntry(ResultSet resultSet) throws SQLException {
+        final RecordId recordId = new RecordId(resultSet.getString(2), resultSet.getInt(3));
+        final String provider = resultSet.getString(4);
+        final RawRepoQueueEntry queueEntry = resultSet.getBoolean(5)
+                ? RawRepoQueueEntry.changedRecord(provider, recordId)
+                : RawRepoQueueEntry.enqueue(recordId, provider, resultSet.getBoolean(6), resultSet.getBoolean(7));
+
+        return new RawRepoOutboxEntry(resultSet.getLong(1), queueEntry, resultSet.getInt(8), resultSet.getInt(9));
+    }
+
+    private static Map<RawRepoQueueEntry, Integer> toQueueEntries(List<RawRepoOutboxEntry> entries) {
+        final Map<RawRepoQueueEntry, Integer> result = new LinkedHashMap<>();
+        for (RawRepoOutboxEntry entry : entries) {
+            result.merge(entry.getQueueEntry(), entry.getPriority(), Math::min);
+        }
+
+        return result;
+    }
+
+    private void incrementCounter(String result, long count) {
+        metricRegistry.counter(rawRepoOutboxCounterMetadata, new Tag(RESULT_KEY, result)).inc(count);
+    }
+}
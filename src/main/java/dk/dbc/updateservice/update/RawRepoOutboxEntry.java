@@ -0,0 +1,44 @@
+package dk.dbc.updateservice.update;
+
+/**
+ * A queue entry waiting in the rawrepo outbox.
+ */
+public final class RawRepoOutboxEntry {
+    private final long id;
+    private final RawRepoQueueEntry queueEntry;
+    private final int priority;
+    private final int attempts;
+
+    RawRepoOutboxEntry(long id, RawRepoQueueEntry queueEntry, int priority, int attempts) {
+        this.id = id;
+        this.queueEntry = queueEntry;
+        this.priority = priority;
+        this.attempts = attempts;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    RawRepoQueueEntry getQueueEntry() {
+        return queueEntry;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "RawRepoOutboxEntry{" +
+                "id=" + id +
+                ", queueEntry=" + queueEntry +
+                ", priority=" + priority +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
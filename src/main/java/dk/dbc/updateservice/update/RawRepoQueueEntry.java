@@ -0,0 +1,92 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.rawrepo.RawRepoDAO;
+import dk.dbc.rawrepo.RawRepoException;
+import dk.dbc.rawrepo.RecordId;
+
+import java.util.Objects;
+
+/**
+ * A record which must be written to the rawrepo queue, either by {@link RawRepoDAO#changedRecord(String, RecordId, int)}
+ * or by {@link RawRepoDAO#enqueue(RecordId, String, boolean, boolean, int)}.
+ * <p/>
+ * The priority is not part of the entry, so entries which only differ by priority are equal and can be merged.
+ */
+public final class RawRepoQueueEntry {
+    private final RecordId recordId;
+    private final String provider;
+    private final boolean changedRecord;
+    private final boolean changed;
+    private final boolean leaf;
+
+    private RawRepoQueueEntry(RecordId recordId, String provider, boolean changedRecord, boolean changed, boolean leaf) {
+        this.recordId = recordId;
+        this.provider = provider;
+        this.changedRecord = changedRecord;
+        this.changed = changed;
+        this.leaf = leaf;
+    }
+
+    public static RawRepoQueueEntry changedRecord(String provider, RecordId recordId) {
+        return new RawRepoQueueEntry(recordId, provider, true, false, false);
+    }
+
+    public static RawRepoQueueEntry enqueue(RecordId recordId, String provider, boolean changed, boolean leaf) {
+        return new RawRepoQueueEntry(recordId, provider, false, changed, leaf);
+    }
+
+    public RecordId getRecordId() {
+        return recordId;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public boolean isChangedRecord() {
+        return changedRecord;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    void write(RawRepoDAO dao, int priority) throws RawRepoException {
+        if (changedRecord) {
+            dao.changedRecord(provider, recordId, priority);
+        } else {
+            dao.enqueue(recordId, provider, changed, leaf, priority);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final RawRepoQueueEntry that = (RawRepoQueueEntry) o;
+
+        return changedRecord == that.changedRecord && changed == that.changed && leaf == that.leaf &&
+                Objects.equals(recordId, that.recordId) && Objects.equals(provider, that.provider);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(recordId, provider, changedRecord, changed, leaf);
+    }
+
+    @Override
+    public String toString() {
+        return "RawRepoQueueEntry{" +
+                "recordId=" + recordId +
+                ", provider='" + provider + '\'' +
+                ", changedRecord=" + changedRecord +
+                ", changed=" + changed +
+                ", leaf=" + leaf +
+                '}';
+    }
+}
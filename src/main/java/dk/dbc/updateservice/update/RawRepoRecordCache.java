@@ -0,0 +1,356 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.rawrepo.Record;
+import dk.dbc.rawrepo.RecordId;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request scoped read-through cache in front of {@link RawRepo}.
+ * <p/>
+ * A single update request reads the same (bibliographicRecordId, agencyId) many times from different actions.
+ * This class memoizes the existence check, the fetched record content and the decoded {@link MarcRecord} so the
+ * database is only asked once per record per request.
+ * <p/>
+ * Decoded records are handed out as copies since the actions modify the records they work on. Writes done through
+ * this class - saving records, changing relations and enqueueing - are passed on to RawRepo and drops the affected
+ * entries so later reads in the same request see the new state. Writes must not bypass this class while it is in use.
+ * <p/>
+ * Instances must not be shared between requests.
+ */
+public class RawRepoRecordCache {
+    private final RawRepo rawRepo;
+
+    private final Map<RecordId, Boolean> exists = new ConcurrentHashMap<>();
+    private final Map<RecordId, Boolean> existsMaybeDeleted = new ConcurrentHashMap<>();
+    private final Map<RecordId, MarcRecord> records = new ConcurrentHashMap<>();
+    private final Map<RecordId, MarcRecord> mergedRecords = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RawRepoRecordCache(RawRepo rawRepo) {
+        this.rawRepo = rawRepo;
+    }
+
+    public RawRepo getRawRepo() {
+        return rawRepo;
+    }
+
+    /**
+     * Checks if a record exists in RawRepo.
+     *
+     * @param bibliographicRecordId The record id for the record to check for.
+     * @param agencyId              The agency id for the record to check for.
+     * @return <code>true</code> if the record exists, <code>false</code> otherwise.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public boolean recordExists(String bibliographicRecordId, int agencyId) throws UpdateException {
+        final RecordId key = new RecordId(bibliographicRecordId, agencyId);
+        final Boolean cached = exists.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        final boolean result = rawRepo.recordExists(bibliographicRecordId, agencyId);
+        exists.put(key, result);
+
+        return result;
+    }
+
+    /**
+     * Checks if a record exists in RawRepo, including records marked as deleted.
+     *
+     * @param bibliographicRecordId The record id for the record to check for.
+     * @param agencyId              The agency id for the record to check for.
+     * @return <code>true</code> if the record exists, deleted or not, <code>false</code> otherwise.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public boolean recordExistsMaybeDeleted(String bibliographicRecordId, int agencyId) throws UpdateException {
+        final RecordId key = new RecordId(bibliographicRecordId, agencyId);
+        Boolean cached = existsMaybeDeleted.get(key);
+        if (cached == null && Boolean.TRUE.equals(exists.get(key))) {
+            // A record which exists and isn't deleted exists maybe deleted as well
+            cached = true;
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        final boolean result = rawRepo.recordExistsMaybeDeleted(bibliographicRecordId, agencyId);
+        existsMaybeDeleted.put(key, result);
+
+        return result;
+    }
+
+    /**
+     * Checks which of the given records exists in RawRepo.
+     * <p/>
+     * Records not already known by the cache are looked up with a single bulk call and the answers are remembered
+     * so later calls to {@link #recordExists(String, int)} for the same records doesn't reach the database.
+     *
+     * @param recordIds The records to check for.
+     * @return The subset of <code>recordIds</code> which exists and are not deleted.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public Set<RecordId> recordsExist(Collection<RecordId> recordIds) throws UpdateException {
+        final Set<RecordId> result = new HashSet<>();
+        final Set<RecordId> unknown = new HashSet<>();
+        for (RecordId recordId : recordIds) {
+            final Boolean cached = exists.get(recordId);
+            if (cached == null) {
+                unknown.add(recordId);
+            } else {
+                hits.incrementAndGet();
+                if (cached) {
+                    result.add(recordId);
+                }
+            }
+        }
+        if (!unknown.isEmpty()) {
+            misses.addAndGet(unknown.size());
+            final Set<RecordId> existing = rawRepo.recordsExist(unknown);
+            for (RecordId recordId : unknown) {
+                exists.put(recordId, existing.contains(recordId));
+            }
+            result.addAll(existing);
+        }
+
+        return result;
+    }
+
+    /**
+     * Fetches and decodes a record from RawRepo.
+     *
+     * @param bibliographicRecordId The record id.
+     * @param agencyId              The agency id.
+     * @return A private copy of the decoded record which the caller is free to modify.
+     * @throws UpdateException In case of an error from RawRepo or if the content can't be decoded.
+     */
+    public MarcRecord fetchMarcRecord(String bibliographicRecordId, int agencyId) throws UpdateException {
+        final RecordId key = new RecordId(bibliographicRecordId, agencyId);
+        MarcRecord cached = records.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            final Record record = rawRepo.fetchRecord(bibliographicRecordId, agencyId);
+            cached = UpdateRecordContentTransformer.decodeRecord(record.getContent());
+            records.put(key, cached);
+        }
+
+        return new MarcRecord(cached);
+    }
+
+    /**
+     * Fetches the merged version of a record from RawRepo and decodes it.
+     *
+     * @param bibliographicRecordId The record id.
+     * @param agencyId              The agency id.
+     * @return A private copy of the decoded merged record which the caller is free to modify.
+     * @throws UpdateException In case of an error from RawRepo or if the content can't be decoded.
+     */
+    public MarcRecord fetchMergedMarcRecord(String bibliographicRecordId, int agencyId) throws UpdateException {
+        final RecordId key = new RecordId(bibliographicRecordId, agencyId);
+        MarcRecord cached = mergedRecords.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            final Record record = rawRepo.fetchMergedRecord(bibliographicRecordId, agencyId);
+            cached = UpdateRecordContentTransformer.decodeRecord(record.getContent());
+            mergedRecords.put(key, cached);
+        }
+
+        return new MarcRecord(cached);
+    }
+
+    /**
+     * Fetches the merged version of many records and decodes them.
+     * <p/>
+     * Records not already cached are fetched with a single call to {@link RawRepo#fetchMergedRecords(Collection)}.
+     * Later calls to {@link #fetchMergedMarcRecord(String, int)} for the same records are answered from the cache.
+     *
+     * @param recordIds The records to fetch.
+     * @return Map from record id to a private copy of the decoded merged record.
+     * @throws UpdateException In case of an error from RawRepo or if the content can't be decoded.
+     */
+    public Map<RecordId, MarcRecord> fetchMergedMarcRecords(Collection<RecordId> recordIds) throws UpdateException {
+        final Set<RecordId> unknown = new HashSet<>();
+        for (RecordId recordId : recordIds) {
+            if (mergedRecords.containsKey(recordId)) {
+                hits.incrementAndGet();
+            } else {
+                unknown.add(recordId);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            misses.addAndGet(unknown.size());
+            for (Map.Entry<RecordId, Record> entry : rawRepo.fetchMergedRecords(unknown).entrySet()) {
+                mergedRecords.put(entry.getKey(), UpdateRecordContentTransformer.decodeRecord(entry.getValue().getContent()));
+            }
+        }
+
+        final Map<RecordId, MarcRecord> result = new HashMap<>();
+        for (RecordId recordId : recordIds) {
+            final MarcRecord cached = mergedRecords.get(recordId);
+            if (cached != null) {
+                result.put(recordId, new MarcRecord(cached));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Saves the record in RawRepo and forgets everything cached about it.
+     * <p/>
+     * Merged records are built from several records so all merged entries are dropped as well.
+     *
+     * @param record The record to save.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void saveRecord(Record record) throws UpdateException {
+        try {
+            rawRepo.saveRecord(record);
+        } finally {
+            invalidate(record.getId());
+        }
+    }
+
+    /**
+     * Removes all outgoing relations from the record in RawRepo and forgets everything cached about it.
+     *
+     * @param recordId The record to remove links from.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void removeLinks(RecordId recordId) throws UpdateException {
+        try {
+            rawRepo.removeLinks(recordId);
+        } finally {
+            invalidate(recordId);
+        }
+    }
+
+    /**
+     * Sets the record as the only outgoing relation of <code>recordId</code> in RawRepo and forgets everything cached
+     * about the record.
+     *
+     * @param recordId The record to link from.
+     * @param referId  The record to link to.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void linkRecord(RecordId recordId, RecordId referId) throws UpdateException {
+        try {
+            rawRepo.linkRecord(recordId, referId);
+        } finally {
+            invalidate(recordId);
+        }
+    }
+
+    /**
+     * Adds an outgoing relation to <code>recordId</code> in RawRepo and forgets everything cached about the record.
+     *
+     * @param recordId The record to link from.
+     * @param referId  The record to link to.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void linkRecordAppend(RecordId recordId, RecordId referId) throws UpdateException {
+        try {
+            rawRepo.linkRecordAppend(recordId, referId);
+        } finally {
+            invalidate(recordId);
+        }
+    }
+
+    /**
+     * Enqueues the record and the records depending on it as changed and forgets everything cached about the record.
+     *
+     * @param provider The provider to enqueue for.
+     * @param recordId The changed record.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void changedRecord(String provider, RecordId recordId) throws UpdateException {
+        try {
+            rawRepo.changedRecord(provider, recordId);
+        } finally {
+            invalidate(recordId);
+        }
+    }
+
+    /**
+     * Enqueues the record and the records depending on it as changed and forgets everything cached about the record.
+     *
+     * @param provider The provider to enqueue for.
+     * @param recordId The changed record.
+     * @param priority The queue priority.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void changedRecord(String provider, RecordId recordId, int priority) throws UpdateException {
+        try {
+            rawRepo.changedRecord(provider, recordId, priority);
+        } finally {
+            invalidate(recordId);
+        }
+    }
+
+    /**
+     * Enqueues the record and forgets everything cached about it.
+     *
+     * @param recordId The record to enqueue.
+     * @param provider The provider to enqueue for.
+     * @param changed  Whether the record itself has changed.
+     * @param leaf     Whether the record is a leaf.
+     * @param priority The queue priority.
+     * @throws UpdateException In case of an error from RawRepo.
+     */
+    public void enqueue(RecordId recordId, String provider, boolean changed, boolean leaf, int priority) throws UpdateException {
+        try {
+            rawRepo.enqueue(recordId, provider, changed, leaf, priority);
+        } finally {
+            invalidate(recordId);
+        }
+    }
+
+    public void invalidate(RecordId recordId) {
+        exists.remove(recordId);
+        existsMaybeDeleted.remove(recordId);
+        records.remove(recordId);
+        mergedRecords.clear();
+    }
+
+    public void clear() {
+        exists.clear();
+        existsMaybeDeleted.clear();
+        records.clear();
+        mergedRecords.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RawRepoRecordCache{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", exists=" + exists.size() +
+                ", records=" + records.size() +
+                ", mergedRecords=" + mergedRecords.size() +
+                '}';
+    }
+}
@@ -0,0 +1,223 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.rawrepo.RawRepoDAO;
+import dk.dbc.rawrepo.RawRepoException;
+import dk.dbc.rawrepo.RecordId;
+import jakarta.transaction.Status;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import org.perf4j.StopWatch;
+import org.perf4j.log4j.Log4JStopWatch;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
+
+/**
+ * A single connection and RawRepoDAO shared by all RawRepo calls made by one thread until the unit of work is closed.
+ * <p/>
+ * While a unit of work is active every RawRepo method runs on the pinned connection and nothing is committed until
+ * {@link #commit()} is called. Closing a unit of work that hasn't been committed rolls everything back.
+ * <p/>
+ * If the connection is already part of a container managed transaction (auto commit is off when it is handed out)
+ * the commit is left to the container and the unit of work only pins the connection. Closing such a unit of work
+ * without committing it marks the container transaction rollback-only, so the container doesn't commit the changes
+ * of a failed request.
+ * <p/>
+ * Records enqueued during the unit of work are collected and written to the queue when the unit of work is committed.
+ * The same record is often enqueued several times during a request, e.g. by the authority and universe handling, so
+ * identical queue entries are merged into one with the highest priority of them. If the unit of work has an outbox the
+ * entries are added to the outbox instead, and written to the queue in the background. The outbox is a table in the
+ * rawrepo database, so the entries are added in the same transaction as the changes.
+ * <p/>
+ * Instances are created by {@link RawRepo#beginUnitOfWork()} and must be used in a try-with-resources block.
+ */
+public class RawRepoUnitOfWork implements AutoCloseable {
+    private static final XLogger LOGGER = XLoggerFactory.getXLogger(RawRepoUnitOfWork.class);
+
+    private final ThreadLocal<RawRepoUnitOfWork> owner;
+    private final Connection connection;
+    private final Connection sharedConnection;
+    private final RawRepoDAO dao;
+    private final boolean ownsTransaction;
+    private final TransactionSynchronizationRegistry transactionRegistry;
+    private final Map<RawRepoQueueEntry, Integer> queueEntries = new LinkedHashMap<>();
+    private int mergedQueueEntries = 0;
+    private RawRepoOutbox outbox = null;
+    private boolean rollbackOnly = false;
+    private boolean committed = false;
+
+    RawRepoUnitOfWork(ThreadLocal<RawRepoUnitOfWork> owner, Connection connection, RawRepoDAO dao, boolean ownsTransaction,
+                      TransactionSynchronizationRegistry transactionRegistry) {
+        this.owner = owner;
+        this.connection = connection;
+        this.dao = dao;
+        this.ownsTransaction = ownsTransaction;
+        this.transactionRegistry = transactionRegistry;
+        this.sharedConnection = createSharedConnection();
+    }
+
+    /**
+     * The connection handed out to the RawRepo methods. Closing it does nothing and a rollback only marks the unit of
+     * work as failed so the rollback happens once when the unit of work is closed.
+     */
+    Connection getSharedConnection() {
+        return sharedConnection;
+    }
+
+    RawRepoDAO getDAO() {
+        return dao;
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    void setOutbox(RawRepoOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * Remembers that the record has changed, so it is enqueued by {@link RawRepoDAO#changedRecord(String, RecordId, int)}
+     * when the unit of work is committed.
+     */
+    void changedRecord(String provider, RecordId recordId, int priority) {
+        addQueueEntry(RawRepoQueueEntry.changedRecord(provider, recordId), priority);
+    }
+
+    /**
+     * Remembers that the record must be enqueued by {@link RawRepoDAO#enqueue(RecordId, String, boolean, boolean, int)}
+     * when the unit of work is committed.
+     */
+    void enqueue(RecordId recordId, String provider, boolean changed, boolean leaf, int priority) {
+        addQueueEntry(RawRepoQueueEntry.enqueue(recordId, provider, changed, leaf), priority);
+    }
+
+    private void addQueueEntry(RawRepoQueueEntry queueEntry, int priority) {
+        final Integer existing = queueEntries.get(queueEntry);
+        if (existing == null) {
+            queueEntries.put(queueEntry, priority);
+        } else {
+            // Lower numbers are handled first by the queue
+            queueEntries.put(queueEntry, Math.min(existing, priority));
+            mergedQueueEntries++;
+        }
+    }
+
+    private void flushQueueEntries() throws UpdateException {
+        if (queueEntries.isEmpty()) {
+            return;
+        }
+        final StopWatch watch = new Log4JStopWatch().setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        try {
+            if (outbox != null) {
+                LOGGER.info("Adding {} queue entries to the outbox, {} duplicates were merged", queueEntries.size(), mergedQueueEntries);
+                outbox.add(connection, queueEntries);
+            } else {
+                LOGGER.info("Writing {} queue entries, {} duplicates were merged", queueEntries.size(), mergedQueueEntries);
+                write(queueEntries);
+            }
+            queueEntries.clear();
+        } catch (RawRepoException | SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        } finally {
+            watch.stop("rawrepo.flushQueueEntries");
+        }
+    }
+
+    /**
+     * Writes queue entries directly to the queue as part of this unit of work.
+     *
+     * @param entries The entries with their priority.
+     * @throws RawRepoException In case of an error from rawrepo.
+     */
+    void write(Map<RawRepoQueueEntry, Integer> entries) throws RawRepoException {
+        for (Map.Entry<RawRepoQueueEntry, Integer> entry : entries.entrySet()) {
+            entry.getKey().write(dao, entry.getValue());
+        }
+    }
+
+    /**
+     * Commits all changes made in this unit of work.
+     *
+     * @throws UpdateException If the unit of work has been marked as failed or the commit fails.
+     */
+    public void commit() throws UpdateException {
+        if (rollbackOnly) {
+            throw new UpdateException("Unable to commit RawRepo unit of work as it has been marked for rollback");
+        }
+        flushQueueEntries();
+        try {
+            if (ownsTransaction) {
+                connection.commit();
+            }
+            committed = true;
+        } catch (SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void close() throws UpdateException {
+        owner.remove();
+        try {
+            if (ownsTransaction) {
+                if (!committed) {
+                    LOGGER.info("Rolling back RawRepo unit of work");
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+            } else if (!committed) {
+                markContainerTransactionRollbackOnly();
+            }
+        } catch (SQLException ex) {
+            LOGGER.error(ex.getMessage(), ex);
+            throw new UpdateException(ex.getMessage(), ex);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                LOGGER.error(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private void markContainerTransactionRollbackOnly() {
+        if (transactionRegistry == null || transactionRegistry.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            LOGGER.error("Unable to roll back RawRepo unit of work as its connection is neither in auto commit mode nor in a transaction");
+            return;
+        }
+        LOGGER.info("Marking the transaction of the RawRepo unit of work for rollback");
+        transactionRegistry.setRollbackOnly();
+    }
+
+    private Connection createSharedConnection() {
+        return (Connection) Proxy.newProxyInstance(RawRepoUnitOfWork.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                        return null;
+                    }
+                    if ("rollback".equals(method.getName()) && method.getParameterCount() == 0) {
+                        setRollbackOnly();
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+}
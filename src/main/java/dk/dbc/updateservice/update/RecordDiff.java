@@ -0,0 +1,124 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The tag and subfield level differences between two versions of a record, typically the current record in rawrepo
+ * and the incoming record.
+ * <p/>
+ * A tag has changed if the list of fields with that tag isn't the same in the two records, i.e. the same as comparing
+ * <code>getFieldAll(tag)</code> of the two records. A subfield has changed if the values of the subfield in the fields
+ * with the tag, in record order, aren't the same. The differences are found once when the diff is created, so all
+ * the questions are answered without looking at the records again. As for {@link MarcRecordIndex} the diff is a
+ * snapshot, so it must not be used after one of the records has been changed.
+ */
+public class RecordDiff {
+    private final MarcRecord oldRecord;
+    private final MarcRecord newRecord;
+    private final Set<String> changedTags = new HashSet<>();
+    private final Map<String, Set<Character>> changedSubfields = new HashMap<>();
+
+    private RecordDiff(MarcRecordIndex oldIndex, MarcRecordIndex newIndex) {
+        this.oldRecord = oldIndex.getMarcRecord();
+        this.newRecord = newIndex.getMarcRecord();
+        final Set<String> tags = new HashSet<>(oldIndex.getTags());
+        tags.addAll(newIndex.getTags());
+        for (String tag : tags) {
+            final List<DataField> oldFields = oldIndex.getFields(tag);
+            final List<DataField> newFields = newIndex.getFields(tag);
+            if (!oldFields.equals(newFields)) {
+                changedTags.add(tag);
+                changedSubfields.put(tag, findChangedSubfields(oldFields, newFields));
+            }
+        }
+    }
+
+    public static RecordDiff of(MarcRecord oldRecord, MarcRecord newRecord) {
+        return of(MarcRecordIndex.of(oldRecord), MarcRecordIndex.of(newRecord));
+    }
+
+    public static RecordDiff of(MarcRecordIndex oldIndex, MarcRecordIndex newIndex) {
+        return new RecordDiff(oldIndex, newIndex);
+    }
+
+    public MarcRecord getOldRecord() {
+        return oldRecord;
+    }
+
+    public MarcRecord getNewRecord() {
+        return newRecord;
+    }
+
+    public boolean hasChanges() {
+        return !changedTags.isEmpty();
+    }
+
+    public Set<String> getChangedTags() {
+        return Collections.unmodifiableSet(changedTags);
+    }
+
+    /**
+     * @param tags The tags to look for.
+     * @return <code>true</code> if the fields with at least one of the tags have changed.
+     */
+    public boolean isFieldChanged(String... tags) {
+        for (String tag : tags) {
+            if (changedTags.contains(tag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param tag  The tag of the fields.
+     * @param code The subfield code.
+     * @return <code>true</code> if the values of the subfield in the fields with the tag have changed.
+     */
+    public boolean isSubfieldChanged(String tag, char code) {
+        final Set<Character> codes = changedSubfields.get(tag);
+
+        return codes != null && codes.contains(code);
+    }
+
+    private static Set<Character> findChangedSubfields(List<DataField> oldFields, List<DataField> newFields) {
+        final Map<Character, List<String>> oldValues = getSubfieldValues(oldFields);
+        final Map<Character, List<String>> newValues = getSubfieldValues(newFields);
+        final Set<Character> codes = new HashSet<>(oldValues.keySet());
+        codes.addAll(newValues.keySet());
+        codes.removeIf(code -> Objects.equals(oldValues.get(code), newValues.get(code)));
+
+        return codes;
+    }
+
+    private static Map<Character, List<String>> getSubfieldValues(List<DataField> fields) {
+        final Map<Character, List<String>> result = new HashMap<>();
+        for (DataField field : fields) {
+            for (SubField subField : field.getSubFields()) {
+                result.computeIfAbsent(subField.getCode(), code -> new ArrayList<>()).add(subField.getData());
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordDiff{" +
+                "changedTags=" + changedTags +
+                ", changedSubfields=" + changedSubfields +
+                '}';
+    }
+}
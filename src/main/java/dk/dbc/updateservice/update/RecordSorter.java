@@ -1,16 +1,21 @@
 package dk.dbc.updateservice.update;
 
+import dk.dbc.common.records.MarcRecordReader;
 import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.marc.binding.Field;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.marc.reader.MarcReaderException;
 import dk.dbc.opencat.connector.OpencatBusinessConnector;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
+import dk.dbc.updateservice.utils.CostLedger;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
 import org.slf4j.MDC;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 
+import java.util.List;
+
 import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
 import static dk.dbc.updateservice.utils.MDCUtil.MDC_TRACKING_ID_LOG_CONTEXT;
 
@@ -19,32 +24,111 @@ public class RecordSorter {
 
     private OpencatBusinessConnector opencatBusinessConnector;
     private String schemaName;
+    private RecordSorterTemplates recordSorterTemplates;
 
     // Default constructor used for mocking
     protected RecordSorter() {
     }
 
     public RecordSorter(OpencatBusinessConnector opencatBusinessConnector, String schemaName) {
+        this(opencatBusinessConnector, schemaName, null);
+    }
+
+    /**
+     * Constructs a sorter which can sort records locally using the field order learned for the template.
+     *
+     * @param opencatBusinessConnector Connector used for sorting when the record can't be sorted locally.
+     * @param schemaName               The template to sort by.
+     * @param recordSorterTemplates    The learned field orders, or <code>null</code> to always use opencat-business.
+     */
+    public RecordSorter(OpencatBusinessConnector opencatBusinessConnector, String schemaName, RecordSorterTemplates recordSorterTemplates) {
         this.opencatBusinessConnector = opencatBusinessConnector;
         this.schemaName = schemaName;
+        this.recordSorterTemplates = recordSorterTemplates;
     }
 
     public MarcRecord sortRecord(MarcRecord marcRecord) {
+        // There no template called superallowall so we can't use it to sort with, so just return the same record
+        if ("superallowall".equals(schemaName)) {
+            return marcRecord;
+        }
+        if (recordSorterTemplates == null) {
+            return sortRecordRemote(marcRecord);
+        }
+
+        final RecordSorterTemplates.Mode mode = recordSorterTemplates.getMode();
+        if (mode == RecordSorterTemplates.Mode.REMOTE) {
+            return sortRecordRemote(marcRecord);
+        }
+
+        final TemplateFieldOrder fieldOrder = recordSorterTemplates.getFieldOrder(schemaName);
+        final StopWatch localWatch = new Log4JStopWatch("recordSorter.sortRecordLocal").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        final MarcRecord localResult = fieldOrder.sort(marcRecord);
+        localWatch.stop();
+        if (localResult != null && mode == RecordSorterTemplates.Mode.LOCAL) {
+            recordSorterTemplates.incrementCounter("local");
+            return localResult;
+        }
+
+        final MarcRecord remoteResult = sortRecordRemote(marcRecord);
+        if (remoteResult != marcRecord) {
+            fieldOrder.learn(marcRecord, remoteResult);
+        }
+        if (localResult == null) {
+            recordSorterTemplates.incrementCounter("remote");
+        } else if (localResult.equals(remoteResult)) {
+            recordSorterTemplates.incrementCounter("match");
+        } else {
+            recordSorterTemplates.incrementCounter("mismatch");
+            final MarcRecordReader reader = new MarcRecordReader(remoteResult);
+            LOGGER.warn("Local sorting of {}:{} with template '{}' differs from opencat-business. {}",
+                    reader.getRecordId(), reader.getAgencyId(), schemaName, describeDifference(localResult, remoteResult));
+            LOGGER.debug("Local: {} Remote: {}", localResult, remoteResult);
+        }
+
+        return remoteResult;
+    }
+
+    /**
+     * Describes where two sortings of the same record first differ, without including the record content.
+     *
+     * @param local  The record sorted locally.
+     * @param remote The record sorted by opencat-business.
+     * @return A short description of the first difference.
+     */
+    static String describeDifference(MarcRecord local, MarcRecord remote) {
+        final List<Field> localFields = local.getFields();
+        final List<Field> remoteFields = remote.getFields();
+        final int size = Math.min(localFields.size(), remoteFields.size());
+        for (int i = 0; i < size; i++) {
+            final String localTag = localFields.get(i).getTag();
+            final String remoteTag = remoteFields.get(i).getTag();
+            if (!localTag.equals(remoteTag)) {
+                return String.format("First difference at field %d: local %s, remote %s", i + 1, localTag, remoteTag);
+            }
+            if (!localFields.get(i).equals(remoteFields.get(i))) {
+                return String.format("First difference at field %d: %s fields differ in content", i + 1, localTag);
+            }
+        }
+        if (localFields.size() != remoteFields.size()) {
+            return String.format("Local has %d fields, remote has %d fields", localFields.size(), remoteFields.size());
+        }
+
+        return "Records differ outside the fields";
+    }
+
+    private MarcRecord sortRecordRemote(MarcRecord marcRecord) {
         final StopWatch watch = new Log4JStopWatch("opencatBusiness.sortRecord").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
 
         try {
             final String trackingId = MDC.get(MDC_TRACKING_ID_LOG_CONTEXT);
-            // There no template called superallowall so we can't use it to sort with, so just return the same record
-            if ("superallowall".equals(schemaName)) {
-                return marcRecord;
-            } else {
-                return opencatBusinessConnector.sortRecord(schemaName, marcRecord, trackingId);
-            }
+            return opencatBusinessConnector.sortRecord(schemaName, marcRecord, trackingId);
         } catch (OpencatBusinessConnectorException | JSONBException | MarcReaderException ex) {
             LOGGER.error("Error when trying to sort the record. ", ex);
             return marcRecord;
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 }
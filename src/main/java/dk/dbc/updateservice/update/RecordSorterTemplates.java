@@ -0,0 +1,70 @@
+package dk.dbc.updateservice.update;
+
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.RegistryType;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM wide holder of the field order learned for each template, used by {@link RecordSorter} to sort records
+ * without calling opencat-business.
+ * <p/>
+ * <code>RECORD_SORTER_MODE</code> controls how the learned field order is used:
+ * <ul>
+ *     <li><code>REMOTE</code> - always sort with opencat-business</li>
+ *     <li><code>COMPARE</code> - always sort with opencat-business, but also sort locally when possible and report
+ *     any difference. Meant for verifying the local sorting before switching to LOCAL</li>
+ *     <li><code>LOCAL</code> - sort locally when the order of all tags in the record is known, otherwise use
+ *     opencat-business</li>
+ * </ul>
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RecordSorterTemplates {
+    public enum Mode {
+        REMOTE, COMPARE, LOCAL
+    }
+
+    static final String RESULT_KEY = "result";
+
+    static final Metadata recordSorterCounterMetadata = Metadata.builder()
+            .withName("update_record_sorter_counter")
+            .withDescription("Number of sorted records by how they were sorted (local, remote, match, mismatch)")
+            .withType(MetricType.COUNTER)
+            .withUnit("records").build();
+
+    @Inject
+    @RegistryType(type = MetricRegistry.Type.APPLICATION)
+    MetricRegistry metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "RECORD_SORTER_MODE", defaultValue = "COMPARE")
+    String mode;
+
+    private final Map<String, TemplateFieldOrder> templates = new ConcurrentHashMap<>();
+
+    public Mode getMode() {
+        return Mode.valueOf(mode.toUpperCase());
+    }
+
+    public TemplateFieldOrder getFieldOrder(String templateName) {
+        return templates.computeIfAbsent(templateName, TemplateFieldOrder::new);
+    }
+
+    public void clear() {
+        templates.clear();
+    }
+
+    void incrementCounter(String result) {
+        metricRegistry.counter(recordSorterCounterMetadata, new Tag(RESULT_KEY, result)).inc();
+    }
+}
@@ -0,0 +1,166 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.Field;
+import dk.dbc.marc.binding.MarcRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The field order of a single opencat-business template, learned from the records sorted by opencat-business.
+ * <p/>
+ * Every record sorted remotely tells which of its tags comes before which. Once the relative order of all the tags in
+ * a record is known the record can be sorted locally by a stable sort on the tags, which gives the same result as
+ * opencat-business as long as the template doesn't reorder fields with the same tag or the subfields of a field.
+ * <p/>
+ * The learning is deliberately conservative:
+ * <ul>
+ *     <li>If opencat-business changes the order of fields with the same tag or changes the fields themselves (e.g.
+ *     sorts the subfields) the tag is marked as remote only, and records with that tag are never sorted locally</li>
+ *     <li>If a response doesn't contain the same fields as the request, or has a tag split in more than one group,
+ *     nothing is learned from it</li>
+ *     <li>If two responses disagree on the order of two tags local sorting is disabled for the template</li>
+ * </ul>
+ */
+public class TemplateFieldOrder {
+    private final String templateName;
+    // Tag -> all tags known to come after it
+    private final Map<String, Set<String>> followers = new ConcurrentHashMap<>();
+    private final Set<String> remoteOnlyTags = ConcurrentHashMap.newKeySet();
+    private volatile boolean inconsistent = false;
+
+    public TemplateFieldOrder(String templateName) {
+        this.templateName = templateName;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public boolean isInconsistent() {
+        return inconsistent;
+    }
+
+    /**
+     * Learns from a record sorted by opencat-business.
+     *
+     * @param input  The record sent to opencat-business.
+     * @param sorted The record returned by opencat-business.
+     */
+    public synchronized void learn(MarcRecord input, MarcRecord sorted) {
+        if (input == null || sorted == null || inconsistent) {
+            return;
+        }
+
+        final Map<String, List<Field>> inputByTag = groupByTag(input.getFields());
+        final Map<String, List<Field>> sortedByTag = groupByTag(sorted.getFields());
+        if (!inputByTag.keySet().equals(sortedByTag.keySet())) {
+            return;
+        }
+        for (Map.Entry<String, List<Field>> entry : inputByTag.entrySet()) {
+            if (entry.getValue().size() != sortedByTag.get(entry.getKey()).size()) {
+                return;
+            }
+        }
+
+        final List<String> tagSequence = new ArrayList<>();
+        for (Field field : sorted.getFields()) {
+            final String tag = field.getTag();
+            if (tagSequence.isEmpty() || !tagSequence.get(tagSequence.size() - 1).equals(tag)) {
+                if (tagSequence.contains(tag)) {
+                    // The template doesn't keep fields with the same tag together
+                    return;
+                }
+                tagSequence.add(tag);
+            }
+        }
+
+        for (Map.Entry<String, List<Field>> entry : inputByTag.entrySet()) {
+            if (!entry.getValue().equals(sortedByTag.get(entry.getKey()))) {
+                remoteOnlyTags.add(entry.getKey());
+            }
+        }
+
+        for (int i = 0; i < tagSequence.size(); i++) {
+            final String tag = tagSequence.get(i);
+            for (int j = i + 1; j < tagSequence.size(); j++) {
+                final String laterTag = tagSequence.get(j);
+                if (followers.getOrDefault(laterTag, Collections.emptySet()).contains(tag)) {
+                    inconsistent = true;
+                    return;
+                }
+                followers.computeIfAbsent(tag, k -> ConcurrentHashMap.newKeySet()).add(laterTag);
+            }
+        }
+    }
+
+    /**
+     * Sorts the record locally if the order of all its tags is known.
+     *
+     * @param marcRecord The record to sort. The record is not modified.
+     * @return A sorted copy of the record or <code>null</code> if the record has to be sorted by opencat-business.
+     */
+    public MarcRecord sort(MarcRecord marcRecord) {
+        if (inconsistent || marcRecord == null) {
+            return null;
+        }
+
+        final Set<String> tags = new LinkedHashSet<>();
+        for (Field field : marcRecord.getFields()) {
+            tags.add(field.getTag());
+        }
+        for (String tag : tags) {
+            if (remoteOnlyTags.contains(tag)) {
+                return null;
+            }
+        }
+        final List<String> tagList = new ArrayList<>(tags);
+        for (int i = 0; i < tagList.size(); i++) {
+            for (int j = i + 1; j < tagList.size(); j++) {
+                if (!comesBefore(tagList.get(i), tagList.get(j)) && !comesBefore(tagList.get(j), tagList.get(i))) {
+                    return null;
+                }
+            }
+        }
+
+        final MarcRecord result = new MarcRecord(marcRecord);
+        // List.sort is stable, so fields with the same tag keep their order
+        result.getFields().sort((a, b) -> {
+            if (a.getTag().equals(b.getTag())) {
+                return 0;
+            }
+            return comesBefore(a.getTag(), b.getTag()) ? -1 : 1;
+        });
+
+        return result;
+    }
+
+    private boolean comesBefore(String tag, String otherTag) {
+        return followers.getOrDefault(tag, Collections.emptySet()).contains(otherTag);
+    }
+
+    private static Map<String, List<Field>> groupByTag(List<Field> fields) {
+        final Map<String, List<Field>> result = new HashMap<>();
+        for (Field field : fields) {
+            result.computeIfAbsent(field.getTag(), k -> new ArrayList<>()).add(field);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "TemplateFieldOrder{" +
+                "templateName='" + templateName + '\'' +
+                ", knownTags=" + followers.size() +
+                ", remoteOnlyTags=" + remoteOnlyTags +
+                ", inconsistent=" + inconsistent +
+                '}';
+    }
+}
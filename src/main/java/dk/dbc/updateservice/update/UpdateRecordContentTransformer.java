@@ -10,8 +10,39 @@ import dk.dbc.marc.writer.MarcXchangeV1Writer;
 
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class UpdateRecordContentTransformer {
+    // The writers are reused as creating them is more expensive than writing a record. As the writers don't promise to
+    // be thread safe a writer is taken out of the pool while it is in use, and it is only put back after a successful
+    // write. The pools are not thread locals, as values left on the container threads would keep the application
+    // classes loaded after an undeploy
+    private static final int WRITER_POOL_SIZE = 32;
+    private static final BlockingQueue<MarcXchangeV1Writer> MARCXCHANGE_WRITERS = new ArrayBlockingQueue<>(WRITER_POOL_SIZE);
+    private static final BlockingQueue<JsonLineWriter> JSON_WRITERS = new ArrayBlockingQueue<>(WRITER_POOL_SIZE);
+
+    /**
+     * A record encoded as both MARCXchange and json, as stored in the content and content_json columns in rawrepo.
+     */
+    public static class EncodedRecord {
+        private final byte[] content;
+        private final byte[] contentJson;
+
+        EncodedRecord(byte[] content, byte[] contentJson) {
+            this.content = content;
+            this.contentJson = contentJson;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public byte[] getContentJson() {
+            return contentJson;
+        }
+    }
 
     public static MarcRecord decodeRecord(byte[] content) throws UpdateException {
         final ByteArrayInputStream buf = new ByteArrayInputStream(content);
@@ -26,19 +57,36 @@ public class UpdateRecordContentTransformer {
     }
 
     public static byte[] encodeRecord(MarcRecord marcRecord) {
-        final MarcXchangeV1Writer marcXchangeV1Writer = new MarcXchangeV1Writer();
-        return marcXchangeV1Writer.write(marcRecord, StandardCharsets.UTF_8);
+        final MarcXchangeV1Writer writer = Objects.requireNonNullElseGet(MARCXCHANGE_WRITERS.poll(), MarcXchangeV1Writer::new);
+        final byte[] content = writer.write(marcRecord, StandardCharsets.UTF_8);
+        MARCXCHANGE_WRITERS.offer(writer);
+
+        return content;
     }
 
     public static byte[] encodeRecordToJson(MarcRecord marcRecord) throws UpdateException {
-        final JsonLineWriter writer = new JsonLineWriter();
+        final JsonLineWriter writer = Objects.requireNonNullElseGet(JSON_WRITERS.poll(), JsonLineWriter::new);
         try {
-            return writer.write(marcRecord, StandardCharsets.UTF_8);
+            final byte[] content = writer.write(marcRecord, StandardCharsets.UTF_8);
+            JSON_WRITERS.offer(writer);
+
+            return content;
         } catch (MarcWriterException e) {
             throw new UpdateException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Encodes the record as both MARCXchange and json, which is what is needed when a record is saved in rawrepo.
+     *
+     * @param marcRecord The record to encode.
+     * @return The encoded record.
+     * @throws UpdateException If the json encoding fails.
+     */
+    public static EncodedRecord encodeRecordForRawRepo(MarcRecord marcRecord) throws UpdateException {
+        return new EncodedRecord(encodeRecord(marcRecord), encodeRecordToJson(marcRecord));
+    }
+
     public static MarcRecord readRecordFromString(String line) throws UpdateException {
         final ByteArrayInputStream buf = new ByteArrayInputStream(line.getBytes());
 
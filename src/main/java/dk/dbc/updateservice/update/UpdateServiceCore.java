@@ -35,23 +35,27 @@ import dk.dbc.updateservice.dto.UpdateRecordResponseDTO;
 import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.dto.writers.UpdateRecordResponseDTOWriter;
-import dk.dbc.updateservice.json.JsonMapper;
 import dk.dbc.updateservice.rest.ApplicationConfig;
 import dk.dbc.updateservice.solr.SolrBasis;
 import dk.dbc.updateservice.solr.SolrFBS;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.updateservice.utils.ResourceBundles;
 import dk.dbc.updateservice.validate.Validator;
 import dk.dbc.vipcore.exception.VipCoreException;
+import jakarta.annotation.Resource;
 import jakarta.ejb.EJB;
 import jakarta.ejb.EJBException;
+import jakarta.ejb.SessionContext;
 import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
 import jakarta.inject.Inject;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
 import org.slf4j.MDC;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
@@ -105,6 +109,27 @@ public class UpdateServiceCore {
     @EJB
     LibraryRecordsHandler libraryRecordsHandler;
 
+    @EJB
+    ActionExecutor actionExecutor;
+
+    @EJB
+    RecordSorterTemplates recordSorterTemplates;
+
+    @EJB
+    NumberRollPool numberRollPool;
+
+    @EJB
+    PayloadLogger payloadLogger;
+
+    @EJB
+    FlightRecorder flightRecorder;
+
+    @Resource
+    ManagedExecutorService managedExecutorService;
+
+    @Resource
+    SessionContext sessionContext;
+
     @Inject
     MetricsHandlerBean metricsHandlerBean;
 
@@ -116,6 +141,9 @@ public class UpdateServiceCore {
     public static final String UPDATERECORD_STOPWATCH = "UpdateService";
     public static final String GET_SCHEMAS_STOPWATCH = "GetSchemas";
 
+    static final String KAFKA_BULK_CHUNK_SIZE = "UPDATE_KAFKA_BULK_CHUNK_SIZE";
+    private static final String DEFAULT_KAFKA_BULK_CHUNK_SIZE = "100";
+
     final Properties settings = JNDIResources.getProperties();
 
     private static final ResourceBundle resourceBundle = ResourceBundles.getBundle("actions");
@@ -127,12 +155,15 @@ public class UpdateServiceCore {
         newGlobalActionStateObject.setRawRepo(rawRepo);
         newGlobalActionStateObject.setOpencatBusiness(opencatBusiness);
         newGlobalActionStateObject.setHoldingsItems(holdingsItems);
+        newGlobalActionStateObject.setLookupExecutor(managedExecutorService);
         newGlobalActionStateObject.setVipCoreService(vipCoreService);
         newGlobalActionStateObject.setSolrService(solrService);
         newGlobalActionStateObject.setSolrBasis(solrBasis);
         newGlobalActionStateObject.setValidator(validator);
         newGlobalActionStateObject.setUpdateStore(updateStore);
         newGlobalActionStateObject.setLibraryRecordsHandler(libraryRecordsHandler);
+        newGlobalActionStateObject.setRecordSorterTemplates(recordSorterTemplates);
+        newGlobalActionStateObject.setNumberRollPool(numberRollPool);
         newGlobalActionStateObject.setMessages(ResourceBundles.getBundle("actions"));
         newGlobalActionStateObject.setLibraryGroup(null);
         validateRequiredSettings();
@@ -198,13 +229,14 @@ public class UpdateServiceCore {
                     if (log.isInfoEnabled()) {
                         log.info("MDC: " + MDC.getCopyOfContextMap());
                         log.info("Request tracking id: " + updateServiceRequestDTO.getTrackingId());
-                        log.info("updateRecord received UpdateServiceRequestDTO: {}", scramblePassword(JsonMapper.encodePretty(updateServiceRequestDTO)));
+                        log.info("updateRecord received UpdateServiceRequestDTO: {}", LoggablePayload.of(updateServiceRequestDTO));
                     }
 
                     updateRequestAction = new UpdateRequestAction(state, settings);
 
-                    serviceEngine = new ServiceEngine(metricsHandlerBean);
+                    serviceEngine = new ServiceEngine(metricsHandlerBean, rawRepo);
                     serviceEngine.setLoggerKeys(MDC.getCopyOfContextMap());
+                    serviceEngine.setExecutorService(actionExecutor.getExecutorService());
                     serviceResult = checkAllowAll(updateServiceRequestDTO, state);
                     if (serviceResult.getStatus() == UpdateStatusEnumDTO.OK) {
                         serviceResult = serviceEngine.executeAction(updateRequestAction);
@@ -227,22 +259,19 @@ public class UpdateServiceCore {
                 updateRecordResponseDTO = UpdateRecordResponseDTOWriter.newInstance(serviceResult);
                 return updateRecordResponseDTO;
             } catch (Throwable ex) {
-                try {
-                    log.error("Exception while processing request: {}", scramblePassword(JsonMapper.encodePretty(updateServiceRequestDTO)));
-                } catch (IOException e) {
-                    log.error("IOException while pretty printing updateServiceRequestDTO: {}", updateServiceRequestDTO);
-                }
+                log.error("Exception while processing request: {}", LoggablePayload.of(updateServiceRequestDTO));
                 serviceResult = convertUpdateErrorToResponse(ex);
                 updateRecordResponseDTO = UpdateRecordResponseDTOWriter.newInstance(serviceResult);
                 return updateRecordResponseDTO;
             } finally {
-                if (log.isInfoEnabled()) {
-                    try {
-                        log.info("updateRecord returning UpdateRecordResponseDTO: {}", scramblePassword(JsonMapper.encodePretty(updateRecordResponseDTO)));
-                    } catch (IOException e) {
-                        log.info("updateRecord returning UpdateRecordResponseDTO: {}", updateRecordResponseDTO);
-                    }
-                }
+                log.info("updateRecord returning UpdateRecordResponseDTO: {}", LoggablePayload.of(updateRecordResponseDTO));
+                final long durationMs = System.currentTimeMillis() - watch.getStartTime();
+                payloadLogger.log("updateRecord", updateServiceRequestDTO, updateRecordResponseDTO, durationMs);
+                final UpdateStatusEnumDTO status = updateRecordResponseDTO != null ? updateRecordResponseDTO.getUpdateStatusEnumDTO() : null;
+                flightRecorder.record(updateServiceRequestDTO.getTrackingId(), updateServiceRequestDTO.getSchemaName(),
+                        watch.getStartTime(), durationMs, status != null ? status.name() : null,
+                        CostLedger.current(), serviceEngine != null ? serviceEngine.getActionTrace() : null);
+                log.info("RawRepo record cache: {} hits, {} misses", state.getRawRepoRecordCache().getHits(), state.getRawRepoRecordCache().getMisses());
                 updateServiceFinallyCleanUp(watch, updateRequestAction, serviceEngine);
             }
         });
@@ -286,6 +315,88 @@ public class UpdateServiceCore {
         }
     }
 
+    /**
+     * Updates a stream of records received from kafka.
+     * <p/>
+     * The records are saved in the given order in chunks of <code>UPDATE_KAFKA_BULK_CHUNK_SIZE</code> records (default
+     * 100), where all records in a chunk share one RawRepo connection and transaction. If a record in a chunk fails
+     * the chunk is rolled back and the records in it are saved again one at a time, so a single bad record only
+     * fails itself. Because the order is kept, several versions of the same record end up in the same state as if
+     * they had been sent one by one.
+     * <p/>
+     * The method runs without a container transaction. Each chunk, and each record saved on its own, is saved through
+     * the business object of this bean in a new container transaction, which is rolled back if the save fails.
+     *
+     * @param recordEntryDTOs The records to save.
+     * @return The error message for each record in the same order as the input, with <code>null</code> for the records
+     * which were saved.
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<String> updateRecords(List<RecordEntryDTO> recordEntryDTOs) {
+        final int chunkSize = Integer.parseInt(settings.getProperty(KAFKA_BULK_CHUNK_SIZE, DEFAULT_KAFKA_BULK_CHUNK_SIZE));
+        final UpdateServiceCore self = sessionContext.getBusinessObject(UpdateServiceCore.class);
+        final List<String> result = new ArrayList<>(recordEntryDTOs.size());
+        for (int from = 0; from < recordEntryDTOs.size(); from += chunkSize) {
+            final List<RecordEntryDTO> chunk = recordEntryDTOs.subList(from, Math.min(from + chunkSize, recordEntryDTOs.size()));
+            if (!self.updateRecordChunk(chunk)) {
+                LOGGER.use(log -> log.info("Chunk of {} records failed - saving the records one at a time", chunk.size()));
+                for (RecordEntryDTO recordEntryDTO : chunk) {
+                    result.add(self.updateRecordInUnitOfWork(recordEntryDTO));
+                }
+            } else {
+                result.addAll(Collections.nCopies(chunk.size(), null));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Saves a chunk of records in one transaction. Only public so {@link #updateRecords(List)} can start the
+     * transaction through the business object.
+     *
+     * @param chunk The records to save.
+     * @return <code>true</code> if all the records were saved, otherwise nothing is saved.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean updateRecordChunk(List<RecordEntryDTO> chunk) {
+        final StopWatch watch = new Log4JStopWatch("service.updateRecordChunk").setTimeThreshold(ApplicationConfig.LOG_DURATION_THRESHOLD_MS);
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            for (RecordEntryDTO recordEntryDTO : chunk) {
+                updateRecord(recordEntryDTO);
+            }
+            if (unitOfWork.isRollbackOnly()) {
+                return false;
+            }
+            unitOfWork.commit();
+            return true;
+        } catch (UpdateException | RuntimeException ex) {
+            LOGGER.use(log -> log.warn("Failed to save chunk: {}", ex.getMessage()));
+            return false;
+        } finally {
+            watch.stop();
+        }
+    }
+
+    /**
+     * Saves a single record in its own transaction. Only public so {@link #updateRecords(List)} can start the
+     * transaction through the business object.
+     *
+     * @param recordEntryDTO The record to save.
+     * @return The error message or <code>null</code> if the record was saved.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public String updateRecordInUnitOfWork(RecordEntryDTO recordEntryDTO) {
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            updateRecord(recordEntryDTO);
+            unitOfWork.commit();
+            return null;
+        } catch (UpdateException | RuntimeException ex) {
+            LOGGER.use(log -> log.warn("Failed to save record {}: {}", recordEntryDTO.getRecordId(), ex.getMessage()));
+            return ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+        }
+    }
+
     private void makeSureParentRecordExists(String bibliographicRecordId, int agencyId) throws UpdateException {
         boolean shouldSave = false;
         final Record parentRecord = rawRepo.fetchRecord(bibliographicRecordId, agencyId);
@@ -364,9 +475,7 @@ public class UpdateServiceCore {
 
             try {
                 MDC.put(MDC_TRACKING_ID_LOG_CONTEXT, schemasRequestDTO.getTrackingId());
-                if (log.isInfoEnabled()) {
-                    log.info("getSchemas received SchemasRequestDTO: {}", scramblePassword(JsonMapper.encodePretty(schemasRequestDTO)));
-                }
+                log.info("getSchemas received SchemasRequestDTO: {}", LoggablePayload.of(schemasRequestDTO));
 
                 if (schemasRequestDTO.getAuthenticationDTO() != null &&
                         schemasRequestDTO.getAuthenticationDTO().getGroupId() != null) {
@@ -403,13 +512,8 @@ public class UpdateServiceCore {
                 schemasResponseDTO.setError(true);
                 return schemasResponseDTO;
             } finally {
-                try {
-                    if (log.isInfoEnabled()) {
-                        log.info("getSchemas returning SchemasResponseDTO: {}", scramblePassword(JsonMapper.encodePretty(schemasResponseDTO)));
-                    }
-                } catch (IOException e) {
-                    log.info("getSchemas returning SchemasResponseDTO: {}", schemasResponseDTO);
-                }
+                log.info("getSchemas returning SchemasResponseDTO: {}", LoggablePayload.of(schemasResponseDTO));
+                payloadLogger.log("getSchemas", schemasRequestDTO, schemasResponseDTO, System.currentTimeMillis() - watch.getStartTime());
                 watch.stop(GET_SCHEMAS_WATCHTAG);
             }
         });
@@ -431,7 +535,7 @@ public class UpdateServiceCore {
                 final int agencyId = Integer.parseInt(recordReader.getValue("001", 'b'));
                 if (rawRepo.recordExists(recordId, agencyId)) {
                     final MarcRecord oldRecord = loadRecord(recordId, agencyId);
-                    final Set<Integer> holdingAgencies = holdingsItems.getAgenciesWithHoldings(recordId);
+                    final Set<Integer> holdingAgencies = new HoldingsItemsCache(holdingsItems).getAgenciesWithHoldings(recordId);
                     if (!holdingAgencies.isEmpty()) {
                         final List<String> classificationsChangedMessages = new ArrayList<>();
                         if (libraryRecordsHandler.hasClassificationsChanged(oldRecord, marcRecord, classificationsChangedMessages) &&
@@ -485,6 +589,7 @@ public class UpdateServiceCore {
                         serviceResult = DoubleRecordFrontendStatusDTOToServiceResult(doubleRecordFrontendStatusDTO);
                     } finally {
                         watch.stop();
+                        CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
                     }
                 } else {
                     serviceResult = ServiceResult.newOkResult();
@@ -576,7 +681,7 @@ public class UpdateServiceCore {
             for (DoubleRecordFrontendDTO doubleRecordFrontendDTO : doubleRecordFrontendStatusDTO.getDoubleRecordFrontendDTOs()) {
                 result.addServiceResult(ServiceResult.newDoubleRecordErrorResult(UpdateStatusEnumDTO.FAILED, doubleRecordFrontendDTO));
             }
-            result.setDoubleRecordKey(updateStore.getNewDoubleRecordKey());
+            result.setDoubleRecordKey(CostLedger.timed(CostLedger.Dependency.UPDATE_STORE, () -> updateStore.getNewDoubleRecordKey()));
         } else {
             String msg = "Unknown error";
             if (doubleRecordFrontendStatusDTO.getDoubleRecordFrontendDTOs() != null && !doubleRecordFrontendStatusDTO.getDoubleRecordFrontendDTOs().isEmpty()) {
@@ -1,6 +1,7 @@
 package dk.dbc.updateservice.update;
 
 import dk.dbc.updateservice.entities.DpkOverride;
+import dk.dbc.updateservice.entities.NumberRollPoolEntry;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import jakarta.ejb.Stateless;
 import jakarta.ejb.TransactionAttribute;
@@ -12,6 +13,7 @@ import jakarta.persistence.PersistenceContext;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -22,8 +24,12 @@ import java.util.UUID;
 public class UpdateStore {
     private static final DeferredLogger LOGGER = new DeferredLogger(UpdateStore.class);
 
+    static final String TAKE_ROLL_NUMBER_QUERY = "DELETE FROM number_roll_pool WHERE ctid = " +
+            "(SELECT ctid FROM number_roll_pool WHERE roll_name = ? ORDER BY created_dtm FOR UPDATE SKIP LOCKED LIMIT 1) " +
+            "RETURNING roll_number";
+
     @PersistenceContext
-    private EntityManager entityManager;
+    EntityManager entityManager;
 
     public String getNewDoubleRecordKey() {
         final String uuid = UUID.randomUUID().toString();
@@ -53,4 +59,47 @@ public class UpdateStore {
             return false;
         });
     }
+
+    /**
+     * Adds a number drawn from the number roll to the pool of unused numbers.
+     *
+     * @param rollName   Name of the number roll.
+     * @param rollNumber The unused number.
+     */
+    public void addRollNumber(String rollName, String rollNumber) {
+        final NumberRollPoolEntry entry = new NumberRollPoolEntry();
+        entry.setRollName(rollName);
+        entry.setRollNumber(rollNumber);
+        entry.setCreatedDtm(new Date());
+        entityManager.persist(entry);
+    }
+
+    /**
+     * Takes the oldest unused number from the pool. The number is removed from the pool when the transaction commits,
+     * so the same number is never handed out twice.
+     * <p/>
+     * Numbers locked by concurrent takers are skipped instead of waited for, so concurrent takers each get their own
+     * number rather than queueing up on the oldest one and finding it gone.
+     *
+     * @param rollName Name of the number roll.
+     * @return The number or <code>null</code> if the pool is empty.
+     */
+    public String takeRollNumber(String rollName) {
+        @SuppressWarnings("unchecked")
+        final List<String> numbers = entityManager.createNativeQuery(TAKE_ROLL_NUMBER_QUERY)
+                .setParameter(1, rollName)
+                .getResultList();
+        if (numbers.isEmpty()) {
+            return null;
+        }
+        final String number = numbers.get(0);
+        LOGGER.use(l -> l.debug("Took {} from the {} number roll pool", number, rollName));
+        return number;
+    }
+
+    public long countRollNumbers(String rollName) {
+        return entityManager.createNamedQuery(NumberRollPoolEntry.COUNT_BY_ROLL_NAME, Long.class)
+                .setParameter("rollName", rollName)
+                .getSingleResult();
+    }
 }
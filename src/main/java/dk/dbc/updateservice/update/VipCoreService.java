@@ -2,20 +2,26 @@ package dk.dbc.updateservice.update;
 
 import dk.dbc.rawrepo.RawRepoException;
 import dk.dbc.rawrepo.RelationHintsVipCore;
+import dk.dbc.updateservice.utils.CostLedger;
 import dk.dbc.updateservice.utils.DeferredLogger;
 import dk.dbc.vipcore.exception.VipCoreException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
 import dk.dbc.vipcore.marshallers.LibraryRule;
 import dk.dbc.vipcore.marshallers.LibraryRules;
 import dk.dbc.vipcore.marshallers.LibraryRulesRequest;
+import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import org.perf4j.StopWatch;
 import org.perf4j.log4j.Log4JStopWatch;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static dk.dbc.updateservice.rest.ApplicationConfig.LOG_DURATION_THRESHOLD_MS;
@@ -28,6 +34,9 @@ public class VipCoreService {
     @Inject
     private VipCoreLibraryRulesConnector vipCoreLibraryRulesConnector;
 
+    @EJB
+    private LibraryRulesCache libraryRulesCache;
+
     /**
      * Could be more effectve with a variant of hasFeature that checks for the two states
      * but the code look cleaner, and we imagine that the cache will be fast.
@@ -60,7 +69,7 @@ public class VipCoreService {
     public boolean hasFeature(String agencyId, VipCoreLibraryRulesConnector.Rule feature) throws VipCoreException {
         final StopWatch watch = new Log4JStopWatch("service.vipcore.hasFeature").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         try {
-            final LibraryRules libraryRules = vipCoreLibraryRulesConnector.getLibraryRulesByAgencyId(agencyId);
+            final LibraryRules libraryRules = libraryRulesCache.getLibraryRules(agencyId);
             return LOGGER.call(log -> {
                 for (LibraryRule libraryRule : libraryRules.getLibraryRule()) {
                     if (libraryRule.getName().equals(feature.getValue())) {
@@ -77,10 +86,70 @@ public class VipCoreService {
         }
     }
 
+    /**
+     * Finds the features a number of agencies have, e.g. for all libraries with holdings on a record. The library
+     * rules of the agencies are looked up at once, so agencies missing in the cache are fetched from vipcore in
+     * parallel instead of one call at a time.
+     *
+     * @param agencyIds The agencies to check.
+     * @param features  The features to check for.
+     * @return The features each agency has. Every agency is in the map, with an empty set if it has none of the features.
+     * @throws VipCoreException something went horribly wrong in the call to vipcore
+     */
+    public Map<String, Set<VipCoreLibraryRulesConnector.Rule>> getFeatures(Collection<String> agencyIds, Set<VipCoreLibraryRulesConnector.Rule> features) throws VipCoreException {
+        final StopWatch watch = new Log4JStopWatch("service.vipcore.getFeatures").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        try {
+            final Map<String, LibraryRules> libraryRulesByAgency = libraryRulesCache.getLibraryRules(agencyIds);
+            final Map<String, Set<VipCoreLibraryRulesConnector.Rule>> result = new HashMap<>();
+            for (Map.Entry<String, LibraryRules> entry : libraryRulesByAgency.entrySet()) {
+                final Set<VipCoreLibraryRulesConnector.Rule> agencyFeatures = EnumSet.noneOf(VipCoreLibraryRulesConnector.Rule.class);
+                for (VipCoreLibraryRulesConnector.Rule feature : features) {
+                    if (hasFeature(entry.getValue(), feature)) {
+                        agencyFeatures.add(feature);
+                    }
+                }
+                result.put(entry.getKey(), agencyFeatures);
+            }
+            LOGGER.use(log -> log.debug("Features {} for agencies: {}", features, result));
+
+            return result;
+        } finally {
+            watch.stop();
+        }
+    }
+
+    /**
+     * Finds the agencies which have a feature, see {@link #getFeatures(Collection, Set)}.
+     *
+     * @param agencyIds The agencies to check.
+     * @param feature   The feature to check for.
+     * @return The agencies from agencyIds which have the feature.
+     * @throws VipCoreException something went horribly wrong in the call to vipcore
+     */
+    public Set<String> getAgenciesWithFeature(Collection<String> agencyIds, VipCoreLibraryRulesConnector.Rule feature) throws VipCoreException {
+        final Set<String> result = new HashSet<>();
+        for (Map.Entry<String, Set<VipCoreLibraryRulesConnector.Rule>> entry : getFeatures(agencyIds, EnumSet.of(feature)).entrySet()) {
+            if (entry.getValue().contains(feature)) {
+                result.add(entry.getKey());
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean hasFeature(LibraryRules libraryRules, VipCoreLibraryRulesConnector.Rule feature) {
+        for (LibraryRule libraryRule : libraryRules.getLibraryRule()) {
+            if (libraryRule.getName().equals(feature.getValue()) && libraryRule.getBool() != null) {
+                return libraryRule.getBool();
+            }
+        }
+        return false;
+    }
+
     public LibraryGroup getLibraryGroup(String agencyId) throws VipCoreException, UpdateException {
         final StopWatch watch = new Log4JStopWatch("service.vipcore.getLibraryGroup").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         try {
-            final LibraryRules libraryRules = vipCoreLibraryRulesConnector.getLibraryRulesByAgencyId(agencyId);
+            final LibraryRules libraryRules = libraryRulesCache.getLibraryRules(agencyId);
             String ruleGroupName = libraryRules.getLibraryRule().stream()
                     .filter(libraryRule -> libraryRule.getName().equals(VipCoreLibraryRulesConnector.Rule.CATALOGING_TEMPLATE_SET.getValue()))
                     .findFirst()
@@ -98,7 +167,7 @@ public class VipCoreService {
     public String getTemplateGroup(String agencyId) throws VipCoreException, UpdateException {
         StopWatch watch = new Log4JStopWatch("service.vipcore.getTemplateGroup").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         try {
-            final LibraryRules libraryRules = vipCoreLibraryRulesConnector.getLibraryRulesByAgencyId(agencyId);
+            final LibraryRules libraryRules = libraryRulesCache.getLibraryRules(agencyId);
             return LOGGER.callChecked(log -> {
                 for (LibraryRule libraryRule : libraryRules.getLibraryRule()) {
                     if (libraryRule.getName().equals(VipCoreLibraryRulesConnector.Rule.CATALOGING_TEMPLATE_SET.getValue())) {
@@ -134,7 +203,13 @@ public class VipCoreService {
         final LibraryRulesRequest request = new LibraryRulesRequest();
         request.setLibraryRule(Collections.singletonList(libraryRule));
 
-        return vipCoreLibraryRulesConnector.getLibraries(request);
+        final StopWatch watch = new Log4JStopWatch("service.vipcore.getLibraries").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
+        try {
+            return vipCoreLibraryRulesConnector.getLibraries(request);
+        } finally {
+            watch.stop();
+            CostLedger.call(CostLedger.Dependency.VIPCORE, watch.getElapsedTime());
+        }
     }
 
 
@@ -142,7 +217,7 @@ public class VipCoreService {
         final StopWatch watch = new Log4JStopWatch("service.vipcore.getAllowedLibraryRules").setTimeThreshold(LOG_DURATION_THRESHOLD_MS);
         final Set<String> result = new HashSet<>();
         try {
-            final LibraryRules libraryRules = vipCoreLibraryRulesConnector.getLibraryRulesByAgencyId(agencyId);
+            final LibraryRules libraryRules = libraryRulesCache.getLibraryRules(agencyId);
 
             for (LibraryRule libraryRule : libraryRules.getLibraryRule()) {
                 if (libraryRule.getBool() != null && libraryRule.getBool()) {
@@ -0,0 +1,121 @@
+package dk.dbc.updateservice.utils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands at most a fixed number of tasks at a time to another executor and runs further tasks on the calling thread.
+ * <p/>
+ * The container managed executors can't be given a bound or a rejection policy by the application, so this is put in
+ * front of them. A busy executor then slows the caller down to sequential execution instead of queueing without
+ * bounds or failing. Tasks rejected by the executor are run on the calling thread as well.
+ * <p/>
+ * Shutting this executor down only stops it from accepting new tasks, the executor behind it belongs to its owner,
+ * usually the container. Tasks are never queued here, so there is nothing for {@link #shutdownNow()} to return, and
+ * the executor terminates when the tasks it has handed over have finished.
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+    private final Executor executor;
+    private final Semaphore permits;
+    private final Object lock = new Object();
+    private boolean shutdown = false;
+    private int running = 0;
+
+    /**
+     * @param executor The executor to hand the tasks to.
+     * @param maxTasks The number of tasks which may be handed to the executor at a time.
+     */
+    public BoundedExecutor(Executor executor, int maxTasks) {
+        if (maxTasks <= 0) {
+            throw new IllegalArgumentException("maxTasks must be positive");
+        }
+        this.executor = executor;
+        this.permits = new Semaphore(maxTasks);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (lock) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The executor has been shut down");
+            }
+            running++;
+        }
+        if (!permits.tryAcquire()) {
+            runTask(command);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    runTask(command);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            permits.release();
+            runTask(command);
+        }
+    }
+
+    private void runTask(Runnable command) {
+        try {
+            command.run();
+        } finally {
+            synchronized (lock) {
+                running--;
+                if (running == 0) {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (lock) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (lock) {
+            return shutdown && running == 0;
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!(shutdown && running == 0)) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package dk.dbc.updateservice.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Counts what a single request costs in calls to the services and databases updateservice depends on.
+ * <p/>
+ * A ledger is started for the current thread when a request arrives, and the classes talking to a dependency report
+ * each call with the static methods in this class. When no ledger is started, e.g. for background work, the reports
+ * are ignored. Work done for the request on other threads must attach the ledger of the request to the thread, see
+ * {@link #current()} and {@link #attach(CostLedger)}.
+ * <p/>
+ * Calls made concurrently are all counted with their full duration, so the time of a dependency can be longer than
+ * the request itself.
+ * <p/>
+ * A part of the request, e.g. a single action, can be counted on its own with {@link #startChild()}. The calls made
+ * while the child is current are counted in both the child and the ledger of the request.
+ */
+public class CostLedger {
+    private static final ThreadLocal<CostLedger> CURRENT = new ThreadLocal<>();
+
+    public enum Dependency {
+        RAWREPO("rawrepo"),
+        UPDATE_STORE("updatestore"),
+        VIPCORE("vipcore"),
+        OPENCAT_BUSINESS("opencatbusiness"),
+        HOLDINGS_ITEMS("holdingsitems"),
+        SOLR("solr"),
+        METAKOMPAS("metakompas");
+
+        private final String key;
+
+        Dependency(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private static class Cost {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong timeMs = new AtomicLong();
+        private final AtomicLong bytesDecoded = new AtomicLong();
+        private final AtomicLong bytesEncoded = new AtomicLong();
+        private final AtomicLong records = new AtomicLong();
+    }
+
+    private final Cost[] costs = new Cost[Dependency.values().length];
+    private final CostLedger parent;
+
+    CostLedger() {
+        this(null);
+    }
+
+    private CostLedger(CostLedger parent) {
+        this.parent = parent;
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = new Cost();
+        }
+    }
+
+    /**
+     * Starts a new ledger for the current thread, replacing any ledger already started.
+     *
+     * @return The new ledger.
+     */
+    public static CostLedger start() {
+        final CostLedger ledger = new CostLedger();
+        CURRENT.set(ledger);
+
+        return ledger;
+    }
+
+    /**
+     * Starts a new ledger for the current thread which also reports to the ledger already started, if any. The caller
+     * must make the previous ledger current again when done, see {@link #attach(CostLedger)}.
+     *
+     * @return The new ledger.
+     */
+    public static CostLedger startChild() {
+        final CostLedger ledger = new CostLedger(CURRENT.get());
+        CURRENT.set(ledger);
+
+        return ledger;
+    }
+
+    /**
+     * Stops the ledger of the current thread. Further reports from the thread are ignored.
+     */
+    public static void stop() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return The ledger of the current thread, or null if none is started.
+     */
+    public static CostLedger current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes the current thread report to a ledger started on another thread.
+     *
+     * @param ledger The ledger, or null to stop reporting.
+     */
+    public static void attach(CostLedger ledger) {
+        if (ledger == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(ledger);
+        }
+    }
+
+    /**
+     * Reports a call to a dependency.
+     *
+     * @param dependency The dependency.
+     * @param timeMs     The duration of the call.
+     */
+    public static void call(Dependency dependency, long timeMs) {
+        for (CostLedger ledger = CURRENT.get(); ledger != null; ledger = ledger.parent) {
+            final Cost cost = ledger.costs[dependency.ordinal()];
+            cost.calls.incrementAndGet();
+            cost.timeMs.addAndGet(timeMs);
+        }
+    }
+
+    /**
+     * Makes a call to a dependency and reports it.
+     *
+     * @param dependency The dependency.
+     * @param call       The call.
+     * @return The result of the call.
+     */
+    public static <T> T timed(Dependency dependency, Supplier<T> call) {
+        final long start = System.currentTimeMillis();
+        try {
+            return call.get();
+        } finally {
+            call(dependency, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Makes a call without a result to a dependency and reports it.
+     *
+     * @param dependency The dependency.
+     * @param call       The call.
+     */
+    public static void timed(Dependency dependency, Runnable call) {
+        final long start = System.currentTimeMillis();
+        try {
+            call.run();
+        } finally {
+            call(dependency, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Reports records read from or written to a dependency.
+     *
+     * @param dependency The dependency.
+     * @param count      Number of records.
+     */
+    public static void records(Dependency dependency, long count) {
+        for (CostLedger ledger = CURRENT.get(); ledger != null; ledger = ledger.parent) {
+            ledger.costs[dependency.ordinal()].records.addAndGet(count);
+        }
+    }
+
+    /**
+     * Reports bytes received from a dependency and decoded.
+     *
+     * @param dependency The dependency.
+     * @param bytes      Number of bytes.
+     */
+    public static void bytesDecoded(Dependency dependency, long bytes) {
+        for (CostLedger ledger = CURRENT.get(); ledger != null; ledger = ledger.parent) {
+            ledger.costs[dependency.ordinal()].bytesDecoded.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Reports bytes encoded and sent to a dependency.
+     *
+     * @param dependency The dependency.
+     * @param bytes      Number of bytes.
+     */
+    public static void bytesEncoded(Dependency dependency, long bytes) {
+        for (CostLedger ledger = CURRENT.get(); ledger != null; ledger = ledger.parent) {
+            ledger.costs[dependency.ordinal()].bytesEncoded.addAndGet(bytes);
+        }
+    }
+
+    public long getCalls(Dependency dependency) {
+        return costs[dependency.ordinal()].calls.get();
+    }
+
+    public long getTimeMs(Dependency dependency) {
+        return costs[dependency.ordinal()].timeMs.get();
+    }
+
+    public long getBytesDecoded(Dependency dependency) {
+        return costs[dependency.ordinal()].bytesDecoded.get();
+    }
+
+    public long getBytesEncoded(Dependency dependency) {
+        return costs[dependency.ordinal()].bytesEncoded.get();
+    }
+
+    public long getRecords(Dependency dependency) {
+        return costs[dependency.ordinal()].records.get();
+    }
+
+    /**
+     * @return The number of calls by dependency key, for the dependencies which were called.
+     */
+    public Map<String, Long> getCallsByDependency() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Dependency dependency : Dependency.values()) {
+            if (getCalls(dependency) > 0) {
+                result.put(dependency.getKey(), getCalls(dependency));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The time spent in calls by dependency key, for the dependencies which were called.
+     */
+    public Map<String, Long> getTimeMsByDependency() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Dependency dependency : Dependency.values()) {
+            if (getCalls(dependency) > 0) {
+                result.put(dependency.getKey(), getTimeMs(dependency));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Formats the ledger as the value of a Server-Timing header with one metric per dependency which was called, e.g.
+     * <pre>rawrepo;desc="12 calls, 4 records";dur=35, vipcore;desc="1 calls";dur=3</pre>
+     *
+     * @return The header value, empty if no dependency was called.
+     */
+    public String toServerTiming() {
+        final StringBuilder result = new StringBuilder();
+        for (Dependency dependency : Dependency.values()) {
+            final long calls = getCalls(dependency);
+            if (calls == 0) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(dependency.getKey())
+                    .append(";desc=\"").append(calls).append(" calls");
+            final long records = getRecords(dependency);
+            if (records > 0) {
+                result.append(", ").append(records).append(" records");
+            }
+            result.append("\";dur=").append(getTimeMs(dependency));
+        }
+
+        return result.toString();
+    }
+}
@@ -5,8 +5,9 @@ import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.LoggingEvent;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -16,16 +17,22 @@ import java.util.function.Function;
  * Per default this logger will defer statements for trace, debug and info, until a warning or an error is logged,
  * upon which all buffered statements for the context will be logged.
  * Since this logging context would pollute stacktraces heavily, it filters itself out of the logged stacktraces
+ * <p/>
+ * Most requests succeed, so most deferred statements are never logged. Deferred statements are therefore kept as the
+ * format string and argument references in a per thread ring buffer which is allocated once and reused. The message is
+ * formatted and the stacktrace cleaned only if the statement is logged. Arguments are formatted when the buffer is
+ * flushed, so objects which are changed after being passed to a deferred statement are logged in their later state.
  */
 public class DeferredLogger {
     public static final boolean DEFER_ENABLED = Boolean.parseBoolean(System.getProperty("DEFER_ENABLED", "true"));
+    private static final int DEFAULT_EVENT_LIMIT = 100;
     public final Set<Level> deferring;
     public final Logger logger;
     public final int eventLimit;
-    private static final ThreadLocal<LinkedList<LoggingEvent>> deferredLogs = new ThreadLocal<>();
+    private static final ThreadLocal<DeferredEvents> deferredLogs = ThreadLocal.withInitial(DeferredEvents::new);
 
     public DeferredLogger(Class<?> clazz) {
-        this(clazz, 100, Level.TRACE, Level.DEBUG, Level.INFO);
+        this(clazz, DEFAULT_EVENT_LIMIT, Level.TRACE, Level.DEBUG, Level.INFO);
     }
 
     public DeferredLogger(Class<?> clazz, int eventLimit, Level... deferringLevels) {
@@ -38,11 +45,11 @@ public class DeferredLogger {
      * Creates a logging context that returns a value
      */
     public <T> T call(Function<Context, T> c) {
-        Context context = new Context(deferredLogs.get() == null);
+        Context context = new Context(!deferredLogs.get().isOpen());
         try {
             return c.apply(context);
         } finally {
-            if (context.owner) deferredLogs.remove();
+            if (context.owner) deferredLogs.get().close();
         }
     }
 
@@ -50,11 +57,11 @@ public class DeferredLogger {
      * Creates a logging context that returns a value for a block with a checked exception
      */
     public <T, E extends Exception> T callChecked(SpicyFunction<T, E> f) throws E {
-        Context context = new Context(deferredLogs.get() == null);
+        Context context = new Context(!deferredLogs.get().isOpen());
         try {
             return f.apply(context);
         } finally {
-            if (context.owner) deferredLogs.remove();
+            if (context.owner) deferredLogs.get().close();
         }
     }
 
@@ -64,11 +71,11 @@ public class DeferredLogger {
      * &lt;Void, Exception1, Exception2&gt;callChecked2(log -&gt; {some crazy code})
      */
     public <R, E1 extends Exception, E2 extends Exception> R callChecked2(SpicyFunction2<R, E1, E2> f) throws E1, E2 {
-        Context context = new Context(deferredLogs.get() == null);
+        Context context = new Context(!deferredLogs.get().isOpen());
         try {
             return f.apply(context);
         } finally {
-            if (context.owner) deferredLogs.remove();
+            if (context.owner) deferredLogs.get().close();
         }
     }
 
@@ -82,14 +89,49 @@ public class DeferredLogger {
         });
     }
 
+    /**
+     * Takes the statements deferred by the current thread, leaving its buffer empty. Used when work done on another
+     * thread is part of a request, so the statements can be handed to the thread of the request with
+     * {@link #addDeferred(Deferred)}.
+     */
+    public static Deferred takeDeferred() {
+        final List<DeferredEvent> events = new ArrayList<>();
+        deferredLogs.get().flush(event -> events.add(event.copy()));
+
+        return new Deferred(events);
+    }
+
+    /**
+     * Adds statements taken from another thread to the deferred statements of the current thread, so they are logged
+     * if the current thread later logs a warning or an error. Nothing is added if the current thread doesn't defer.
+     */
+    public static void addDeferred(Deferred deferred) {
+        final DeferredEvents buffer = deferredLogs.get();
+        if (!buffer.isOpen()) return;
+        for (DeferredEvent event : deferred.events) {
+            buffer.add(event, Math.max(buffer.events.length, DEFAULT_EVENT_LIMIT));
+        }
+    }
+
     public static boolean traceFilter(StackTraceElement stackTraceElement) {
         return !DeferredLogger.class.getName().equals(stackTraceElement.getClassName());
     }
 
-    private StackTraceElement[] cleanStackTrace(StackTraceElement[] stackTraceElements) {
+    private static StackTraceElement[] cleanStackTrace(StackTraceElement[] stackTraceElements) {
         return Arrays.stream(stackTraceElements).filter(DeferredLogger::traceFilter).toArray(StackTraceElement[]::new);
     }
 
+    /**
+     * Statements deferred by one thread, see {@link #takeDeferred()}
+     */
+    public static final class Deferred {
+        private final List<DeferredEvent> events;
+
+        private Deferred(List<DeferredEvent> events) {
+            this.events = events;
+        }
+    }
+
     /**
      * A Function with a checked exception
      */
@@ -112,7 +154,7 @@ public class DeferredLogger {
 
         public Context(boolean owner) {
             this.owner = owner;
-            if(owner) deferredLogs.set(new LinkedList<>());
+            if(owner) deferredLogs.get().open();
         }
 
         @Override
@@ -133,30 +175,137 @@ public class DeferredLogger {
         @Override
         public void log(Level level, String msg, Object[] params, Throwable t, boolean deferrable) {
             if(!logger.isEnabledFor(level)) return;
-            if(t != null) {
-                t.setStackTrace(cleanStackTrace(t.getStackTrace()));
-            }
-            LoggingEvent le = new FilteredLoggingEvent(DeferredLogger.class.getName(), logger, level, msg, t, params);
             if(!DEFER_ENABLED) {
-                logger.callAppenders(le);
+                logger.callAppenders(createLoggingEvent(logger, level, msg, params, t));
                 return;
             }
             boolean deferredLevel = deferring.contains(level);
             if(deferrable && deferredLevel) {
-                LinkedList<LoggingEvent> events = deferredLogs.get();
-                events.add(le);
-                if(events.size() > eventLimit) events.removeFirst();
+                deferredLogs.get().add(logger, level, msg, params, t, eventLimit);
             } else {
                 if(!deferredLevel) logDeferred();
+                logger.callAppenders(createLoggingEvent(logger, level, msg, params, t));
+            }
+        }
+
+        private void logDeferred() {
+            deferredLogs.get().flush(event -> {
+                final LoggingEvent le = createLoggingEvent(event.logger, event.level, event.msg, event.params, event.t);
+                le.setTimeStamp(event.timeStamp);
                 logger.callAppenders(le);
+            });
+        }
+    }
+
+    private LoggingEvent createLoggingEvent(Logger eventLogger, Level level, String msg, Object[] params, Throwable t) {
+        if(t != null) {
+            t.setStackTrace(cleanStackTrace(t.getStackTrace()));
+        }
+        return new FilteredLoggingEvent(DeferredLogger.class.getName(), eventLogger, level, msg, t, params);
+    }
+
+    /**
+     * A deferred statement. The slots of the ring buffer are reused, so the fields are overwritten by later statements
+     */
+    private static final class DeferredEvent {
+        private Logger logger;
+        private Level level;
+        private String msg;
+        private Object[] params;
+        private Throwable t;
+        private long timeStamp;
+
+        private void set(Logger logger, Level level, String msg, Object[] params, Throwable t) {
+            set(logger, level, msg, params, t, System.currentTimeMillis());
+        }
+
+        private void set(Logger logger, Level level, String msg, Object[] params, Throwable t, long timeStamp) {
+            this.logger = logger;
+            this.level = level;
+            this.msg = msg;
+            this.params = params;
+            this.t = t;
+            this.timeStamp = timeStamp;
+        }
+
+        private DeferredEvent copy() {
+            final DeferredEvent copy = new DeferredEvent();
+            copy.set(logger, level, msg, params, t, timeStamp);
+            return copy;
+        }
+
+        private void clear() {
+            set(null, null, null, null, null);
+        }
+    }
+
+    /**
+     * The deferred statements of a thread, kept in a ring buffer of preallocated slots. When the buffer is full the
+     * oldest statement is overwritten. The buffer grows once if a logger with a larger event limit uses it.
+     */
+    private static final class DeferredEvents {
+        private DeferredEvent[] events = new DeferredEvent[0];
+        private int first = 0;
+        private int size = 0;
+        private boolean open = false;
+
+        private boolean isOpen() {
+            return open;
+        }
+
+        private void open() {
+            open = true;
+        }
+
+        /**
+         * Forgets all statements, without keeping references to their arguments, and closes the buffer.
+         */
+        private void close() {
+            flush(event -> {});
+            open = false;
+        }
+
+        private void add(Logger logger, Level level, String msg, Object[] params, Throwable t, int limit) {
+            if(limit <= 0) return;
+            nextSlot(limit).set(logger, level, msg, params, t);
+        }
+
+        private void add(DeferredEvent event, int limit) {
+            nextSlot(limit).set(event.logger, event.level, event.msg, event.params, event.t, event.timeStamp);
+        }
+
+        private DeferredEvent nextSlot(int limit) {
+            ensureCapacity(limit);
+            while(size >= limit) {
+                events[first].clear();
+                first = (first + 1) % events.length;
+                size--;
             }
+            size++;
+            return events[(first + size - 1) % events.length];
         }
 
+        private void flush(Consumer<DeferredEvent> consumer) {
+            for(int i = 0; i < size; i++) {
+                final DeferredEvent event = events[(first + i) % events.length];
+                consumer.accept(event);
+                event.clear();
+            }
+            first = 0;
+            size = 0;
+        }
 
-        private void logDeferred() {
-            LinkedList<LoggingEvent> events = deferredLogs.get();
-            events.forEach(logger::callAppenders);
-            events.clear();
+        private void ensureCapacity(int capacity) {
+            if(capacity <= events.length) return;
+            final DeferredEvent[] grown = new DeferredEvent[capacity];
+            for(int i = 0; i < size; i++) {
+                grown[i] = events[(first + i) % events.length];
+            }
+            for(int i = size; i < capacity; i++) {
+                grown[i] = new DeferredEvent();
+            }
+            events = grown;
+            first = 0;
         }
     }
 
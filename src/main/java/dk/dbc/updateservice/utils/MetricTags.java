@@ -0,0 +1,148 @@
+package dk.dbc.updateservice.utils;
+
+import dk.dbc.commons.jsonb.JSONBException;
+import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
+import dk.dbc.rawrepo.RawRepoException;
+import dk.dbc.updateservice.update.SolrException;
+import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.vipcore.exception.VipCoreException;
+
+import java.net.SocketTimeoutException;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Tag values for metrics.
+ * <p/>
+ * Every distinct combination of tag values is a metric series which lives in the registry until the service is
+ * restarted, so tags must never be set directly from exception messages or request input. Errors are tagged with one
+ * of a fixed set of error types, and other values, e.g. schema names and group ids, are bounded by a {@link Bounded}
+ * which only accepts a limited number of distinct values and reports the rest as {@link #OTHER}.
+ */
+public class MetricTags {
+    public static final String OTHER = "other";
+    public static final String UNKNOWN = "unknown";
+
+    static final String INVALID_ARGUMENT = "invalid_argument";
+    static final String INVALID_STATE = "invalid_state";
+    static final String NULL_POINTER = "null_pointer";
+    static final String TIMEOUT = "timeout";
+    static final String DATABASE = "database";
+    static final String RAWREPO = "rawrepo";
+    static final String SOLR = "solr";
+    static final String VIPCORE = "vipcore";
+    static final String OPENCAT_BUSINESS = "opencat_business";
+    static final String JSON = "json";
+    static final String UPDATE = "update";
+
+    // Causes are followed this far when looking for a known exception
+    private static final int MAX_CAUSE_DEPTH = 5;
+
+    private MetricTags() {
+
+    }
+
+    /**
+     * Maps an exception to one of a fixed set of error types.
+     * <p/>
+     * The exception is classified by its type. If the type isn't known its causes are tried, so e.g. an UpdateException
+     * caused by an SQLException is reported as a database error.
+     *
+     * @param throwable The exception.
+     * @return The error type.
+     */
+    public static String errorType(Throwable throwable) {
+        Throwable current = throwable;
+        for (int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            final String errorType = classify(current);
+            if (errorType != null) {
+                return errorType;
+            }
+            current = current.getCause();
+        }
+
+        return throwable instanceof UpdateException ? UPDATE : OTHER;
+    }
+
+    private static String classify(Throwable throwable) {
+        if (throwable instanceof TimeoutException || throwable instanceof SocketTimeoutException) {
+            return TIMEOUT;
+        }
+        if (throwable instanceof SQLException) {
+            return DATABASE;
+        }
+        if (throwable instanceof RawRepoException) {
+            return RAWREPO;
+        }
+        if (throwable instanceof SolrException) {
+            return SOLR;
+        }
+        if (throwable instanceof VipCoreException) {
+            return VIPCORE;
+        }
+        if (throwable instanceof OpencatBusinessConnectorException) {
+            return OPENCAT_BUSINESS;
+        }
+        if (throwable instanceof JSONBException) {
+            return JSON;
+        }
+        if (throwable instanceof IllegalArgumentException) {
+            return INVALID_ARGUMENT;
+        }
+        if (throwable instanceof IllegalStateException) {
+            return INVALID_STATE;
+        }
+        if (throwable instanceof NullPointerException) {
+            return NULL_POINTER;
+        }
+
+        return null;
+    }
+
+    /**
+     * Bounds the number of distinct values of a tag. The first <code>maxValues</code> distinct values are used as they
+     * are, later values are reported as {@link #OTHER}. Values which don't look like a value of the tag at all are
+     * reported as {@link #OTHER} without using up a place.
+     */
+    public static class Bounded {
+        private final Pattern pattern;
+        private final int maxValues;
+        private final Set<String> values = ConcurrentHashMap.newKeySet();
+
+        /**
+         * @param pattern   Regular expression matching valid values of the tag.
+         * @param maxValues Maximum number of distinct values.
+         */
+        public Bounded(String pattern, int maxValues) {
+            this.pattern = Pattern.compile(pattern);
+            this.maxValues = maxValues;
+        }
+
+        public String of(String value) {
+            if (value == null) {
+                return UNKNOWN;
+            }
+            if (values.contains(value)) {
+                return value;
+            }
+            if (!pattern.matcher(value).matches()) {
+                return OTHER;
+            }
+            synchronized (values) {
+                if (values.size() < maxValues) {
+                    values.add(value);
+                    return value;
+                }
+            }
+
+            return OTHER;
+        }
+
+        public int size() {
+            return values.size();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import dk.dbc.opencat.connector.OpencatBusinessConnector;
 import dk.dbc.opencat.connector.OpencatBusinessConnectorException;
 import dk.dbc.updateservice.dto.SchemaDTO;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.CostLedger;
 import jakarta.ejb.Stateless;
 import jakarta.inject.Inject;
 import org.perf4j.StopWatch;
@@ -39,6 +40,7 @@ public class Validator {
             throw new UpdateException("Error when executing OpencatBusinessConnector function: getValidateSchemas", ex);
         } finally {
             watch.stop();
+            CostLedger.call(CostLedger.Dependency.OPENCAT_BUSINESS, watch.getElapsedTime());
         }
     }
 }
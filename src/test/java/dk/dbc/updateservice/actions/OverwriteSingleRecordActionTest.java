@@ -4,8 +4,10 @@ import dk.dbc.common.records.MarcRecordWriter;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.marcxmerge.MarcXChangeMimeType;
 import dk.dbc.rawrepo.RecordId;
+import dk.dbc.updateservice.update.JNDIResources;
 import dk.dbc.updateservice.update.LibraryGroup;
 import dk.dbc.updateservice.update.RawRepo;
+import dk.dbc.updateservice.update.RecordDiff;
 import dk.dbc.updateservice.update.UpdateException;
 import dk.dbc.updateservice.update.UpdateRecordContentTransformer;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
@@ -15,6 +17,7 @@ import org.junit.jupiter.api.Test;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
@@ -23,6 +26,10 @@ import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class OverwriteSingleRecordActionTest {
@@ -94,6 +101,85 @@ class OverwriteSingleRecordActionTest {
         AssertActionsUtil.assertEnqueueRecordAction(children.get(3), state.getRawRepo(), record, settings.getProperty(state.getRawRepoProviderId()));
     }
 
+    @Test
+    void testPerformAction_UnchangedRecord() throws Exception {
+        final MarcRecord currentRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        new MarcRecordWriter(currentRecord).addOrReplaceSubField("001", 'c', "20240101120000");
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        // Same fields, but not sorted
+        record.getFields().add(record.getFields().remove(1));
+        final String recordId = AssertActionsUtil.getBibliographicRecordId(record);
+        final int agencyId = AssertActionsUtil.getAgencyIdAsInt(record);
+
+        state.setMarcRecord(record);
+        settings.setProperty(JNDIResources.UPDATE_SKIP_UNCHANGED_RECORDS, "true");
+        when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(true);
+        when(state.getRawRepo().fetchRecord(recordId, agencyId)).thenReturn(AssertActionsUtil.createRawRepoRecord(currentRecord, MarcXChangeMimeType.MARCXCHANGE));
+
+        final OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
+        assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
+        assertThat(overwriteSingleRecordAction.children().isEmpty(), is(true));
+        verify(state.getRawRepo()).incrementUnchangedRecordsCounter();
+    }
+
+    @Test
+    void testPerformAction_UnchangedRecordWithChangedRelations() throws Exception {
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final String recordId = AssertActionsUtil.getBibliographicRecordId(record);
+        final int agencyId = AssertActionsUtil.getAgencyIdAsInt(record);
+
+        Map<String, MarcRecord> recordCollection = new HashMap<>();
+        recordCollection.put(recordId, record);
+
+        state.setMarcRecord(record);
+        settings.setProperty(JNDIResources.UPDATE_SKIP_UNCHANGED_RECORDS, "true");
+        when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(true);
+        when(state.getRawRepo().fetchRecord(recordId, agencyId)).thenReturn(AssertActionsUtil.createRawRepoRecord(record, MarcXChangeMimeType.MARCXCHANGE));
+        // The record is linked to an authority record which is no longer in the record
+        when(state.getRawRepo().parents(new RecordId(recordId, agencyId))).thenReturn(Collections.singleton(new RecordId("68058309", RawRepo.AUTHORITY_AGENCY)));
+        when(state.getRawRepo().fetchRecordCollection(recordId, agencyId)).thenReturn(recordCollection);
+        when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
+        when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(false);
+
+        final OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
+        assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
+
+        final List<ServiceAction> children = overwriteSingleRecordAction.children();
+        assertThat(children.size(), is(4));
+        AssertActionsUtil.assertStoreRecordAction(children.get(0), state.getRawRepo(), record);
+        AssertActionsUtil.assertRemoveLinksAction(children.get(1), state.getRawRepo(), record);
+        verify(state.getRawRepo(), never()).incrementUnchangedRecordsCounter();
+    }
+
+    @Test
+    void testPerformAction_ChangedRecordIsStored() throws Exception {
+        final MarcRecord currentRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        new MarcRecordWriter(record).addOrReplaceSubField("245", 'a', "Døren til januar");
+        final String recordId = AssertActionsUtil.getBibliographicRecordId(record);
+        final int agencyId = AssertActionsUtil.getAgencyIdAsInt(record);
+
+        Map<String, MarcRecord> recordCollection = new HashMap<>();
+        recordCollection.put(recordId, currentRecord);
+
+        state.setMarcRecord(record);
+        settings.setProperty(JNDIResources.UPDATE_SKIP_UNCHANGED_RECORDS, "true");
+        when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(true);
+        when(state.getRawRepo().fetchRecord(recordId, agencyId)).thenReturn(AssertActionsUtil.createRawRepoRecord(currentRecord, MarcXChangeMimeType.MARCXCHANGE));
+        when(state.getRawRepo().fetchRecordCollection(recordId, agencyId)).thenReturn(recordCollection);
+        when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
+        when(state.getLibraryRecordsHandler().hasClassificationData(currentRecord)).thenReturn(false);
+
+        final OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
+        assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
+
+        final List<ServiceAction> children = overwriteSingleRecordAction.children();
+        assertThat(children.size(), is(4));
+        AssertActionsUtil.assertStoreRecordAction(children.get(0), state.getRawRepo(), record);
+        AssertActionsUtil.assertEnqueueRecordAction(children.get(3), state.getRawRepo(), record, settings.getProperty(state.getRawRepoProviderId()));
+        verify(state.getRawRepo(), never()).incrementUnchangedRecordsCounter();
+    }
+
     @Test
     void testPerformAction_MatVurd() throws Exception {
         final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.MATVURD_1);
@@ -178,7 +264,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
         when(state.getVipCoreService().hasFeature(Integer.toString(agencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(false);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(false);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -238,7 +324,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
         when(state.getVipCoreService().hasFeature(Integer.toString(agencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -302,7 +388,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet(700100));
         when(state.getVipCoreService().hasFeature("700100", VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -367,7 +453,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet(700100));
         when(state.getVipCoreService().hasFeature("700100", VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(false);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -430,7 +516,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet(700100));
         when(state.getVipCoreService().hasFeature(Integer.toString(agencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -498,7 +584,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet(enrichmentAgencyId));
         when(state.getVipCoreService().hasFeature(Integer.toString(enrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -566,7 +652,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(AssertActionsUtil.createAgenciesSet(enrichmentAgencyId));
         when(state.getVipCoreService().hasFeature(Integer.toString(enrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -649,7 +735,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getVipCoreService().hasFeature(Integer.toString(enrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getVipCoreService().hasFeature(Integer.toString(newEnrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -817,7 +903,7 @@ class OverwriteSingleRecordActionTest {
         when(state.getVipCoreService().hasFeature(Integer.toString(enrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getVipCoreService().hasFeature(Integer.toString(newEnrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(record, record, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteSingleRecordAction overwriteSingleRecordAction = new OverwriteSingleRecordAction(state, settings, record);
         assertThat(overwriteSingleRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -6,6 +6,7 @@ import dk.dbc.marcxmerge.MarcXChangeMimeType;
 import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.update.LibraryGroup;
 import dk.dbc.updateservice.update.RawRepo;
+import dk.dbc.updateservice.update.RecordDiff;
 import dk.dbc.updateservice.update.UpdateException;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
 import org.junit.jupiter.api.BeforeEach;
@@ -21,6 +22,8 @@ import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 class OverwriteVolumeRecordActionTest {
@@ -145,7 +148,7 @@ class OverwriteVolumeRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(mainRecordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
         when(state.getHoldingsItems().getAgenciesWithHoldings(volumeRecordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
         when(state.getLibraryRecordsHandler().hasClassificationData(volumeRecord)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(volumeRecord, volumeRecord, new ArrayList<>())).thenReturn(false);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(false);
 
         OverwriteVolumeRecordAction overwriteVolumeRecordAction = new OverwriteVolumeRecordAction(state, settings, volumeRecord);
         assertThat(overwriteVolumeRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -211,7 +214,7 @@ class OverwriteVolumeRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(mainRecordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
         when(state.getHoldingsItems().getAgenciesWithHoldings(volumeRecordId)).thenReturn(AssertActionsUtil.createAgenciesSet());
         when(state.getLibraryRecordsHandler().hasClassificationData(volumeRecord)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(volumeRecord, volumeRecord, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteVolumeRecordAction overwriteVolumeRecordAction = new OverwriteVolumeRecordAction(state, settings, volumeRecord);
         assertThat(overwriteVolumeRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -283,7 +286,7 @@ class OverwriteVolumeRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(volumeRecordId)).thenReturn(AssertActionsUtil.createAgenciesSet(Integer.valueOf(groupId)));
         when(state.getVipCoreService().hasFeature(groupId, VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(volumeRecord)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(volumeRecord, volumeRecord, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteVolumeRecordAction overwriteVolumeRecordAction = new OverwriteVolumeRecordAction(state, settings, volumeRecord);
         assertThat(overwriteVolumeRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -360,7 +363,7 @@ class OverwriteVolumeRecordActionTest {
         when(state.getHoldingsItems().getAgenciesWithHoldings(volumeRecordId)).thenReturn(AssertActionsUtil.createAgenciesSet(enrichmentAgencyId));
         when(state.getVipCoreService().hasFeature(Integer.toString(enrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(volumeRecord)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(volumeRecord, volumeRecord, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteVolumeRecordAction overwriteVolumeRecordAction = new OverwriteVolumeRecordAction(state, settings, volumeRecord);
         assertThat(overwriteVolumeRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -451,7 +454,7 @@ class OverwriteVolumeRecordActionTest {
         when(state.getVipCoreService().hasFeature(Integer.toString(enrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getVipCoreService().hasFeature(Integer.toString(newEnrichmentAgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(volumeRecord)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(volumeRecord, volumeRecord, new ArrayList<>())).thenReturn(true);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(true);
 
         OverwriteVolumeRecordAction overwriteVolumeRecordAction = new OverwriteVolumeRecordAction(state, settings, volumeRecord);
         assertThat(overwriteVolumeRecordAction.performAction(), is(ServiceResult.newOkResult()));
@@ -551,7 +554,7 @@ class OverwriteVolumeRecordActionTest {
         when(state.getVipCoreService().hasFeature(Integer.toString(e1AgencyId), VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(v1)).thenReturn(true);
         when(state.getLibraryRecordsHandler().hasClassificationData(record)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().hasClassificationsChanged(v1, record, new ArrayList<>())).thenReturn(false);
+        when(state.getLibraryRecordsHandler().hasClassificationsChanged(any(RecordDiff.class), eq(new ArrayList<>()), eq(state.getCompareStringNormalizer()))).thenReturn(false);
 
         OverwriteVolumeRecordAction overwriteVolumeRecordAction = new OverwriteVolumeRecordAction(state, settings, record);
         assertThat(overwriteVolumeRecordAction.performAction(), is(ServiceResult.newOkResult()));
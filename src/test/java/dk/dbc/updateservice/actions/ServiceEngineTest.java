@@ -7,17 +7,31 @@ package dk.dbc.updateservice.actions;
 
 import dk.dbc.commons.metricshandler.MetricsHandlerBean;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
+import dk.dbc.updateservice.update.RawRepo;
+import dk.dbc.updateservice.update.RawRepoUnitOfWork;
 import dk.dbc.updateservice.update.SolrException;
 import dk.dbc.updateservice.update.UpdateException;
+import dk.dbc.updateservice.utils.BoundedExecutor;
+import dk.dbc.updateservice.utils.CostLedger;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -220,4 +234,318 @@ class ServiceEngineTest {
         verify(c3, never()).performAction();
         verify(c3, never()).children();
     }
+
+    @Test
+    void testExecuteAction_UnitOfWorkCommittedOnSuccess() throws UpdateException, SolrException {
+        final RawRepo rawRepo = mock(RawRepo.class);
+        final RawRepoUnitOfWork unitOfWork = mock(RawRepoUnitOfWork.class);
+        when(rawRepo.beginUnitOfWork()).thenReturn(unitOfWork);
+        final ServiceEngine instance = new ServiceEngine(metricsHandlerBean, rawRepo);
+
+        final ServiceAction root = mock(ServiceAction.class);
+        final ServiceAction child = mock(ServiceAction.class);
+        when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+        when(root.children()).thenReturn(Collections.singletonList(child));
+        when(child.performAction()).thenReturn(ServiceResult.newOkResult());
+
+        assertThat(instance.executeAction(root), is(ServiceResult.newOkResult()));
+        verify(rawRepo, times(1)).beginUnitOfWork();
+        verify(unitOfWork).commit();
+        verify(unitOfWork).close();
+    }
+
+    @Test
+    void testExecuteAction_UnitOfWorkNotCommittedOnError() throws UpdateException, SolrException {
+        final RawRepo rawRepo = mock(RawRepo.class);
+        final RawRepoUnitOfWork unitOfWork = mock(RawRepoUnitOfWork.class);
+        when(rawRepo.beginUnitOfWork()).thenReturn(unitOfWork);
+        final ServiceEngine instance = new ServiceEngine(metricsHandlerBean, rawRepo);
+
+        final ServiceAction root = mock(ServiceAction.class);
+        final ServiceAction child = mock(ServiceAction.class);
+        when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+        when(root.children()).thenReturn(Collections.singletonList(child));
+        when(child.performAction()).thenReturn(ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, "error"));
+
+        assertThat(instance.executeAction(root).getStatus(), is(UpdateStatusEnumDTO.FAILED));
+        verify(unitOfWork, never()).commit();
+        verify(unitOfWork).close();
+    }
+
+    @Test
+    void testExecuteAction_UnitOfWorkNotCommittedOnException() throws UpdateException, SolrException {
+        final RawRepo rawRepo = mock(RawRepo.class);
+        final RawRepoUnitOfWork unitOfWork = mock(RawRepoUnitOfWork.class);
+        when(rawRepo.beginUnitOfWork()).thenReturn(unitOfWork);
+        final ServiceEngine instance = new ServiceEngine(metricsHandlerBean, rawRepo);
+
+        final ServiceAction action = mock(ServiceAction.class);
+        when(action.performAction()).thenThrow(new UpdateException("error"));
+
+        assertThrows(UpdateException.class, () -> instance.executeAction(action));
+        verify(unitOfWork, never()).commit();
+        verify(unitOfWork).close();
+    }
+
+    @Test
+    void testExecuteAction_ConcurrentChildrenRunInParallel() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+            instance.setExecutorService(executorService);
+
+            // Both children must be running at the same time for either of them to finish
+            final CountDownLatch latch = new CountDownLatch(2);
+            final ServiceResult warn1 = ServiceResult.newWarningResult(UpdateStatusEnumDTO.OK, "warning 1");
+            final ServiceResult warn2 = ServiceResult.newWarningResult(UpdateStatusEnumDTO.OK, "warning 2");
+            final ServiceAction c1 = mock(ServiceAction.class);
+            when(c1.canRunConcurrently()).thenReturn(true);
+            when(c1.performAction()).thenAnswer(invocation -> {
+                latch.countDown();
+                assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+                return warn1;
+            });
+            final ServiceAction c2 = mock(ServiceAction.class);
+            when(c2.canRunConcurrently()).thenReturn(true);
+            when(c2.performAction()).thenAnswer(invocation -> {
+                latch.countDown();
+                assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+                return warn2;
+            });
+            final ServiceAction c3 = mock(ServiceAction.class);
+            when(c3.performAction()).thenReturn(ServiceResult.newOkResult());
+
+            final ServiceAction root = mock(ServiceAction.class);
+            when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+            when(root.children()).thenReturn(Arrays.asList(c1, c2, c3));
+
+            final ServiceResult expected = ServiceResult.newOkResult();
+            expected.addServiceResult(warn1);
+            expected.addServiceResult(warn2);
+            assertThat(instance.executeAction(root), is(expected));
+            verify(c3).performAction();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecuteAction_ConcurrentChildren_FirstChildHasErrors() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+            instance.setExecutorService(executorService);
+
+            final ServiceResult err = ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, "error");
+            final ServiceAction c1 = mock(ServiceAction.class);
+            when(c1.canRunConcurrently()).thenReturn(true);
+            when(c1.performAction()).thenReturn(err);
+            final ServiceAction c2 = mock(ServiceAction.class);
+            when(c2.canRunConcurrently()).thenReturn(true);
+            when(c2.performAction()).thenReturn(ServiceResult.newWarningResult(UpdateStatusEnumDTO.OK, "warning"));
+            final ServiceAction c3 = mock(ServiceAction.class);
+            when(c3.performAction()).thenReturn(ServiceResult.newOkResult());
+
+            final ServiceAction root = mock(ServiceAction.class);
+            when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+            when(root.children()).thenReturn(Arrays.asList(c1, c2, c3));
+
+            // The result of c2 must not be included even if it has been executed
+            final ServiceResult expected = new ServiceResult();
+            expected.setStatus(UpdateStatusEnumDTO.FAILED);
+            expected.addServiceResult(err);
+            assertThat(instance.executeAction(root), is(expected));
+            verify(c3, never()).performAction();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecuteAction_ConcurrentChildren_LaterChildSkippedAfterError() throws Exception {
+        // Runs the children one at a time on the calling thread, as when the pool is busy
+        final ExecutorService executorService = new BoundedExecutor(Runnable::run, 1);
+        final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+        instance.setExecutorService(executorService);
+
+        final ServiceResult err = ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, "error");
+        final ServiceAction c1 = mock(ServiceAction.class);
+        when(c1.canRunConcurrently()).thenReturn(true);
+        when(c1.performAction()).thenReturn(err);
+        final ServiceAction c2 = mock(ServiceAction.class);
+        when(c2.canRunConcurrently()).thenReturn(true);
+
+        final ServiceAction root = mock(ServiceAction.class);
+        when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+        when(root.children()).thenReturn(Arrays.asList(c1, c2));
+
+        final ServiceResult expected = new ServiceResult();
+        expected.setStatus(UpdateStatusEnumDTO.FAILED);
+        expected.addServiceResult(err);
+        assertThat(instance.executeAction(root), is(expected));
+        verify(c2, never()).performAction();
+    }
+
+    @Test
+    void testExecuteAction_ConcurrentChildren_RunningChildSeesCancellation() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+            instance.setExecutorService(executorService);
+
+            final CountDownLatch c2Running = new CountDownLatch(1);
+            final ServiceResult err = ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, "error");
+            final ServiceAction c1 = mock(ServiceAction.class);
+            when(c1.canRunConcurrently()).thenReturn(true);
+            when(c1.performAction()).thenAnswer(invocation -> {
+                assertThat(c2Running.await(10, TimeUnit.SECONDS), is(true));
+                return err;
+            });
+            final AtomicBoolean c2Cancelled = new AtomicBoolean();
+            final ServiceAction c2 = mock(ServiceAction.class);
+            when(c2.canRunConcurrently()).thenReturn(true);
+            when(c2.performAction()).thenAnswer(invocation -> {
+                assertThat(ServiceEngine.isCancelled(), is(false));
+                c2Running.countDown();
+                final long deadline = System.currentTimeMillis() + 10000;
+                while (!ServiceEngine.isCancelled() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+                c2Cancelled.set(ServiceEngine.isCancelled());
+                return ServiceResult.newOkResult();
+            });
+
+            final ServiceAction root = mock(ServiceAction.class);
+            when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+            when(root.children()).thenReturn(Arrays.asList(c1, c2));
+
+            assertThat(instance.executeAction(root).getStatus(), is(UpdateStatusEnumDTO.FAILED));
+            executorService.shutdown();
+            assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS), is(true));
+            assertThat(c2Cancelled.get(), is(true));
+            assertThat(ServiceEngine.isCancelled(), is(false));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecuteAction_ConcurrentChildThrows() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+            instance.setExecutorService(executorService);
+
+            final ServiceAction c1 = mock(ServiceAction.class);
+            when(c1.canRunConcurrently()).thenReturn(true);
+            when(c1.performAction()).thenThrow(new UpdateException("error"));
+            final ServiceAction c2 = mock(ServiceAction.class);
+            when(c2.canRunConcurrently()).thenReturn(true);
+            when(c2.performAction()).thenReturn(ServiceResult.newOkResult());
+
+            final ServiceAction root = mock(ServiceAction.class);
+            when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+            when(root.children()).thenReturn(Arrays.asList(c1, c2));
+
+            assertThrows(UpdateException.class, () -> instance.executeAction(root));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecuteAction_ConcurrentChildrenRunOnCallingThread() throws Exception {
+        // A pool with its only thread busy and no queue, so the children are run by the calling thread
+        final ThreadPoolExecutor executorService = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy());
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CostLedger ledger = CostLedger.start();
+        try {
+            executorService.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+            instance.setExecutorService(executorService);
+
+            final Thread callingThread = Thread.currentThread();
+            final ServiceAction c1 = mock(ServiceAction.class);
+            when(c1.canRunConcurrently()).thenReturn(true);
+            when(c1.performAction()).thenAnswer(invocation -> {
+                assertThat(Thread.currentThread(), is(callingThread));
+                CostLedger.call(CostLedger.Dependency.VIPCORE, 1);
+                return ServiceResult.newOkResult();
+            });
+            final ServiceAction c2 = mock(ServiceAction.class);
+            when(c2.canRunConcurrently()).thenReturn(true);
+            when(c2.performAction()).thenAnswer(invocation -> {
+                CostLedger.call(CostLedger.Dependency.VIPCORE, 1);
+                return ServiceResult.newOkResult();
+            });
+            final ServiceAction c3 = mock(ServiceAction.class);
+            when(c3.performAction()).thenAnswer(invocation -> {
+                CostLedger.call(CostLedger.Dependency.RAWREPO, 1);
+                return ServiceResult.newOkResult();
+            });
+
+            final ServiceAction root = mock(ServiceAction.class);
+            when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+            when(root.children()).thenReturn(Arrays.asList(c1, c2, c3));
+
+            assertThat(instance.executeAction(root), is(ServiceResult.newOkResult()));
+            assertThat(CostLedger.current(), is(ledger));
+            assertThat(ledger.getCalls(CostLedger.Dependency.VIPCORE), is(2L));
+            assertThat(ledger.getCalls(CostLedger.Dependency.RAWREPO), is(1L));
+        } finally {
+            CostLedger.stop();
+            busy.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void testExecuteAction_ActionTrace() throws UpdateException {
+        final ServiceEngine instance = new ServiceEngine(metricsHandlerBean);
+
+        final ServiceAction c1 = mock(ServiceAction.class);
+        when(c1.name()).thenReturn("c1");
+        when(c1.performAction()).thenAnswer(invocation -> {
+            CostLedger.call(CostLedger.Dependency.RAWREPO, 7);
+            return ServiceResult.newOkResult();
+        });
+        final ServiceAction c2 = mock(ServiceAction.class);
+        when(c2.name()).thenReturn("c2");
+        when(c2.performAction()).thenReturn(ServiceResult.newErrorResult(UpdateStatusEnumDTO.FAILED, "error"));
+        final ServiceAction c3 = mock(ServiceAction.class);
+        when(c3.name()).thenReturn("c3");
+
+        final ServiceAction root = mock(ServiceAction.class);
+        when(root.name()).thenReturn("root");
+        when(root.performAction()).thenReturn(ServiceResult.newOkResult());
+        when(root.children()).thenReturn(Arrays.asList(c1, c2, c3));
+
+        final CostLedger ledger = CostLedger.start();
+        try {
+            instance.executeAction(root);
+        } finally {
+            CostLedger.stop();
+        }
+
+        final ActionTrace trace = instance.getActionTrace();
+        assertThat(trace.getName(), is("root"));
+        assertThat(trace.getStatus(), is("FAILED"));
+        assertThat(trace.getCalls().isEmpty(), is(true));
+        assertThat(trace.getChildren().size(), is(2));
+        assertThat(trace.getChildren().get(0).getName(), is("c1"));
+        assertThat(trace.getChildren().get(0).getStatus(), is("OK"));
+        assertThat(trace.getChildren().get(0).getCalls().get("rawrepo"), is(1L));
+        assertThat(trace.getChildren().get(0).getCallsMs().get("rawrepo"), is(7L));
+        assertThat(trace.getChildren().get(1).getName(), is("c2"));
+        assertThat(trace.getChildren().get(1).getStatus(), is("FAILED"));
+        assertThat(ledger.getCalls(CostLedger.Dependency.RAWREPO), is(1L));
+        assertThat(CostLedger.current(), is(nullValue()));
+    }
 }
@@ -17,7 +17,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
@@ -29,7 +29,6 @@ import static org.hamcrest.core.IsNull.notNullValue;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 class UpdateEnrichmentRecordActionTest {
@@ -93,7 +92,7 @@ class UpdateEnrichmentRecordActionTest {
         when(state.getRawRepo().recordExists(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(true);
         when(state.getRawRepo().fetchRecord(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(commonRecord);
         when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(false);
-        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record)).thenReturn(record);
+        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record, state.getCompareStringNormalizer())).thenReturn(record);
         when(state.getSolrFBS().hasDocuments(SolrServiceIndexer.createSubfieldQueryDBCOnly("002a", recordId))).thenReturn(false);
 
         UpdateEnrichmentRecordAction updateEnrichmentRecordAction = new UpdateEnrichmentRecordAction(state, settings, record);
@@ -155,7 +154,7 @@ class UpdateEnrichmentRecordActionTest {
         when(state.getRawRepo().recordExists(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(true);
         when(state.getRawRepo().fetchRecord(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(commonRecord);
         when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record)).thenReturn(record);
+        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record, state.getCompareStringNormalizer())).thenReturn(record);
         when(state.getSolrFBS().hasDocuments(SolrServiceIndexer.createSubfieldQueryDBCOnly("002a", recordId))).thenReturn(false);
 
         UpdateEnrichmentRecordAction updateEnrichmentRecordAction = new UpdateEnrichmentRecordAction(state, settings, record);
@@ -217,7 +216,7 @@ class UpdateEnrichmentRecordActionTest {
         when(state.getRawRepo().recordExists(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(true);
         when(state.getRawRepo().fetchRecord(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(commonRecord);
         when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(true);
-        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record)).thenReturn(record);
+        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record, state.getCompareStringNormalizer())).thenReturn(record);
         when(state.getSolrFBS().hasDocuments(SolrServiceIndexer.createSubfieldQueryDBCOnly("002a", recordId))).thenReturn(true);
 
         UpdateEnrichmentRecordAction instance = new UpdateEnrichmentRecordAction(state, settings, record);
@@ -313,7 +312,7 @@ class UpdateEnrichmentRecordActionTest {
         when(state.getRawRepo().recordExists(recordId, agencyId)).thenReturn(true);
         when(state.getRawRepo().fetchRecord(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(commonRecord);
         when(state.getHoldingsItems().getAgenciesWithHoldings(recordId)).thenReturn(new HashSet<>());
-        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record)).thenReturn(new MarcRecord());
+        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record, state.getCompareStringNormalizer())).thenReturn(new MarcRecord());
         when(state.getSolrFBS().hasDocuments(SolrServiceIndexer.createSubfieldQueryDBCOnly("002a", recordId))).thenReturn(false);
 
         UpdateEnrichmentRecordAction instance = new UpdateEnrichmentRecordAction(state, settings, record);
@@ -342,7 +341,7 @@ class UpdateEnrichmentRecordActionTest {
      * </dd>
      * <dt>Then</dt>
      * <dd>
-     * Throw UpdateException that encapsulates the UnsupportedEncodingException.
+     * Throw UpdateException that encapsulates the decoding error.
      * </dd>
      * </dl>
      */
@@ -351,17 +350,15 @@ class UpdateEnrichmentRecordActionTest {
         MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.ENRICHMENT_SINGLE_RECORD_RESOURCE);
         String recordId = AssertActionsUtil.getBibliographicRecordId(record);
         MarcRecord commonRecordData = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
-        UpdateEnrichmentRecordAction.Decoder decoder = mock(UpdateEnrichmentRecordAction.Decoder.class);
 
         Record commonRecord = createRawRepoRecord(commonRecordData, MarcXChangeMimeType.MARCXCHANGE);
+        commonRecord.setContent("error".getBytes(StandardCharsets.UTF_8));
         when(state.getRawRepo().recordExists(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(true);
         when(state.getRawRepo().fetchRecord(commonRecord.getId().getBibliographicRecordId(), commonRecord.getId().getAgencyId())).thenReturn(commonRecord);
-        when(decoder.decodeRecord(commonRecord.getContent())).thenThrow(new UnsupportedEncodingException("error"));
-        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record)).thenReturn(record);
+        when(state.getLibraryRecordsHandler().correctLibraryExtendedRecord(commonRecordData, record, state.getCompareStringNormalizer())).thenReturn(record);
         when(state.getSolrFBS().hasDocuments(SolrServiceIndexer.createSubfieldQueryDBCOnly("002a", recordId))).thenReturn(false);
 
         UpdateEnrichmentRecordAction updateEnrichmentRecordAction = new UpdateEnrichmentRecordAction(state, settings, record);
-        updateEnrichmentRecordAction.decoder = decoder;
         assertThrows(UpdateException.class, updateEnrichmentRecordAction::performAction);
     }
 
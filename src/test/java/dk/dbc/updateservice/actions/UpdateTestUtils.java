@@ -3,6 +3,8 @@ package dk.dbc.updateservice.actions;
 import dk.dbc.holdingitems.content.HoldingsItemsConnector;
 import dk.dbc.marc.binding.MarcRecord;
 import dk.dbc.opencat.connector.OpencatBusinessConnector;
+import dk.dbc.rawrepo.Record;
+import dk.dbc.rawrepo.RecordId;
 import dk.dbc.updateservice.auth.Authenticator;
 import dk.dbc.updateservice.dto.AuthenticationDTO;
 import dk.dbc.updateservice.dto.MessageEntryDTO;
@@ -21,14 +23,25 @@ import dk.dbc.updateservice.update.UpdateStore;
 import dk.dbc.updateservice.update.VipCoreService;
 import dk.dbc.updateservice.utils.ResourceBundles;
 import dk.dbc.updateservice.validate.Validator;
+import dk.dbc.vipcore.exception.VipCoreException;
+import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class UpdateTestUtils {
     public static String GROUP_ID = "700100";
@@ -60,6 +73,86 @@ public class UpdateTestUtils {
         return expected;
     }
 
+    /**
+     * The bulk lookups answer from the single agency lookups, so tests only have to mock hasFeature.
+     */
+    public static VipCoreService createVipCoreServiceMock() {
+        final VipCoreService vipCoreService = mock(VipCoreService.class);
+        try {
+            when(vipCoreService.getFeatures(anyCollection(), anySet())).thenAnswer(invocation -> {
+                final Collection<String> agencyIds = invocation.getArgument(0);
+                final Set<VipCoreLibraryRulesConnector.Rule> features = invocation.getArgument(1);
+                final Map<String, Set<VipCoreLibraryRulesConnector.Rule>> result = new HashMap<>();
+                for (String agencyId : agencyIds) {
+                    final Set<VipCoreLibraryRulesConnector.Rule> agencyFeatures = new HashSet<>();
+                    for (VipCoreLibraryRulesConnector.Rule feature : features) {
+                        if (vipCoreService.hasFeature(agencyId, feature)) {
+                            agencyFeatures.add(feature);
+                        }
+                    }
+                    result.put(agencyId, agencyFeatures);
+                }
+                return result;
+            });
+            when(vipCoreService.getAgenciesWithFeature(anyCollection(), any(VipCoreLibraryRulesConnector.Rule.class))).thenAnswer(invocation -> {
+                final Collection<String> agencyIds = invocation.getArgument(0);
+                final VipCoreLibraryRulesConnector.Rule feature = invocation.getArgument(1);
+                final Set<String> result = new HashSet<>();
+                for (String agencyId : agencyIds) {
+                    if (vipCoreService.hasFeature(agencyId, feature)) {
+                        result.add(agencyId);
+                    }
+                }
+                return result;
+            });
+        } catch (VipCoreException e) {
+            throw new IllegalStateException(e);
+        }
+        return vipCoreService;
+    }
+
+    /**
+     * Creates a RawRepo mock where the bulk methods answers from the stubs of their single record versions
+     * (recordExists, parents and fetchMergedRecord), so tests only have to stub those.
+     */
+    public static RawRepo createRawRepoMock() {
+        final RawRepo rawRepo = mock(RawRepo.class);
+        try {
+            when(rawRepo.recordsExist(anyCollection())).thenAnswer(invocation -> {
+                final Collection<RecordId> recordIds = invocation.getArgument(0);
+                final Set<RecordId> result = new HashSet<>();
+                for (RecordId recordId : recordIds) {
+                    if (rawRepo.recordExists(recordId.getBibliographicRecordId(), recordId.getAgencyId())) {
+                        result.add(recordId);
+                    }
+                }
+                return result;
+            });
+            when(rawRepo.parents(anyCollection())).thenAnswer(invocation -> {
+                final Collection<RecordId> recordIds = invocation.getArgument(0);
+                final Map<RecordId, Set<RecordId>> result = new HashMap<>();
+                for (RecordId recordId : recordIds) {
+                    result.put(recordId, rawRepo.parents(recordId));
+                }
+                return result;
+            });
+            when(rawRepo.fetchMergedRecords(anyCollection())).thenAnswer(invocation -> {
+                final Collection<RecordId> recordIds = invocation.getArgument(0);
+                final Map<RecordId, Record> result = new HashMap<>();
+                for (RecordId recordId : recordIds) {
+                    final Record record = rawRepo.fetchMergedRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+                    if (record != null) {
+                        result.put(recordId, record);
+                    }
+                }
+                return result;
+            });
+        } catch (UpdateException e) {
+            throw new IllegalStateException(e);
+        }
+        return rawRepo;
+    }
+
     public GlobalActionState getGlobalActionStateMockObject() throws IOException, UpdateException {
         // If the object isn't initialized as a null string it can't figure out which of the overloaded functions to call
         return getGlobalActionStateMockObject((String) null);
@@ -79,8 +172,8 @@ public class UpdateTestUtils {
         globalActionState.setSolrService(mock(SolrFBS.class));
         globalActionState.setOpencatBusiness(mock(OpencatBusinessConnector.class));
         globalActionState.setMessages(ResourceBundles.getBundle("actions"));
-        globalActionState.setRawRepo(mock(RawRepo.class));
-        globalActionState.setVipCoreService(mock(VipCoreService.class));
+        globalActionState.setRawRepo(createRawRepoMock());
+        globalActionState.setVipCoreService(createVipCoreServiceMock());
         globalActionState.setValidator(mock(Validator.class));
         globalActionState.setUpdateStore(mock(UpdateStore.class));
         globalActionState.setLibraryRecordsHandler(mock(LibraryRecordsHandler.class));
@@ -101,8 +194,8 @@ public class UpdateTestUtils {
         globalActionState.setHoldingsItems(mock(HoldingsItemsConnector.class));
         globalActionState.setSolrService(mock(SolrFBS.class));
         globalActionState.setMessages(ResourceBundles.getBundle("actions"));
-        globalActionState.setRawRepo(mock(RawRepo.class));
-        globalActionState.setVipCoreService(mock(VipCoreService.class));
+        globalActionState.setRawRepo(createRawRepoMock());
+        globalActionState.setVipCoreService(createVipCoreServiceMock());
         globalActionState.setValidator(mock(Validator.class));
         globalActionState.setUpdateStore(mock(UpdateStore.class));
         globalActionState.setLibraryRecordsHandler(mock(LibraryRecordsHandler.class));
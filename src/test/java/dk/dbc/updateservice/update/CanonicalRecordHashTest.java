@@ -0,0 +1,72 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.MarcRecordReader;
+import dk.dbc.common.records.MarcRecordWriter;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.rawrepo.RecordId;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class CanonicalRecordHashTest {
+    private static final List<RecordId> RELATIONS = Arrays.asList(
+            new RecordId("68058309", RawRepo.AUTHORITY_AGENCY),
+            new RecordId("50938409", RawRepo.COMMON_AGENCY));
+
+    @Test
+    void testModifiedDateIsIgnored() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecord copy = new MarcRecord(marcRecord);
+        new MarcRecordWriter(copy).addOrReplaceSubField("001", 'c', "20240101120000");
+
+        assertThat(CanonicalRecordHash.of(copy, RELATIONS), is(CanonicalRecordHash.of(marcRecord, RELATIONS)));
+        assertThat(CanonicalRecordHash.of(copy, RELATIONS).hashCode(), is(CanonicalRecordHash.of(marcRecord, RELATIONS).hashCode()));
+
+        new MarcRecordWriter(copy).addOrReplaceSubField("001", 'd', "20240101");
+        assertThat(CanonicalRecordHash.of(copy, RELATIONS), not(CanonicalRecordHash.of(marcRecord, RELATIONS)));
+    }
+
+    @Test
+    void testContentChanges() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final CanonicalRecordHash hash = CanonicalRecordHash.of(marcRecord, RELATIONS);
+
+        final MarcRecord changedSubfield = new MarcRecord(marcRecord);
+        new MarcRecordWriter(changedSubfield).addOrReplaceSubField("245", 'a', "Ny titel");
+        assertThat(CanonicalRecordHash.of(changedSubfield, RELATIONS), not(hash));
+
+        final MarcRecord changedIndicator = new MarcRecord(marcRecord);
+        new MarcRecordReader(changedIndicator).getField("996").setInd1('1');
+        assertThat(CanonicalRecordHash.of(changedIndicator, RELATIONS), not(hash));
+
+        final MarcRecord removedField = new MarcRecord(marcRecord);
+        new MarcRecordWriter(removedField).removeField("521");
+        assertThat(CanonicalRecordHash.of(removedField, RELATIONS), not(hash));
+        assertThat(CanonicalRecordHash.of(removedField, RELATIONS).hasSameContentInAnyOrder(hash), is(false));
+
+        assertThat(CanonicalRecordHash.of(marcRecord, Collections.emptyList()), not(hash));
+        assertThat(CanonicalRecordHash.of(marcRecord, RELATIONS.subList(0, 1)).hasSameContentInAnyOrder(hash), is(false));
+    }
+
+    @Test
+    void testOrder() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final CanonicalRecordHash hash = CanonicalRecordHash.of(marcRecord, RELATIONS);
+
+        final List<RecordId> reversedRelations = Arrays.asList(RELATIONS.get(1), RELATIONS.get(0));
+        assertThat(CanonicalRecordHash.of(marcRecord, reversedRelations), is(hash));
+
+        final MarcRecord moved = new MarcRecord(marcRecord);
+        moved.getFields().add(moved.getFields().remove(1));
+        final CanonicalRecordHash movedHash = CanonicalRecordHash.of(moved, RELATIONS);
+        assertThat(movedHash, not(hash));
+        assertThat(movedHash.hasSameContentInAnyOrder(hash), is(true));
+    }
+}
@@ -0,0 +1,156 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import org.junit.jupiter.api.Test;
+
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class CompareStringNormalizerTest {
+    private static final List<String> TRICKY_VALUES = Arrays.asList(
+            "",
+            "   ",
+            "Hans Christian Andersen",
+            "ÆBLEMOST PÅ ØEN",
+            "Ærø, Åbenrå og Øresund",
+            "Brontë, Émile Zola, Gödel, Dvořák",
+            "Ca\u0301diz",
+            "\u212B ngstr\u00F6m",
+            "\uFB01lm og \uFB02ag",
+            "ß und Straße",
+            "İstanbul ve ıspanak",
+            "Ελληνικά ΟΔΟΣ",
+            "Кириллица",
+            "日本語のタイトル",
+            "Emoji 😀 og 𝐀",
+            "[Se også FLYT BEHOLDNING til 12345678] Titel",
+            "83.8; 99.4 Andersen, Hans Christian",
+            "Tab\tog\nlinjeskift",
+            "A\u0303e\u0323\u0308x",
+            "Ǆ ǅ ǆ");
+
+    @Test
+    void testEquivalentToRegexImplementationOverTestRecords() throws Exception {
+        final Set<String> values = collectSubfieldValues();
+        values.addAll(TRICKY_VALUES);
+        assertThat(values.size() > 100, is(true));
+
+        assertEquivalent(values);
+    }
+
+    @Test
+    void testEquivalentToRegexImplementationInLocalesWithSpecialLowerCase() throws Exception {
+        final Locale defaultLocale = Locale.getDefault();
+        try {
+            for (String language : new String[]{"tr", "az", "lt", "da"}) {
+                Locale.setDefault(Locale.forLanguageTag(language));
+                assertEquivalent(TRICKY_VALUES);
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void testNormalizedValuesAreReusedWithinRequest() {
+        final CompareStringNormalizer instance = new CompareStringNormalizer();
+        final String value = "Dvořák";
+
+        final StringBuilder first = new StringBuilder();
+        instance.append(first, value, true, 0);
+        final StringBuilder second = new StringBuilder("x");
+        instance.append(second, value, true, 3);
+        final StringBuilder plain = new StringBuilder();
+        instance.append(plain, value, false, 0);
+
+        assertThat(first.toString(), is("dvorak"));
+        assertThat(second.toString(), is("xdvo"));
+        assertThat(plain.toString(), is("dvok"));
+    }
+
+    private static void assertEquivalent(Iterable<String> values) {
+        final CompareStringNormalizer instance = new CompareStringNormalizer();
+        for (String value : values) {
+            for (boolean normalize : new boolean[]{true, false}) {
+                for (int cut : new int[]{0, 1, 10}) {
+                    // Twice, so both computing and reusing the normalized value is tested
+                    for (int i = 0; i < 2; i++) {
+                        final StringBuilder actual = new StringBuilder("prefix");
+                        instance.append(actual, value, normalize, cut);
+                        assertThat(value + " " + normalize + " " + cut, actual.toString(),
+                                is("prefix" + regexCompareString(value, normalize, cut)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The implementation used by LibraryRecordsHandler before the normalizer was introduced
+     */
+    private static String regexCompareString(String value, boolean normalize, int cut) {
+        String result;
+        if (normalize) {
+            result = Normalizer.normalize(value, Normalizer.Form.NFD).replaceAll("[\\p{InCombiningDiacriticalMarks}]", "");
+        } else {
+            result = value;
+        }
+        result = result.toLowerCase().replaceAll("[^a-z0-9æøå]", "");
+        if (cut > 0 && result.length() > cut) {
+            result = result.substring(0, cut);
+        }
+
+        return result;
+    }
+
+    private static Set<String> collectSubfieldValues() throws Exception {
+        final Set<String> values = new LinkedHashSet<>();
+        for (Path path : findTestRecords()) {
+            final MarcRecord marcRecord;
+            try {
+                marcRecord = UpdateRecordContentTransformer.readRecordFromString(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+            } catch (UpdateException e) {
+                // Some of the test records are deliberately broken
+                continue;
+            }
+            if (marcRecord != null) {
+                for (DataField field : marcRecord.getFields(DataField.class)) {
+                    for (SubField subField : field.getSubFields()) {
+                        if (subField.getData() != null) {
+                            values.add(subField.getData());
+                        }
+                    }
+                }
+            }
+        }
+
+        return values;
+    }
+
+    private static List<Path> findTestRecords() throws Exception {
+        final Path root = resourceRoot();
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(path -> path.toString().endsWith(".marc")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Path resourceRoot() throws URISyntaxException {
+        return Paths.get(CompareStringNormalizerTest.class.getResource("/dk/dbc/updateservice").toURI());
+    }
+}
@@ -0,0 +1,72 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.updateservice.actions.ActionTrace;
+import dk.dbc.updateservice.utils.CostLedger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class FlightRecorderTest {
+    private FlightRecorder instance;
+
+    @BeforeEach
+    void setUp() {
+        instance = new FlightRecorder();
+        instance.slowMs = 1000;
+        instance.size = 2;
+    }
+
+    @Test
+    void testOnlySlowRequestsAreRecorded() {
+        instance.record("fast", "schema", 0, 999, "OK", null, new ActionTrace("root"));
+        instance.record("slow", "schema", 0, 1000, "OK", null, new ActionTrace("root"));
+
+        final List<FlightRecording> recordings = instance.list();
+        assertThat(recordings.size(), is(1));
+        assertThat(recordings.get(0).getTrackingId(), is("slow"));
+    }
+
+    @Test
+    void testDisabled() {
+        instance.slowMs = 0;
+        instance.record("slow", "schema", 0, 60000, "OK", null, new ActionTrace("root"));
+
+        assertThat(instance.list().isEmpty(), is(true));
+    }
+
+    @Test
+    void testOldestRecordingIsDropped() {
+        instance.record("first", "schema", 0, 2000, "OK", null, null);
+        instance.record("second", "schema", 0, 2000, "OK", null, null);
+        instance.record("third", "schema", 0, 2000, "FAILED", null, null);
+
+        final List<FlightRecording> recordings = instance.list();
+        assertThat(recordings.size(), is(2));
+        assertThat(recordings.get(0).getTrackingId(), is("third"));
+        assertThat(recordings.get(1).getTrackingId(), is("second"));
+        assertThat(instance.get(1), is(nullValue()));
+    }
+
+    @Test
+    void testGetRecordingWithActions() {
+        final CostLedger ledger = CostLedger.start();
+        try {
+            CostLedger.call(CostLedger.Dependency.VIPCORE, 12);
+        } finally {
+            CostLedger.stop();
+        }
+        final ActionTrace actionTrace = new ActionTrace("root");
+        instance.record("slow", "schema", 0, 2000, "OK", ledger, actionTrace);
+
+        final long id = instance.list().get(0).getId();
+        assertThat(instance.list().get(0).getActions(), is(nullValue()));
+        assertThat(instance.get(id).getActions(), is(actionTrace));
+        assertThat(instance.get(id).getCalls().get("vipcore"), is(1L));
+        assertThat(instance.get(id).getCallsMs().get("vipcore"), is(12L));
+    }
+}
@@ -0,0 +1,95 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.holdingitems.content.HoldingsItemsConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HoldingsItemsCacheTest {
+    @Mock
+    HoldingsItemsConnector holdingsItems;
+
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    void openMocks() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    void releaseMocks() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    void testHoldingsAreOnlyFetchedOnce() {
+        when(holdingsItems.getAgenciesWithHoldings("12345678")).thenReturn(new HashSet<>(Arrays.asList(710100, 720100)));
+
+        final HoldingsItemsCache instance = new HoldingsItemsCache(holdingsItems, Runnable::run);
+        assertThat(instance.getAgenciesWithHoldings("12345678"), is(new HashSet<>(Arrays.asList(710100, 720100))));
+        assertThat(instance.getAgenciesWithHoldings("12345678"), is(new HashSet<>(Arrays.asList(710100, 720100))));
+
+        verify(holdingsItems, times(1)).getAgenciesWithHoldings("12345678");
+        assertThat(instance.getHits(), is(1L));
+        assertThat(instance.getMisses(), is(1L));
+    }
+
+    @Test
+    void testBulkOnlyFetchesUnknownIds() {
+        when(holdingsItems.getAgenciesWithHoldings("12345678")).thenReturn(Collections.singleton(710100));
+        when(holdingsItems.getAgenciesWithHoldings("23456789")).thenReturn(Collections.singleton(720100));
+        when(holdingsItems.getAgenciesWithHoldings("34567890")).thenReturn(Collections.emptySet());
+
+        final HoldingsItemsCache instance = new HoldingsItemsCache(holdingsItems, Runnable::run);
+        instance.getAgenciesWithHoldings("12345678");
+        final Map<String, Set<Integer>> result = instance.getAgenciesWithHoldings(Arrays.asList("12345678", "23456789", "34567890"));
+
+        assertThat(result.size(), is(3));
+        assertThat(result.get("12345678"), is(Collections.singleton(710100)));
+        assertThat(result.get("23456789"), is(Collections.singleton(720100)));
+        assertThat(result.get("34567890"), is(Collections.emptySet()));
+        assertThat(instance.getAgenciesWithHoldingsOnAny(Arrays.asList("12345678", "23456789")), is(new HashSet<>(Arrays.asList(710100, 720100))));
+        verify(holdingsItems, times(1)).getAgenciesWithHoldings("12345678");
+        verify(holdingsItems, times(1)).getAgenciesWithHoldings("23456789");
+        verify(holdingsItems, times(1)).getAgenciesWithHoldings("34567890");
+    }
+
+    @Test
+    void testBulkRethrowsLookupError() {
+        when(holdingsItems.getAgenciesWithHoldings("12345678")).thenReturn(Collections.singleton(710100));
+        when(holdingsItems.getAgenciesWithHoldings("23456789")).thenThrow(new IllegalStateException("holdings-items is down"));
+
+        final HoldingsItemsCache instance = new HoldingsItemsCache(holdingsItems, Runnable::run);
+        assertThrows(IllegalStateException.class, () -> instance.getAgenciesWithHoldings(Arrays.asList("12345678", "23456789")));
+    }
+
+    @Test
+    void testBulkWithoutExecutorLooksUpOnCallingThread() {
+        final Set<Thread> threads = new HashSet<>();
+        when(holdingsItems.getAgenciesWithHoldings(anyString())).thenAnswer(invocation -> {
+            threads.add(Thread.currentThread());
+            return Collections.singleton(710100);
+        });
+
+        final HoldingsItemsCache instance = new HoldingsItemsCache(holdingsItems);
+        instance.getAgenciesWithHoldings(Arrays.asList("12345678", "23456789", "34567890"));
+
+        assertThat(threads, is(Collections.singleton(Thread.currentThread())));
+    }
+}
@@ -503,4 +503,44 @@ class LibraryRecordsHandlerTest {
         assertThat(classificationMessages.size(), is(0));
     }
 
+    @Test
+    void testHasClassificationsChangedWithRecordDiff() throws Exception {
+        final LibraryRecordsHandler instance = new MockLibraryRecordsHandler();
+        final String common = f001DBC +
+                "004 00 *r n *a e\n" +
+                "008 00 *t m *u f *a 1994\n" +
+                "009 00 *a a *g xx\n" +
+                "100 00 *a Koontz *h Dean R.\n" +
+                "245 00 *a Døren til december *e Dean Koontz\n" +
+                "652 00 *m 83.8 *a Koontz *h Dean R.\n";
+        final List<String> newRecords = Arrays.asList(
+                common,
+                common + "038 00 *a dr\n",
+                common + "039 00 *a fol *b dk\n",
+                common.replace("*t m", "*t p"),
+                common.replace("*g xx", "*g xc"),
+                common.replace("Koontz *h", "Kuntz *h"),
+                common.replace("100 00 *a Koontz *h Dean R.", "110 00 *a DBC"),
+                common.replace("december", "December"),
+                common.replace("december", "januar"),
+                common + "239 00 *t Door to december\n",
+                common.replace("83.8", "83.9"),
+                common.replace("652 00 *m", "654 00 *m"),
+                common + "504 00 *a En note\n");
+
+        for (String oldContent : newRecords) {
+            for (String newContent : newRecords) {
+                final MarcRecord oldRecord = UpdateRecordContentTransformer.readRecordFromString(oldContent);
+                final MarcRecord newRecord = UpdateRecordContentTransformer.readRecordFromString(newContent);
+                final List<String> expectedMessages = new ArrayList<>();
+                final boolean expected = instance.hasClassificationsChanged(oldRecord, newRecord, expectedMessages);
+
+                final List<String> classificationMessages = new ArrayList<>();
+                assertThat(oldContent + newContent, instance.hasClassificationsChanged(RecordDiff.of(oldRecord, newRecord), classificationMessages,
+                        new CompareStringNormalizer()), is(expected));
+                assertThat(classificationMessages, is(expectedMessages));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,151 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.vipcore.exception.VipCoreException;
+import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
+import dk.dbc.vipcore.marshallers.LibraryRules;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LibraryRulesCacheTest {
+    private static final String AGENCY_ID = "700300";
+    private static final Instant START = Instant.parse("2023-01-01T12:00:00Z");
+
+    private LibraryRulesCache instance;
+    private VipCoreLibraryRulesConnector connector;
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        connector = mock(VipCoreLibraryRulesConnector.class);
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class);
+        when(metricRegistry.counter(any(Metadata.class), any(Tag.class))).thenReturn(mock(Counter.class));
+
+        instance = new LibraryRulesCache();
+        instance.vipCoreLibraryRulesConnector = connector;
+        instance.metricRegistry = metricRegistry;
+        instance.ttlMinutes = 30;
+        instance.refreshAheadMinutes = 5;
+        instance.refresher = scheduled::add;
+        instance.loader = Runnable::run;
+        setTime(START);
+    }
+
+    private void setTime(Instant instant) {
+        instance.clock = Clock.fixed(instant, ZoneOffset.UTC);
+    }
+
+    @Test
+    void testCachedWithinTTL() throws Exception {
+        final LibraryRules rules = new LibraryRules();
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID)).thenReturn(rules);
+
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(rules)));
+        setTime(START.plus(Duration.ofMinutes(10)));
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(rules)));
+
+        verify(connector, times(1)).getLibraryRulesByAgencyId(AGENCY_ID);
+        assertThat(scheduled.size(), is(0));
+        assertThat(instance.size(), is(1));
+    }
+
+    @Test
+    void testRefreshAhead() throws Exception {
+        final LibraryRules first = new LibraryRules();
+        final LibraryRules second = new LibraryRules();
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID)).thenReturn(first, second);
+
+        instance.getLibraryRules(AGENCY_ID);
+        setTime(START.plus(Duration.ofMinutes(26)));
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(first)));
+        // Only one refresh is scheduled even though the entry is used again before the refresh has run
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(first)));
+        assertThat(scheduled.size(), is(1));
+
+        scheduled.get(0).run();
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(second)));
+        verify(connector, times(2)).getLibraryRulesByAgencyId(AGENCY_ID);
+    }
+
+    @Test
+    void testReloadAfterTTL() throws Exception {
+        final LibraryRules first = new LibraryRules();
+        final LibraryRules second = new LibraryRules();
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID)).thenReturn(first, second);
+
+        instance.getLibraryRules(AGENCY_ID);
+        setTime(START.plus(Duration.ofMinutes(31)));
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(second)));
+    }
+
+    @Test
+    void testStaleOnError() throws Exception {
+        final LibraryRules rules = new LibraryRules();
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID))
+                .thenReturn(rules)
+                .thenThrow(VipCoreException.class);
+
+        instance.getLibraryRules(AGENCY_ID);
+        setTime(START.plus(Duration.ofMinutes(45)));
+        assertThat(instance.getLibraryRules(AGENCY_ID), is(sameInstance(rules)));
+    }
+
+    @Test
+    void testErrorWhenNothingCached() throws Exception {
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID)).thenThrow(VipCoreException.class);
+
+        assertThrows(VipCoreException.class, () -> instance.getLibraryRules(AGENCY_ID));
+        assertThat(instance.size(), is(0));
+    }
+
+    @Test
+    void testBulkLoadsOnlyMissing() throws Exception {
+        final LibraryRules cached = new LibraryRules();
+        final LibraryRules first = new LibraryRules();
+        final LibraryRules second = new LibraryRules();
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID)).thenReturn(cached);
+        when(connector.getLibraryRulesByAgencyId("710100")).thenReturn(first);
+        when(connector.getLibraryRulesByAgencyId("720100")).thenReturn(second);
+        instance.getLibraryRules(AGENCY_ID);
+
+        final Map<String, LibraryRules> result = instance.getLibraryRules(Arrays.asList(AGENCY_ID, "710100", "720100", "710100"));
+
+        assertThat(result.size(), is(3));
+        assertThat(result.get(AGENCY_ID), is(sameInstance(cached)));
+        assertThat(result.get("710100"), is(sameInstance(first)));
+        assertThat(result.get("720100"), is(sameInstance(second)));
+        verify(connector, times(1)).getLibraryRulesByAgencyId(AGENCY_ID);
+        verify(connector, times(1)).getLibraryRulesByAgencyId("710100");
+        assertThat(instance.size(), is(3));
+    }
+
+    @Test
+    void testBulkErrorWhenNothingCached() throws Exception {
+        when(connector.getLibraryRulesByAgencyId("710100")).thenReturn(new LibraryRules());
+        when(connector.getLibraryRulesByAgencyId(AGENCY_ID)).thenThrow(VipCoreException.class);
+
+        assertThrows(VipCoreException.class, () -> instance.getLibraryRules(Arrays.asList("710100", AGENCY_ID)));
+    }
+}
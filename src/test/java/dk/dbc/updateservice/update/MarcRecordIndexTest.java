@@ -0,0 +1,118 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.MarcRecordWriter;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import dk.dbc.updateservice.update.MarcRecordIndex.TagSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class MarcRecordIndexTest {
+    private static final String RECORD = "001 00 *a 20611529 *b 870970\n" +
+            "004 00 *r n *a e\n" +
+            "504 00 *a Note 1\n" +
+            "530 00 *a Note 2\n" +
+            "504 00 *a Note 3\n" +
+            "666 00 *& 723456 *a Emne\n" +
+            "652 00 *m 83.8\n" +
+            "d08 00 *a Vurdering\n";
+
+    @Test
+    void testGetFieldsAsFilter() throws Exception {
+        final MarcRecord marcRecord = UpdateRecordContentTransformer.readRecordFromString(RECORD);
+        final MarcRecordIndex instance = MarcRecordIndex.of(marcRecord);
+
+        for (String expression : new String[]{"504|530", "600|610|630|666", "631|664|665", "652", "[a-z].*", "5.*", ""}) {
+            assertThat(expression, instance.getFields(TagSet.of(expression)), is(marcRecord.getFields(DataField.class).stream()
+                    .filter(field -> field.getTag().matches(expression)).collect(Collectors.toList())));
+            assertThat(expression, instance.getFieldsExcept(TagSet.of(expression)), is(marcRecord.getFields(DataField.class).stream()
+                    .filter(field -> !field.getTag().matches(expression)).collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    void testGetFieldsByTag() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecordIndex instance = MarcRecordIndex.of(marcRecord);
+
+        assertThat(instance.getFields("521").size(), is(2));
+        assertThat(instance.getFields("521").get(0), sameInstance(marcRecord.getFields(DataField.class).get(14)));
+        assertThat(instance.getFields("999").isEmpty(), is(true));
+        assertThat(instance.hasField("032"), is(true));
+        assertThat(instance.hasField("999"), is(false));
+        assertThat(instance.getValue("996", 'a'), is("DBC"));
+        assertThat(instance.getValue("521", 'c'), is("1994"));
+        assertThat(instance.getValue("996", 'x'), is(nullValue()));
+    }
+
+    @Test
+    void testIsCurrent() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecordIndex instance = MarcRecordIndex.of(marcRecord);
+        assertThat(instance.isCurrent(), is(true));
+
+        // Changes to the content of a field are seen through the index
+        new MarcRecordWriter(marcRecord).addOrReplaceSubField("996", 'a', "710100");
+        assertThat(instance.isCurrent(), is(true));
+        assertThat(instance.getValue("996", 'a'), is("710100"));
+
+        new MarcRecordWriter(marcRecord).removeField("032");
+        assertThat(instance.isCurrent(), is(false));
+    }
+
+    @Test
+    void testCacheRebuildsChangedRecord() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecord copy = new MarcRecord(marcRecord);
+        final MarcRecordIndexCache instance = new MarcRecordIndexCache();
+
+        final MarcRecordIndex index = instance.of(marcRecord);
+        assertThat(instance.of(marcRecord), sameInstance(index));
+        assertThat(instance.of(copy), not(sameInstance(index)));
+
+        new MarcRecordWriter(marcRecord).removeField("032");
+        assertThat(instance.of(marcRecord), not(sameInstance(index)));
+        assertThat(instance.of(marcRecord).hasField("032"), is(false));
+    }
+
+    @Test
+    void testCacheFindsDiffAgainAfterRecordIsModified() throws Exception {
+        final MarcRecord oldRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecord newRecord = new MarcRecord(oldRecord);
+        final MarcRecordIndexCache instance = new MarcRecordIndexCache();
+
+        final RecordDiff diff = instance.diffOf(oldRecord, newRecord);
+        assertThat(diff.hasChanges(), is(false));
+        assertThat(instance.diffOf(oldRecord, newRecord), sameInstance(diff));
+
+        // Modifying a field in place doesn't change the fields of the record, but the diff must still be found again
+        new MarcRecordWriter(newRecord).addOrReplaceSubField("996", 'a', "710100");
+        assertThat(instance.diffOf(oldRecord, newRecord).isSubfieldChanged("996", 'a'), is(true));
+
+        // Changing the tag of a field in place makes the index out of date
+        final MarcRecordIndex index = instance.of(newRecord);
+        newRecord.getFields(DataField.class).stream().filter(field -> "996".equals(field.getTag())).findFirst().orElseThrow().setTag("997");
+        assertThat(instance.of(newRecord), not(sameInstance(index)));
+        assertThat(instance.of(newRecord).hasField("997"), is(true));
+    }
+
+    @Test
+    void testCacheIsBounded() throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecordIndexCache instance = new MarcRecordIndexCache();
+
+        final MarcRecordIndex index = instance.of(marcRecord);
+        for (int i = 0; i < MarcRecordIndexCache.MAX_ENTRIES; i++) {
+            instance.of(new MarcRecord(marcRecord));
+        }
+        assertThat(instance.of(marcRecord), not(sameInstance(index)));
+    }
+}
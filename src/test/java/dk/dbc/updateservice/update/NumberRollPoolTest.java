@@ -0,0 +1,106 @@
+package dk.dbc.updateservice.update;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NumberRollPoolTest {
+    private static final String ROLL_NAME = "faust";
+
+    private NumberRollPool instance;
+    private UpdateStore updateStore;
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<String> drawn = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        updateStore = mock(UpdateStore.class);
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class);
+        when(metricRegistry.counter(any(Metadata.class), any(Tag.class))).thenReturn(mock(Counter.class));
+
+        instance = new NumberRollPool();
+        instance.updateStore = updateStore;
+        instance.metricRegistry = metricRegistry;
+        instance.poolSize = 5;
+        instance.lowWaterMark = 2;
+        instance.refresher = scheduled::add;
+        instance.numberSource = rollName -> {
+            final String number = "1000000" + drawn.size();
+            drawn.add(number);
+            return number;
+        };
+    }
+
+    @Test
+    void testTakeFromPool() {
+        when(updateStore.takeRollNumber(ROLL_NAME)).thenReturn("10000001");
+
+        assertThat(instance.takeNumber(ROLL_NAME), is("10000001"));
+    }
+
+    @Test
+    void testEmptyPoolStartsRefill() {
+        when(updateStore.takeRollNumber(ROLL_NAME)).thenReturn(null);
+        when(updateStore.countRollNumbers(ROLL_NAME)).thenReturn(3L);
+
+        assertThat(instance.takeNumber(ROLL_NAME), is(nullValue()));
+        assertThat(scheduled.size(), is(1));
+
+        scheduled.get(0).run();
+        assertThat(drawn.size(), is(2));
+        verify(updateStore, times(2)).addRollNumber(eq(ROLL_NAME), anyString());
+    }
+
+    @Test
+    void testOnlyOneRefillAtATime() {
+        when(updateStore.takeRollNumber(ROLL_NAME)).thenReturn(null);
+
+        instance.takeNumber(ROLL_NAME);
+        instance.takeNumber(ROLL_NAME);
+        assertThat(scheduled.size(), is(1));
+
+        scheduled.get(0).run();
+        instance.takeNumber(ROLL_NAME);
+        assertThat(scheduled.size(), is(2));
+    }
+
+    @Test
+    void testRefillStopsOnError() {
+        when(updateStore.countRollNumbers(ROLL_NAME)).thenReturn(0L);
+        instance.numberSource = rollName -> {
+            throw new UpdateException("Numberroll is down");
+        };
+
+        instance.refill(ROLL_NAME);
+        scheduled.get(0).run();
+
+        verify(updateStore, never()).addRollNumber(anyString(), anyString());
+    }
+
+    @Test
+    void testDisabledPool() {
+        instance.poolSize = 0;
+
+        assertThat(instance.takeNumber(ROLL_NAME), is(nullValue()));
+        verify(updateStore, never()).takeRollNumber(anyString());
+        assertThat(scheduled.size(), is(0));
+    }
+}
@@ -0,0 +1,94 @@
+package dk.dbc.updateservice.update;
+
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PayloadLoggerTest {
+    private PayloadLogger instance;
+    private MetricRegistry metricRegistry;
+    private final List<Runnable> written = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = mock(MetricRegistry.class);
+        when(metricRegistry.counter(any(Metadata.class), any(Tag.class))).thenReturn(mock(Counter.class));
+
+        instance = new PayloadLogger();
+        instance.metricRegistry = metricRegistry;
+        instance.writer = written::add;
+    }
+
+    @Test
+    void testNothingLoggedByDefault() {
+        instance.log("updateRecord", "request", "response", 60000);
+
+        assertThat(written.size(), is(0));
+    }
+
+    @Test
+    void testSlowRequestIsLogged() {
+        instance.slowMs = 1000;
+        instance.log("updateRecord", "request", "response", 999);
+        instance.log("updateRecord", "request", "response", 1000);
+
+        assertThat(written.size(), is(1));
+        verify(metricRegistry).counter(PayloadLogger.payloadLogCounterMetadata, new Tag(PayloadLogger.RESULT_KEY, "logged"));
+    }
+
+    @Test
+    void testSampledRequestIsLogged() {
+        instance.sampleRate = 1;
+        instance.log("getSchemas", "request", null, 0);
+
+        assertThat(written.size(), is(1));
+    }
+
+    @Test
+    void testFullQueueDropsPayload() {
+        instance.sampleRate = 1;
+        instance.writer = runnable -> {
+            throw new RejectedExecutionException("full");
+        };
+        instance.log("updateRecord", "request", "response", 0);
+
+        verify(metricRegistry).counter(eq(PayloadLogger.payloadLogCounterMetadata), eq(new Tag(PayloadLogger.RESULT_KEY, "dropped")));
+    }
+
+    @Test
+    void testQueueSizeBoundsPendingPayloads() {
+        final List<Runnable> submitted = new ArrayList<>();
+        final ManagedExecutorService managedExecutorService = mock(ManagedExecutorService.class);
+        doAnswer(invocation -> submitted.add(invocation.getArgument(0))).when(managedExecutorService).execute(any(Runnable.class));
+        instance.managedExecutorService = managedExecutorService;
+        instance.queueSize = 1;
+        instance.init();
+        instance.sampleRate = 1;
+
+        instance.log("updateRecord", "request", "response", 0);
+        instance.log("updateRecord", "request", "response", 0);
+        assertThat(submitted.size(), is(1));
+        verify(metricRegistry).counter(eq(PayloadLogger.payloadLogCounterMetadata), eq(new Tag(PayloadLogger.RESULT_KEY, "dropped")));
+
+        submitted.get(0).run();
+        instance.log("updateRecord", "request", "response", 0);
+        assertThat(submitted.size(), is(2));
+    }
+}
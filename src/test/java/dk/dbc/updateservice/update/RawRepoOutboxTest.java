@@ -0,0 +1,194 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.rawrepo.RecordId;
+import jakarta.ejb.SessionContext;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RawRepoOutboxTest {
+    private static final RecordId RECORD_ID = new RecordId("20611529", 870970);
+    private static final RecordId OTHER_RECORD_ID = new RecordId("68058309", 870979);
+
+    private RawRepoOutbox instance;
+    private RawRepo rawRepo;
+    private Connection connection;
+    private PreparedStatement claimReady;
+    private PreparedStatement claimEntry;
+    private PreparedStatement delete;
+    private PreparedStatement retry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        rawRepo = mock(RawRepo.class);
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class);
+        when(metricRegistry.counter(any(Metadata.class), any(Tag.class))).thenReturn(mock(Counter.class));
+        final DataSource dataSource = mock(DataSource.class);
+        connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        claimReady = mock(PreparedStatement.class);
+        claimEntry = mock(PreparedStatement.class);
+        delete = mock(PreparedStatement.class);
+        retry = mock(PreparedStatement.class);
+        final PreparedStatement depth = mock(PreparedStatement.class);
+        final ResultSet depthResult = mock(ResultSet.class);
+        when(depth.executeQuery()).thenReturn(depthResult);
+        when(connection.prepareStatement(RawRepoOutbox.CLAIM_READY_ENTRIES)).thenReturn(claimReady);
+        when(connection.prepareStatement(RawRepoOutbox.CLAIM_ENTRY)).thenReturn(claimEntry);
+        when(connection.prepareStatement(RawRepoOutbox.DELETE_ENTRIES)).thenReturn(delete);
+        when(connection.prepareStatement(RawRepoOutbox.UPDATE_RETRY)).thenReturn(retry);
+        when(connection.prepareStatement(RawRepoOutbox.SELECT_DEPTH_AND_OLDEST)).thenReturn(depth);
+
+        instance = new RawRepoOutbox();
+        instance.dataSource = dataSource;
+        instance.rawRepo = rawRepo;
+        instance.metricRegistry = metricRegistry;
+        instance.sessionContext = mock(SessionContext.class);
+        when(instance.sessionContext.getBusinessObject(RawRepoOutbox.class)).thenReturn(instance);
+        instance.enabled = true;
+        instance.batchSize = 10;
+    }
+
+    @Test
+    void testAdd() throws Exception {
+        final PreparedStatement insert = mock(PreparedStatement.class);
+        when(connection.prepareStatement(RawRepoOutbox.INSERT_ENTRY)).thenReturn(insert);
+        final Map<RawRepoQueueEntry, Integer> entries = new LinkedHashMap<>();
+        entries.put(RawRepoQueueEntry.changedRecord("provider", RECORD_ID), 500);
+        entries.put(RawRepoQueueEntry.enqueue(OTHER_RECORD_ID, "provider", true, false), 1000);
+
+        instance.add(connection, entries);
+
+        verify(insert).setString(1, "20611529");
+        verify(insert).setBoolean(4, true);
+        verify(insert).setInt(7, 500);
+        verify(insert).setInt(2, 870979);
+        verify(insert).setBoolean(5, true);
+        verify(insert).setInt(7, 1000);
+        verify(insert, times(2)).addBatch();
+        verify(insert).executeBatch();
+        verify(connection, never()).commit();
+    }
+
+    @Test
+    void testDispatchWritesBatchAndRemovesIt() throws Exception {
+        final ResultSet batch = resultSet(row(1, RECORD_ID, true), row(2, OTHER_RECORD_ID, false));
+        final ResultSet empty = resultSet();
+        when(claimReady.executeQuery()).thenReturn(batch, empty);
+
+        instance.dispatch();
+
+        final Map<RawRepoQueueEntry, Integer> expected = new LinkedHashMap<>();
+        expected.put(RawRepoQueueEntry.changedRecord("provider", RECORD_ID), 500);
+        expected.put(RawRepoQueueEntry.enqueue(OTHER_RECORD_ID, "provider", true, false), 500);
+        verify(rawRepo).writeQueueEntries(expected);
+        verify(connection).createArrayOf("bigint", new Long[]{1L, 2L});
+        verify(delete).executeUpdate();
+        verify(instance.sessionContext, never()).setRollbackOnly();
+        verify(retry, never()).executeUpdate();
+    }
+
+    @Test
+    void testDispatchRetriesFailingEntry() throws Exception {
+        final ResultSet batch = resultSet(row(1, RECORD_ID, true), row(2, OTHER_RECORD_ID, false));
+        final ResultSet empty = resultSet();
+        when(claimReady.executeQuery()).thenReturn(batch, empty);
+        final ResultSet failingRow = resultSet(row(1, RECORD_ID, true));
+        final ResultSet workingRow = resultSet(row(2, OTHER_RECORD_ID, false));
+        when(claimEntry.executeQuery()).thenReturn(failingRow, workingRow);
+        doThrow(new UpdateException("batch failed")).when(rawRepo).writeQueueEntries(anyMap());
+        doThrow(new UpdateException("entry failed")).when(rawRepo).writeQueueEntries(
+                Collections.singletonMap(RawRepoQueueEntry.changedRecord("provider", RECORD_ID), 500));
+        doNothing().when(rawRepo).writeQueueEntries(
+                Collections.singletonMap(RawRepoQueueEntry.enqueue(OTHER_RECORD_ID, "provider", true, false), 500));
+
+        instance.dispatch();
+
+        verify(rawRepo, times(3)).writeQueueEntries(anyMap());
+        // The failed batch and the failed entry are rolled back
+        verify(instance.sessionContext, times(2)).setRollbackOnly();
+        verify(connection, times(1)).createArrayOf("bigint", new Long[]{2L});
+        verify(retry).setInt(1, 3);
+        verify(retry).setString(3, "entry failed");
+        verify(retry).setLong(4, 1L);
+        verify(retry).executeUpdate();
+    }
+
+    @Test
+    void testDispatchSkipsEntryClaimedByAnotherInstance() throws Exception {
+        final ResultSet batch = resultSet(row(1, RECORD_ID, true));
+        final ResultSet empty = resultSet();
+        final ResultSet claimed = resultSet();
+        when(claimReady.executeQuery()).thenReturn(batch, empty);
+        when(claimEntry.executeQuery()).thenReturn(claimed);
+        doThrow(new UpdateException("batch failed")).when(rawRepo).writeQueueEntries(anyMap());
+
+        instance.dispatch();
+
+        verify(rawRepo, times(1)).writeQueueEntries(anyMap());
+        verify(retry, never()).executeUpdate();
+    }
+
+    @Test
+    void testClaimSkipsLockedEntries() {
+        assertThat(RawRepoOutbox.CLAIM_READY_ENTRIES.endsWith("FOR UPDATE SKIP LOCKED"), is(true));
+        assertThat(RawRepoOutbox.CLAIM_ENTRY.endsWith("FOR UPDATE SKIP LOCKED"), is(true));
+    }
+
+    @Test
+    void testRetryDelay() {
+        assertThat(RawRepoOutbox.getRetryDelay(1), is(Duration.ofSeconds(2)));
+        assertThat(RawRepoOutbox.getRetryDelay(5), is(Duration.ofSeconds(32)));
+        assertThat(RawRepoOutbox.getRetryDelay(10), is(RawRepoOutbox.MAX_RETRY_DELAY));
+        assertThat(RawRepoOutbox.getRetryDelay(100), is(RawRepoOutbox.MAX_RETRY_DELAY));
+    }
+
+    private static RawRepoOutboxEntry row(long id, RecordId recordId, boolean changedRecord) {
+        final RawRepoQueueEntry queueEntry = changedRecord
+                ? RawRepoQueueEntry.changedRecord("provider", recordId)
+                : RawRepoQueueEntry.enqueue(recordId, "provider", true, false);
+
+        return new RawRepoOutboxEntry(id, queueEntry, 500, 2);
+    }
+
+    private static ResultSet resultSet(RawRepoOutboxEntry... rows) throws Exception {
+        final ResultSet resultSet = mock(ResultSet.class);
+        final int[] index = {-1};
+        when(resultSet.next()).thenAnswer(invocation -> ++index[0] < rows.length);
+        when(resultSet.getLong(1)).thenAnswer(invocation -> rows[index[0]].getId());
+        when(resultSet.getString(2)).thenAnswer(invocation -> rows[index[0]].getQueueEntry().getRecordId().getBibliographicRecordId());
+        when(resultSet.getInt(3)).thenAnswer(invocation -> rows[index[0]].getQueueEntry().getRecordId().getAgencyId());
+        when(resultSet.getString(4)).thenAnswer(invocation -> rows[index[0]].getQueueEntry().getProvider());
+        when(resultSet.getBoolean(5)).thenAnswer(invocation -> rows[index[0]].getQueueEntry().isChangedRecord());
+        when(resultSet.getBoolean(6)).thenAnswer(invocation -> rows[index[0]].getQueueEntry().isChanged());
+        when(resultSet.getBoolean(7)).thenAnswer(invocation -> rows[index[0]].getQueueEntry().isLeaf());
+        when(resultSet.getInt(8)).thenAnswer(invocation -> rows[index[0]].getPriority());
+        when(resultSet.getInt(9)).thenAnswer(invocation -> rows[index[0]].getAttempts());
+
+        return resultSet;
+    }
+}
@@ -0,0 +1,182 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.MarcRecordReader;
+import dk.dbc.common.records.MarcRecordWriter;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marcxmerge.MarcXChangeMimeType;
+import dk.dbc.rawrepo.Record;
+import dk.dbc.rawrepo.RecordId;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RawRepoRecordCacheTest {
+    @Mock
+    RawRepo rawRepo;
+
+    private AutoCloseable closeable;
+
+    @BeforeEach
+    void openMocks() {
+        closeable = MockitoAnnotations.openMocks(this);
+    }
+
+    @AfterEach
+    void releaseMocks() throws Exception {
+        closeable.close();
+    }
+
+    @Test
+    void testRecordExistsIsOnlyFetchedOnce() throws Exception {
+        when(rawRepo.recordExists("12345678", RawRepo.COMMON_AGENCY)).thenReturn(true);
+        when(rawRepo.recordExists("87654321", RawRepo.COMMON_AGENCY)).thenReturn(false);
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        assertThat(instance.recordExists("12345678", RawRepo.COMMON_AGENCY), is(true));
+        assertThat(instance.recordExists("12345678", RawRepo.COMMON_AGENCY), is(true));
+        assertThat(instance.recordExists("87654321", RawRepo.COMMON_AGENCY), is(false));
+        assertThat(instance.recordExists("87654321", RawRepo.COMMON_AGENCY), is(false));
+
+        verify(rawRepo, times(1)).recordExists("12345678", RawRepo.COMMON_AGENCY);
+        verify(rawRepo, times(1)).recordExists("87654321", RawRepo.COMMON_AGENCY);
+        assertThat(instance.getHits(), is(2L));
+        assertThat(instance.getMisses(), is(2L));
+    }
+
+    @Test
+    void testFetchMarcRecordReturnsCopies() throws Exception {
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final MarcRecordReader reader = new MarcRecordReader(record);
+        when(rawRepo.fetchRecord(reader.getRecordId(), reader.getAgencyIdAsInt())).thenReturn(AssertActionsUtil.createRawRepoRecord(record, MarcXChangeMimeType.MARCXCHANGE));
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        final MarcRecord first = instance.fetchMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
+        new MarcRecordWriter(first).addOrReplaceSubField("245", 'a', "Changed by caller");
+        final MarcRecord second = instance.fetchMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
+
+        assertThat(second, is(record));
+        assertThat(second, not(sameInstance(first)));
+        verify(rawRepo, times(1)).fetchRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
+        assertThat(instance.getHits(), is(1L));
+        assertThat(instance.getMisses(), is(1L));
+    }
+
+    @Test
+    void testFetchMergedMarcRecord() throws Exception {
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final MarcRecordReader reader = new MarcRecordReader(record);
+        when(rawRepo.fetchMergedRecord(reader.getRecordId(), reader.getAgencyIdAsInt())).thenReturn(AssertActionsUtil.createRawRepoRecord(record, MarcXChangeMimeType.MARCXCHANGE));
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        assertThat(instance.fetchMergedMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt()), is(record));
+        assertThat(instance.fetchMergedMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt()), is(record));
+
+        verify(rawRepo, times(1)).fetchMergedRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
+    }
+
+    @Test
+    void testSaveRecordInvalidates() throws Exception {
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final MarcRecordReader reader = new MarcRecordReader(record);
+        final String recordId = reader.getRecordId();
+        final int agencyId = reader.getAgencyIdAsInt();
+        final Record rawRepoRecord = AssertActionsUtil.createRawRepoRecord(record, MarcXChangeMimeType.MARCXCHANGE);
+        when(rawRepo.recordExists(recordId, agencyId)).thenReturn(false, true);
+        when(rawRepo.fetchRecord(recordId, agencyId)).thenReturn(rawRepoRecord);
+        when(rawRepo.fetchMergedRecord(recordId, agencyId)).thenReturn(rawRepoRecord);
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        assertThat(instance.recordExists(recordId, agencyId), is(false));
+        instance.fetchMarcRecord(recordId, agencyId);
+        instance.fetchMergedMarcRecord(recordId, agencyId);
+
+        instance.saveRecord(rawRepoRecord);
+        verify(rawRepo).saveRecord(rawRepoRecord);
+
+        assertThat(instance.recordExists(recordId, agencyId), is(true));
+        instance.fetchMarcRecord(recordId, agencyId);
+        instance.fetchMergedMarcRecord(recordId, agencyId);
+        verify(rawRepo, times(2)).recordExists(recordId, agencyId);
+        verify(rawRepo, times(2)).fetchRecord(recordId, agencyId);
+        verify(rawRepo, times(2)).fetchMergedRecord(recordId, agencyId);
+    }
+
+    @Test
+    void testRemoveLinksInvalidates() throws Exception {
+        final RecordId recordId = new RecordId("12345678", RawRepo.COMMON_AGENCY);
+        when(rawRepo.recordExists(recordId.getBibliographicRecordId(), recordId.getAgencyId())).thenReturn(true);
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        instance.recordExists(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+        instance.removeLinks(recordId);
+        instance.recordExists(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+
+        verify(rawRepo).removeLinks(recordId);
+        verify(rawRepo, times(2)).recordExists(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+    }
+
+    @Test
+    void testLinkAndEnqueueInvalidatesMergedRecords() throws Exception {
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final MarcRecordReader reader = new MarcRecordReader(record);
+        final RecordId recordId = new RecordId(reader.getRecordId(), reader.getAgencyIdAsInt());
+        final RecordId parentId = new RecordId("87654321", RawRepo.COMMON_AGENCY);
+        when(rawRepo.fetchMergedRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId()))
+                .thenReturn(AssertActionsUtil.createRawRepoRecord(record, MarcXChangeMimeType.MARCXCHANGE));
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        instance.fetchMergedMarcRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+        instance.linkRecord(recordId, parentId);
+        instance.fetchMergedMarcRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+        instance.linkRecordAppend(recordId, parentId);
+        instance.fetchMergedMarcRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+        instance.changedRecord("provider", recordId, 1000);
+        instance.fetchMergedMarcRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+        instance.enqueue(recordId, "provider", true, true, 1000);
+        instance.fetchMergedMarcRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+
+        verify(rawRepo).linkRecord(recordId, parentId);
+        verify(rawRepo).linkRecordAppend(recordId, parentId);
+        verify(rawRepo).changedRecord("provider", recordId, 1000);
+        verify(rawRepo).enqueue(recordId, "provider", true, true, 1000);
+        verify(rawRepo, times(5)).fetchMergedRecord(recordId.getBibliographicRecordId(), recordId.getAgencyId());
+    }
+
+    @Test
+    void testFetchMergedMarcRecordsInBulk() throws Exception {
+        final MarcRecord record = AssertActionsUtil.loadRecord(AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE);
+        final MarcRecordReader reader = new MarcRecordReader(record);
+        final RecordId recordId = new RecordId(reader.getRecordId(), reader.getAgencyIdAsInt());
+        final RecordId missingId = new RecordId("87654321", RawRepo.COMMON_AGENCY);
+        final Map<RecordId, Record> fetched = new HashMap<>();
+        fetched.put(recordId, AssertActionsUtil.createRawRepoRecord(record, MarcXChangeMimeType.MARCXCHANGE));
+        when(rawRepo.fetchMergedRecords(anyCollection())).thenReturn(fetched);
+
+        final RawRepoRecordCache instance = new RawRepoRecordCache(rawRepo);
+        final Map<RecordId, MarcRecord> result = instance.fetchMergedMarcRecords(Arrays.asList(recordId, missingId));
+        assertThat(result.size(), is(1));
+        assertThat(result.get(recordId), is(record));
+
+        // The single record version is now answered from the cache
+        assertThat(instance.fetchMergedMarcRecord(reader.getRecordId(), reader.getAgencyIdAsInt()), is(record));
+        verify(rawRepo, times(1)).fetchMergedRecords(anyCollection());
+        verify(rawRepo, never()).fetchMergedRecord(reader.getRecordId(), reader.getAgencyIdAsInt());
+    }
+}
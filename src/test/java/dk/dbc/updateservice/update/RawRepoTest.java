@@ -3,18 +3,29 @@ package dk.dbc.updateservice.update;
 import dk.dbc.commons.metricshandler.MetricsHandlerBean;
 import dk.dbc.rawrepo.RawRepoDAO;
 import dk.dbc.rawrepo.RecordId;
+import jakarta.transaction.Status;
+import jakarta.transaction.TransactionSynchronizationRegistry;
 import org.eclipse.microprofile.metrics.Tag;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static dk.dbc.updateservice.update.RawRepo.ERROR_TYPE;
@@ -24,8 +35,13 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -87,7 +103,7 @@ class RawRepoTest {
             verify(rawRepo.metricsHandler, times(1))
                     .increment(rawrepoErrorCounterMetrics,
                             new Tag(METHOD_NAME_KEY, "allAgenciesForBibliographicRecordId"),
-                            new Tag(ERROR_TYPE, "recordid can not be null"));
+                            new Tag(ERROR_TYPE, "invalid_argument"));
         }
     }
 
@@ -174,6 +190,256 @@ class RawRepoTest {
         assertThat(((RecordId) toProvider.getValue().toArray()[1]).getBibliographicRecordId(), is("22222222"));
     }
 
+    @Test
+    void test_agenciesForRecordNotDeleted_ManyEnrichments() throws Exception {
+        // A record with 60 enrichments, every tenth of them deleted. Before the bulk lookup this took one connection
+        // for the agency lookup plus one per agency, i.e. 61 round-trips - now it is two no matter the number of agencies
+        final String recId = "12345678";
+        final Set<Integer> daoAgencies = new HashSet<>();
+        daoAgencies.add(RawRepo.COMMON_AGENCY);
+        final List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            final int agencyId = 700000 + i;
+            daoAgencies.add(agencyId);
+            rows.add(new Object[]{recId, agencyId, i % 10 == 0});
+        }
+        final Iterator<Object[]> iterator = rows.iterator();
+        final Object[][] current = new Object[1][];
+
+        final Connection connection = mock(Connection.class);
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        final ResultSet resultSet = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(RawRepo.SELECT_RECORDS_DELETED_STATE)).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenAnswer(invocation -> {
+            if (iterator.hasNext()) {
+                current[0] = iterator.next();
+                return true;
+            }
+            return false;
+        });
+        when(resultSet.getString(1)).thenAnswer(invocation -> current[0][0]);
+        when(resultSet.getInt(2)).thenAnswer(invocation -> current[0][1]);
+        when(resultSet.getBoolean(3)).thenAnswer(invocation -> current[0][2]);
+        when(rawRepoDAO.allAgenciesForBibliographicRecordId(eq(recId))).thenReturn(daoAgencies);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        final Set<Integer> agencies = rawRepo.agenciesForRecordNotDeleted(recId);
+
+        assertThat(agencies.size(), is(54));
+        assertThat(agencies.contains(700000), is(false));
+        assertThat(agencies.contains(700001), is(true));
+        verify(dataSource, times(2)).getConnection();
+        verify(rawRepoDAO, never()).recordExists(anyString(), anyInt());
+    }
+
+    @Test
+    void test_recordsExist_Empty() throws Exception {
+        final RawRepo rawRepo = new MockRawRepo();
+
+        assertThat(rawRepo.recordsExist(new HashSet<>()).isEmpty(), is(true));
+        verify(dataSource, never()).getConnection();
+    }
+
+    @Test
+    void test_parents_Bulk() throws Exception {
+        final RecordId child1 = new RecordId("11111111", RawRepo.COMMON_AGENCY);
+        final RecordId child2 = new RecordId("22222222", RawRepo.COMMON_AGENCY);
+        final RecordId authority = new RecordId("68058309", RawRepo.AUTHORITY_AGENCY);
+        final RecordId head = new RecordId("33333333", RawRepo.COMMON_AGENCY);
+        final Iterator<Object[]> iterator = Arrays.asList(
+                new Object[]{"11111111", RawRepo.COMMON_AGENCY, "68058309", RawRepo.AUTHORITY_AGENCY},
+                new Object[]{"11111111", RawRepo.COMMON_AGENCY, "33333333", RawRepo.COMMON_AGENCY}).iterator();
+        final Object[][] current = new Object[1][];
+
+        final Connection connection = mock(Connection.class);
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        final ResultSet resultSet = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(RawRepo.SELECT_PARENTS)).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenAnswer(invocation -> {
+            if (iterator.hasNext()) {
+                current[0] = iterator.next();
+                return true;
+            }
+            return false;
+        });
+        when(resultSet.getString(1)).thenAnswer(invocation -> current[0][0]);
+        when(resultSet.getInt(2)).thenAnswer(invocation -> current[0][1]);
+        when(resultSet.getString(3)).thenAnswer(invocation -> current[0][2]);
+        when(resultSet.getInt(4)).thenAnswer(invocation -> current[0][3]);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        final Map<RecordId, Set<RecordId>> parents = rawRepo.parents(Arrays.asList(child1, child2));
+
+        assertThat(parents.get(child1), is(new HashSet<>(Arrays.asList(authority, head))));
+        assertThat(parents.get(child2).isEmpty(), is(true));
+        verify(dataSource, times(1)).getConnection();
+        verify(rawRepoDAO, never()).getRelationsParents(any(RecordId.class));
+    }
+
+    @Test
+    void test_unitOfWork_SharesConnectionAndCommitsOnce() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(rawRepoDAO.checkProvider(anyString())).thenReturn(true);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            assertThat(rawRepo.isUnitOfWorkActive(), is(true));
+            rawRepo.checkProvider("a");
+            rawRepo.checkProvider("b");
+            unitOfWork.commit();
+        }
+
+        assertThat(rawRepo.isUnitOfWorkActive(), is(false));
+        verify(dataSource, times(1)).getConnection();
+        verify(connection).setAutoCommit(false);
+        verify(connection, times(1)).commit();
+        verify(connection, never()).rollback();
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    void test_unitOfWork_RollbackWhenNotCommitted() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        try (RawRepoUnitOfWork ignored = rawRepo.beginUnitOfWork()) {
+            rawRepo.checkProvider("a");
+        }
+
+        verify(connection, never()).commit();
+        verify(connection, times(1)).rollback();
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    void test_unitOfWork_ContainerTransactionMarkedRollbackOnlyWhenNotCommitted() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(false);
+        final TransactionSynchronizationRegistry transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        rawRepo.transactionRegistry = transactionRegistry;
+        try (RawRepoUnitOfWork ignored = rawRepo.beginUnitOfWork()) {
+            rawRepo.changedRecord("provider", new RecordId("12345678", RawRepo.COMMON_AGENCY), RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+        }
+
+        verify(transactionRegistry, times(1)).setRollbackOnly();
+        verify(rawRepoDAO, never()).changedRecord(anyString(), any(RecordId.class), anyInt());
+        verify(connection, never()).setAutoCommit(Mockito.anyBoolean());
+        verify(connection, never()).commit();
+        verify(connection, never()).rollback();
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    void test_unitOfWork_ContainerTransactionLeftAloneWhenCommitted() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(false);
+        final TransactionSynchronizationRegistry transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        rawRepo.transactionRegistry = transactionRegistry;
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            rawRepo.checkProvider("a");
+            unitOfWork.commit();
+        }
+
+        verify(transactionRegistry, never()).setRollbackOnly();
+        verify(connection, never()).commit();
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    void test_unitOfWork_MergesQueueEntriesOnCommit() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+        final RecordId recordId = new RecordId("12345678", RawRepo.COMMON_AGENCY);
+        final RecordId enrichmentId = new RecordId("12345678", RawRepo.DBC_ENRICHMENT);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            rawRepo.changedRecord("provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_BATCH);
+            rawRepo.changedRecord("provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+            rawRepo.changedRecord("other-provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_BATCH);
+            rawRepo.enqueue(enrichmentId, "provider", true, true, RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+            rawRepo.enqueue(enrichmentId, "provider", true, true, RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+            verify(rawRepoDAO, never()).changedRecord(anyString(), any(RecordId.class), anyInt());
+            verify(rawRepoDAO, never()).enqueue(any(RecordId.class), anyString(), Mockito.anyBoolean(), Mockito.anyBoolean(), anyInt());
+            unitOfWork.commit();
+        }
+
+        verify(rawRepoDAO, times(1)).changedRecord("provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+        verify(rawRepoDAO, times(1)).changedRecord("other-provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_BATCH);
+        verify(rawRepoDAO, times(2)).changedRecord(anyString(), any(RecordId.class), anyInt());
+        verify(rawRepoDAO, times(1)).enqueue(enrichmentId, "provider", true, true, RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+        verify(connection, times(1)).commit();
+    }
+
+    @Test
+    void test_unitOfWork_QueueEntriesNotWrittenOnRollback() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        try (RawRepoUnitOfWork ignored = rawRepo.beginUnitOfWork()) {
+            rawRepo.changedRecord("provider", new RecordId("12345678", RawRepo.COMMON_AGENCY), RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+        }
+
+        verify(rawRepoDAO, never()).changedRecord(anyString(), any(RecordId.class), anyInt());
+        verify(connection, times(1)).rollback();
+    }
+
+    @Test
+    void test_unitOfWork_QueueEntriesAddedToOutbox() throws Exception {
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+        final RecordId recordId = new RecordId("12345678", RawRepo.COMMON_AGENCY);
+        final RawRepoOutbox outbox = mock(RawRepoOutbox.class);
+        when(outbox.isEnabled()).thenReturn(true);
+
+        final RawRepo rawRepo = new MockRawRepo();
+        rawRepo.outbox = outbox;
+        try (RawRepoUnitOfWork unitOfWork = rawRepo.beginUnitOfWork()) {
+            rawRepo.changedRecord("provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_BATCH);
+            rawRepo.changedRecord("provider", recordId, RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER);
+            unitOfWork.commit();
+        }
+
+        // The outbox is written on the connection of the unit of work, so it is committed with the records
+        final InOrder order = inOrder(connection, outbox);
+        order.verify(outbox, times(1)).add(connection, Collections.singletonMap(RawRepoQueueEntry.changedRecord("provider", recordId), RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER));
+        order.verify(connection, times(1)).commit();
+        verify(rawRepoDAO, never()).changedRecord(anyString(), any(RecordId.class), anyInt());
+    }
+
+    @Test
+    void test_readOnlyThreadCannotWrite() throws Exception {
+        final RawRepo rawRepo = new MockRawRepo();
+        RawRepo.setReadOnly(true);
+        try {
+            assertThrows(UpdateException.class, () -> rawRepo.changedRecord("provider", new RecordId("12345678", RawRepo.COMMON_AGENCY), RawRepo.ENQUEUE_PRIORITY_DEFAULT_USER));
+            assertThrows(UpdateException.class, () -> rawRepo.removeLinks(new RecordId("12345678", RawRepo.COMMON_AGENCY)));
+        } finally {
+            RawRepo.setReadOnly(false);
+        }
+        verify(dataSource, never()).getConnection();
+    }
+
     @Test
     void test_checkProvider() throws Exception {
         when(rawRepoDAO.checkProvider(anyString())).thenReturn(false);
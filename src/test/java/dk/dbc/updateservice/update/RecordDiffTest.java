@@ -0,0 +1,116 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.common.records.MarcRecordReader;
+import dk.dbc.common.records.MarcRecordWriter;
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class RecordDiffTest {
+
+    @Test
+    void testSameAsComparingFields() throws Exception {
+        final List<Consumer<MarcRecord>> changes = Arrays.asList(
+                marcRecord -> {
+                },
+                marcRecord -> new MarcRecordWriter(marcRecord).addOrReplaceSubField("245", 'a', "Ny titel"),
+                marcRecord -> new MarcRecordWriter(marcRecord).removeField("521"),
+                marcRecord -> new MarcRecordWriter(marcRecord).addFieldSubfield("666", 'f', "nyt emne"),
+                marcRecord -> new MarcRecordReader(marcRecord).getField("996").setInd1('1'),
+                marcRecord -> {
+                    final List<DataField> fields = new MarcRecordReader(marcRecord).getFieldAll("521");
+                    fields.get(0).getSubFields().add(new SubField('x', "ekstra"));
+                },
+                marcRecord -> {
+                    // Same subfield values in another order
+                    final DataField field = new MarcRecordReader(marcRecord).getField("245");
+                    field.getSubFields().add(field.getSubFields().remove(0));
+                });
+
+        for (Consumer<MarcRecord> change : changes) {
+            final MarcRecord oldRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+            final MarcRecord newRecord = new MarcRecord(oldRecord);
+            change.accept(newRecord);
+            final RecordDiff instance = RecordDiff.of(oldRecord, newRecord);
+
+            final MarcRecordReader oldReader = new MarcRecordReader(oldRecord);
+            final MarcRecordReader newReader = new MarcRecordReader(newRecord);
+            final Set<String> tags = new HashSet<>(instance.getChangedTags());
+            for (DataField field : oldRecord.getFields(DataField.class)) {
+                tags.add(field.getTag());
+            }
+            for (DataField field : newRecord.getFields(DataField.class)) {
+                tags.add(field.getTag());
+            }
+            for (String tag : tags) {
+                final List<DataField> oldFields = oldReader.getFieldAll(tag);
+                final List<DataField> newFields = newReader.getFieldAll(tag);
+                assertThat(tag, instance.isFieldChanged(tag), is(!oldFields.equals(newFields)));
+                for (char code : "abcdefghijklmnopqrstuvwxyz0123456789&".toCharArray()) {
+                    assertThat(tag + code, instance.isSubfieldChanged(tag, code),
+                            is(!getValues(oldFields, code).equals(getValues(newFields, code))));
+                }
+            }
+            assertThat(instance.hasChanges(), is(!oldRecord.equals(newRecord)));
+        }
+    }
+
+    @Test
+    void testIsFieldChanged() throws Exception {
+        final MarcRecord oldRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecord newRecord = new MarcRecord(oldRecord);
+        new MarcRecordWriter(newRecord).addOrReplaceSubField("245", 'a', "Ny titel");
+
+        final RecordDiff instance = RecordDiff.of(oldRecord, newRecord);
+        assertThat(instance.getChangedTags(), is(new HashSet<>(List.of("245"))));
+        assertThat(instance.isFieldChanged("100", "245"), is(true));
+        assertThat(instance.isFieldChanged("100", "110"), is(false));
+        assertThat(instance.isSubfieldChanged("245", 'a'), is(true));
+        assertThat(instance.isSubfieldChanged("245", 'c'), is(false));
+        assertThat(instance.getOldRecord(), sameInstance(oldRecord));
+        assertThat(instance.getNewRecord(), sameInstance(newRecord));
+    }
+
+    @Test
+    void testCacheReusesDiff() throws Exception {
+        final MarcRecord oldRecord = AssertActionsUtil.loadRecord(AssertActionsUtil.NATIONAL_COMMON_RECORD);
+        final MarcRecord newRecord = new MarcRecord(oldRecord);
+        final MarcRecordIndexCache cache = new MarcRecordIndexCache();
+
+        final RecordDiff diff = cache.diffOf(oldRecord, newRecord);
+        assertThat(diff.hasChanges(), is(false));
+        assertThat(cache.diffOf(oldRecord, newRecord), sameInstance(diff));
+        assertThat(cache.diffOf(newRecord, oldRecord), not(sameInstance(diff)));
+
+        new MarcRecordWriter(newRecord).removeField("521");
+        assertThat(cache.diffOf(oldRecord, newRecord), not(sameInstance(diff)));
+        assertThat(cache.diffOf(oldRecord, newRecord).isFieldChanged("521"), is(true));
+    }
+
+    private static List<String> getValues(List<DataField> fields, char code) {
+        final List<String> result = new ArrayList<>();
+        for (DataField field : fields) {
+            for (SubField subField : field.getSubFields()) {
+                if (subField.getCode() == code) {
+                    result.add(subField.getData());
+                }
+            }
+        }
+
+        return result;
+    }
+}
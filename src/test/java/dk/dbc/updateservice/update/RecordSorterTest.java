@@ -0,0 +1,142 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.DataField;
+import dk.dbc.marc.binding.Leader;
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.binding.SubField;
+import dk.dbc.opencat.connector.OpencatBusinessConnector;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Tag;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static dk.dbc.marc.reader.DanMarc2LineFormatReader.DEFAULT_LEADER;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecordSorterTest {
+    private static final String TEMPLATE = "dbcsingle";
+
+    private OpencatBusinessConnector opencatBusinessConnector;
+    private RecordSorterTemplates recordSorterTemplates;
+
+    @BeforeEach
+    void setUp() {
+        opencatBusinessConnector = mock(OpencatBusinessConnector.class);
+        final MetricRegistry metricRegistry = mock(MetricRegistry.class);
+        when(metricRegistry.counter(any(Metadata.class), any(Tag.class))).thenReturn(mock(Counter.class));
+        recordSorterTemplates = new RecordSorterTemplates();
+        recordSorterTemplates.metricRegistry = metricRegistry;
+    }
+
+    private static DataField field(String tag, String... codeAndValues) {
+        final DataField dataField = new DataField(tag, "00");
+        for (int i = 0; i < codeAndValues.length; i += 2) {
+            dataField.getSubFields().add(new SubField(codeAndValues[i].charAt(0), codeAndValues[i + 1]));
+        }
+        return dataField;
+    }
+
+    private static MarcRecord record(DataField... fields) {
+        final MarcRecord marcRecord = new MarcRecord().setLeader(new Leader().setData(DEFAULT_LEADER));
+        marcRecord.getFields().addAll(Arrays.asList(fields));
+        return marcRecord;
+    }
+
+    @Test
+    void testLocalSortAfterLearning() throws Exception {
+        recordSorterTemplates.mode = "LOCAL";
+        final MarcRecord unsorted = record(field("245", "a", "title"), field("001", "a", "1"), field("652", "m", "x"), field("245", "a", "other title"));
+        final MarcRecord sorted = record(field("001", "a", "1"), field("245", "a", "title"), field("245", "a", "other title"), field("652", "m", "x"));
+        when(opencatBusinessConnector.sortRecord(eq(TEMPLATE), any(MarcRecord.class), any())).thenReturn(sorted);
+
+        final RecordSorter instance = new RecordSorter(opencatBusinessConnector, TEMPLATE, recordSorterTemplates);
+        assertThat(instance.sortRecord(unsorted), is(sorted));
+        assertThat(instance.sortRecord(unsorted), is(sorted));
+
+        verify(opencatBusinessConnector, times(1)).sortRecord(eq(TEMPLATE), any(MarcRecord.class), any());
+    }
+
+    @Test
+    void testUnknownTagUsesRemote() throws Exception {
+        recordSorterTemplates.mode = "LOCAL";
+        final MarcRecord sorted = record(field("001", "a", "1"), field("245", "a", "title"));
+        final MarcRecord withNewTag = record(field("300", "a", "200 sider"), field("001", "a", "1"));
+        final MarcRecord withNewTagSorted = record(field("001", "a", "1"), field("300", "a", "200 sider"));
+        when(opencatBusinessConnector.sortRecord(eq(TEMPLATE), any(MarcRecord.class), any())).thenReturn(sorted, withNewTagSorted);
+
+        final RecordSorter instance = new RecordSorter(opencatBusinessConnector, TEMPLATE, recordSorterTemplates);
+        instance.sortRecord(record(field("245", "a", "title"), field("001", "a", "1")));
+        // 300 hasn't been seen together with 001 so the order is unknown
+        assertThat(instance.sortRecord(withNewTag), is(withNewTagSorted));
+
+        verify(opencatBusinessConnector, times(2)).sortRecord(eq(TEMPLATE), any(MarcRecord.class), any());
+    }
+
+    @Test
+    void testSubfieldSortingTagIsRemoteOnly() {
+        final TemplateFieldOrder fieldOrder = new TemplateFieldOrder(TEMPLATE);
+        fieldOrder.learn(record(field("100", "h", "Jens", "a", "Hansen"), field("001", "a", "1")),
+                record(field("001", "a", "1"), field("100", "a", "Hansen", "h", "Jens")));
+
+        assertThat(fieldOrder.sort(record(field("100", "a", "Hansen"), field("001", "a", "1"))), is(nullValue()));
+        assertThat(fieldOrder.sort(record(field("001", "a", "1"))), is(notNullValue()));
+    }
+
+    @Test
+    void testConflictingOrderDisablesLocalSorting() {
+        final TemplateFieldOrder fieldOrder = new TemplateFieldOrder(TEMPLATE);
+        fieldOrder.learn(record(field("245", "a", "x"), field("001", "a", "1")), record(field("001", "a", "1"), field("245", "a", "x")));
+        fieldOrder.learn(record(field("001", "a", "1"), field("245", "a", "x")), record(field("245", "a", "x"), field("001", "a", "1")));
+
+        assertThat(fieldOrder.isInconsistent(), is(true));
+        assertThat(fieldOrder.sort(record(field("001", "a", "1"))), is(nullValue()));
+    }
+
+    @Test
+    void testCompareModeAlwaysReturnsRemoteResult() throws Exception {
+        recordSorterTemplates.mode = "COMPARE";
+        final MarcRecord unsorted = record(field("245", "a", "title"), field("001", "a", "1"));
+        final MarcRecord sorted = record(field("001", "a", "1"), field("245", "a", "title"));
+        when(opencatBusinessConnector.sortRecord(eq(TEMPLATE), any(MarcRecord.class), any())).thenReturn(sorted);
+
+        final RecordSorter instance = new RecordSorter(opencatBusinessConnector, TEMPLATE, recordSorterTemplates);
+        assertThat(instance.sortRecord(unsorted), is(sorted));
+        assertThat(instance.sortRecord(unsorted), is(sorted));
+
+        verify(opencatBusinessConnector, times(2)).sortRecord(eq(TEMPLATE), any(MarcRecord.class), any());
+    }
+
+    @Test
+    void testSuperAllowAllIsNotSorted() throws Exception {
+        final MarcRecord unsorted = record(field("245", "a", "title"), field("001", "a", "1"));
+
+        final RecordSorter instance = new RecordSorter(opencatBusinessConnector, "superallowall", recordSorterTemplates);
+        assertThat(instance.sortRecord(unsorted), is(unsorted));
+
+        verify(opencatBusinessConnector, never()).sortRecord(any(), any(MarcRecord.class), any());
+    }
+
+    @Test
+    void testDescribeDifferenceDoesNotIncludeContent() {
+        final MarcRecord local = record(field("001", "a", "1"), field("652", "m", "x"), field("245", "a", "title"));
+        final MarcRecord remote = record(field("001", "a", "1"), field("245", "a", "title"), field("652", "m", "x"));
+
+        assertThat(RecordSorter.describeDifference(local, remote), is("First difference at field 2: local 652, remote 245"));
+        assertThat(RecordSorter.describeDifference(record(field("001", "a", "1"), field("245", "a", "other")), record(field("001", "a", "1"), field("245", "a", "title"))),
+                is("First difference at field 2: 245 fields differ in content"));
+    }
+}
@@ -7,6 +7,7 @@ package dk.dbc.updateservice.update;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import dk.dbc.updateservice.solr.SolrBase;
 import dk.dbc.updateservice.solr.SolrFBS;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -16,6 +17,8 @@ import org.junit.jupiter.params.provider.CsvSource;
 
 import java.util.Properties;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
@@ -85,4 +88,33 @@ class SolrFBSTest {
         SolrFBS instance = new SolrFBS(settings);
         assertThrows(SolrException.class, () -> instance.hits("marc.002a:06605141"));
     }
+
+    @Test
+    void testHits_Cached() throws Exception {
+        Properties settings = new Properties();
+        settings.put("SOLR_URL", solrUrl);
+        settings.put("SOLR_CACHE_TTL_SECONDS", "10");
+        SolrBase.clearCache();
+        solrServer.resetRequests();
+
+        SolrFBS instance = new SolrFBS(settings);
+        assertThat(instance.hits("marc.002a:06605141"), is(1L));
+        assertThat(instance.hasDocuments("marc.002a:06605141"), is(true));
+
+        solrServer.verify(1, getRequestedFor(urlEqualTo("/solr/raw-repo-index/select?q=marc.002a%3A06605141&wt=json&rows=0")));
+    }
+
+    @Test
+    void testHits_CacheDisabledByDefault() throws Exception {
+        Properties settings = new Properties();
+        settings.put("SOLR_URL", solrUrl);
+        SolrBase.clearCache();
+        solrServer.resetRequests();
+
+        SolrFBS instance = new SolrFBS(settings);
+        assertThat(instance.hits("marc.002a:06605141"), is(1L));
+        assertThat(instance.hits("marc.002a:06605141"), is(1L));
+
+        solrServer.verify(2, getRequestedFor(urlEqualTo("/solr/raw-repo-index/select?q=marc.002a%3A06605141&wt=json&rows=0")));
+    }
 }
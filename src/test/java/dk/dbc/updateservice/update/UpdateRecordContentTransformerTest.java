@@ -0,0 +1,37 @@
+package dk.dbc.updateservice.update;
+
+import dk.dbc.marc.binding.MarcRecord;
+import dk.dbc.marc.writer.JsonLineWriter;
+import dk.dbc.marc.writer.MarcXchangeV1Writer;
+import dk.dbc.updateservice.actions.AssertActionsUtil;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class UpdateRecordContentTransformerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            AssertActionsUtil.COMMON_SINGLE_RECORD_RESOURCE,
+            AssertActionsUtil.COMMON_MAIN_RECORD_RESOURCE,
+            AssertActionsUtil.COMMON_VOLUME_RECORD_RESOURCE,
+            AssertActionsUtil.ENRICHMENT_SINGLE_RECORD_RESOURCE,
+            AssertActionsUtil.LOCAL_SINGLE_RECORD_RESOURCE,
+            AssertActionsUtil.SCHOOL_RECORD_RESOURCE})
+    void testEncodeRecordForRawRepoIsSameAsWriters(String resource) throws Exception {
+        final MarcRecord marcRecord = AssertActionsUtil.loadRecord(resource);
+        final byte[] expectedContent = new MarcXchangeV1Writer().write(marcRecord, StandardCharsets.UTF_8);
+        final byte[] expectedContentJson = new JsonLineWriter().write(marcRecord, StandardCharsets.UTF_8);
+
+        // Encode twice to make sure nothing is left in the reused writers from the first record
+        UpdateRecordContentTransformer.encodeRecordForRawRepo(AssertActionsUtil.loadRecord(AssertActionsUtil.VOLUME_RECORD_RESOURCE));
+        final UpdateRecordContentTransformer.EncodedRecord actual = UpdateRecordContentTransformer.encodeRecordForRawRepo(marcRecord);
+
+        assertThat(actual.getContent(), is(expectedContent));
+        assertThat(actual.getContentJson(), is(expectedContentJson));
+    }
+}
@@ -20,6 +20,9 @@ import dk.dbc.updateservice.dto.UpdateServiceRequestDTO;
 import dk.dbc.updateservice.dto.UpdateStatusEnumDTO;
 import dk.dbc.updateservice.json.JsonMapper;
 import dk.dbc.vipcore.libraryrules.VipCoreLibraryRulesConnector;
+import jakarta.ejb.SessionContext;
+import jakarta.transaction.Status;
+import jakarta.transaction.TransactionSynchronizationRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
@@ -27,10 +30,12 @@ import org.mockito.Mockito;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
@@ -38,6 +43,8 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class UpdateServiceCoreTest {
@@ -525,6 +532,77 @@ class UpdateServiceCoreTest {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    void testPutRecordsFailedChunkIsSavedOneAtATime() throws Exception {
+        final RecordEntryDTO goodRecordDTO = jsonbContext.unmarshall(loadJson("135010529-763000.json"), RecordEntryDTO.class);
+        final RecordEntryDTO badRecordDTO = jsonbContext.unmarshall(loadJson("135010529-191919.json"), RecordEntryDTO.class);
+        final RecordId enrichmentRecordId = new RecordId("135010529", 763000);
+
+        final UpdateServiceCore updateServiceCore = new UpdateServiceCore();
+        updateServiceCore.settings.setProperty(JNDIResources.RAWREPO_PROVIDER_ID_FBS, "fbs-provider");
+        updateServiceCore.rawRepo = mock(RawRepo.class);
+        updateServiceCore.holdingsItems = mock(HoldingsItemsConnector.class);
+        updateServiceCore.libraryRecordsHandler = mock(LibraryRecordsHandler.class);
+        updateServiceCore.vipCoreService = mock(VipCoreService.class);
+        updateServiceCore.sessionContext = mock(SessionContext.class);
+        when(updateServiceCore.sessionContext.getBusinessObject(UpdateServiceCore.class)).thenReturn(updateServiceCore);
+        final RawRepoUnitOfWork unitOfWork = mock(RawRepoUnitOfWork.class);
+        when(updateServiceCore.rawRepo.beginUnitOfWork()).thenReturn(unitOfWork);
+        when(updateServiceCore.rawRepo.fetchRecord("135010529", 763000)).thenReturn(new RawRepoRecordMock("135010529", 763000));
+        when(updateServiceCore.rawRepo.fetchRecord("135010529", 870970)).thenReturn(new RawRepoRecordMock("135010529", 870970));
+        when(updateServiceCore.rawRepo.fetchRecord("135010529", 191919)).thenReturn(new RawRepoRecordMock("135010529", 191919));
+        when(updateServiceCore.rawRepo.agenciesForRecordAll("135010529")).thenReturn(new HashSet<>());
+        when(updateServiceCore.vipCoreService.hasFeature("763000", VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
+        when(updateServiceCore.vipCoreService.hasFeature("191919", VipCoreLibraryRulesConnector.Rule.USE_ENRICHMENTS)).thenReturn(true);
+        when(updateServiceCore.vipCoreService.getLibraryGroup("763000")).thenReturn(LibraryGroup.fromRule("fbs").get());
+
+        final List<String> actual = updateServiceCore.updateRecords(Arrays.asList(goodRecordDTO, badRecordDTO));
+        assertThat(actual, is(Arrays.asList(null, "Unable to determine parent agency id for enrichment record 135010529:191919")));
+
+        // One unit of work for the chunk and one for each record when the chunk failed
+        verify(updateServiceCore.rawRepo, times(3)).beginUnitOfWork();
+        verify(unitOfWork, times(1)).commit();
+        verify(updateServiceCore.rawRepo, times(2)).enqueue(enrichmentRecordId, "fbs-provider", true, false, 1000);
+    }
+
+    @Test
+    void testPutRecordsFailingRecordRollsBackItsChunk() throws Exception {
+        final RecordEntryDTO goodRecordDTO = jsonbContext.unmarshall(loadJson("135010529-763000.json"), RecordEntryDTO.class);
+        final RecordEntryDTO badRecordDTO = jsonbContext.unmarshall(loadJson("135010529-191919.json"), RecordEntryDTO.class);
+        final RecordId enrichmentRecordId = new RecordId("135010529", 763000);
+
+        final UpdateServiceCore updateServiceCore = new UpdateServiceCore();
+        updateServiceCore.settings.setProperty(JNDIResources.RAWREPO_PROVIDER_ID_FBS, "fbs-provider");
+        updateServiceCore.rawRepo = mock(RawRepo.class);
+        updateServiceCore.holdingsItems = mock(HoldingsItemsConnector.class);
+        updateServiceCore.libraryRecordsHandler = mock(LibraryRecordsHandler.class);
+        updateServiceCore.vipCoreService = mock(VipCoreService.class);
+        updateServiceCore.sessionContext = mock(SessionContext.class);
+        when(updateServiceCore.sessionContext.getBusinessObject(UpdateServiceCore.class)).thenReturn(updateServiceCore);
+
+        // The chunk and the records run in container transactions, so the connections aren't in auto commit mode
+        final Connection connection = mock(Connection.class);
+        final TransactionSynchronizationRegistry transactionRegistry = mock(TransactionSynchronizationRegistry.class);
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+        when(updateServiceCore.rawRepo.beginUnitOfWork()).thenAnswer(invocation ->
+                new RawRepoUnitOfWork(new ThreadLocal<>(), connection, null, false, transactionRegistry));
+        when(updateServiceCore.rawRepo.fetchRecord("135010529", 763000)).thenReturn(new RawRepoRecordMock("135010529", 763000));
+        when(updateServiceCore.rawRepo.fetchRecord("135010529", 870970)).thenReturn(new RawRepoRecordMock("135010529", 870970));
+        when(updateServiceCore.rawRepo.fetchRecord("135010529", 191919)).thenReturn(new RawRepoRecordMock("135010529", 191919));
+        when(updateServiceCore.rawRepo.agenciesForRecordAll("135010529")).thenReturn(new HashSet<>());
+        when(updateServiceCore.vipCoreService.getLibraryGroup("763000")).thenReturn(LibraryGroup.fromRule("fbs").get());
+
+        updateServiceCore.updateRecords(Arrays.asList(goodRecordDTO, badRecordDTO));
+
+        // The good record saved in the chunk is rolled back with the chunk, and then saved again on its own
+        final InOrder inOrder = Mockito.inOrder(updateServiceCore.rawRepo, transactionRegistry);
+        inOrder.verify(updateServiceCore.rawRepo).enqueue(enrichmentRecordId, "fbs-provider", true, false, 1000);
+        inOrder.verify(transactionRegistry).setRollbackOnly();
+        inOrder.verify(updateServiceCore.rawRepo).enqueue(enrichmentRecordId, "fbs-provider", true, false, 1000);
+        inOrder.verify(transactionRegistry).setRollbackOnly();
+        verify(transactionRegistry, times(2)).setRollbackOnly();
+    }
+
     private String loadJson(String filename) throws IOException {
         try (InputStream is = UpdateServiceCoreTest.class.getResourceAsStream("/dk/dbc/updateservice/update/" + filename)) {
             assert is != null;
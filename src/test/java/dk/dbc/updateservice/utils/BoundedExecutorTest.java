@@ -0,0 +1,86 @@
+package dk.dbc.updateservice.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BoundedExecutorTest {
+
+    @Test
+    void testTasksOverTheBoundRunOnCallingThread() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final BoundedExecutor instance = new BoundedExecutor(pool, 1);
+            final CountDownLatch running = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Future<Thread> first = instance.submit(() -> {
+                running.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return Thread.currentThread();
+            });
+            assertThat(running.await(10, TimeUnit.SECONDS), is(true));
+
+            final Future<Thread> second = instance.submit(Thread::currentThread);
+            assertThat(second.get(), is(Thread.currentThread()));
+
+            release.countDown();
+            assertThat(first.get(), is(not(Thread.currentThread())));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testRejectedTasksRunOnCallingThread() throws Exception {
+        final BoundedExecutor instance = new BoundedExecutor(command -> {
+            throw new RejectedExecutionException("busy");
+        }, 2);
+
+        assertThat(instance.submit(Thread::currentThread).get(), is(Thread.currentThread()));
+        assertThat(instance.submit(Thread::currentThread).get(), is(Thread.currentThread()));
+        assertThat(instance.submit(Thread::currentThread).get(), is(Thread.currentThread()));
+    }
+
+    @Test
+    void testShutdownWaitsForRunningTasks() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(1);
+        try {
+            final BoundedExecutor instance = new BoundedExecutor(pool, 1);
+            final CountDownLatch running = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            instance.execute(() -> {
+                running.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertThat(running.await(10, TimeUnit.SECONDS), is(true));
+
+            assertThat(instance.shutdownNow().isEmpty(), is(true));
+            assertThat(instance.isShutdown(), is(true));
+            assertThat(instance.isTerminated(), is(false));
+            assertThat(instance.awaitTermination(10, TimeUnit.MILLISECONDS), is(false));
+            assertThrows(RejectedExecutionException.class, () -> instance.execute(() -> {
+            }));
+
+            release.countDown();
+            assertThat(instance.awaitTermination(10, TimeUnit.SECONDS), is(true));
+            assertThat(instance.isTerminated(), is(true));
+            assertThat(pool.isShutdown(), is(false));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package dk.dbc.updateservice.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class CostLedgerTest {
+
+    @AfterEach
+    void stopLedger() {
+        CostLedger.stop();
+    }
+
+    @Test
+    void testReportsAreIgnoredWithoutLedger() {
+        CostLedger.call(CostLedger.Dependency.RAWREPO, 10);
+        final CostLedger ledger = CostLedger.start();
+        CostLedger.call(CostLedger.Dependency.RAWREPO, 5);
+        CostLedger.records(CostLedger.Dependency.RAWREPO, 2);
+        CostLedger.bytesDecoded(CostLedger.Dependency.RAWREPO, 100);
+        CostLedger.stop();
+        CostLedger.call(CostLedger.Dependency.RAWREPO, 20);
+
+        assertThat(CostLedger.current(), is(nullValue()));
+        assertThat(ledger.getCalls(CostLedger.Dependency.RAWREPO), is(1L));
+        assertThat(ledger.getTimeMs(CostLedger.Dependency.RAWREPO), is(5L));
+        assertThat(ledger.getRecords(CostLedger.Dependency.RAWREPO), is(2L));
+        assertThat(ledger.getBytesDecoded(CostLedger.Dependency.RAWREPO), is(100L));
+        assertThat(ledger.getCalls(CostLedger.Dependency.VIPCORE), is(0L));
+    }
+
+    @Test
+    void testAttachedThreadReportsToLedger() {
+        final CostLedger ledger = CostLedger.start();
+        CompletableFuture.runAsync(() -> {
+            CostLedger.attach(ledger);
+            try {
+                CostLedger.timed(CostLedger.Dependency.HOLDINGS_ITEMS, () -> {
+                });
+            } finally {
+                CostLedger.attach(null);
+            }
+        }).join();
+        final String result = CostLedger.timed(CostLedger.Dependency.UPDATE_STORE, () -> "number");
+
+        assertThat(result, is("number"));
+        assertThat(ledger.getCalls(CostLedger.Dependency.HOLDINGS_ITEMS), is(1L));
+        assertThat(ledger.getCalls(CostLedger.Dependency.UPDATE_STORE), is(1L));
+    }
+
+    @Test
+    void testToServerTiming() {
+        final CostLedger ledger = CostLedger.start();
+        assertThat(ledger.toServerTiming(), is(""));
+
+        CostLedger.call(CostLedger.Dependency.RAWREPO, 20);
+        CostLedger.call(CostLedger.Dependency.RAWREPO, 15);
+        CostLedger.records(CostLedger.Dependency.RAWREPO, 4);
+        CostLedger.call(CostLedger.Dependency.VIPCORE, 3);
+
+        assertThat(ledger.toServerTiming(), is("rawrepo;desc=\"2 calls, 4 records\";dur=35, vipcore;desc=\"1 calls\";dur=3"));
+    }
+}
@@ -10,12 +10,16 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 
 class DeferredLoggerTest {
     private static final DeferredLogger LOGGER = new DeferredLogger(DeferredLoggerTest.class);
+    private static final DeferredLogger SMALL_LOGGER = new DeferredLogger(DeferredLoggerTest.class, 3, Level.TRACE, Level.DEBUG, Level.INFO);
     private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
 
     @BeforeEach
@@ -84,4 +88,51 @@ class DeferredLoggerTest {
                         .map(StackTraceElement::getClassName)
                         .noneMatch(DeferredLogger.class.getName()::equals));
     }
+
+    @Test
+    void testOnlyNewestDeferredStatementsAreKept() {
+        SMALL_LOGGER.use(log -> {
+            for (int i = 1; i <= 5; i++) {
+                log.info("info {}", i);
+            }
+            log.warn("warn");
+        });
+        final List<String> messages = appender.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+        assertThat(messages, is(Arrays.asList("info 3", "info 4", "info 5", "warn")));
+    }
+
+    @Test
+    void testDeferredStatementsAreForgottenWhenContextEnds() {
+        SMALL_LOGGER.use(log -> {
+            log.info("info {}", "will not log");
+            log.info("info {}", "will not log either");
+        });
+        SMALL_LOGGER.use(log -> {
+            for (int i = 1; i <= 4; i++) {
+                log.info("info {}", i);
+            }
+            log.error("error", new RuntimeException("test"));
+        });
+        final List<String> messages = appender.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+        assertThat(messages, is(Arrays.asList("info 2", "info 3", "info 4", "error")));
+    }
+
+    @Test
+    void testDeferredStatementsHandedToAnotherThread() throws Exception {
+        final AtomicReference<DeferredLogger.Deferred> deferred = new AtomicReference<>();
+        final Thread worker = new Thread(() -> LOGGER.use(log -> {
+            log.info("info {}", "from worker");
+            deferred.set(DeferredLogger.takeDeferred());
+        }));
+        worker.start();
+        worker.join();
+
+        LOGGER.use(log -> {
+            log.info("info {}", "before");
+            DeferredLogger.addDeferred(deferred.get());
+            log.warn("warn");
+        });
+        final List<String> messages = appender.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+        assertThat(messages, is(Arrays.asList("info before", "info from worker", "warn")));
+    }
 }
@@ -0,0 +1,40 @@
+package dk.dbc.updateservice.utils;
+
+import dk.dbc.updateservice.update.SolrException;
+import dk.dbc.updateservice.update.UpdateException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class MetricTagsTest {
+
+    @Test
+    void testErrorTypeByExceptionType() {
+        assertThat(MetricTags.errorType(new IllegalArgumentException("recordId can not be null")), is("invalid_argument"));
+        assertThat(MetricTags.errorType(new IllegalStateException("Record 12345678:870970 is locked")), is("invalid_state"));
+        assertThat(MetricTags.errorType(new SolrException("Solr returned 503")), is("solr"));
+        assertThat(MetricTags.errorType(new RuntimeException("Something else")), is("other"));
+    }
+
+    @Test
+    void testErrorTypeByCause() {
+        assertThat(MetricTags.errorType(new UpdateException("Connection refused", new SQLException("Connection refused"))), is("database"));
+        assertThat(MetricTags.errorType(new UpdateException("Record 12345678:870970 not found")), is("update"));
+    }
+
+    @Test
+    void testBoundedValues() {
+        final MetricTags.Bounded instance = new MetricTags.Bounded("\\d{6}", 2);
+
+        assertThat(instance.of("710100"), is("710100"));
+        assertThat(instance.of("not a group id"), is(MetricTags.OTHER));
+        assertThat(instance.of("720100"), is("720100"));
+        assertThat(instance.of("730100"), is(MetricTags.OTHER));
+        assertThat(instance.of("710100"), is("710100"));
+        assertThat(instance.of(null), is(MetricTags.UNKNOWN));
+        assertThat(instance.size(), is(2));
+    }
+}